@@ -0,0 +1,198 @@
+import core.HttpRequest;
+import core.HttpRequestParser;
+import core.HttpServer;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Banc d'essai du découpage des requêtes HTTP :
+ * core.HttpRequestParser (octets d'un tampon
+ * réutilisé) comparé à l'ancien découpage
+ * (BufferedReader.readLine, puis String.split).
+ *
+ * Chaque mesure découpe un lot de requêtes reçues
+ * à la suite (comme sur une connexion gardée), et
+ * donne le temps et les octets alloués par requête.
+ * Les premières itérations (échauffement de la JVM)
+ * ne sont pas comptées.
+ *
+ * Voir : bench/README.md
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class HttpRequestParserBenchmark {
+    //Singleton serveur HTTP (configuration).
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Requête d'un navigateur.
+    private final static String REQUEST =
+            "GET /dopetrope/assets/css/main.css HTTP/1.1\r\n" +
+            "Host: www.dopetrope.com:8080\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/115.0\r\n" +
+            "Accept: text/css,*/*;q=0.1\r\n" +
+            "Accept-Language: fr,fr-FR;q=0.8,en-US;q=0.5,en;q=0.3\r\n" +
+            "Accept-Encoding: gzip, deflate, br\r\n" +
+            "Referer: http://www.dopetrope.com:8080/index.html\r\n" +
+            "Connection: keep-alive\r\n" +
+            "Cookie: session=4f8a1c2e9b7d6035; theme=dark\r\n" +
+            "If-Modified-Since: Tue, 10 Oct 2023 08:15:00 GMT\r\n" +
+            "If-None-Match: \"5f3a-62c4b1e0\"\r\n" +
+            "Sec-Fetch-Dest: style\r\n" +
+            "Sec-Fetch-Mode: no-cors\r\n" +
+            "Sec-Fetch-Site: same-origin\r\n" +
+            "\r\n";
+    //Nombre de requêtes d'un lot.
+    private final static int BATCH_SIZE = 1000;
+    //Nombre d'itérations d'échauffement et mesurées.
+    private final static int WARMUP_ITERATIONS = 5;
+    private final static int MEASURED_ITERATIONS = 10;
+    //Résultat accumulé des découpages, pour qu'ils
+    //ne soient pas supprimés par le compilateur.
+    private static volatile int sink;
+
+    public static void main(String[] args) throws IOException {
+        //Durée d'une itération, en millisecondes.
+        long iterationDuration = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+
+        //Lot de requêtes reçues à la suite.
+        byte[] request = REQUEST.getBytes(StandardCharsets.US_ASCII);
+        byte[] batch = new byte[request.length * BATCH_SIZE];
+        for(int i = 0; i < BATCH_SIZE; i++) {
+            System.arraycopy(request, 0, batch, i * request.length, request.length);
+        }
+
+        System.out.println("Requête de " + request.length + " octets, lots de " + BATCH_SIZE + " requêtes, " +
+                           MEASURED_ITERATIONS + " itérations de " + iterationDuration + " ms.");
+        run("HttpRequestParser", () -> parseBatch(batch), iterationDuration);
+        run("BufferedReader + split (ancien)", () -> decodeBatch(batch), iterationDuration);
+    }
+
+    /**
+     * Mesurer un découpage, et afficher son
+     * temps et ses octets alloués par requête.
+     *
+     * @param name
+     * @param batchTask
+     * @param iterationDuration
+     * @throws IOException
+     */
+    private static void run(String name, BatchTask batchTask, long iterationDuration) throws IOException {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        //Mesure des allocations, propre à HotSpot.
+        com.sun.management.ThreadMXBean allocationMXBean = threadMXBean instanceof com.sun.management.ThreadMXBean
+                                                           ? (com.sun.management.ThreadMXBean) threadMXBean : null;
+        long threadId = Thread.currentThread().getId();
+
+        double bestTime = Double.MAX_VALUE;
+        double totalTime = 0;
+        double totalAllocated = 0;
+        for(int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+            long countRequests = 0;
+            long allocatedBefore = allocationMXBean != null ? allocationMXBean.getThreadAllocatedBytes(threadId) : 0;
+            long start = System.nanoTime();
+            long end = start + iterationDuration * 1000000L;
+            long now;
+            do {
+                sink += batchTask.run();
+                countRequests += BATCH_SIZE;
+                now = System.nanoTime();
+            } while(now < end);
+            long allocatedAfter = allocationMXBean != null ? allocationMXBean.getThreadAllocatedBytes(threadId) : 0;
+
+            //Itération d'échauffement : non comptée.
+            if(iteration < WARMUP_ITERATIONS) {
+                continue;
+            }
+            double time = (double) (now - start) / countRequests;
+            bestTime = Math.min(bestTime, time);
+            totalTime += time;
+            totalAllocated += (double) (allocatedAfter - allocatedBefore) / countRequests;
+        }
+
+        System.out.println(String.format("%-32s %8.1f ns/requête (meilleure : %.1f), %8s octets alloués/requête",
+                                         name, totalTime / MEASURED_ITERATIONS, bestTime,
+                                         allocationMXBean != null ? String.format("%.0f", totalAllocated / MEASURED_ITERATIONS) : "?"));
+    }
+
+    /**
+     * Découper un lot de requêtes avec
+     * core.HttpRequestParser.
+     *
+     * @param batch
+     * @return
+     */
+    private static int parseBatch(byte[] batch) {
+        HttpRequestParser httpRequestParser = new HttpRequestParser();
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        int result = 0;
+        HttpRequest httpRequest;
+        while((httpRequest = httpRequestParser.parse(buffer)) != null) {
+            result += httpRequest.get("URI").length() + httpRequest.getHeaders().size();
+        }
+        return result;
+    }
+
+    /**
+     * Découper un lot de requêtes comme avant
+     * core.HttpRequestParser : lecture des lignes,
+     * puis découpage de la commande et des entêtes
+     * par String.split, dans une table.
+     *
+     * @param batch
+     * @return
+     * @throws IOException
+     */
+    private static int decodeBatch(byte[] batch) throws IOException {
+        BufferedReader inputStream = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(batch)));
+        int result = 0;
+        String header;
+        while((header = inputStream.readLine()) != null) {
+            //Lecture des lignes de la requête.
+            List<String> headers = new ArrayList<String>();
+            headers.add(header);
+            while((header = inputStream.readLine()) != null && !header.isEmpty()) {
+                headers.add(header);
+            }
+
+            //Découpage de la commande et des entêtes.
+            Map<String, String> datas = new HashMap<String, String>();
+            String[] commandSplit = headers.remove(0).split(" ");
+            datas.put("Method", commandSplit[0]);
+            datas.put("URI", commandSplit[1]);
+            datas.put("Version", commandSplit[2].replace("HTTP/", ""));
+            for(String line : headers) {
+                String[] headerSplit = line.split(":", 2);
+                datas.put(headerSplit[0], headerSplit[1].trim());
+            }
+
+            //Réécriture de l'URI si l'hôte est un alias,
+            //comme à la création d'un core.HttpRequest.
+            String host = datas.get("Host");
+            int indexPort = host.indexOf(':');
+            String rootURI = httpServer.getConfiguration().getURIForHost(indexPort >= 0 ? host.substring(0, indexPort) : host);
+            if(rootURI != null) {
+                datas.put("URI", "/" + rootURI + datas.get("URI"));
+            }
+
+            result += datas.get("URI").length() + datas.size();
+        }
+        return result;
+    }
+
+    /**
+     * Découpage d'un lot de requêtes.
+     */
+    private interface BatchTask {
+        int run() throws IOException;
+    }
+}
@@ -0,0 +1,554 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Classe pour le journal des accès : une ligne par
+ * réponse HTTP envoyée, avec sa durée (de la réception
+ * de la requête à la fin de l'envoi) et le nombre
+ * d'octets du corps envoyés.
+ *
+ * Les threads des connexions ne font que déposer leurs
+ * entrées dans un tampon circulaire sans verrou. Un
+ * thread dédié les formate, et les écrit par lots
+ * dans le fichier du journal, remplacé quand il
+ * dépasse sa taille maximale (access.log devient
+ * access.log.1, et ainsi de suite).
+ *
+ * Formats d'une ligne :
+ * - common : [client] - - [date] "[commande]" [statut] [octets] [durée en µs] ;
+ * - combined : common, avec "[Referer]" "[User-Agent]" avant la durée ;
+ * - json : un objet JSON par ligne.
+ *
+ * Les entrées servent aussi aux mesures du serveur
+ * (core.Metrics), enregistrées à la fin de l'envoi
+ * même si le journal n'est pas activé.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class AccessLog {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Journal des accès activé ou non.
+    private final static boolean ENABLE = httpServer.getConfigurationPropertyBoolean("accessLog");
+    //Format des lignes.
+    private final static String FORMAT = httpServer.getConfigurationProperty("accessLogFormat");
+    //Si une connexion attend qu'une place se libère
+    //quand le tampon est plein (sinon, l'entrée est
+    //perdue).
+    private final static boolean BLOCK_WHEN_FULL = httpServer.getConfigurationProperty("accessLogWhenFull").equals("block");
+    //Taille maximale d'un fichier du journal, et nombre
+    //d'anciens fichiers gardés (0 : pas de remplacement).
+    private final static long MAX_FILE_SIZE = httpServer.getConfigurationPropertyInteger("accessLogMaxFileSize");
+    private final static int MAX_FILES = httpServer.getConfigurationPropertyInteger("accessLogMaxFiles");
+    //Délai maximal, en millisecondes, avant
+    //l'écriture d'une entrée.
+    private final static long FLUSH_INTERVAL = 100;
+    //Taille d'un lot écrit en une fois.
+    private final static int MAX_BATCH_SIZE = 64 * 1024;
+    //Tampon des entrées à écrire.
+    private final static RingBuffer ringBuffer = new RingBuffer(httpServer.getConfigurationPropertyInteger("accessLogBufferSize"));
+    //Nombre d'entrées perdues, tampon plein.
+    private final static AtomicLong countDropped = new AtomicLong(0);
+    //Thread d'écriture.
+    private static Thread writerThread;
+    //Arrêt du serveur demandé.
+    private static volatile boolean closing = false;
+
+    static {
+        if(ENABLE) {
+            writerThread = new Thread(new LogWriter(httpServer.getConfigurationProperty("accessLogFile").trim()), "access-log-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+            //Les entrées en attente sont écrites
+            //à l'arrêt du serveur.
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                closing = true;
+                LockSupport.unpark(writerThread);
+                try {
+                    writerThread.join(1000);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+    }
+
+    /**
+     * Préparer l'entrée du journal d'une réponse
+     * HTTP construite, à écrire à la fin de son
+     * envoi.
+     *
+     * @param clientAddress
+     * @param httpRequest
+     * @param httpResponse
+     * @return l'entrée, ou null si ni le journal, ni les mesures ne sont activés.
+     */
+    public static Entry prepare(@NotNull String clientAddress, @NotNull HttpRequest httpRequest, @NotNull HttpResponse httpResponse) {
+        return ENABLE || Metrics.ENABLE ? new Entry(clientAddress, httpRequest, httpResponse) : null;
+    }
+
+    /**
+     * Ecrire l'entrée d'une réponse entièrement
+     * envoyée (ou abandonnée) dans le journal.
+     *
+     * @param entry entrée préparée, ou null.
+     */
+    public static void log(Entry entry) {
+        if(entry == null) {
+            return;
+        }
+        entry.complete();
+        Metrics.record(entry.virtualHost, entry.handler, entry.codeStatus, entry.countBytes, entry.duration);
+        if(!ENABLE) {
+            return;
+        }
+        if(ringBuffer.offer(entry)) {
+            return;
+        }
+        //Tampon plein : l'entrée est perdue,
+        //ou on attend que le thread d'écriture
+        //libère une place.
+        if(!BLOCK_WHEN_FULL) {
+            countDropped.incrementAndGet();
+            return;
+        }
+        do {
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        } while(!ringBuffer.offer(entry) && !closing);
+    }
+
+    /**
+     * Obtenir le nombre d'entrées perdues,
+     * tampon plein.
+     *
+     * @return
+     */
+    public static long getCountDropped() {
+        return countDropped.get();
+    }
+
+    /**
+     * Entrée du journal : une réponse HTTP.
+     */
+    public static class Entry {
+        //Adresse du client web.
+        private final String clientAddress;
+        //Commande de la requête.
+        private final String method;
+        private final String URI;
+        private final String version;
+        //Entêtes utiles de la requête, ou null.
+        private final String host;
+        private final String referer;
+        private final String userAgent;
+        //Alias des documents du serveur demandé, ou
+        //null, et traitement de la requête.
+        private final String virtualHost;
+        private final Metrics.Handler handler;
+        //Date de réception de la requête.
+        private final long receivedTime;
+        private final long receivedNanoTime;
+        //Statut de la réponse.
+        private final int codeStatus;
+        //Réponse, jusqu'à la fin de son envoi, ou
+        //null si son corps n'est pas envoyé.
+        private HttpResponse httpResponse;
+        //Octets du corps envoyés, et durée en
+        //microsecondes, connus à la fin de l'envoi.
+        private long countBytes;
+        private long duration;
+
+        private Entry(@NotNull String clientAddress, @NotNull HttpRequest httpRequest, @NotNull HttpResponse httpResponse) {
+            this.clientAddress = clientAddress;
+            this.method = httpRequest.get("Method");
+            this.URI = httpRequest.getRequestedURI();
+            this.version = httpRequest.get("Version");
+            this.host = httpRequest.contains("Host") ? httpRequest.get("Host") : null;
+            this.referer = httpRequest.contains("Referer") ? httpRequest.get("Referer") : null;
+            this.userAgent = httpRequest.contains("User-Agent") ? httpRequest.get("User-Agent") : null;
+            this.virtualHost = httpRequest.getVirtualHost();
+            this.handler = httpResponse.getHandler();
+            this.receivedTime = httpRequest.getReceivedTime();
+            this.receivedNanoTime = httpRequest.getReceivedNanoTime();
+            this.codeStatus = httpResponse.getCodeStatus();
+            this.httpResponse = httpResponse;
+        }
+
+        /**
+         * Indiquer que le corps de la réponse
+         * n'est pas envoyé (requête HEAD).
+         */
+        public void withoutContent() {
+            httpResponse = null;
+        }
+
+        /**
+         * Relever les octets envoyés et la
+         * durée, à la fin de l'envoi.
+         */
+        private void complete() {
+            countBytes = httpResponse != null ? httpResponse.getCountContentBytes() : 0;
+            duration = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - receivedNanoTime);
+            httpResponse = null;
+        }
+    }
+
+    /**
+     * Tampon circulaire borné, sans verrou : plusieurs
+     * threads y déposent, un seul thread en retire.
+     *
+     * Chaque case a un numéro de séquence : égal à la
+     * position d'écriture quand la case est libre, à la
+     * position + 1 quand elle est remplie.
+     */
+    private static class RingBuffer {
+        //Cases, et leurs numéros de séquence.
+        private final Entry[] entries;
+        private final AtomicLongArray sequences;
+        //Masque d'une position (capacité puissance de 2).
+        private final int mask;
+        //Prochaine position d'écriture.
+        private final AtomicLong tail;
+        //Prochaine position de lecture (thread
+        //d'écriture seulement).
+        private long head;
+
+        private RingBuffer(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            this.entries = new Entry[size];
+            this.sequences = new AtomicLongArray(size);
+            for(int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+            this.mask = size - 1;
+            this.tail = new AtomicLong(0);
+            this.head = 0;
+        }
+
+        /**
+         * Déposer une entrée.
+         *
+         * @param entry
+         * @return false si le tampon est plein.
+         */
+        private boolean offer(@NotNull Entry entry) {
+            while(true) {
+                long position = tail.get();
+                int index = (int) (position & mask);
+                long sequence = sequences.get(index);
+                if(sequence == position) {
+                    //Case libre : elle est réservée, puis
+                    //remplie et publiée.
+                    if(tail.compareAndSet(position, position + 1)) {
+                        entries[index] = entry;
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                } else if(sequence < position) {
+                    //Case pas encore lue : tampon plein.
+                    return false;
+                }
+                //Sinon, une autre connexion a réservé la
+                //case entre-temps : on réessaie.
+            }
+        }
+
+        /**
+         * Retirer la prochaine entrée.
+         *
+         * @return l'entrée, ou null si le tampon est vide.
+         */
+        private Entry poll() {
+            int index = (int) (head & mask);
+            if(sequences.get(index) != head + 1) {
+                return null;
+            }
+            Entry entry = entries[index];
+            entries[index] = null;
+            sequences.set(index, head + entries.length);
+            head++;
+            return entry;
+        }
+    }
+
+    /**
+     * Thread d'écriture du journal : formate
+     * les entrées, et les écrit par lots.
+     */
+    private static class LogWriter implements Runnable {
+        //Format des dates des lignes common et combined.
+        private final static DateTimeFormatter COMMON_DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
+        //Format des dates (à la seconde) des lignes JSON.
+        private final static DateTimeFormatter JSON_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+        //Format du décalage horaire des lignes JSON.
+        private final static DateTimeFormatter JSON_OFFSET_FORMAT = DateTimeFormatter.ofPattern("xxx");
+        //Fichier du journal, null pour la sortie standard.
+        private final File file;
+        //Flux du fichier, et sa taille.
+        private OutputStream outputStream;
+        private long fileSize;
+        //Lot en cours.
+        private final StringBuilder batch;
+        //Date formatée de la dernière seconde
+        //rencontrée : formatée une fois par seconde.
+        private long cachedSecond;
+        private String cachedDate;
+        private String cachedOffset;
+        //Entrées perdues déjà signalées.
+        private long countDroppedReported;
+
+        private LogWriter(@NotNull String filename) {
+            this.file = filename.isEmpty() ? null : new File(filename);
+            this.batch = new StringBuilder(MAX_BATCH_SIZE);
+            this.cachedSecond = Long.MIN_VALUE;
+            this.countDroppedReported = 0;
+        }
+
+        @Override
+        public void run() {
+            while(true) {
+                Entry entry = ringBuffer.poll();
+                if(entry != null) {
+                    format(entry);
+                    if(batch.length() >= MAX_BATCH_SIZE) {
+                        writeBatch();
+                    }
+                    continue;
+                }
+                //Tampon vide : le lot est écrit, puis on
+                //attend de nouvelles entrées.
+                writeBatch();
+                reportDropped();
+                if(closing) {
+                    closeFile();
+                    return;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL));
+            }
+        }
+
+        /**
+         * Ajouter la ligne d'une entrée au lot.
+         *
+         * @param entry
+         */
+        private void format(@NotNull Entry entry) {
+            updateCachedDate(entry.receivedTime);
+            if(FORMAT.equals("json")) {
+                batch.append("{\"time\":\"").append(cachedDate).append('.');
+                long millis = entry.receivedTime % 1000;
+                batch.append(millis < 100 ? (millis < 10 ? "00" : "0") : "").append(millis).append(cachedOffset).append('"');
+                appendJsonField("client", entry.clientAddress);
+                appendJsonField("host", entry.host);
+                appendJsonField("method", entry.method);
+                appendJsonField("uri", entry.URI);
+                appendJsonField("protocol", "HTTP/" + entry.version);
+                batch.append(",\"status\":").append(entry.codeStatus)
+                     .append(",\"bytes\":").append(entry.countBytes)
+                     .append(",\"duration\":").append(entry.duration);
+                appendJsonField("referer", entry.referer);
+                appendJsonField("userAgent", entry.userAgent);
+                batch.append("}\n");
+                return;
+            }
+            batch.append(entry.clientAddress).append(" - - [").append(cachedDate).append("] \"")
+                 .append(entry.method).append(' ');
+            appendQuoted(entry.URI);
+            batch.append(" HTTP/").append(entry.version).append("\" ")
+                 .append(entry.codeStatus).append(' ')
+                 .append(entry.countBytes > 0 ? String.valueOf(entry.countBytes) : "-");
+            if(FORMAT.equals("combined")) {
+                batch.append(" \"");
+                appendQuoted(entry.referer == null ? "-" : entry.referer);
+                batch.append("\" \"");
+                appendQuoted(entry.userAgent == null ? "-" : entry.userAgent);
+                batch.append('"');
+            }
+            batch.append(' ').append(entry.duration).append('\n');
+        }
+
+        /**
+         * Formater la date d'une entrée, si elle
+         * n'est pas dans la même seconde que la
+         * précédente.
+         *
+         * @param time
+         */
+        private void updateCachedDate(long time) {
+            long second = Math.floorDiv(time, 1000);
+            if(second == cachedSecond) {
+                return;
+            }
+            cachedSecond = second;
+            ZonedDateTime date = Instant.ofEpochSecond(second).atZone(ZoneId.systemDefault());
+            if(FORMAT.equals("json")) {
+                cachedDate = JSON_DATE_FORMAT.format(date);
+                cachedOffset = JSON_OFFSET_FORMAT.format(date);
+            } else {
+                cachedDate = COMMON_DATE_FORMAT.format(date);
+            }
+        }
+
+        /**
+         * Ajouter un champ texte à une ligne JSON,
+         * s'il a une valeur.
+         *
+         * @param name
+         * @param value
+         */
+        private void appendJsonField(@NotNull String name, String value) {
+            if(value == null) {
+                return;
+            }
+            batch.append(",\"").append(name).append("\":\"");
+            for(int i = 0; i < value.length(); i++) {
+                char character = value.charAt(i);
+                if(character == '"' || character == '\\') {
+                    batch.append('\\').append(character);
+                } else if(character < 0x20) {
+                    batch.append(String.format("\\u%04x", (int) character));
+                } else {
+                    batch.append(character);
+                }
+            }
+            batch.append('"');
+        }
+
+        /**
+         * Ajouter un texte entre guillemets d'une
+         * ligne common ou combined : les guillemets,
+         * barres obliques inverses et caractères de
+         * contrôle sont échappés.
+         *
+         * @param value
+         */
+        private void appendQuoted(@NotNull String value) {
+            for(int i = 0; i < value.length(); i++) {
+                char character = value.charAt(i);
+                if(character == '"' || character == '\\') {
+                    batch.append('\\').append(character);
+                } else if(character < 0x20) {
+                    batch.append(String.format("\\x%02x", (int) character));
+                } else {
+                    batch.append(character);
+                }
+            }
+        }
+
+        /**
+         * Ecrire le lot en cours.
+         */
+        private void writeBatch() {
+            if(batch.length() == 0) {
+                return;
+            }
+            byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+            batch.setLength(0);
+            //Sortie standard : un seul accès
+            //synchronisé par lot.
+            if(file == null) {
+                System.out.write(bytes, 0, bytes.length);
+                System.out.flush();
+                return;
+            }
+            try {
+                //Le fichier qui dépasserait sa taille
+                //maximale est remplacé.
+                if(outputStream != null && MAX_FILE_SIZE > 0 && fileSize > 0 && fileSize + bytes.length > MAX_FILE_SIZE) {
+                    closeFile();
+                    rotate();
+                }
+                if(outputStream == null) {
+                    openFile();
+                }
+                outputStream.write(bytes);
+                fileSize += bytes.length;
+            } catch (IOException exception) {
+                httpServer.logDatedMessage("Ecriture du journal des accès \"" + file + "\" impossible : " +
+                                           exception.getMessage() + ".");
+                closeFile();
+            }
+        }
+
+        /**
+         * Ouvrir le fichier du journal, en
+         * remplaçant l'existant s'il a déjà
+         * atteint sa taille maximale.
+         *
+         * @throws IOException
+         */
+        private void openFile() throws IOException {
+            if(MAX_FILE_SIZE > 0 && file.length() >= MAX_FILE_SIZE) {
+                rotate();
+            }
+            File directory = file.getAbsoluteFile().getParentFile();
+            if(directory != null) {
+                directory.mkdirs();
+            }
+            outputStream = new FileOutputStream(file, true);
+            fileSize = file.length();
+        }
+
+        /**
+         * Décaler les anciens fichiers du journal :
+         * access.log.1 devient access.log.2..., le
+         * plus ancien étant supprimé.
+         */
+        private void rotate() {
+            if(MAX_FILES <= 0) {
+                file.delete();
+                return;
+            }
+            new File(file.getPath() + "." + MAX_FILES).delete();
+            for(int i = MAX_FILES - 1; i >= 1; i--) {
+                new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+            }
+            file.renameTo(new File(file.getPath() + ".1"));
+        }
+
+        /**
+         * Fermer le fichier du journal.
+         */
+        private void closeFile() {
+            if(outputStream == null) {
+                return;
+            }
+            try {
+                outputStream.close();
+            } catch (IOException exception) {
+                //Fichier déjà inutilisable.
+            }
+            outputStream = null;
+        }
+
+        /**
+         * Signaler les entrées perdues
+         * depuis le dernier signalement.
+         */
+        private void reportDropped() {
+            long countDropped = AccessLog.countDropped.get();
+            if(countDropped != countDroppedReported) {
+                httpServer.logDatedMessage((countDropped - countDroppedReported) + " entrées du journal des accès " +
+                                           "perdues (tampon plein).");
+                countDroppedReported = countDropped;
+            }
+        }
+    }
+}
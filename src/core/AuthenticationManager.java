@@ -0,0 +1,299 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import tool.BcryptTool;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Classe pour la gestion des répertoires de
+ * documents protégés, et des authentifications
+ * des clients web.
+ *
+ * Le fichier d'authentifications (.htpasswd) qui
+ * protège chaque répertoire est cherché une seule
+ * fois, puis gardé jusqu'au prochain changement de
+ * fichier d'authentifications ou de répertoire signalé
+ * par le surveillant des documents. Chaque fichier
+ * d'authentifications est lu une seule fois, en une
+ * table des mots de passe par utilisateur, à laquelle
+ * sont associées les dernières authentifications
+ * (entête Authorization) vérifiées.
+ *
+ * Mots de passe acceptés dans un fichier d'authentifications
+ * (utilisateur:mot de passe) :
+ * - hachage bcrypt ($2a$, $2b$, $2y$, htpasswd -B) ;
+ * - hachage SHA-1 ({SHA}, htpasswd -s) ;
+ * - mot de passe en clair.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class AuthenticationManager {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Nom des fichiers d'authentifications.
+    public final static String AUTHENTICATION_FILENAME = ".htpasswd";
+    //Nombre maximal d'authentifications vérifiées
+    //gardées par fichier d'authentifications.
+    private final static int MAX_VERIFIED_AUTHORIZATIONS = 256;
+    //Surveillant des documents.
+    private final static DocumentWatcher documentWatcher = DocumentWatcher.getInstance();
+    //Chemin du répertoire des documents.
+    private final static String documentDirectoryPath = DocumentWatcher.getWatchedPath(FileManager.getDocumentDirectory());
+    //Protection d'un répertoire non protégé.
+    private final static File NOT_PROTECTED = new File("");
+    //Fichier d'authentifications protégeant chaque
+    //répertoire, par chemin surveillé.
+    private final static Map<String, File> protections = new ConcurrentHashMap<String, File>();
+    //Fichiers d'authentifications lus,
+    //par chemin surveillé.
+    private final static Map<String, Credentials> credentials = new ConcurrentHashMap<String, Credentials>();
+
+    static {
+        documentWatcher.addListener(AuthenticationManager::invalidate);
+    }
+
+    /**
+     * Obtenir le fichier d'authentifications
+     * protégeant un document du serveur : celui
+     * de son répertoire, ou du plus proche de ses
+     * répertoires parents.
+     *
+     * @param documentFilename
+     * @return le fichier, ou null si le document n'est pas protégé.
+     */
+    public static File getAuthenticationFileFor(@NotNull String documentFilename) {
+        File documentParentDirectory = FileManager.getDocumentFile(documentFilename).getAbsoluteFile().getParentFile();
+        return documentParentDirectory == null ? null : getAuthenticationFile(documentParentDirectory);
+    }
+
+    /**
+     * Obtenir le fichier d'authentifications
+     * protégeant un répertoire de documents.
+     *
+     * @param directory
+     * @return le fichier, ou null si le répertoire n'est pas protégé.
+     */
+    private static File getAuthenticationFile(@NotNull File directory) {
+        String path = DocumentWatcher.getWatchedPath(directory);
+        //La racine des documents n'est pas protégée,
+        //ni ce qui est en dehors.
+        if(path.equals(documentDirectoryPath) || !path.startsWith(documentDirectoryPath)) {
+            return null;
+        }
+        //Sans surveillance, les changements ne sont pas
+        //signalés : la protection est cherchée à chaque
+        //fois, dans l'index des documents.
+        boolean watching = documentWatcher.isWatching();
+        File protection = watching ? protections.get(path) : null;
+        if(protection != null) {
+            return protection == NOT_PROTECTED ? null : protection;
+        }
+
+        long countChangesBefore = documentWatcher.getCountChanges();
+        File authenticationFile;
+        if(DocumentIndex.getInstance().containsFile(directory, AUTHENTICATION_FILENAME)) {
+            authenticationFile = new File(directory, AUTHENTICATION_FILENAME);
+        } else {
+            File parentDirectory = directory.getParentFile();
+            authenticationFile = parentDirectory == null ? null : getAuthenticationFile(parentDirectory);
+        }
+        if(watching) {
+            protections.put(path, authenticationFile == null ? NOT_PROTECTED : authenticationFile);
+            //Un changement signalé pendant la recherche
+            //a pu être manqué : elle n'est pas gardée.
+            if(documentWatcher.changedSince(countChangesBefore)) {
+                protections.remove(path);
+            }
+        }
+        return authenticationFile;
+    }
+
+    /**
+     * Vérifier l'authentification faite par un client
+     * web (entête Authorization, schéma Basic) avec un
+     * fichier d'authentifications.
+     *
+     * @param authenticationFile
+     * @param authorization
+     * @return
+     */
+    public static boolean authorizationIsCorrect(@NotNull File authenticationFile, @NotNull String authorization) {
+        Credentials fileCredentials = getCredentials(authenticationFile);
+        //Authentification déjà vérifiée.
+        if(fileCredentials.verifiedAuthorizations.contains(authorization)) {
+            return true;
+        }
+
+        //Utilisateur et mot de passe.
+        String[] authorizationSplit = authorization.trim().split(" +", 2);
+        if(authorizationSplit.length != 2 || !authorizationSplit[0].equalsIgnoreCase("Basic")) {
+            return false;
+        }
+        String userAndPassword;
+        try {
+            userAndPassword = new String(Base64.getDecoder().decode(authorizationSplit[1].trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException exception) {
+            return false;
+        }
+        int indexColon = userAndPassword.indexOf(':');
+        if(indexColon < 0) {
+            return false;
+        }
+
+        if(!fileCredentials.verify(userAndPassword.substring(0, indexColon), userAndPassword.substring(indexColon + 1))) {
+            return false;
+        }
+        //L'authentification vérifiée est gardée, dans
+        //la limite du nombre maximal.
+        if(fileCredentials.verifiedAuthorizations.size() >= MAX_VERIFIED_AUTHORIZATIONS) {
+            fileCredentials.verifiedAuthorizations.clear();
+        }
+        fileCredentials.verifiedAuthorizations.add(authorization);
+        return true;
+    }
+
+    /**
+     * Obtenir les mots de passe d'un fichier
+     * d'authentifications, lu à nouveau s'il a
+     * été retiré, ou, sans surveillance, s'il
+     * a changé.
+     *
+     * @param authenticationFile
+     * @return
+     */
+    private static Credentials getCredentials(@NotNull File authenticationFile) {
+        String path = DocumentWatcher.getWatchedPath(authenticationFile);
+        Credentials fileCredentials = credentials.get(path);
+        if(fileCredentials == null || (!documentWatcher.isWatching() && !fileCredentials.isUpToDate(authenticationFile))) {
+            long countChangesBefore = documentWatcher.getCountChanges();
+            fileCredentials = Credentials.read(authenticationFile);
+            credentials.put(path, fileCredentials);
+            if(documentWatcher.changedSince(countChangesBefore)) {
+                credentials.remove(path, fileCredentials);
+            }
+        }
+        return fileCredentials;
+    }
+
+    /**
+     * Retirer ce qui dépend d'un fichier ou
+     * d'un répertoire signalé comme changé.
+     *
+     * Un fichier d'authentifications ou un
+     * répertoire changé peut changer la
+     * protection de toute une arborescence :
+     * toutes les protections sont cherchées
+     * à nouveau.
+     *
+     * @param file
+     */
+    private static void invalidate(@NotNull File file) {
+        if(file.getName().equals(AUTHENTICATION_FILENAME)) {
+            credentials.remove(DocumentWatcher.getWatchedPath(file));
+            protections.clear();
+        } else if(!file.isFile()) {
+            protections.clear();
+        }
+    }
+
+    /**
+     * Mots de passe d'un fichier d'authentifications,
+     * par utilisateur, et authentifications déjà
+     * vérifiées.
+     */
+    private static class Credentials {
+        //Mots de passe (ou hachages), par utilisateur.
+        private final Map<String, String> secrets;
+        //Taille et date de modification du fichier lu.
+        private final long length;
+        private final long lastModified;
+        //Entêtes Authorization vérifiés.
+        private final Set<String> verifiedAuthorizations;
+
+        private Credentials(@NotNull Map<String, String> secrets, long length, long lastModified) {
+            this.secrets = secrets;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.verifiedAuthorizations = ConcurrentHashMap.newKeySet();
+        }
+
+        /**
+         * Lire un fichier d'authentifications :
+         * une ligne utilisateur:mot de passe
+         * par utilisateur.
+         *
+         * @param authenticationFile
+         * @return
+         */
+        private static Credentials read(@NotNull File authenticationFile) {
+            long length = authenticationFile.length();
+            long lastModified = authenticationFile.lastModified();
+            Map<String, String> secrets = new HashMap<String, String>();
+            String content = new String(FileManager.getContentFileAsBytes(authenticationFile), StandardCharsets.UTF_8);
+            for(String line : content.split("\r?\n")) {
+                int indexColon = line.indexOf(':');
+                //Ligne vide, commentaire, ou mal formée.
+                if(indexColon <= 0 || line.startsWith("#")) {
+                    continue;
+                }
+                secrets.put(line.substring(0, indexColon), line.substring(indexColon + 1));
+            }
+            return new Credentials(secrets, length, lastModified);
+        }
+
+        /**
+         * Savoir si le fichier lu n'a pas changé.
+         *
+         * @param authenticationFile
+         * @return
+         */
+        private boolean isUpToDate(@NotNull File authenticationFile) {
+            return authenticationFile.length() == length && authenticationFile.lastModified() == lastModified;
+        }
+
+        /**
+         * Vérifier le mot de passe d'un utilisateur.
+         *
+         * @param user
+         * @param password
+         * @return
+         */
+        private boolean verify(@NotNull String user, @NotNull String password) {
+            String secret = secrets.get(user);
+            if(secret == null) {
+                return false;
+            }
+            //Hachage bcrypt.
+            if(BcryptTool.isHash(secret)) {
+                return BcryptTool.verify(password, secret);
+            }
+            //Hachage SHA-1, en base 64.
+            if(secret.startsWith("{SHA}")) {
+                try {
+                    byte[] digest = MessageDigest.getInstance("SHA-1").digest(password.getBytes(StandardCharsets.UTF_8));
+                    return MessageDigest.isEqual(Base64.getEncoder().encodeToString(digest).getBytes(StandardCharsets.US_ASCII),
+                                                 secret.substring(5).getBytes(StandardCharsets.US_ASCII));
+                } catch (NoSuchAlgorithmException exception) {
+                    return false;
+                }
+            }
+            //Autre hachage (MD5 $apr1$, crypt) : non géré.
+            if(secret.startsWith("$")) {
+                httpServer.logDatedMessage("Hachage non géré pour l'utilisateur \"" + user + "\" : seuls bcrypt, {SHA} " +
+                                           "et les mots de passe en clair sont acceptés.");
+                return false;
+            }
+            //Mot de passe en clair.
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Classe pour la réserve de tampons d'octets
+ * hors du tas, réutilisés pour écrire les entêtes
+ * des réponses HTTP.
+ *
+ * Un tampon hors du tas est écrit sur une connexion
+ * sans copie intermédiaire, et sa réutilisation
+ * évite une allocation par réponse.
+ *
+ * Seuls les tampons de la réserve y sont rendus :
+ * tampons hors du tas, modifiables, et de la taille
+ * de la réserve.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class ByteBufferPool {
+    //Taille des tampons de la réserve, en octets.
+    public final static int BUFFER_SIZE = 4096;
+    //Nombre maximal de tampons gardés en réserve.
+    private final static int MAX_POOLED_BUFFERS = 1024;
+    //Tampons disponibles.
+    private final static ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    //Nombre de tampons disponibles.
+    private final static AtomicInteger countBuffers = new AtomicInteger();
+
+    /**
+     * Obtenir un tampon vide de la réserve,
+     * ou un nouveau tampon si elle est vide.
+     *
+     * @return
+     */
+    public static ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if(buffer == null) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        countBuffers.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Rendre un tampon à la réserve, s'il en
+     * vient et si elle n'est pas pleine.
+     *
+     * @param buffer
+     */
+    public static void release(@NotNull ByteBuffer buffer) {
+        if(!buffer.isDirect() || buffer.isReadOnly() || buffer.capacity() != BUFFER_SIZE) {
+            return;
+        }
+        if(countBuffers.incrementAndGet() > MAX_POOLED_BUFFERS) {
+            countBuffers.decrementAndGet();
+            return;
+        }
+        buffers.offer(buffer);
+    }
+}
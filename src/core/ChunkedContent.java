@@ -0,0 +1,323 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import tool.CompressionTool;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Classe pour un contenu / corps de réponse HTTP
+ * produit au fur et à mesure de son envoi, en
+ * morceaux (Transfer-Encoding: chunked), sans que
+ * sa taille soit connue à l'avance.
+ *
+ * Le producteur du contenu écrit dans un flux ; ce
+ * qu'il écrit part en morceaux de CHUNK_SIZE octets
+ * au plus, ou dès qu'il vide le flux (flush).
+ *
+ * Deux façons d'envoyer le contenu :
+ * - sur un canal bloquant, le producteur écrivant
+ *   directement dans la connexion ;
+ * - par une boucle d'évènements : le producteur
+ *   s'exécute dans un autre thread, et confie ses
+ *   morceaux à une file bornée que la boucle vide.
+ *
+ * Format d'un morceau :
+ * [taille en hexadécimal]\r\n[octets]\r\n
+ * Le dernier morceau est vide : 0\r\n\r\n
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class ChunkedContent {
+    //Taille maximale des octets d'un morceau.
+    public final static int CHUNK_SIZE = 8192;
+    //Nombre maximal de morceaux produits
+    //en avance sur leur envoi.
+    private final static int MAX_QUEUED_CHUNKS = 4;
+    //Délai entre deux vérifications de l'abandon
+    //de l'envoi, quand la file est pleine.
+    private final static long QUEUE_POLL_TIMEOUT = 100;
+    //Dernier morceau.
+    private final static byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    //Producteur du contenu.
+    private final Producer producer;
+    //Encodage du contenu (gzip ou deflate),
+    //null s'il n'est pas compressé.
+    private String encoding;
+    //Morceaux produits en attente d'envoi.
+    private final ArrayBlockingQueue<ByteBuffer> chunks;
+    //Si tout le contenu a été produit (dernier
+    //morceau compris), ou si sa production a échoué.
+    private volatile boolean ended;
+    private volatile boolean failed;
+    //Si l'envoi a été abandonné.
+    private volatile boolean closed;
+    //Octets du contenu produits (hors
+    //découpage en morceaux).
+    private volatile long countBytes;
+
+    /**
+     * Créer un objet core.ChunkedContent.
+     *
+     * @param producer
+     */
+    public ChunkedContent(@NotNull Producer producer) {
+        this.producer = producer;
+        this.encoding = null;
+        this.chunks = new ArrayBlockingQueue<ByteBuffer>(MAX_QUEUED_CHUNKS);
+        this.ended = false;
+        this.failed = false;
+        this.closed = false;
+        this.countBytes = 0;
+    }
+
+    /**
+     * Compresser le contenu au fur et
+     * à mesure de sa production.
+     *
+     * @param encoding
+     */
+    public void setEncoding(@NotNull String encoding) {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Produire tout le contenu, et l'envoyer
+     * sur un canal bloquant.
+     *
+     * @param channel
+     * @throws IOException si l'envoi ou la production échoue.
+     */
+    public void writeTo(@NotNull WritableByteChannel channel) throws IOException {
+        produce(chunk -> {
+            while(chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+        });
+    }
+
+    /**
+     * Produire tout le contenu dans la file des
+     * morceaux, en attendant qu'elle se vide quand
+     * elle est pleine. Chaque morceau ajouté est
+     * signalé.
+     *
+     * La production s'arrête si l'envoi est
+     * abandonné.
+     *
+     * @param onChunk
+     */
+    public void produce(@NotNull Runnable onChunk) {
+        try {
+            produce(chunk -> {
+                try {
+                    while(!chunks.offer(chunk, QUEUE_POLL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                        if(closed) {
+                            throw new IOException("Envoi du contenu abandonné !");
+                        }
+                    }
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Production du contenu interrompue !");
+                }
+                onChunk.run();
+            });
+            ended = true;
+        } catch (IOException | RuntimeException exception) {
+            failed = true;
+        }
+        onChunk.run();
+    }
+
+    /**
+     * Produire tout le contenu en morceaux,
+     * dernier morceau compris.
+     *
+     * @param sink
+     * @throws IOException
+     */
+    private void produce(@NotNull ChunkSink sink) throws IOException {
+        ChunkOutputStream chunkOutputStream = new ChunkOutputStream(sink);
+        OutputStream outputStream = chunkOutputStream;
+        if(encoding != null) {
+            //La compression est vidée à chaque vidage du
+            //flux, pour ne pas retarder l'envoi.
+            outputStream = encoding.equals(CompressionTool.ENCODING_GZIP)
+                           ? new GZIPOutputStream(chunkOutputStream, CHUNK_SIZE, true)
+                           : new DeflaterOutputStream(chunkOutputStream, true);
+        }
+        try {
+            producer.writeTo(outputStream);
+            outputStream.close();
+        } finally {
+            countBytes = chunkOutputStream.countBytes;
+        }
+    }
+
+    /**
+     * Obtenir le prochain morceau produit,
+     * ou null s'il n'y en a pas encore.
+     *
+     * @return
+     */
+    public ByteBuffer pollChunk() {
+        return chunks.poll();
+    }
+
+    /**
+     * Savoir si un morceau produit
+     * attend son envoi.
+     *
+     * @return
+     */
+    public boolean hasChunk() {
+        return !chunks.isEmpty();
+    }
+
+    /**
+     * Savoir si tout le contenu a été
+     * produit, dernier morceau compris.
+     *
+     * @return
+     */
+    public boolean isEnded() {
+        return ended;
+    }
+
+    /**
+     * Savoir si la production du
+     * contenu a échoué.
+     *
+     * @return
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Obtenir le nombre d'octets du contenu
+     * produits (compressés s'il l'est), une
+     * fois sa production terminée.
+     *
+     * @return
+     */
+    public long getCountBytes() {
+        return countBytes;
+    }
+
+    /**
+     * Abandonner l'envoi : la production
+     * en cours s'arrête.
+     */
+    public void close() {
+        closed = true;
+        chunks.clear();
+    }
+
+    /**
+     * Producteur d'un contenu, qui
+     * l'écrit dans un flux.
+     */
+    public interface Producer {
+        /**
+         * Ecrire le contenu dans un flux, sans
+         * le fermer. Vider le flux (flush) envoie
+         * ce qui a déjà été écrit.
+         *
+         * @param outputStream
+         * @throws IOException
+         */
+        void writeTo(@NotNull OutputStream outputStream) throws IOException;
+    }
+
+    /**
+     * Destination des morceaux produits.
+     */
+    private interface ChunkSink {
+        void accept(@NotNull ByteBuffer chunk) throws IOException;
+    }
+
+    /**
+     * Flux découpant ce qui y est écrit
+     * en morceaux.
+     */
+    private static class ChunkOutputStream extends OutputStream {
+        //Destination des morceaux.
+        private final ChunkSink sink;
+        //Octets du morceau en cours.
+        private final byte[] buffer;
+        private int count;
+        //Octets produits dans les morceaux.
+        private long countBytes;
+
+        private ChunkOutputStream(@NotNull ChunkSink sink) {
+            this.sink = sink;
+            this.buffer = new byte[CHUNK_SIZE];
+            this.count = 0;
+            this.countBytes = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if(count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) throws IOException {
+            while(len > 0) {
+                if(count == buffer.length) {
+                    flushChunk();
+                }
+                int length = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, length);
+                count += length;
+                off += length;
+                len -= length;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushChunk();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+            sink.accept(ByteBuffer.wrap(LAST_CHUNK));
+        }
+
+        /**
+         * Produire un morceau avec les octets en
+         * cours, s'il y en a (un morceau vide
+         * marquerait la fin du contenu).
+         *
+         * @throws IOException
+         */
+        private void flushChunk() throws IOException {
+            if(count == 0) {
+                return;
+            }
+            byte[] size = Integer.toHexString(count).getBytes(StandardCharsets.US_ASCII);
+            ByteBuffer chunk = ByteBuffer.allocate(size.length + count + 4);
+            chunk.put(size).put((byte) '\r').put((byte) '\n');
+            chunk.put(buffer, 0, count);
+            chunk.put((byte) '\r').put((byte) '\n');
+            chunk.flip();
+            countBytes += count;
+            count = 0;
+            sink.accept(chunk);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Classe pour une configuration du serveur chargée :
+ * paramètres, types de contenu, alias des documents
+ * du serveur / hôtes, et règles de mise en cache.
+ *
+ * Une configuration n'est jamais modifiée : un
+ * rechargement en crée une nouvelle, qui remplace
+ * l'ancienne d'un coup (core.HttpServer). Une requête
+ * lit ainsi une configuration cohérente, sans verrou,
+ * et les paramètres lus à chaque requête sont déjà
+ * convertis dans des champs.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class Configuration {
+    //Nom du fichier de configuration du serveur.
+    public final static String CONFIGURATION_FILENAME = "configuration.properties";
+    //Nom du fichier des types de contenu.
+    public final static String CONTENT_TYPES_FILENAME = "content_types.properties";
+    //Nom du fichier des alias des documents du serveur / hôtes.
+    public final static String HOSTS_FILENAME = "hosts.properties";
+    //Nom du fichier des règles de mise en cache
+    //des documents par les clients web.
+    public final static String CACHE_CONTROLS_FILENAME = "cache_controls.properties";
+    //Paramètres de configuration du serveur.
+    private final Map<String, String> properties;
+    //Types de contenu, par extension.
+    private final Map<String, String> contentTypes;
+    //URI racine, par alias des documents du serveur / hôte.
+    private final Map<String, String> hosts;
+    //Règles de mise en cache (entête Cache-Control).
+    private final Map<String, String> cacheControls;
+    //Paramètres du système d'arborescence,
+    //lus à chaque requête.
+    private final String treeDocumentsURI;
+    private final boolean treeDocumentsEnable;
+    //Paramètres de la page des mesures,
+    //lus à chaque requête.
+    private final String metricsURI;
+    private final boolean metricsEnable;
+
+    /**
+     * Créer un objet core.Configuration.
+     *
+     * @param properties
+     * @param contentTypes
+     * @param hosts
+     * @param cacheControls
+     */
+    private Configuration(@NotNull Map<String, String> properties, @NotNull Map<String, String> contentTypes,
+                          @NotNull Map<String, String> hosts, @NotNull Map<String, String> cacheControls) {
+        this.properties = Collections.unmodifiableMap(properties);
+        this.contentTypes = Collections.unmodifiableMap(contentTypes);
+        this.hosts = Collections.unmodifiableMap(hosts);
+        this.cacheControls = Collections.unmodifiableMap(cacheControls);
+        this.treeDocumentsURI = getProperty("treeDocumentsURI");
+        this.treeDocumentsEnable = getPropertyBoolean("treeDocumentsEnable");
+        this.metricsURI = getProperty("metricsURI");
+        this.metricsEnable = getPropertyBoolean("metricsEnable");
+    }
+
+    /**
+     * Charger la configuration depuis les fichiers
+     * du répertoire de configuration.
+     *
+     * @return
+     * @throws IOException si un fichier n'a pas pu être lu.
+     * @throws IllegalArgumentException si un paramètre lu à chaque requête est absent.
+     */
+    public static Configuration load() throws IOException {
+        return new Configuration(loadProperties(CONFIGURATION_FILENAME),
+                                 loadProperties(CONTENT_TYPES_FILENAME),
+                                 loadProperties(HOSTS_FILENAME),
+                                 loadProperties(CACHE_CONTROLS_FILENAME));
+    }
+
+    /**
+     * Charger un fichier de configuration.
+     *
+     * Le répertoire de configuration est désigné par
+     * sa constante, sans passer par core.FileManager,
+     * dont le chargement demande la configuration.
+     *
+     * @param configurationFilename
+     * @return
+     * @throws IOException
+     */
+    private static Map<String, String> loadProperties(@NotNull String configurationFilename) throws IOException {
+        File configurationFile = new File(FileManager.CONFIGURATION_DIRECTORY, configurationFilename);
+        Properties properties = new Properties();
+        try(Reader reader = new FileReader(configurationFile)) {
+            properties.load(reader);
+        } catch (IOException exception) {
+            throw new IOException("Le fichier '" + configurationFilename + "' n'a pas pu être lu !", exception);
+        }
+        Map<String, String> map = new HashMap<String, String>();
+        for(String name : properties.stringPropertyNames()) {
+            map.put(name, properties.getProperty(name));
+        }
+        return map;
+    }
+
+    /**
+     * Obtenir une propriété de configuration
+     * du serveur.
+     *
+     * @param propertyName
+     * @return
+     */
+    public String getProperty(@NotNull String propertyName) {
+        String property = properties.get(propertyName);
+        if(property == null) {
+            throw new IllegalArgumentException("Propriété de configuration du serveur introuvable : " + propertyName + " !");
+        }
+        return property;
+    }
+
+    /**
+     * Obtenir une propriété de configuration
+     * du serveur de type entier.
+     *
+     * @param propertyName
+     * @return
+     */
+    public int getPropertyInteger(@NotNull String propertyName) {
+        return Integer.parseInt(getProperty(propertyName));
+    }
+
+    /**
+     * Obtenir une propriété de configuration
+     * du serveur de type booléen.
+     *
+     * @param propertyName
+     * @return
+     */
+    public boolean getPropertyBoolean(@NotNull String propertyName) {
+        return Boolean.parseBoolean(getProperty(propertyName));
+    }
+
+    /**
+     * Obtenir un type de contenu pour une
+     * extension de fichier.
+     *
+     * @param extensionFile
+     * @return
+     */
+    public String getContentType(@NotNull String extensionFile) {
+        String contentType = contentTypes.get(extensionFile);
+        if(contentType == null) {
+            throw new IllegalArgumentException("Extension de fichier non répertoriée : " + extensionFile + " !");
+        }
+        return contentType;
+    }
+
+    /**
+     * Obtenir l'URI racine d'un alias de
+     * documents du serveur / hôte.
+     *
+     * @param host
+     * @return l'URI, ou null si l'hôte n'est pas un alias.
+     */
+    public String getURIForHost(@NotNull String host) {
+        return hosts.get(host);
+    }
+
+    /**
+     * Obtenir la règle de mise en cache
+     * (valeur de l'entête Cache-Control)
+     * d'un document, ou null s'il n'y en
+     * a pas.
+     *
+     * De la règle la plus précise à la moins
+     * précise : hôte et extension, extension,
+     * hôte.
+     *
+     * @param host
+     * @param extensionFile
+     * @return
+     */
+    public String getCacheControl(@NotNull String host, @NotNull String extensionFile) {
+        String cacheControl = cacheControls.get(host + "/" + extensionFile);
+        if(cacheControl == null) {
+            cacheControl = cacheControls.get(extensionFile);
+        }
+        if(cacheControl == null) {
+            cacheControl = cacheControls.get(host);
+        }
+        return cacheControl;
+    }
+
+    public String getTreeDocumentsURI() {
+        return treeDocumentsURI;
+    }
+
+    public boolean isTreeDocumentsEnable() {
+        return treeDocumentsEnable;
+    }
+
+    public String getMetricsURI() {
+        return metricsURI;
+    }
+
+    public boolean isMetricsEnable() {
+        return metricsEnable;
+    }
+}
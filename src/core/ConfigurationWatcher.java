@@ -0,0 +1,150 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classe pour le rechargement de la configuration
+ * du serveur, sans redémarrage ni coupure des
+ * connexions :
+ * - quand un fichier du répertoire de configuration
+ *   change (surveillé par un thread dédié) ;
+ * - ou sur le signal HUP (kill -HUP [pid]), là où
+ *   les signaux sont disponibles.
+ *
+ * Les changements rapprochés (un éditeur écrit souvent
+ * un fichier en plusieurs fois) donnent un seul
+ * rechargement.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class ConfigurationWatcher {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Délai, en millisecondes, sans nouveau changement
+    //avant le rechargement.
+    private final static long QUIET_DELAY = 200;
+    //Fichiers de configuration surveillés.
+    private final static List<String> CONFIGURATION_FILENAMES = Arrays.asList(Configuration.CONFIGURATION_FILENAME,
+                                                                              Configuration.CONTENT_TYPES_FILENAME,
+                                                                              Configuration.HOSTS_FILENAME,
+                                                                              Configuration.CACHE_CONTROLS_FILENAME);
+
+    /**
+     * Démarrer le rechargement de la configuration,
+     * si le paramètre configurationWatcher l'active.
+     */
+    public static void start() {
+        if(!httpServer.getConfigurationPropertyBoolean("configurationWatcher")) {
+            return;
+        }
+        startSignalHandler();
+        startWatchThread();
+    }
+
+    /**
+     * Recharger la configuration sur le signal HUP.
+     *
+     * Les signaux (sun.misc.Signal) ne sont pas une
+     * API standard : ils sont chargés par réflexion,
+     * s'ils existent dans la JVM.
+     */
+    private static void startSignalHandler() {
+        try {
+            Class<?> signalClass = Class.forName("sun.misc.Signal");
+            Class<?> signalHandlerClass = Class.forName("sun.misc.SignalHandler");
+            Object signal = signalClass.getConstructor(String.class).newInstance("HUP");
+            Object signalHandler = Proxy.newProxyInstance(signalHandlerClass.getClassLoader(), new Class<?>[]{signalHandlerClass},
+                                                          (proxy, method, arguments) -> {
+                switch (method.getName()) {
+                    case "handle" :
+                        httpServer.reloadConfiguration();
+                        return null;
+                    case "hashCode" :
+                        return System.identityHashCode(proxy);
+                    case "equals" :
+                        return proxy == arguments[0];
+                    default :
+                        return "SIGHUP";
+                }
+            });
+            signalClass.getMethod("handle", signalClass, signalHandlerClass).invoke(null, signal, signalHandler);
+        } catch (ReflectiveOperationException | IllegalArgumentException | LinkageError exception) {
+            //Signaux absents de la JVM, signal indisponible
+            //(Windows) ou ignoré (nohup) : seule la
+            //surveillance des fichiers est active.
+        }
+    }
+
+    /**
+     * Démarrer la surveillance du répertoire
+     * de configuration.
+     */
+    private static void startWatchThread() {
+        WatchService watchService;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            FileManager.getConfigurationDirectory().toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                                                      StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException exception) {
+            httpServer.logDatedMessage("Surveillance de la configuration indisponible : " + exception.getMessage() + ".");
+            return;
+        }
+        Thread thread = new Thread(() -> watch(watchService), "configuration-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Boucle du thread de surveillance.
+     *
+     * @param watchService
+     */
+    private static void watch(@NotNull WatchService watchService) {
+        while(true) {
+            try {
+                //Attente d'un changement, puis des
+                //changements qui le suivent de près.
+                boolean changed = isConfigurationChange(watchService.take());
+                WatchKey key;
+                while((key = watchService.poll(QUIET_DELAY, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= isConfigurationChange(key);
+                }
+                if(changed) {
+                    httpServer.reloadConfiguration();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException exception) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Savoir si des événements de surveillance
+     * concernent un fichier de configuration.
+     *
+     * @param key
+     * @return
+     */
+    private static boolean isConfigurationChange(@NotNull WatchKey key) {
+        boolean changed = false;
+        for(WatchEvent<?> event : key.pollEvents()) {
+            changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                       || CONFIGURATION_FILENAMES.contains(((Path) event.context()).getFileName().toString());
+        }
+        key.reset();
+        return changed;
+    }
+}
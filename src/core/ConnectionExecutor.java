@@ -0,0 +1,243 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classe pour l'exécution des connexions TCP
+ * acceptées par le serveur.
+ *
+ * Deux modes sont proposés (paramètre "connectionExecutor") :
+ * - "pool" : un nombre borné de threads, avec une file
+ *   d'attente bornée, les connexions en trop sont refusées
+ *   avec une réponse 503 ;
+ * - "virtual" : un thread virtuel par connexion (JAVA 21+),
+ *   sinon retour au mode "pool".
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class ConnectionExecutor {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Nom du mode à threads bornés.
+    public final static String MODE_POOL = "pool";
+    //Nom du mode à threads virtuels.
+    public final static String MODE_VIRTUAL = "virtual";
+    //Mode d'exécution effectif.
+    private String mode;
+    //Exécuteur des connexions.
+    private ExecutorService executor;
+    //File d'attente des connexions (mode "pool" uniquement).
+    private ArrayBlockingQueue<Runnable> queue;
+    //Nombre de connexions en cours de traitement.
+    private final AtomicInteger countActiveConnections;
+    //Nombre de connexions refusées depuis le démarrage.
+    private final AtomicLong countRejectedConnections;
+
+    /**
+     * Créer un objet core.ConnectionExecutor.
+     *
+     * @param mode
+     * @param poolSize
+     * @param queueSize
+     */
+    public ConnectionExecutor(@NotNull String mode, int poolSize, int queueSize) {
+        countActiveConnections = new AtomicInteger(0);
+        countRejectedConnections = new AtomicLong(0);
+        //Si les threads virtuels sont demandés, et
+        //sont disponibles dans la JVM.
+        if(mode.equals(MODE_VIRTUAL) && loadVirtualExecutor()) {
+            this.mode = MODE_VIRTUAL;
+        //Sinon.
+        } else {
+            if(!mode.equals(MODE_POOL)) {
+                httpServer.logDatedMessage("Mode d'exécution des connexions \"" + mode + "\" indisponible, " +
+                                           "utilisation du mode \"" + MODE_POOL + "\".");
+            }
+            this.mode = MODE_POOL;
+            loadPoolExecutor(poolSize, queueSize);
+        }
+    }
+
+    /**
+     * Créer l'exécuteur des connexions à
+     * partir de la configuration du serveur.
+     *
+     * @return
+     */
+    public static ConnectionExecutor fromConfiguration() {
+        String mode = httpServer.getConfigurationProperty("connectionExecutor");
+        int poolSize = httpServer.getConfigurationPropertyInteger("connectionPoolSize");
+        int queueSize = httpServer.getConfigurationPropertyInteger("connectionQueueSize");
+        return new ConnectionExecutor(mode, poolSize, queueSize);
+    }
+
+    /**
+     * Charger l'exécuteur à threads bornés.
+     *
+     * @param poolSize
+     * @param queueSize
+     */
+    private void loadPoolExecutor(int poolSize, int queueSize) {
+        queue = new ArrayBlockingQueue<Runnable>(queueSize);
+        executor = new ThreadPoolExecutor(poolSize, poolSize,
+                                          60L, TimeUnit.SECONDS,
+                                          queue,
+                                          new ConnectionThreadFactory(),
+                                          new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Charger l'exécuteur à threads virtuels.
+     *
+     * Les threads virtuels n'existent qu'à partir
+     * de JAVA 21, l'exécuteur est donc obtenu par
+     * réflexion.
+     *
+     * @return
+     */
+    private boolean loadVirtualExecutor() {
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            return true;
+        } catch (ReflectiveOperationException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Gérer une connexion TCP avec l'exécuteur,
+     * ou la refuser s'il est saturé.
+     *
+     * @param socket
+     */
+    public void execute(@NotNull Socket socket) {
+        if(!tryExecute(() -> HttpConnection.handle(socket))) {
+            reject(socket);
+        }
+    }
+
+    /**
+     * Exécuter une tâche de traitement HTTP
+     * avec l'exécuteur, s'il n'est pas saturé.
+     *
+     * Si la tâche est refusée, elle est comptée
+     * parmi les connexions refusées, et c'est à
+     * l'appelant d'envoyer la réponse 503.
+     *
+     * @param task
+     * @return
+     */
+    public boolean tryExecute(@NotNull Runnable task) {
+        try {
+            executor.execute(() -> {
+                countActiveConnections.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    countActiveConnections.decrementAndGet();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException exception) {
+            countRejectedConnections.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Refuser une connexion TCP, en
+     * envoyant une réponse 503.
+     *
+     * @param socket
+     */
+    private void reject(@NotNull Socket socket) {
+        try {
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write(HttpResponse.renderServiceUnavailable());
+            outputStream.flush();
+        } catch (IOException exception) {
+            //Le client web est déjà parti,
+            //rien à lui envoyer.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException exception) {
+                //La connexion est déjà fermée.
+            }
+        }
+
+        //Log du refus de la connexion.
+        httpServer.logDatedMessage(socket.getInetAddress().getHostAddress() + " connexion refusée (503), " +
+                                   "actives : " + getCountActiveConnections() + ", " +
+                                   "en attente : " + getCountQueuedConnections() + ", " +
+                                   "refusées : " + getCountRejectedConnections() + ".");
+    }
+
+    /**
+     * Obtenir le mode d'exécution effectif.
+     *
+     * @return
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Obtenir le nombre de connexions en
+     * cours de traitement.
+     *
+     * @return
+     */
+    public int getCountActiveConnections() {
+        return countActiveConnections.get();
+    }
+
+    /**
+     * Obtenir le nombre de connexions en
+     * attente d'un thread.
+     *
+     * @return
+     */
+    public int getCountQueuedConnections() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Obtenir le nombre de connexions
+     * refusées depuis le démarrage.
+     *
+     * @return
+     */
+    public long getCountRejectedConnections() {
+        return countRejectedConnections.get();
+    }
+
+    /**
+     * Fabrique des threads nommés
+     * des connexions HTTP.
+     */
+    private static class ConnectionThreadFactory implements ThreadFactory {
+        //Numéro du prochain thread.
+        private final AtomicInteger countThreads = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(@NotNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "http-connection-" + countThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
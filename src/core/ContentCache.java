@@ -0,0 +1,391 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import tool.CompressionTool;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Classe pour le cache en mémoire du contenu
+ * des documents du serveur.
+ *
+ * Le cache a deux niveaux :
+ * - les petits documents sont gardés dans le tas
+ *   JAVA (tableaux d'octets) ;
+ * - les gros documents sont projetés en mémoire
+ *   hors du tas (MappedByteBuffer), partagés par
+ *   toutes les connexions et envoyés sans copie,
+ *   sans peser sur le ramasse-miettes.
+ * Les documents encore plus gros ne sont pas gardés,
+ * et sont envoyés directement depuis leur fichier.
+ *
+ * Chaque niveau est borné par son nombre total
+ * d'octets, les documents les moins récemment
+ * utilisés sont évincés en premier (LRU). Un
+ * document en cache est revalidé à chaque accès
+ * avec sa date de modification et sa taille.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class ContentCache {
+    //Niveau des petits documents, dans le tas.
+    private final Tier heapTier;
+    //Niveau des gros documents, projetés hors du tas.
+    private final Tier mappedTier;
+    //Statistiques du cache.
+    private long countHits;
+    private long countMisses;
+    private long countEvictions;
+
+    /**
+     * Créer un objet core.ContentCache.
+     *
+     * @param maxSize taille maximale du niveau dans le tas.
+     * @param maxFileSize taille maximale d'un document dans le tas.
+     * @param maxMappedSize taille maximale du niveau projeté.
+     * @param maxMappedFileSize taille maximale d'un document projeté.
+     */
+    public ContentCache(long maxSize, long maxFileSize, long maxMappedSize, long maxMappedFileSize) {
+        this.heapTier = new Tier(maxSize, Math.min(maxFileSize, maxSize));
+        this.mappedTier = new Tier(maxMappedSize, Math.min(maxMappedFileSize, maxMappedSize));
+    }
+
+    /**
+     * Obtenir le contenu d'un fichier en octets,
+     * depuis le cache dans le tas si possible. Un
+     * fichier trop gros pour ce niveau est lu sans
+     * être gardé.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public byte[] get(@NotNull File file) throws IOException {
+        long length = file.length();
+        if(length <= heapTier.maxFileSize) {
+            return (byte[]) lookup(heapTier, file, length, file.lastModified());
+        }
+        return Files.readAllBytes(file.toPath());
+    }
+
+    /**
+     * Obtenir le contenu d'un fichier depuis le
+     * cache : un tableau d'octets pour un petit
+     * document, un tampon projeté hors du tas
+     * (propre à l'appelant) pour un gros document,
+     * ou null si le fichier est trop gros pour
+     * être gardé en cache.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public Object lookup(@NotNull File file) throws IOException {
+        return lookup(file, file.length(), file.lastModified());
+    }
+
+    /**
+     * Obtenir le contenu d'un fichier depuis le
+     * cache, sa taille et sa date de modification
+     * étant déjà connues (le fichier n'est lu que
+     * s'il n'est pas en cache).
+     *
+     * @param file
+     * @param length
+     * @param lastModified
+     * @return
+     * @throws IOException
+     */
+    public Object lookup(@NotNull File file, long length, long lastModified) throws IOException {
+        //Petit document.
+        if(length <= heapTier.maxFileSize) {
+            return lookup(heapTier, file, length, lastModified);
+        }
+        //Gros document.
+        if(length <= mappedTier.maxFileSize) {
+            //Chaque appelant a ses propres positions
+            //de lecture sur le contenu partagé.
+            return ((ByteBuffer) lookup(mappedTier, file, length, lastModified)).duplicate();
+        }
+        //Document trop gros pour le cache.
+        return null;
+    }
+
+    /**
+     * Obtenir le contenu d'un fichier depuis un
+     * niveau du cache, en le chargeant s'il est
+     * absent ou périmé.
+     *
+     * @param tier
+     * @param file
+     * @param length
+     * @param lastModified
+     * @return
+     * @throws IOException
+     */
+    private Object lookup(@NotNull Tier tier, @NotNull File file, long length, long lastModified) throws IOException {
+        String key = getKey(file);
+
+        //Si le document en cache est toujours à jour.
+        synchronized (this) {
+            Entry entry = tier.entries.get(key);
+            if(entry != null && entry.lastModified == lastModified && entry.sourceLength == length) {
+                countHits++;
+                return entry.content;
+            }
+            countMisses++;
+        }
+
+        //Chargement du document, hors verrou.
+        Entry entry;
+        if(tier == heapTier) {
+            byte[] content = Files.readAllBytes(file.toPath());
+            entry = new Entry(content, content.length, content.length, lastModified);
+        } else {
+            ByteBuffer content = map(file);
+            entry = new Entry(content, content.remaining(), content.remaining(), lastModified);
+        }
+        put(tier, key, entry);
+        return entry.content;
+    }
+
+    /**
+     * Obtenir le contenu compressé d'un fichier
+     * (gzip ou deflate), depuis le cache dans le
+     * tas si possible.
+     *
+     * La variante compressée est revalidée avec la
+     * date de modification et la taille du fichier
+     * d'origine.
+     *
+     * @param file
+     * @param encoding
+     * @return
+     * @throws IOException
+     */
+    public byte[] lookupCompressed(@NotNull File file, @NotNull String encoding) throws IOException {
+        return lookupCompressed(file, encoding, file.length(), file.lastModified());
+    }
+
+    /**
+     * Obtenir le contenu compressé d'un fichier,
+     * sa taille et sa date de modification étant
+     * déjà connues.
+     *
+     * @param file
+     * @param encoding
+     * @param length
+     * @param lastModified
+     * @return
+     * @throws IOException
+     */
+    public byte[] lookupCompressed(@NotNull File file, @NotNull String encoding, long length, long lastModified) throws IOException {
+        String key = getKey(file) + "#" + encoding;
+
+        //Si la variante en cache est toujours à jour.
+        synchronized (this) {
+            Entry entry = heapTier.entries.get(key);
+            if(entry != null && entry.lastModified == lastModified && entry.sourceLength == length) {
+                countHits++;
+                return (byte[]) entry.content;
+            }
+            countMisses++;
+        }
+
+        //Compression du document, hors verrou.
+        byte[] content = CompressionTool.compress(get(file), encoding);
+        if(content.length <= heapTier.maxFileSize) {
+            put(heapTier, key, new Entry(content, content.length, length, lastModified));
+        }
+        return content;
+    }
+
+    /**
+     * Projeter un fichier en mémoire hors
+     * du tas, en lecture seule.
+     *
+     * La projection reste valide après la
+     * fermeture du canal, et est libérée par
+     * le ramasse-miettes après son éviction.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    private static ByteBuffer map(@NotNull File file) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+        }
+    }
+
+    /**
+     * Ajouter un document à un niveau du
+     * cache, puis évincer les documents les
+     * moins récemment utilisés si nécessaire.
+     *
+     * @param tier
+     * @param key
+     * @param entry
+     */
+    private synchronized void put(@NotNull Tier tier, @NotNull String key, @NotNull Entry entry) {
+        Entry previousEntry = tier.entries.put(key, entry);
+        if(previousEntry != null) {
+            tier.size -= previousEntry.length;
+        }
+        tier.size += entry.length;
+
+        Iterator<Map.Entry<String, Entry>> iterator = tier.entries.entrySet().iterator();
+        while(tier.size > tier.maxSize && iterator.hasNext()) {
+            tier.size -= iterator.next().getValue().length;
+            iterator.remove();
+            countEvictions++;
+        }
+    }
+
+    /**
+     * Retirer un document du cache, avec
+     * ses variantes compressées.
+     *
+     * @param file
+     */
+    public synchronized void invalidate(@NotNull File file) {
+        String key = getKey(file);
+        String[] keys = new String[]{key,
+                                     key + "#" + CompressionTool.ENCODING_GZIP,
+                                     key + "#" + CompressionTool.ENCODING_DEFLATE};
+        for(Tier tier : new Tier[]{heapTier, mappedTier}) {
+            for(String tierKey : keys) {
+                Entry entry = tier.entries.remove(tierKey);
+                if(entry != null) {
+                    tier.size -= entry.length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtenir la clé d'un fichier dans le
+     * cache : son chemin normalisé.
+     *
+     * @param file
+     * @return
+     */
+    private static String getKey(@NotNull File file) {
+        return file.toPath().normalize().toString();
+    }
+
+    /**
+     * Obtenir le nombre d'accès servis
+     * par le cache.
+     *
+     * @return
+     */
+    public synchronized long getCountHits() {
+        return countHits;
+    }
+
+    /**
+     * Obtenir le nombre d'accès non servis
+     * par le cache.
+     *
+     * @return
+     */
+    public synchronized long getCountMisses() {
+        return countMisses;
+    }
+
+    /**
+     * Obtenir le nombre de documents
+     * évincés du cache.
+     *
+     * @return
+     */
+    public synchronized long getCountEvictions() {
+        return countEvictions;
+    }
+
+    /**
+     * Obtenir la taille actuelle du cache
+     * dans le tas, en octets.
+     *
+     * @return
+     */
+    public synchronized long getSize() {
+        return heapTier.size;
+    }
+
+    /**
+     * Obtenir la taille actuelle du cache
+     * projeté hors du tas, en octets.
+     *
+     * @return
+     */
+    public synchronized long getMappedSize() {
+        return mappedTier.size;
+    }
+
+    /**
+     * Obtenir le nombre de documents
+     * en cache.
+     *
+     * @return
+     */
+    public synchronized int getCountEntries() {
+        return heapTier.entries.size() + mappedTier.entries.size();
+    }
+
+    /**
+     * Niveau du cache.
+     */
+    private static class Tier {
+        //Taille maximale du niveau, en octets.
+        private final long maxSize;
+        //Taille maximale d'un document du
+        //niveau, en octets.
+        private final long maxFileSize;
+        //Documents du niveau, du moins récemment
+        //utilisé au plus récemment utilisé.
+        private final LinkedHashMap<String, Entry> entries;
+        //Taille actuelle du niveau, en octets.
+        private long size;
+
+        private Tier(long maxSize, long maxFileSize) {
+            this.maxSize = maxSize;
+            this.maxFileSize = maxFileSize;
+            this.entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+            this.size = 0;
+        }
+    }
+
+    /**
+     * Document gardé en cache.
+     */
+    private static class Entry {
+        //Contenu du document : tableau d'octets
+        //ou tampon projeté.
+        private final Object content;
+        //Taille du contenu gardé, en octets.
+        private final long length;
+        //Taille du fichier d'origine, en octets
+        //(différente pour une variante compressée).
+        private final long sourceLength;
+        //Date de modification du document
+        //au moment de sa lecture.
+        private final long lastModified;
+
+        private Entry(@NotNull Object content, long length, long sourceLength, long lastModified) {
+            this.content = content;
+            this.length = length;
+            this.sourceLength = sourceLength;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Classe pour l'index en mémoire des répertoires
+ * de documents du serveur : pour chaque répertoire
+ * déjà lu, la liste de ses entrées (nom, type,
+ * taille, date de modification).
+ *
+ * Un répertoire est lu une seule fois, à sa première
+ * demande. Ensuite, chaque changement signalé par le
+ * surveillant des documents met à jour l'entrée
+ * concernée dans la liste de son répertoire, sans
+ * relire celui-ci. Sans surveillance, une liste est
+ * relue quand la date de modification de son
+ * répertoire change (ajout, suppression d'entrée).
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class DocumentIndex {
+    //Singleton index des documents.
+    private static DocumentIndex instance;
+    //Surveillant des documents.
+    private final DocumentWatcher documentWatcher;
+    //Listes des répertoires lus, par chemin surveillé.
+    private final Map<String, Listing> listings;
+
+    /**
+     * Créer un objet core.DocumentIndex.
+     *
+     * @param documentWatcher
+     */
+    private DocumentIndex(@NotNull DocumentWatcher documentWatcher) {
+        this.documentWatcher = documentWatcher;
+        this.listings = new ConcurrentHashMap<String, Listing>();
+    }
+
+    /**
+     * Obtenir le singleton index des documents.
+     *
+     * @return
+     */
+    public static synchronized DocumentIndex getInstance() {
+        if(instance == null) {
+            instance = new DocumentIndex(DocumentWatcher.getInstance());
+            instance.documentWatcher.addListener(instance::update);
+        }
+        return instance;
+    }
+
+    /**
+     * Obtenir la liste des entrées d'un répertoire
+     * de documents, lu s'il n'est pas encore dans
+     * l'index.
+     *
+     * @param directory
+     * @return la liste, ou null si ce n'est pas un répertoire.
+     */
+    public Listing getListing(@NotNull File directory) {
+        String path = DocumentWatcher.getWatchedPath(directory);
+        Listing listing = listings.get(path);
+        if(listing != null && (documentWatcher.isWatching() || directory.lastModified() == listing.lastModified)) {
+            return listing;
+        }
+        long countChangesBefore = documentWatcher.getCountChanges();
+        listing = Listing.read(directory);
+        if(listing == null) {
+            listings.remove(path);
+            return null;
+        }
+        listings.put(path, listing);
+        //Un changement signalé pendant la lecture a
+        //pu être manqué : la liste n'est pas gardée.
+        if(documentWatcher.changedSince(countChangesBefore)) {
+            listings.remove(path, listing);
+        }
+        return listing;
+    }
+
+    /**
+     * Savoir si un répertoire de documents
+     * contient un fichier.
+     *
+     * @param directory
+     * @param filename
+     * @return
+     */
+    public boolean containsFile(@NotNull File directory, @NotNull String filename) {
+        Listing listing = getListing(directory);
+        if(listing == null) {
+            return false;
+        }
+        Entry entry = listing.getEntry(filename);
+        return entry != null && !entry.isDirectory();
+    }
+
+    /**
+     * Mettre à jour l'index pour un fichier
+     * ou un répertoire signalé comme changé.
+     *
+     * @param file
+     */
+    private void update(@NotNull File file) {
+        String path = DocumentWatcher.getWatchedPath(file);
+        //Le répertoire lui-même (événements perdus,
+        //répertoire supprimé ou recréé) et ses
+        //sous-répertoires sont relus à leur
+        //prochaine demande.
+        String prefix = path + File.separator;
+        listings.keySet().removeIf(listingPath -> listingPath.equals(path) || listingPath.startsWith(prefix));
+        //L'entrée du fichier dans son répertoire
+        //est remplacée, ou retirée.
+        File parentDirectory = file.getAbsoluteFile().getParentFile();
+        if(parentDirectory != null) {
+            String parentPath = DocumentWatcher.getWatchedPath(parentDirectory);
+            Entry entry = file.exists() ? new Entry(file) : null;
+            listings.computeIfPresent(parentPath, (listingPath, listing) -> listing.withEntry(file.getName(), entry));
+        }
+    }
+
+    /**
+     * Entrée d'un répertoire : fichier
+     * ou sous-répertoire.
+     */
+    public static class Entry {
+        //Nom de l'entrée.
+        private final String name;
+        //Répertoire ou fichier.
+        private final boolean directory;
+        //Taille en octets (0 pour un répertoire).
+        private final long length;
+        //Date de dernière modification.
+        private final long lastModified;
+
+        private Entry(@NotNull File file) {
+            this.name = file.getName();
+            this.directory = file.isDirectory();
+            this.length = directory ? 0 : file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    /**
+     * Liste, non modifiable, des entrées d'un
+     * répertoire, triées par nom. Une nouvelle
+     * liste remplace l'ancienne à chaque
+     * changement.
+     */
+    public static class Listing {
+        //Ordre par nom des entrées.
+        private final static Comparator<Entry> BY_NAME = Comparator.comparing(Entry::getName);
+        //Entrées, triées par nom.
+        private final List<Entry> entries;
+        //Entrées, par nom.
+        private final Map<String, Entry> entriesByName;
+        //Date de dernière modification du répertoire.
+        private final long lastModified;
+        //Rendus de la liste (pages d'arborescence),
+        //gardés tant qu'elle ne change pas.
+        private final Map<String, Object> renderings;
+
+        private Listing(@NotNull List<Entry> entries, long lastModified) {
+            entries.sort(BY_NAME);
+            this.entries = Collections.unmodifiableList(entries);
+            this.entriesByName = new HashMap<String, Entry>();
+            for(Entry entry : entries) {
+                entriesByName.put(entry.name, entry);
+            }
+            this.lastModified = lastModified;
+            this.renderings = new ConcurrentHashMap<String, Object>();
+        }
+
+        /**
+         * Lire les entrées d'un répertoire.
+         *
+         * @param directory
+         * @return la liste, ou null si ce n'est pas un répertoire.
+         */
+        private static Listing read(@NotNull File directory) {
+            long lastModified = directory.lastModified();
+            File[] files = directory.listFiles();
+            if(files == null) {
+                return null;
+            }
+            List<Entry> entries = new ArrayList<Entry>(files.length);
+            for(File file : files) {
+                entries.add(new Entry(file));
+            }
+            return new Listing(entries, lastModified);
+        }
+
+        /**
+         * Obtenir une copie de la liste où une
+         * entrée est remplacée ou ajoutée, ou
+         * retirée si elle est null.
+         *
+         * @param name
+         * @param entry
+         * @return
+         */
+        private Listing withEntry(@NotNull String name, Entry entry) {
+            List<Entry> entries = new ArrayList<Entry>(this.entries.size() + 1);
+            for(Entry oldEntry : this.entries) {
+                if(!oldEntry.name.equals(name)) {
+                    entries.add(oldEntry);
+                }
+            }
+            if(entry != null) {
+                entries.add(entry);
+            }
+            return new Listing(entries, lastModified);
+        }
+
+        /**
+         * Obtenir les entrées, triées par nom.
+         *
+         * @return
+         */
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Obtenir une entrée par son nom.
+         *
+         * @param name
+         * @return l'entrée, ou null si elle n'existe pas.
+         */
+        public Entry getEntry(@NotNull String name) {
+            return entriesByName.get(name);
+        }
+
+        /**
+         * Obtenir un rendu de la liste
+         * déjà construit.
+         *
+         * @param key
+         * @return le rendu, ou null s'il n'a pas été gardé.
+         */
+        public Object getRendering(@NotNull String key) {
+            return renderings.get(key);
+        }
+
+        /**
+         * Garder un rendu de la liste.
+         *
+         * @param key
+         * @param rendering
+         */
+        public void putRendering(@NotNull String key, @NotNull Object rendering) {
+            renderings.put(key, rendering);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Classe pour la surveillance des changements
+ * dans le répertoire des documents du serveur.
+ *
+ * Chaque répertoire de l'arborescence est surveillé
+ * (un WatchService n'est pas récursif) par un thread
+ * dédié, qui signale aux écouteurs chaque fichier créé,
+ * modifié, ou supprimé. Un répertoire signalé veut dire
+ * que tout son contenu a pu changer (nouveau répertoire,
+ * ou événements perdus).
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class DocumentWatcher {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Singleton surveillant des documents.
+    private static DocumentWatcher instance;
+    //Chemin du répertoire des documents.
+    private final Path documentDirectory;
+    //Écouteurs des changements, appelés depuis
+    //le thread de surveillance.
+    private final List<Consumer<File>> listeners;
+    //Répertoires surveillés, par clé de surveillance.
+    private final Map<WatchKey, Path> directories;
+    //Service de surveillance, null si indisponible.
+    private WatchService watchService;
+    //Surveillance active ou non.
+    private volatile boolean watching;
+    //Nombre de changements signalés, compté deux fois
+    //par changement : impair pendant son signalement
+    //aux écouteurs.
+    private final AtomicLong countChanges;
+
+    /**
+     * Créer un objet core.DocumentWatcher.
+     *
+     * @param documentDirectory
+     */
+    private DocumentWatcher(@NotNull Path documentDirectory) {
+        this.documentDirectory = documentDirectory;
+        this.listeners = new CopyOnWriteArrayList<Consumer<File>>();
+        this.directories = new ConcurrentHashMap<WatchKey, Path>();
+        this.watching = false;
+        this.countChanges = new AtomicLong(0);
+    }
+
+    /**
+     * Obtenir le singleton surveillant des documents,
+     * la surveillance démarrant au premier appel.
+     *
+     * @return
+     */
+    public static synchronized DocumentWatcher getInstance() {
+        if(instance == null) {
+            instance = new DocumentWatcher(getDocumentDirectoryPath());
+            if(httpServer.getConfigurationPropertyBoolean("documentWatcher")) {
+                instance.start();
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Obtenir le chemin absolu normalisé d'un fichier,
+     * pour le comparer à un fichier signalé.
+     *
+     * @param file
+     * @return
+     */
+    public static String getWatchedPath(@NotNull File file) {
+        return file.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Obtenir le chemin normalisé du répertoire des
+     * documents : les fichiers signalés ont le même
+     * chemin que ceux chargés par core.FileManager.
+     *
+     * @return
+     */
+    private static Path getDocumentDirectoryPath() {
+        return FileManager.getDocumentDirectory().toPath().normalize();
+    }
+
+    /**
+     * Ajouter un écouteur des changements.
+     *
+     * @param listener
+     */
+    public void addListener(@NotNull Consumer<File> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Savoir si la surveillance est active : sinon,
+     * les changements ne sont pas signalés.
+     *
+     * @return
+     */
+    public boolean isWatching() {
+        return watching;
+    }
+
+    /**
+     * Obtenir le nombre de changements signalés, à
+     * relever avant le calcul d'une donnée à garder
+     * en cache.
+     *
+     * @return
+     */
+    public long getCountChanges() {
+        return countChanges.get();
+    }
+
+    /**
+     * Savoir si un changement a été signalé depuis
+     * un relevé du nombre de changements, ou l'était
+     * pendant ce relevé : une donnée calculée entre
+     * temps a pu l'être à partir de documents, ou de
+     * caches d'autres écouteurs, périmés, et ne doit
+     * pas être gardée.
+     *
+     * @param countChangesBefore
+     * @return
+     */
+    public boolean changedSince(long countChangesBefore) {
+        return countChangesBefore % 2 != 0 || countChanges.get() != countChangesBefore;
+    }
+
+    /**
+     * Démarrer la surveillance de l'arborescence
+     * des documents.
+     */
+    private void start() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            registerAll(documentDirectory);
+        } catch (IOException | UnsupportedOperationException exception) {
+            httpServer.logDatedMessage("Surveillance des documents indisponible : " + exception.getMessage() + ".");
+            return;
+        }
+        watching = true;
+        Thread thread = new Thread(this::watch, "document-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Surveiller un répertoire et
+     * ses sous-répertoires.
+     *
+     * @param directory
+     * @throws IOException
+     */
+    private void registerAll(@NotNull Path directory) throws IOException {
+        Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path subdirectory, BasicFileAttributes attributes) throws IOException {
+                WatchKey key = subdirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                                     StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, subdirectory);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exception) {
+                //Fichier illisible, ou boucle de liens
+                //symboliques : il est ignoré.
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Boucle du thread de surveillance.
+     */
+    private void watch() {
+        while(true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException exception) {
+                watching = false;
+                return;
+            }
+            Path directory = directories.get(key);
+            if(directory != null) {
+                for(WatchEvent<?> event : key.pollEvents()) {
+                    //Événements perdus : tout le répertoire
+                    //a pu changer.
+                    if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        notifyListeners(directory);
+                        continue;
+                    }
+                    Path path = directory.resolve((Path) event.context());
+                    //Nouveau répertoire : il est surveillé à son
+                    //tour, son contenu déjà créé étant signalé
+                    //avec lui.
+                    if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                        try {
+                            registerAll(path);
+                        } catch (IOException exception) {
+                            httpServer.logDatedMessage("Surveillance du répertoire \"" + path + "\" impossible : " +
+                                                       exception.getMessage() + ".");
+                        }
+                    }
+                    notifyListeners(path);
+                }
+            }
+            //Répertoire supprimé : il n'est plus surveillé.
+            if(!key.reset()) {
+                directories.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Signaler un changement aux écouteurs.
+     *
+     * @param path
+     */
+    private void notifyListeners(@NotNull Path path) {
+        File file = path.toFile();
+        countChanges.incrementAndGet();
+        try {
+            for(Consumer<File> listener : listeners) {
+                try {
+                    listener.accept(file);
+                } catch (RuntimeException exception) {
+                    httpServer.logDatedMessage("Erreur d'un écouteur des documents pour \"" + path + "\" : " +
+                                               exception.getMessage() + ".");
+                }
+            }
+        } finally {
+            countChanges.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Classe pour une connexion persistante à un
+ * serveur FastCGI (php-cgi -b, php-fpm), qui
+ * traite une requête à la fois.
+ *
+ * La sortie standard du programme est écrite, sans
+ * ses entêtes CGI, au fur et à mesure de sa réception.
+ *
+ * Format d'un enregistrement FastCGI :
+ * [version] [type] [id requête (2)] [taille (2)] [bourrage] [réservé]
+ * [contenu] [bourrage]
+ *
+ * Voir : https://fastcgi-archives.github.io/FastCGI_Specification.html
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class FastCgiConnection {
+    //Version du protocole.
+    private final static int VERSION = 1;
+    //Types d'enregistrements.
+    private final static int TYPE_BEGIN_REQUEST = 1;
+    private final static int TYPE_END_REQUEST = 3;
+    private final static int TYPE_PARAMS = 4;
+    private final static int TYPE_STDIN = 5;
+    private final static int TYPE_STDOUT = 6;
+    private final static int TYPE_STDERR = 7;
+    //Rôle demandé : produire une réponse.
+    private final static int ROLE_RESPONDER = 1;
+    //Drapeau demandant de garder la connexion.
+    private final static int FLAG_KEEP_CONNECTION = 1;
+    //Fin de requête normale.
+    private final static int REQUEST_COMPLETE = 0;
+    //Identifiant des requêtes (une seule à la
+    //fois sur la connexion).
+    private final static int REQUEST_ID = 1;
+    //Taille maximale du contenu d'un enregistrement.
+    private final static int MAX_CONTENT_LENGTH = 65535;
+    //Taille maximale des entêtes CGI retenus en
+    //attendant leur fin : au-delà, toute la sortie
+    //standard est considérée comme le corps.
+    private final static int MAX_HEADERS_SIZE = 65536;
+    //Connexion TCP au serveur FastCGI.
+    private final Socket socket;
+    //Flux d'entrée et de sortie de la connexion.
+    private final DataInputStream inputStream;
+    private final OutputStream outputStream;
+    //Si la requête en cours a été entièrement
+    //envoyée, et nombre d'octets reçus pour elle.
+    private boolean requestSent;
+    private long countReceivedBytes;
+
+    /**
+     * Créer un objet core.FastCgiConnection,
+     * connecté au serveur FastCGI.
+     *
+     * @param address
+     * @param timeout délai de connexion et de lecture, en millisecondes.
+     * @throws IOException
+     */
+    public FastCgiConnection(@NotNull InetSocketAddress address, int timeout) throws IOException {
+        socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address, timeout);
+            socket.setSoTimeout(timeout);
+            inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            outputStream = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        } catch (IOException exception) {
+            close();
+            throw exception;
+        }
+    }
+
+    /**
+     * Envoyer une requête au serveur FastCGI, et
+     * recevoir sa réponse : le corps de la sortie
+     * standard est écrit dans le flux donné dès sa
+     * réception (vidé quand rien d'autre n'est
+     * encore arrivé), la sortie d'erreur est
+     * retenue.
+     *
+     * @param params variables CGI de la requête.
+     * @param stdin corps de la requête.
+     * @param body flux recevant le corps de la sortie standard.
+     * @param maxOutputSize taille maximale, en octets, de chaque sortie.
+     * @return
+     * @throws IOException si le serveur FastCGI échoue, ou si le corps dépasse la taille maximale.
+     */
+    public FastCgiResponse execute(@NotNull Map<String, String> params, @NotNull byte[] stdin,
+                                   @NotNull OutputStream body, int maxOutputSize) throws IOException {
+        requestSent = false;
+        countReceivedBytes = 0;
+
+        //Début de la requête, en gardant la connexion.
+        writeRecord(TYPE_BEGIN_REQUEST, new byte[]{0, ROLE_RESPONDER, FLAG_KEEP_CONNECTION, 0, 0, 0, 0, 0}, 0, 8);
+        //Variables CGI, puis enregistrement vide de fin.
+        ByteArrayOutputStream paramsStream = new ByteArrayOutputStream(1024);
+        for(Map.Entry<String, String> param : params.entrySet()) {
+            byte[] name = param.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value = param.getValue().getBytes(StandardCharsets.UTF_8);
+            writeLength(paramsStream, name.length);
+            writeLength(paramsStream, value.length);
+            paramsStream.write(name, 0, name.length);
+            paramsStream.write(value, 0, value.length);
+        }
+        writeStream(TYPE_PARAMS, paramsStream.toByteArray());
+        //Corps, puis enregistrement vide de fin.
+        writeStream(TYPE_STDIN, stdin);
+        outputStream.flush();
+        requestSent = true;
+
+        //Lecture des enregistrements de la réponse
+        //jusqu'à la fin de la requête.
+        CgiBodyOutputStream stdout = new CgiBodyOutputStream(body, maxOutputSize);
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream(0);
+        byte[] content = new byte[8192];
+        while(true) {
+            int version = inputStream.readUnsignedByte();
+            countReceivedBytes++;
+            int type = inputStream.readUnsignedByte();
+            int requestId = inputStream.readUnsignedShort();
+            int contentLength = inputStream.readUnsignedShort();
+            int paddingLength = inputStream.readUnsignedByte();
+            inputStream.readUnsignedByte();
+            if(version != VERSION) {
+                throw new IOException("Version FastCGI inconnue : " + version + " !");
+            }
+            if(content.length < contentLength) {
+                content = new byte[MAX_CONTENT_LENGTH];
+            }
+            inputStream.readFully(content, 0, contentLength);
+            skipFully(paddingLength);
+            countReceivedBytes += 7 + contentLength + paddingLength;
+            //Enregistrement d'une autre requête : ignoré.
+            if(requestId != REQUEST_ID) {
+                continue;
+            }
+            switch (type) {
+                case TYPE_STDOUT :
+                    stdout.write(content, 0, contentLength);
+                    //Envoi de ce qui a été reçu, si la suite
+                    //n'est pas déjà arrivée.
+                    if(inputStream.available() == 0) {
+                        stdout.flush();
+                    }
+                    break;
+                case TYPE_STDERR :
+                    //Au-delà de la taille maximale,
+                    //la sortie d'erreur est ignorée.
+                    stderr.write(content, 0, Math.min(contentLength, maxOutputSize - stderr.size()));
+                    break;
+                case TYPE_END_REQUEST :
+                    if(contentLength < 5) {
+                        throw new IOException("Fin de requête FastCGI mal formée !");
+                    }
+                    int protocolStatus = content[4] & 0xFF;
+                    if(protocolStatus != REQUEST_COMPLETE) {
+                        throw new IOException("Requête FastCGI refusée (statut " + protocolStatus + ") !");
+                    }
+                    stdout.finish();
+                    return new FastCgiResponse(stdout.countBytes, stderr.toByteArray());
+                default :
+                    //Type inconnu : ignoré.
+            }
+        }
+    }
+
+    /**
+     * Écrire un flux (variables ou corps) en
+     * enregistrements, suivis d'un
+     * enregistrement vide de fin.
+     *
+     * @param type
+     * @param bytes
+     * @throws IOException
+     */
+    private void writeStream(int type, @NotNull byte[] bytes) throws IOException {
+        for(int offset = 0; offset < bytes.length; offset += MAX_CONTENT_LENGTH) {
+            writeRecord(type, bytes, offset, Math.min(MAX_CONTENT_LENGTH, bytes.length - offset));
+        }
+        writeRecord(type, bytes, 0, 0);
+    }
+
+    /**
+     * Écrire un enregistrement.
+     *
+     * @param type
+     * @param bytes
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    private void writeRecord(int type, @NotNull byte[] bytes, int offset, int length) throws IOException {
+        outputStream.write(VERSION);
+        outputStream.write(type);
+        outputStream.write(REQUEST_ID >> 8);
+        outputStream.write(REQUEST_ID);
+        outputStream.write(length >> 8);
+        outputStream.write(length);
+        outputStream.write(0);
+        outputStream.write(0);
+        outputStream.write(bytes, offset, length);
+    }
+
+    /**
+     * Écrire la taille d'un nom ou d'une valeur
+     * de variable : sur 1 octet, ou sur 4 octets
+     * au-delà de 127.
+     *
+     * @param stream
+     * @param length
+     */
+    private static void writeLength(@NotNull ByteArrayOutputStream stream, int length) {
+        if(length < 0x80) {
+            stream.write(length);
+        } else {
+            stream.write((length >> 24) | 0x80);
+            stream.write(length >> 16);
+            stream.write(length >> 8);
+            stream.write(length);
+        }
+    }
+
+    /**
+     * Passer des octets du flux d'entrée.
+     *
+     * @param count
+     * @throws IOException
+     */
+    private void skipFully(int count) throws IOException {
+        while(count > 0) {
+            long skipped = inputStream.skip(count);
+            if(skipped <= 0) {
+                throw new EOFException();
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Savoir si l'échec de la requête en cours vient
+     * d'une connexion fermée entre temps par le
+     * serveur FastCGI : l'envoi a échoué, ou la
+     * connexion a été fermée ou réinitialisée avant
+     * le premier octet de la réponse. La requête
+     * peut alors être envoyée à nouveau sur une
+     * autre connexion, le programme n'ayant pas été
+     * exécuté.
+     *
+     * Un délai de lecture dépassé n'en fait pas
+     * partie : le programme est peut-être en cours
+     * d'exécution.
+     *
+     * @param exception
+     * @return
+     */
+    public boolean isClosedBeforeResponse(@NotNull IOException exception) {
+        if(exception instanceof SocketTimeoutException || countReceivedBytes > 0) {
+            return false;
+        }
+        return !requestSent || exception instanceof EOFException || exception instanceof SocketException;
+    }
+
+    /**
+     * Fermer la connexion.
+     */
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException exception) {
+            //La connexion est déjà fermée.
+        }
+    }
+
+    /**
+     * Réponse d'un serveur FastCGI : taille du
+     * corps de la sortie standard (déjà écrit),
+     * et sortie d'erreur du programme.
+     */
+    public static class FastCgiResponse {
+        //Nombre d'octets du corps.
+        private final long countBodyBytes;
+        //Sortie d'erreur.
+        private final byte[] stderr;
+
+        private FastCgiResponse(long countBodyBytes, @NotNull byte[] stderr) {
+            this.countBodyBytes = countBodyBytes;
+            this.stderr = stderr;
+        }
+
+        /**
+         * Savoir si la sortie standard
+         * contenait un corps.
+         *
+         * @return
+         */
+        public boolean hasBody() {
+            return countBodyBytes > 0;
+        }
+
+        /**
+         * Obtenir la sortie d'erreur.
+         *
+         * @return
+         */
+        public byte[] getStderr() {
+            return stderr;
+        }
+    }
+
+    /**
+     * Flux recevant la sortie standard du programme :
+     * ses entêtes CGI sont retenus jusqu'à la ligne
+     * vide qui les termine, et ignorés ; le corps qui
+     * suit est écrit dans le flux de destination.
+     * Sans ligne vide, toute la sortie est le corps.
+     */
+    private static class CgiBodyOutputStream extends FilterOutputStream {
+        //Taille maximale du corps.
+        private final int maxBytes;
+        //Entêtes CGI reçus, null une
+        //fois leur fin trouvée.
+        private ByteArrayOutputStream headers;
+        //Nombre d'octets du corps écrits.
+        private long countBytes;
+
+        private CgiBodyOutputStream(@NotNull OutputStream body, int maxBytes) {
+            super(body);
+            this.maxBytes = maxBytes;
+            this.headers = new ByteArrayOutputStream(1024);
+            this.countBytes = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) throws IOException {
+            if(headers == null) {
+                writeBody(b, off, len);
+                return;
+            }
+            int previousSize = headers.size();
+            headers.write(b, off, len);
+            byte[] bytes = headers.toByteArray();
+            //Recherche de la ligne vide, pouvant
+            //commencer dans les octets précédents.
+            int bodyOffset = findBodyOffset(bytes, Math.max(0, previousSize - 2));
+            if(bodyOffset >= 0) {
+                headers = null;
+                writeBody(bytes, bodyOffset, bytes.length - bodyOffset);
+            } else if(bytes.length > MAX_HEADERS_SIZE) {
+                headers = null;
+                writeBody(bytes, 0, bytes.length);
+            }
+        }
+
+        /**
+         * Trouver le début du corps, après la
+         * ligne vide terminant les entêtes CGI.
+         *
+         * @param bytes
+         * @param from
+         * @return l'indice du début du corps, ou -1.
+         */
+        private static int findBodyOffset(@NotNull byte[] bytes, int from) {
+            for(int i = from; i < bytes.length; i++) {
+                if(bytes[i] != '\n') {
+                    continue;
+                }
+                if(i + 1 < bytes.length && bytes[i + 1] == '\n') {
+                    return i + 2;
+                }
+                if(i + 2 < bytes.length && bytes[i + 1] == '\r' && bytes[i + 2] == '\n') {
+                    return i + 3;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Écrire des octets du corps.
+         *
+         * @param b
+         * @param off
+         * @param len
+         * @throws IOException si le corps dépasse la taille maximale.
+         */
+        private void writeBody(@NotNull byte[] b, int off, int len) throws IOException {
+            countBytes += len;
+            if(countBytes > maxBytes) {
+                throw new IOException("Réponse FastCGI de plus de " + maxBytes + " octets !");
+            }
+            out.write(b, off, len);
+        }
+
+        /**
+         * Terminer la sortie standard : sans
+         * ligne vide, elle est toute le corps.
+         *
+         * @throws IOException
+         */
+        private void finish() throws IOException {
+            if(headers != null) {
+                byte[] bytes = headers.toByteArray();
+                headers = null;
+                writeBody(bytes, 0, bytes.length);
+            }
+            flush();
+        }
+    }
+}
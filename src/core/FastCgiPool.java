@@ -0,0 +1,193 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classe pour un groupe de connexions persistantes
+ * à un serveur FastCGI local (php-cgi -b, php-fpm),
+ * dont les processus PHP restent démarrés entre les
+ * requêtes.
+ *
+ * Au plus "phpFastCgiPoolSize" requêtes sont envoyées
+ * en même temps, chacune sur sa connexion, réutilisée
+ * ensuite. Les requêtes en trop attendent leur tour,
+ * au plus "phpFastCgiQueueTimeout" millisecondes.
+ *
+ * Le corps des réponses est limité, comme la sortie
+ * des commandes externes, à "processMaxOutputSize"
+ * octets.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class FastCgiPool {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Durée maximale d'attente du démarrage du
+    //serveur FastCGI lancé par le serveur HTTP.
+    private final static long START_TIMEOUT = 5000;
+    //Adresse du serveur FastCGI.
+    private final InetSocketAddress address;
+    //Délai de connexion et de lecture, en millisecondes.
+    private final int timeout;
+    //Durée maximale d'attente d'une connexion
+    //libre, en millisecondes.
+    private final long queueTimeout;
+    //Taille maximale, en octets, de chaque
+    //sortie d'un programme.
+    private final int maxOutputSize;
+    //Autorisations d'envoi : une par connexion.
+    private final Semaphore permits;
+    //Connexions libres, la plus récente en tête.
+    private final LinkedBlockingDeque<FastCgiConnection> idleConnections;
+    //Serveur FastCGI lancé par le serveur HTTP, ou null.
+    private Process process;
+
+    /**
+     * Créer un objet core.FastCgiPool.
+     *
+     * @param address
+     * @param poolSize
+     * @param queueTimeout
+     * @param timeout
+     * @param maxOutputSize
+     */
+    public FastCgiPool(@NotNull InetSocketAddress address, int poolSize, long queueTimeout, int timeout,
+                       int maxOutputSize) {
+        this.address = address;
+        this.timeout = timeout;
+        this.queueTimeout = queueTimeout;
+        this.maxOutputSize = maxOutputSize;
+        //Les requêtes en attente sont servies dans
+        //leur ordre d'arrivée.
+        this.permits = new Semaphore(poolSize, true);
+        this.idleConnections = new LinkedBlockingDeque<FastCgiConnection>();
+    }
+
+    /**
+     * Créer le groupe de connexions FastCGI à
+     * partir de la configuration du serveur, en
+     * lançant le serveur FastCGI si demandé.
+     *
+     * @return le groupe, ou null si PHP n'est pas servi par FastCGI.
+     */
+    public static FastCgiPool fromConfiguration() {
+        String address = httpServer.getConfigurationProperty("phpFastCgiAddress").trim();
+        if(address.isEmpty()) {
+            return null;
+        }
+        int indexPort = address.lastIndexOf(':');
+        String host = indexPort > 0 ? address.substring(0, indexPort) : "127.0.0.1";
+        int port = Integer.parseInt(address.substring(indexPort + 1));
+        int poolSize = httpServer.getConfigurationPropertyInteger("phpFastCgiPoolSize");
+        FastCgiPool fastCgiPool = new FastCgiPool(new InetSocketAddress(host, port), poolSize,
+                                                  httpServer.getConfigurationPropertyInteger("phpFastCgiQueueTimeout"),
+                                                  httpServer.getConfigurationPropertyInteger("phpFastCgiTimeout"),
+                                                  httpServer.getConfigurationPropertyInteger("processMaxOutputSize"));
+        String command = httpServer.getConfigurationProperty("phpFastCgiCommand").trim();
+        if(!command.isEmpty()) {
+            fastCgiPool.startProcess(command, poolSize);
+        }
+        return fastCgiPool;
+    }
+
+    /**
+     * Lancer le serveur FastCGI, avec autant de
+     * processus PHP que de connexions, et attendre
+     * qu'il accepte les connexions.
+     *
+     * @param command
+     * @param poolSize
+     */
+    private void startProcess(@NotNull String command, int poolSize) {
+        ProcessBuilder processBuilder = new ProcessBuilder(command.split(" +"));
+        processBuilder.environment().put("PHP_FCGI_CHILDREN", String.valueOf(poolSize));
+        processBuilder.redirectErrorStream(true);
+        processBuilder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        try {
+            process = processBuilder.start();
+        } catch (IOException exception) {
+            httpServer.logDatedMessage("Lancement du serveur FastCGI \"" + command + "\" impossible : " +
+                                       exception.getMessage() + ".");
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(process::destroy));
+
+        long deadline = System.currentTimeMillis() + START_TIMEOUT;
+        while(System.currentTimeMillis() < deadline && process.isAlive()) {
+            try {
+                idleConnections.offerFirst(new FastCgiConnection(address, timeout));
+                return;
+            } catch (IOException exception) {
+                //Serveur pas encore prêt.
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        httpServer.logDatedMessage("Le serveur FastCGI \"" + command + "\" ne répond pas.");
+    }
+
+    /**
+     * Envoyer une requête au serveur FastCGI sur
+     * une connexion libre, en attendant son tour
+     * si toutes sont occupées.
+     *
+     * Une connexion réutilisée fermée entre temps
+     * par le serveur FastCGI est remplacée, et la
+     * requête envoyée à nouveau (seulement si l'envoi
+     * a échoué, ou si la connexion a été fermée avant
+     * toute réponse : jamais après un délai dépassé,
+     * le programme ne doit pas être exécuté deux
+     * fois). Rien n'a alors été écrit dans le flux
+     * du corps.
+     *
+     * @param params
+     * @param stdin
+     * @param body flux recevant le corps de la sortie standard, au fur et à mesure.
+     * @return
+     * @throws IOException si aucune connexion n'est libre à temps, ou si le serveur FastCGI échoue.
+     */
+    public FastCgiConnection.FastCgiResponse execute(@NotNull Map<String, String> params, @NotNull byte[] stdin,
+                                                     @NotNull OutputStream body) throws IOException {
+        try {
+            if(!permits.tryAcquire(queueTimeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Serveur FastCGI saturé !");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Attente du serveur FastCGI interrompue !");
+        }
+        try {
+            while(true) {
+                FastCgiConnection connection = idleConnections.pollFirst();
+                boolean reused = connection != null;
+                if(!reused) {
+                    connection = new FastCgiConnection(address, timeout);
+                }
+                try {
+                    FastCgiConnection.FastCgiResponse response = connection.execute(params, stdin, body, maxOutputSize);
+                    idleConnections.offerFirst(connection);
+                    return response;
+                } catch (IOException exception) {
+                    connection.close();
+                    if(!reused || !connection.isClosedBeforeResponse(exception)) {
+                        throw exception;
+                    }
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+}
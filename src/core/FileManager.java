@@ -2,7 +2,6 @@ package core;
 
 import org.jetbrains.annotations.NotNull;
 import java.io.*;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -20,6 +19,17 @@ public class FileManager {
     public final static String CONFIGURATION_DIRECTORY = "configuration";
     //Chemin vers le répertoire des documents du serveur: ses sites web.
     public final static String DOCUMENT_DIRECTORY = HttpServer.getInstance().getConfigurationProperty("rootPathDocuments");
+    //Cache en mémoire du contenu des documents du serveur.
+    private final static ContentCache contentCache = new ContentCache(httpServer.getConfigurationPropertyInteger("contentCacheMaxSize"),
+                                                                      httpServer.getConfigurationPropertyInteger("contentCacheMaxFileSize"),
+                                                                      httpServer.getConfigurationPropertyInteger("contentCacheMaxMappedSize"),
+                                                                      httpServer.getConfigurationPropertyInteger("contentCacheMaxMappedFileSize"));
+
+    static {
+        //Un document changé est retiré du cache
+        //dès qu'il est signalé.
+        DocumentWatcher.getInstance().addListener(contentCache::invalidate);
+    }
 
     /**
      * Charger le répertoire des fichiers
@@ -93,105 +103,148 @@ public class FileManager {
      * @return
      */
     public static byte[] getContentDocumentFileAsBytes(@NotNull String documentFilename) {
+        return getContentFileAsBytes(getDocumentFile(documentFilename));
+    }
+
+    /**
+     * Charger le contenu d'un fichier
+     * sous la forme d'un tableau d'octets,
+     * depuis le cache si possible.
+     *
+     * @param file
+     * @return
+     */
+    public static byte[] getContentFileAsBytes(@NotNull File file) {
         byte[] content = null;
         try {
-            content = Files.readAllBytes(getDocumentFile(documentFilename).toPath());
+            content = contentCache.get(file);
         } catch (IOException exception) {
-            httpServer.logErrorAndExit("Erreur lors de la lecture du document du serveur : " + documentFilename + " !", exception);
+            httpServer.logErrorAndExit("Erreur lors de la lecture du document du serveur : " + file.getPath() + " !", exception);
         }
         return content;
     }
 
     /**
      * Charger le contenu d'un document du serveur
-     * sous la forme d'une chaine de caractères.
+     * depuis le cache : un tableau d'octets pour
+     * un petit document, un tampon projeté hors
+     * du tas pour un gros document, ou null si le
+     * document est trop gros pour le cache.
      *
      * @param documentFilename
      * @return
      */
-    public static String getContentDocumentFileAsString(@NotNull String documentFilename) {
-        return new String(getContentDocumentFileAsBytes(documentFilename));
+    public static Object getCachedContentDocumentFile(@NotNull String documentFilename) {
+        return getCachedContentFile(getDocumentFile(documentFilename));
     }
 
     /**
-     * Vérifier si un document du serveur
-     * est protégé, car contenu dans un
-     * répertoire de documents protégé.
+     * Charger le contenu d'un fichier depuis le
+     * cache : un tableau d'octets pour un petit
+     * fichier, un tampon projeté hors du tas pour
+     * un gros fichier, ou null si le fichier est
+     * trop gros pour le cache.
      *
-     * @param documentFilename
+     * @param file
      * @return
      */
-    public static boolean documentFileIsInProtectedDirectory(@NotNull String documentFilename) {
-        boolean isInProtectedDirectory = false;
-        File documentParentDirectory = getDocumentFile(documentFilename).getParentFile();
-
-        //Remontée dans les repertoires parents
-        //du document.Tant que racine des documents pas atteinte.
-        while(!documentParentDirectory.getName().equals(DOCUMENT_DIRECTORY)) {
-            //Si le répertoire contient un fichier
-            //d'authentifications, alors c'est que
-            //le document est protégé.
-            if(Arrays.asList(documentParentDirectory.list()).contains(".htpasswd")) {
-                isInProtectedDirectory = true;
-                break;
-            //Sinon, on remonte au répertoire parent.
-            } else {
-                documentParentDirectory = documentParentDirectory.getParentFile();
-            }
+    public static Object getCachedContentFile(@NotNull File file) {
+        Object content = null;
+        try {
+            content = contentCache.lookup(file);
+        } catch (IOException exception) {
+            httpServer.logErrorAndExit("Erreur lors de la lecture du document du serveur : " + file.getPath() + " !", exception);
         }
+        return content;
+    }
 
-        return isInProtectedDirectory;
+    /**
+     * Charger le contenu d'un fichier depuis le
+     * cache, sa taille et sa date de modification
+     * étant déjà connues (par sa route).
+     *
+     * Le fichier a pu disparaître depuis : l'erreur
+     * de lecture est laissée à l'appelant.
+     *
+     * @param file
+     * @param length
+     * @param lastModified
+     * @return
+     * @throws IOException si le fichier n'a pas pu être lu.
+     */
+    public static Object getCachedContentFile(@NotNull File file, long length, long lastModified) throws IOException {
+        return contentCache.lookup(file, length, lastModified);
     }
 
     /**
-     * Obtenir le chemin relatif du fichier
-     * d'authentification d'un répertoire protégé
-     * d'un document du serveur.
+     * Charger le contenu compressé d'un fichier
+     * (gzip ou deflate), depuis le cache si
+     * possible.
      *
-     * @param documentFilename
+     * @param file
+     * @param encoding
      * @return
      */
-    public static String getAuthenticationFileNameFor(@NotNull String documentFilename) {
-        boolean authenticationFound = false;
-        String authenticationFileName = "";
-        File documentFile = getDocumentFile(documentFilename);
-        File documentParentDirectory = documentFile.getParentFile();
-
-        //Remontée dans les repertoires parents du document.
-        //Tant que racine des documents pas atteinte.
-        while(!documentParentDirectory.getName().equals(DOCUMENT_DIRECTORY)) {
-            //Si fichier d'autentifications trouvé.
-            if(Arrays.asList(documentParentDirectory.list()).contains(".htpasswd")
-               || authenticationFound) {
-                if(!authenticationFound) {
-                    authenticationFound = true;
-                }
-                //Reconstitution du chemin relatif
-                //du fichier d'autentifications.
-                authenticationFileName = documentParentDirectory.getName() + File.separator + authenticationFileName;
-            }
-            //Remontée au répertoire parent.
-            documentParentDirectory = documentParentDirectory.getParentFile();
+    public static byte[] getCompressedContentFile(@NotNull File file, @NotNull String encoding) {
+        byte[] content = null;
+        try {
+            content = contentCache.lookupCompressed(file, encoding);
+        } catch (IOException exception) {
+            httpServer.logErrorAndExit("Erreur lors de la lecture du document du serveur : " + file.getPath() + " !", exception);
         }
+        return content;
+    }
 
-        if(authenticationFound) {
-            authenticationFileName += ".htpasswd";
-        } else {
-            authenticationFileName = null;
-        }
+    /**
+     * Charger le contenu compressé d'un fichier,
+     * sa taille et sa date de modification étant
+     * déjà connues (par sa route).
+     *
+     * Le fichier a pu disparaître depuis : l'erreur
+     * de lecture est laissée à l'appelant.
+     *
+     * @param file
+     * @param encoding
+     * @param length
+     * @param lastModified
+     * @return
+     * @throws IOException si le fichier n'a pas pu être lu.
+     */
+    public static byte[] getCompressedContentFile(@NotNull File file, @NotNull String encoding, long length, long lastModified) throws IOException {
+        return contentCache.lookupCompressed(file, encoding, length, lastModified);
+    }
+
+    /**
+     * Obtenir le cache en mémoire du contenu
+     * des documents du serveur.
+     *
+     * @return
+     */
+    public static ContentCache getContentCache() {
+        return contentCache;
+    }
 
-        return authenticationFileName;
+    /**
+     * Charger le contenu d'un document du serveur
+     * sous la forme d'une chaine de caractères.
+     *
+     * @param documentFilename
+     * @return
+     */
+    public static String getContentDocumentFileAsString(@NotNull String documentFilename) {
+        return new String(getContentDocumentFileAsBytes(documentFilename));
     }
 
     /**
-     * Obtenir le contenu du fichier d'authentification
-     * pour le répertoire protégé d'un document du serveur.
+     * Vérifier si un document du serveur
+     * est protégé, car contenu dans un
+     * répertoire de documents protégé.
      *
      * @param documentFilename
      * @return
      */
-    public static String getContentAuthenticationFileFor(@NotNull String documentFilename) {
-        return getContentDocumentFileAsString(getAuthenticationFileNameFor(documentFilename));
+    public static boolean documentFileIsInProtectedDirectory(@NotNull String documentFilename) {
+        return AuthenticationManager.getAuthenticationFileFor(documentFilename) != null;
     }
 
     /**
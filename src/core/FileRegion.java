@@ -0,0 +1,153 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Classe pour l'envoi d'une portion de fichier
+ * sur une connexion, sans copie du contenu dans
+ * le tas JAVA : le système d'exploitation copie
+ * directement le fichier vers la connexion
+ * (sendfile).
+ *
+ * Une portion peut être découpée en portions plus
+ * petites (trames HTTP/2) partageant le même canal
+ * de fichier, fermé avec la dernière d'entre elles.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class FileRegion implements Closeable {
+    //Canal du fichier envoyé.
+    private final FileChannel fileChannel;
+    //Position du prochain octet à envoyer.
+    private long position;
+    //Position de fin (exclue) de la portion.
+    private final long end;
+    //Nombre de portions ouvertes partageant
+    //le canal du fichier.
+    private final AtomicInteger references;
+    //Si la portion a été fermée.
+    private boolean closed;
+
+    /**
+     * Créer un objet core.FileRegion pour
+     * un fichier entier.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public FileRegion(@NotNull File file) throws IOException {
+        this(file, 0, file.length());
+    }
+
+    /**
+     * Créer un objet core.FileRegion pour
+     * une portion d'un fichier.
+     *
+     * @param file
+     * @param position
+     * @param count
+     * @throws IOException
+     */
+    public FileRegion(@NotNull File file, long position, long count) throws IOException {
+        this(FileChannel.open(file.toPath(), StandardOpenOption.READ), position, count, new AtomicInteger(1));
+    }
+
+    /**
+     * Créer un objet core.FileRegion partageant
+     * le canal d'un fichier.
+     *
+     * @param fileChannel
+     * @param position
+     * @param count
+     * @param references
+     */
+    private FileRegion(@NotNull FileChannel fileChannel, long position, long count, @NotNull AtomicInteger references) {
+        this.fileChannel = fileChannel;
+        this.position = position;
+        this.end = position + count;
+        this.references = references;
+        this.closed = false;
+    }
+
+    /**
+     * Obtenir le nombre d'octets restant
+     * à envoyer.
+     *
+     * @return
+     */
+    public long remaining() {
+        return end - position;
+    }
+
+    /**
+     * Découper le début de la portion restant à
+     * envoyer : la portion obtenue partage le
+     * canal du fichier, et la portion courante
+     * reprend après elle.
+     *
+     * @param count
+     * @return
+     */
+    public FileRegion slice(long count) {
+        references.incrementAndGet();
+        FileRegion fileRegion = new FileRegion(fileChannel, position, count, references);
+        position += count;
+        return fileRegion;
+    }
+
+    /**
+     * Envoyer ce qui peut l'être de la portion
+     * de fichier sur un canal.
+     *
+     * Sur un canal non bloquant, l'envoi peut
+     * s'arrêter avant la fin si le tampon d'envoi
+     * du système est plein.
+     *
+     * @param channel
+     * @return true si toute la portion a été envoyée.
+     * @throws IOException
+     */
+    public boolean transferTo(@NotNull WritableByteChannel channel) throws IOException {
+        while(position < end) {
+            long countTransferred = fileChannel.transferTo(position, end - position, channel);
+            if(countTransferred <= 0) {
+                //Si le fichier a été raccourci entre-temps.
+                if(position >= fileChannel.size()) {
+                    throw new EOFException("Fichier raccourci pendant son envoi !");
+                }
+                return false;
+            }
+            position += countTransferred;
+        }
+        return true;
+    }
+
+    /**
+     * Fermer la portion, et le fichier s'il n'est
+     * plus partagé.
+     */
+    @Override
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        if(references.decrementAndGet() > 0) {
+            return;
+        }
+        try {
+            fileChannel.close();
+        } catch (IOException exception) {
+            //Le fichier est déjà fermé.
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import tool.HpackTool;
+import tool.HuffmanTool;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.function.BiConsumer;
+
+/**
+ * Classe pour le décodage des entêtes compressés
+ * (HPACK) des requêtes HTTP/2 d'une connexion.
+ *
+ * La table dynamique est propre à la connexion :
+ * les blocs d'entêtes doivent être décodés dans
+ * l'ordre de leur réception.
+ *
+ * Voir : https://httpwg.org/specs/rfc7541.html
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class HpackDecoder {
+    //Taille maximale de la table dynamique, en octets
+    //(valeur par défaut du réglage HTTP/2, conservée
+    //par le serveur).
+    public final static int MAX_TABLE_SIZE = 4096;
+    //Surcoût de chaque entrée de la table dynamique.
+    private final static int ENTRY_OVERHEAD = 32;
+    //Table dynamique : entrées (nom, valeur), de la
+    //plus récente à la plus ancienne.
+    private final ArrayDeque<String[]> dynamicTable;
+    //Taille de la table dynamique.
+    private int tableSize;
+    //Taille maximale en cours de la table dynamique.
+    private int maxTableSize;
+    //Bloc d'entêtes en cours de décodage.
+    private byte[] bytes;
+    //Position de lecture dans le bloc.
+    private int position;
+
+    /**
+     * Créer un objet core.HpackDecoder.
+     */
+    public HpackDecoder() {
+        dynamicTable = new ArrayDeque<String[]>();
+        tableSize = 0;
+        maxTableSize = MAX_TABLE_SIZE;
+    }
+
+    /**
+     * Décoder un bloc d'entêtes complet, chaque
+     * entête étant transmis dans son ordre.
+     *
+     * @param block
+     * @param maxHeadersSize taille maximale des entêtes décodés.
+     * @param consumer
+     * @throws Http2Exception si le bloc est mal codé (erreur de la connexion).
+     */
+    public void decode(@NotNull byte[] block, int maxHeadersSize, @NotNull BiConsumer<String, String> consumer) {
+        bytes = block;
+        position = 0;
+        long headersSize = 0;
+        try {
+            while(position < bytes.length) {
+                int b = bytes[position] & 0xFF;
+                String[] header;
+                //Entête indexé.
+                if((b & 0x80) != 0) {
+                    header = getEntry(decodeInteger(7));
+                //Entête littéral ajouté à la table dynamique.
+                } else if((b & 0x40) != 0) {
+                    header = decodeLiteral(6);
+                    addEntry(header);
+                //Mise à jour de la taille de la table dynamique.
+                } else if((b & 0x20) != 0) {
+                    int size = decodeInteger(5);
+                    if(size > MAX_TABLE_SIZE) {
+                        throw compressionError("Taille de table dynamique trop grande !");
+                    }
+                    maxTableSize = size;
+                    evict(0);
+                    continue;
+                //Entête littéral non indexé, ou jamais indexé.
+                } else {
+                    header = decodeLiteral(4);
+                }
+                headersSize += header[0].length() + header[1].length() + ENTRY_OVERHEAD;
+                if(headersSize > maxHeadersSize) {
+                    throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "Entêtes de la requête HTTP/2 trop longs !");
+                }
+                consumer.accept(header[0], header[1]);
+            }
+        } catch (ArrayIndexOutOfBoundsException exception) {
+            throw compressionError("Bloc d'entêtes tronqué !");
+        } finally {
+            bytes = null;
+        }
+    }
+
+    /**
+     * Décoder un entête littéral, au nom
+     * indexé ou littéral.
+     *
+     * @param prefixBits
+     * @return
+     */
+    private String[] decodeLiteral(int prefixBits) {
+        int index = decodeInteger(prefixBits);
+        String name = index == 0 ? decodeString() : getEntry(index)[0];
+        String value = decodeString();
+        return new String[]{name, value};
+    }
+
+    /**
+     * Décoder un entier sur un préfixe de bits
+     * de l'octet en cours.
+     *
+     * @param prefixBits
+     * @return
+     */
+    private int decodeInteger(int prefixBits) {
+        int maxPrefix = (1 << prefixBits) - 1;
+        int value = bytes[position++] & maxPrefix;
+        if(value < maxPrefix) {
+            return value;
+        }
+        int shift = 0;
+        int b;
+        do {
+            b = bytes[position++] & 0xFF;
+            if(shift > 21) {
+                throw compressionError("Entier trop grand !");
+            }
+            value += (b & 0x7F) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Décoder une chaîne, codée ou non
+     * avec le codage de Huffman.
+     *
+     * @return
+     */
+    private String decodeString() {
+        boolean huffman = (bytes[position] & 0x80) != 0;
+        int length = decodeInteger(7);
+        if(length > bytes.length - position) {
+            throw compressionError("Chaîne tronquée !");
+        }
+        byte[] stringBytes;
+        if(huffman) {
+            try {
+                stringBytes = HuffmanTool.decode(bytes, position, length);
+            } catch (IllegalArgumentException exception) {
+                throw compressionError(exception.getMessage());
+            }
+        } else {
+            stringBytes = new byte[length];
+            System.arraycopy(bytes, position, stringBytes, 0, length);
+        }
+        position += length;
+        return new String(stringBytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Obtenir une entrée de la table statique
+     * ou de la table dynamique.
+     *
+     * @param index
+     * @return
+     */
+    private String[] getEntry(int index) {
+        if(index > 0 && index < HpackTool.STATIC_TABLE.length) {
+            return HpackTool.STATIC_TABLE[index];
+        }
+        int dynamicIndex = index - HpackTool.STATIC_TABLE.length;
+        if(index <= 0 || dynamicIndex >= dynamicTable.size()) {
+            throw compressionError("Index d'entête invalide : " + index + " !");
+        }
+        Iterator<String[]> iterator = dynamicTable.iterator();
+        for(int i = 0; i < dynamicIndex; i++) {
+            iterator.next();
+        }
+        return iterator.next();
+    }
+
+    /**
+     * Ajouter une entrée à la table dynamique,
+     * en retirant les plus anciennes si besoin.
+     *
+     * @param header
+     */
+    private void addEntry(@NotNull String[] header) {
+        int size = header[0].length() + header[1].length() + ENTRY_OVERHEAD;
+        evict(size);
+        //Une entrée plus grande que la table la vide.
+        if(size <= maxTableSize) {
+            dynamicTable.addFirst(header);
+            tableSize += size;
+        }
+    }
+
+    /**
+     * Retirer les entrées les plus anciennes
+     * pour faire de la place.
+     *
+     * @param neededSize
+     */
+    private void evict(int neededSize) {
+        while(!dynamicTable.isEmpty() && tableSize + neededSize > maxTableSize) {
+            String[] header = dynamicTable.removeLast();
+            tableSize -= header[0].length() + header[1].length() + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * Créer une erreur de décompression
+     * (erreur de la connexion).
+     *
+     * @param message
+     * @return
+     */
+    private static Http2Exception compressionError(@NotNull String message) {
+        return new Http2Exception(Http2Exception.COMPRESSION_ERROR, message);
+    }
+}
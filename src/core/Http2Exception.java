@@ -0,0 +1,78 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Classe pour les erreurs du protocole HTTP/2,
+ * avec le code d'erreur à envoyer au client web :
+ * erreur d'un flux (RST_STREAM), ou de toute la
+ * connexion (GOAWAY).
+ *
+ * Voir : https://httpwg.org/specs/rfc7540.html#ErrorCodes
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class Http2Exception extends RuntimeException {
+    //Version de la classe sérialisable.
+    private final static long serialVersionUID = 1L;
+    //Codes d'erreur.
+    public final static int NO_ERROR = 0x0;
+    public final static int PROTOCOL_ERROR = 0x1;
+    public final static int INTERNAL_ERROR = 0x2;
+    public final static int FLOW_CONTROL_ERROR = 0x3;
+    public final static int STREAM_CLOSED = 0x5;
+    public final static int FRAME_SIZE_ERROR = 0x6;
+    public final static int REFUSED_STREAM = 0x7;
+    public final static int CANCEL = 0x8;
+    public final static int COMPRESSION_ERROR = 0x9;
+    public final static int ENHANCE_YOUR_CALM = 0xb;
+    //Code d'erreur.
+    private final int errorCode;
+    //Identifiant du flux en erreur, 0 pour une
+    //erreur de toute la connexion.
+    private final int streamId;
+
+    /**
+     * Créer un objet core.Http2Exception pour
+     * une erreur de toute la connexion.
+     *
+     * @param errorCode
+     * @param message
+     */
+    public Http2Exception(int errorCode, @NotNull String message) {
+        this(errorCode, 0, message);
+    }
+
+    /**
+     * Créer un objet core.Http2Exception.
+     *
+     * @param errorCode
+     * @param streamId
+     * @param message
+     */
+    public Http2Exception(int errorCode, int streamId, @NotNull String message) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    /**
+     * Obtenir le code d'erreur.
+     *
+     * @return
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Obtenir l'identifiant du flux en erreur,
+     * 0 pour une erreur de toute la connexion.
+     *
+     * @return
+     */
+    public int getStreamId() {
+        return streamId;
+    }
+}
@@ -0,0 +1,1018 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Classe pour une session HTTP/2 en clair (h2c)
+ * sur une connexion TCP : découpage en trames,
+ * entêtes compressés (HPACK), contrôle de flux,
+ * et multiplexage des flux (une requête et sa
+ * réponse par flux).
+ *
+ * La session ne lit ni n'écrit elle-même sur la
+ * connexion : le moteur lui transmet les octets
+ * reçus, et elle lui confie les morceaux à envoyer
+ * (tampons d'octets ou portions de fichier), dans
+ * l'ordre. Les réponses sont construites par un
+ * exécuteur, avec les mêmes constructeurs de
+ * réponses qu'en HTTP 1.
+ *
+ * Voir : https://httpwg.org/specs/rfc7540.html
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class Http2Session {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Si le serveur accepte HTTP/2 en clair.
+    public final static boolean HTTP2_ENABLED = httpServer.getConfigurationPropertyBoolean("http2");
+    //Nombre maximal de flux ouverts en même temps
+    //sur une connexion.
+    private final static int MAX_CONCURRENT_STREAMS = httpServer.getConfigurationPropertyInteger("http2MaxConcurrentStreams");
+    //Préface d'une connexion HTTP/2 envoyée par le
+    //client web.
+    private final static byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    //Fin de la préface, après une commande "PRI"
+    //déjà lue comme une requête HTTP 1.
+    private final static byte[] PREFACE_END = "SM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    //Réponse acceptant le passage de HTTP 1.1
+    //à HTTP/2 (entête Upgrade).
+    public final static byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\n" +
+                                                      "Connection: Upgrade\r\n" +
+                                                      "Upgrade: h2c\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    //Version des requêtes HTTP/2.
+    private final static String VERSION = "2.0";
+    //Taille de l'entête d'une trame.
+    private final static int FRAME_HEADER_SIZE = 9;
+    //Types de trames.
+    private final static int TYPE_DATA = 0x0;
+    private final static int TYPE_HEADERS = 0x1;
+    private final static int TYPE_PRIORITY = 0x2;
+    private final static int TYPE_RST_STREAM = 0x3;
+    private final static int TYPE_SETTINGS = 0x4;
+    private final static int TYPE_PUSH_PROMISE = 0x5;
+    private final static int TYPE_PING = 0x6;
+    private final static int TYPE_GOAWAY = 0x7;
+    private final static int TYPE_WINDOW_UPDATE = 0x8;
+    private final static int TYPE_CONTINUATION = 0x9;
+    //Drapeaux des trames.
+    private final static int FLAG_END_STREAM = 0x1;
+    private final static int FLAG_ACK = 0x1;
+    private final static int FLAG_END_HEADERS = 0x4;
+    private final static int FLAG_PADDED = 0x8;
+    private final static int FLAG_PRIORITY = 0x20;
+    //Réglages.
+    private final static int SETTINGS_ENABLE_PUSH = 0x2;
+    private final static int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private final static int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private final static int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    //Taille par défaut des fenêtres de contrôle de flux.
+    private final static int DEFAULT_WINDOW_SIZE = 65535;
+    //Taille maximale d'une fenêtre de contrôle de flux.
+    private final static long MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+    //Taille par défaut (et minimale) des trames, gardée
+    //pour les trames reçues.
+    private final static int DEFAULT_MAX_FRAME_SIZE = 16384;
+    //Taille maximale des trames.
+    private final static int MAX_FRAME_SIZE = 16777215;
+    //Adresse IP du client web.
+    private final String ipHoteClient;
+    //Exécuteur des constructions de réponses.
+    private final Executor executor;
+    //Envoi de morceaux sur la connexion, dans l'ordre.
+    private final Consumer<List<Object>> output;
+    //Décodeur des entêtes des requêtes.
+    private final HpackDecoder hpackDecoder;
+    //Préface attendue, et nombre de ses octets déjà reçus.
+    private final byte[] expectedPreface;
+    private int prefaceOffset;
+    //Si les réglages du client web ont été reçus.
+    private boolean settingsReceived;
+    //Flux ouverts, dans leur ordre d'ouverture.
+    private final Map<Integer, Http2Stream> streams;
+    //Identifiant du dernier flux ouvert par le client web.
+    private int lastStreamId;
+    //Flux dont les entêtes sont en cours de réception
+    //(trames CONTINUATION attendues), 0 sinon.
+    private int headersStreamId;
+    //Bloc d'entêtes en cours de réception.
+    private final ByteArrayOutputStream headerBlock;
+    //Si le flux se termine avec le bloc d'entêtes.
+    private boolean headersEndStream;
+    //Fenêtre d'envoi de la connexion.
+    private long sendWindow;
+    //Réglages du client web.
+    private int peerInitialWindowSize;
+    private int peerMaxFrameSize;
+    //Si la connexion se termine (GOAWAY envoyé ou reçu) :
+    //plus aucun flux n'est accepté.
+    private boolean goingAway;
+    //Si la session est terminée.
+    private boolean closed;
+    //Date de la dernière activité de la session,
+    //en millisecondes.
+    private long lastActivityTime;
+
+    /**
+     * Créer un objet core.Http2Session, et
+     * envoyer les réglages du serveur.
+     *
+     * @param ipHoteClient
+     * @param executor
+     * @param output
+     * @param priorKnowledge si la commande "PRI" de la préface a déjà été lue.
+     */
+    public Http2Session(@NotNull String ipHoteClient, @NotNull Executor executor, @NotNull Consumer<List<Object>> output, boolean priorKnowledge) {
+        this.ipHoteClient = ipHoteClient;
+        this.executor = executor;
+        this.output = output;
+        hpackDecoder = new HpackDecoder();
+        expectedPreface = priorKnowledge ? PREFACE_END : PREFACE;
+        prefaceOffset = 0;
+        settingsReceived = false;
+        streams = new LinkedHashMap<Integer, Http2Stream>();
+        lastStreamId = 0;
+        headersStreamId = 0;
+        headerBlock = new ByteArrayOutputStream();
+        headersEndStream = false;
+        sendWindow = DEFAULT_WINDOW_SIZE;
+        peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+        peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+        goingAway = false;
+        closed = false;
+        lastActivityTime = System.currentTimeMillis();
+
+        //Réglages du serveur.
+        ByteBuffer settings = ByteBuffer.allocate(FRAME_HEADER_SIZE + 6);
+        putFrameHeader(settings, 6, TYPE_SETTINGS, 0, 0);
+        settings.putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS);
+        settings.putInt(MAX_CONCURRENT_STREAMS);
+        settings.flip();
+        send(settings);
+    }
+
+    /**
+     * Savoir si une requête HTTP 1 est le début
+     * de la préface HTTP/2 (client web sachant
+     * que le serveur accepte HTTP/2).
+     *
+     * @param httpRequest
+     * @return
+     */
+    public static boolean isPreface(@NotNull HttpRequest httpRequest) {
+        return HTTP2_ENABLED
+               && httpRequest.get("Method").equals("PRI")
+               && httpRequest.get("URI").equals("*")
+               && httpRequest.get("Version").equals(VERSION);
+    }
+
+    /**
+     * Savoir si une requête HTTP 1.1 demande le
+     * passage à HTTP/2 en clair (entête Upgrade),
+     * ce qui n'est accepté que sans corps.
+     *
+     * @param httpRequest
+     * @return
+     */
+    public static boolean isUpgrade(@NotNull HttpRequest httpRequest) {
+        if(!HTTP2_ENABLED
+           || !httpRequest.get("Version").equals("1.1")
+           || !httpRequest.contains("Upgrade")
+           || !httpRequest.contains("HTTP2-Settings")
+           || httpRequest.contains("Content-Length")
+           || httpRequest.contains("Transfer-Encoding")) {
+            return false;
+        }
+        for(String protocol : httpRequest.get("Upgrade").split(",")) {
+            if(protocol.trim().equalsIgnoreCase("h2c")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Terminer le passage à HTTP/2 : appliquer les
+     * réglages de l'entête HTTP2-Settings, puis
+     * répondre à la requête HTTP 1.1 sur le flux 1.
+     *
+     * La réponse 101 doit avoir été envoyée avant
+     * la création de la session.
+     *
+     * @param httpRequest
+     */
+    public synchronized void upgrade(@NotNull HttpRequest httpRequest) {
+        try {
+            byte[] settings = Base64.getUrlDecoder().decode(httpRequest.get("HTTP2-Settings").trim());
+            if(settings.length % 6 != 0) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Entête HTTP2-Settings invalide !");
+            }
+            applySettings(ByteBuffer.wrap(settings));
+        } catch (IllegalArgumentException exception) {
+            goAway(Http2Exception.PROTOCOL_ERROR);
+            return;
+        } catch (Http2Exception exception) {
+            goAway(exception.getErrorCode());
+            return;
+        }
+        lastStreamId = 1;
+        Http2Stream stream = new Http2Stream(1, peerInitialWindowSize);
+        stream.httpRequest = httpRequest;
+        streams.put(1, stream);
+        endRemote(stream);
+    }
+
+    /**
+     * Traiter les octets reçus : la préface, puis
+     * les trames complètes. Les octets d'une trame
+     * incomplète restent dans le tampon.
+     *
+     * @param buffer tampon en mode lecture.
+     */
+    public synchronized void receive(@NotNull ByteBuffer buffer) {
+        lastActivityTime = System.currentTimeMillis();
+        try {
+            //Préface du client web.
+            while(prefaceOffset < expectedPreface.length && buffer.hasRemaining()) {
+                if(buffer.get() != expectedPreface[prefaceOffset++]) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Préface HTTP/2 invalide !");
+                }
+            }
+            //Trames complètes.
+            while(!closed && buffer.remaining() >= FRAME_HEADER_SIZE) {
+                int position = buffer.position();
+                int length = ((buffer.get(position) & 0xFF) << 16)
+                             | ((buffer.get(position + 1) & 0xFF) << 8)
+                             | (buffer.get(position + 2) & 0xFF);
+                if(length > DEFAULT_MAX_FRAME_SIZE) {
+                    throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Trame trop longue !");
+                }
+                if(buffer.remaining() < FRAME_HEADER_SIZE + length) {
+                    break;
+                }
+                int type = buffer.get(position + 3) & 0xFF;
+                int flags = buffer.get(position + 4) & 0xFF;
+                int streamId = buffer.getInt(position + 5) & 0x7FFFFFFF;
+                buffer.position(position + FRAME_HEADER_SIZE);
+                ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                buffer.position(position + FRAME_HEADER_SIZE + length);
+                try {
+                    processFrame(type, flags, streamId, payload);
+                } catch (Http2Exception exception) {
+                    //Erreur d'un seul flux.
+                    if(exception.getStreamId() == 0) {
+                        throw exception;
+                    }
+                    resetStream(exception.getStreamId(), exception.getErrorCode());
+                }
+            }
+        } catch (Http2Exception exception) {
+            //Erreur de toute la connexion.
+            goAway(exception.getErrorCode());
+        }
+        flush();
+    }
+
+    /**
+     * Traiter une trame reçue.
+     *
+     * @param type
+     * @param flags
+     * @param streamId
+     * @param payload
+     */
+    private void processFrame(int type, int flags, int streamId, @NotNull ByteBuffer payload) {
+        //Les trames CONTINUATION d'un bloc d'entêtes
+        //se suivent sans interruption.
+        if(headersStreamId != 0 && (type != TYPE_CONTINUATION || streamId != headersStreamId)) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Trame CONTINUATION attendue !");
+        }
+        //La préface se termine par les réglages.
+        if(!settingsReceived && type != TYPE_SETTINGS) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Trame SETTINGS attendue !");
+        }
+        switch (type) {
+            case TYPE_DATA :
+                onData(flags, streamId, payload);
+                break;
+            case TYPE_HEADERS :
+                onHeaders(flags, streamId, payload);
+                break;
+            case TYPE_PRIORITY :
+                //Les priorités sont ignorées.
+                checkStreamFrame(streamId);
+                if(payload.remaining() != 5) {
+                    throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, streamId, "Trame PRIORITY invalide !");
+                }
+                break;
+            case TYPE_RST_STREAM :
+                checkStreamFrame(streamId);
+                if(payload.remaining() != 4) {
+                    throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Trame RST_STREAM invalide !");
+                }
+                if(streamId > lastStreamId) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Trame RST_STREAM d'un flux inconnu !");
+                }
+                closeStream(streams.remove(streamId));
+                break;
+            case TYPE_SETTINGS :
+                onSettings(flags, streamId, payload);
+                break;
+            case TYPE_PUSH_PROMISE :
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Trame PUSH_PROMISE d'un client web !");
+            case TYPE_PING :
+                if(streamId != 0 || payload.remaining() != 8) {
+                    throw new Http2Exception(streamId != 0 ? Http2Exception.PROTOCOL_ERROR : Http2Exception.FRAME_SIZE_ERROR, "Trame PING invalide !");
+                }
+                if((flags & FLAG_ACK) == 0) {
+                    ByteBuffer ping = ByteBuffer.allocate(FRAME_HEADER_SIZE + 8);
+                    putFrameHeader(ping, 8, TYPE_PING, FLAG_ACK, 0);
+                    ping.put(payload);
+                    ping.flip();
+                    send(ping);
+                }
+                break;
+            case TYPE_GOAWAY :
+                if(streamId != 0) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Trame GOAWAY invalide !");
+                }
+                //Les flux en cours se terminent.
+                goingAway = true;
+                break;
+            case TYPE_WINDOW_UPDATE :
+                onWindowUpdate(streamId, payload);
+                break;
+            case TYPE_CONTINUATION :
+                if(headersStreamId == 0) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Trame CONTINUATION inattendue !");
+                }
+                appendHeaderBlock(payload);
+                if((flags & FLAG_END_HEADERS) != 0) {
+                    endHeaders();
+                }
+                break;
+            default :
+                //Les types de trames inconnus sont ignorés.
+                break;
+        }
+    }
+
+    /**
+     * Vérifier qu'une trame concerne un flux.
+     *
+     * @param streamId
+     */
+    private void checkStreamFrame(int streamId) {
+        if(streamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Trame sans flux !");
+        }
+    }
+
+    /**
+     * Traiter une trame DATA : le corps des requêtes
+     * est ignoré, les fenêtres de réception sont
+     * aussitôt rouvertes.
+     *
+     * @param flags
+     * @param streamId
+     * @param payload
+     */
+    private void onData(int flags, int streamId, @NotNull ByteBuffer payload) {
+        checkStreamFrame(streamId);
+        int length = payload.remaining();
+        if((flags & FLAG_PADDED) != 0 && (length == 0 || (payload.get(0) & 0xFF) >= length)) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Bourrage invalide !");
+        }
+        if(length > 0) {
+            sendWindowUpdate(0, length);
+        }
+        Http2Stream stream = streams.get(streamId);
+        if(stream == null || stream.remoteClosed) {
+            if(streamId > lastStreamId) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Trame DATA d'un flux inconnu !");
+            }
+            throw new Http2Exception(Http2Exception.STREAM_CLOSED, streamId, "Trame DATA d'un flux fermé !");
+        }
+        if((flags & FLAG_END_STREAM) != 0) {
+            endRemote(stream);
+        } else if(length > 0) {
+            sendWindowUpdate(streamId, length);
+        }
+    }
+
+    /**
+     * Traiter une trame HEADERS : début d'une
+     * requête, ou entêtes de fin de son corps.
+     *
+     * @param flags
+     * @param streamId
+     * @param payload
+     */
+    private void onHeaders(int flags, int streamId, @NotNull ByteBuffer payload) {
+        if(streamId == 0 || streamId % 2 == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Flux invalide !");
+        }
+        int padding = 0;
+        if((flags & FLAG_PADDED) != 0) {
+            if(!payload.hasRemaining()) {
+                throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Trame HEADERS invalide !");
+            }
+            padding = payload.get() & 0xFF;
+        }
+        if((flags & FLAG_PRIORITY) != 0) {
+            if(payload.remaining() < 5) {
+                throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Trame HEADERS invalide !");
+            }
+            payload.position(payload.position() + 5);
+        }
+        if(padding > payload.remaining()) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Bourrage invalide !");
+        }
+        payload.limit(payload.limit() - padding);
+
+        Http2Stream stream = streams.get(streamId);
+        //Entêtes de fin du corps de la requête.
+        if(stream != null) {
+            if(stream.remoteClosed || (flags & FLAG_END_STREAM) == 0) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Trame HEADERS inattendue !");
+            }
+        //Nouvelle requête.
+        } else {
+            if(streamId <= lastStreamId) {
+                throw new Http2Exception(Http2Exception.STREAM_CLOSED, "Trame HEADERS d'un flux fermé !");
+            }
+            lastStreamId = streamId;
+        }
+        headersStreamId = streamId;
+        headersEndStream = (flags & FLAG_END_STREAM) != 0;
+        headerBlock.reset();
+        appendHeaderBlock(payload);
+        if((flags & FLAG_END_HEADERS) != 0) {
+            endHeaders();
+        }
+    }
+
+    /**
+     * Ajouter un morceau au bloc d'entêtes en
+     * cours de réception.
+     *
+     * @param payload
+     */
+    private void appendHeaderBlock(@NotNull ByteBuffer payload) {
+        if(headerBlock.size() + payload.remaining() > HttpRequestParser.MAX_HEADERS_SIZE) {
+            throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "Entêtes de la requête HTTP/2 trop longs !");
+        }
+        while(payload.hasRemaining()) {
+            headerBlock.write(payload.get());
+        }
+    }
+
+    /**
+     * Décoder un bloc d'entêtes complet, et
+     * ouvrir le flux de la requête.
+     */
+    private void endHeaders() {
+        int streamId = headersStreamId;
+        headersStreamId = 0;
+        byte[] block = headerBlock.toByteArray();
+        headerBlock.reset();
+
+        //Entêtes de fin du corps, décodés pour la
+        //table dynamique mais ignorés.
+        Http2Stream stream = streams.get(streamId);
+        if(stream != null) {
+            hpackDecoder.decode(block, HttpRequestParser.MAX_HEADERS_SIZE, (name, value) -> {});
+            endRemote(stream);
+            return;
+        }
+
+        //Pseudo-entêtes (":method", ":path"...) et entêtes.
+        HttpHeaders pseudoHeaders = new HttpHeaders();
+        HttpHeaders headers = new HttpHeaders();
+        StringBuilder cookies = new StringBuilder();
+        hpackDecoder.decode(block, HttpRequestParser.MAX_HEADERS_SIZE, (name, value) -> {
+            if(name.startsWith(":")) {
+                pseudoHeaders.add(name, value);
+            //Les cookies peuvent être en plusieurs entêtes.
+            } else if(name.equals("cookie")) {
+                cookies.append(cookies.length() == 0 ? "" : "; ").append(value);
+            } else {
+                headers.add(name, value);
+            }
+        });
+        if(cookies.length() > 0) {
+            headers.add("cookie", cookies.toString());
+        }
+
+        //Si la connexion se termine, ou si trop de
+        //flux sont ouverts.
+        if(goingAway || streams.size() >= MAX_CONCURRENT_STREAMS) {
+            throw new Http2Exception(Http2Exception.REFUSED_STREAM, streamId, "Flux refusé !");
+        }
+        String method = pseudoHeaders.get(":method");
+        String path = pseudoHeaders.get(":path");
+        if(method == null || path == null || pseudoHeaders.get(":scheme") == null) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Pseudo-entêtes de la requête HTTP/2 manquants !");
+        }
+        //L'hôte demandé est dans le pseudo-entête ":authority".
+        String authority = pseudoHeaders.get(":authority");
+        if(authority != null && !headers.contains("Host")) {
+            headers.add("Host", authority);
+        }
+
+        stream = new Http2Stream(streamId, peerInitialWindowSize);
+        stream.httpRequest = new HttpRequest(method, path, VERSION, headers);
+        streams.put(streamId, stream);
+        if(headersEndStream) {
+            endRemote(stream);
+        }
+    }
+
+    /**
+     * Traiter une trame SETTINGS.
+     *
+     * @param flags
+     * @param streamId
+     * @param payload
+     */
+    private void onSettings(int flags, int streamId, @NotNull ByteBuffer payload) {
+        if(streamId != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Trame SETTINGS invalide !");
+        }
+        //Accusé de réception des réglages du serveur.
+        if((flags & FLAG_ACK) != 0) {
+            if(payload.hasRemaining()) {
+                throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Trame SETTINGS invalide !");
+            }
+            return;
+        }
+        if(payload.remaining() % 6 != 0) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Trame SETTINGS invalide !");
+        }
+        applySettings(payload);
+        settingsReceived = true;
+        ByteBuffer ack = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        putFrameHeader(ack, 0, TYPE_SETTINGS, FLAG_ACK, 0);
+        ack.flip();
+        send(ack);
+    }
+
+    /**
+     * Appliquer des réglages du client web.
+     *
+     * @param settings
+     */
+    private void applySettings(@NotNull ByteBuffer settings) {
+        while(settings.remaining() >= 6) {
+            int id = settings.getShort() & 0xFFFF;
+            long value = settings.getInt() & 0xFFFFFFFFL;
+            switch (id) {
+                case SETTINGS_ENABLE_PUSH :
+                    if(value > 1) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Réglage SETTINGS_ENABLE_PUSH invalide !");
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE :
+                    if(value > MAX_WINDOW_SIZE) {
+                        throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Réglage SETTINGS_INITIAL_WINDOW_SIZE invalide !");
+                    }
+                    //Les fenêtres des flux ouverts changent d'autant.
+                    long delta = value - peerInitialWindowSize;
+                    for(Http2Stream stream : streams.values()) {
+                        stream.sendWindow += delta;
+                        if(stream.sendWindow > MAX_WINDOW_SIZE) {
+                            throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Fenêtre de flux trop grande !");
+                        }
+                    }
+                    peerInitialWindowSize = (int) value;
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE :
+                    if(value < DEFAULT_MAX_FRAME_SIZE || value > MAX_FRAME_SIZE) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Réglage SETTINGS_MAX_FRAME_SIZE invalide !");
+                    }
+                    peerMaxFrameSize = (int) value;
+                    break;
+                default :
+                    //Les autres réglages ne concernent pas
+                    //le serveur, ou sont inconnus.
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Traiter une trame WINDOW_UPDATE.
+     *
+     * @param streamId
+     * @param payload
+     */
+    private void onWindowUpdate(int streamId, @NotNull ByteBuffer payload) {
+        if(payload.remaining() != 4) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Trame WINDOW_UPDATE invalide !");
+        }
+        int increment = payload.getInt() & 0x7FFFFFFF;
+        if(increment == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Trame WINDOW_UPDATE nulle !");
+        }
+        //Fenêtre de la connexion.
+        if(streamId == 0) {
+            sendWindow += increment;
+            if(sendWindow > MAX_WINDOW_SIZE) {
+                throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Fenêtre de connexion trop grande !");
+            }
+            return;
+        }
+        //Fenêtre d'un flux.
+        Http2Stream stream = streams.get(streamId);
+        if(stream != null) {
+            stream.sendWindow += increment;
+            if(stream.sendWindow > MAX_WINDOW_SIZE) {
+                throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Fenêtre de flux trop grande !");
+            }
+        }
+    }
+
+    /**
+     * Noter la fin de la requête d'un flux, et
+     * confier la construction de sa réponse à
+     * l'exécuteur.
+     *
+     * @param stream
+     */
+    private void endRemote(@NotNull Http2Stream stream) {
+        stream.remoteClosed = true;
+        if(stream.dispatched) {
+            return;
+        }
+        stream.dispatched = true;
+        HttpRequest httpRequest = stream.httpRequest;
+
+        try {
+            executor.execute(() -> respond(stream, httpRequest));
+        } catch (RejectedExecutionException exception) {
+            //Exécuteur saturé : le client web peut
+            //réessayer la requête.
+            resetStream(stream.id, Http2Exception.REFUSED_STREAM);
+        }
+    }
+
+    /**
+     * Construire la réponse à la requête d'un
+     * flux (dans un thread de l'exécuteur).
+     *
+     * @param stream
+     * @param httpRequest
+     */
+    private void respond(@NotNull Http2Stream stream, @NotNull HttpRequest httpRequest) {
+        byte[] headersBlock;
+        List<Object> contentOutputs;
+        try {
+            HttpResponse httpResponse = new HttpResponse(httpRequest, HttpConnection.KEEP_ALIVE_MAX_REQUESTS);
+            headersBlock = httpResponse.encodeHttp2Headers();
+            stream.accessLogEntry = AccessLog.prepare(ipHoteClient, httpRequest, httpResponse);
+            //Une réponse à une requête HEAD, ou non modifiée,
+            //n'a pas de corps.
+            if(!httpResponse.sendsContent()) {
+                contentOutputs = new ArrayList<Object>();
+                if(stream.accessLogEntry != null) {
+                    stream.accessLogEntry.withoutContent();
+                }
+            } else {
+                contentOutputs = httpResponse.openContentOutputs();
+            }
+        } catch (IOException | RuntimeException exception) {
+            synchronized (this) {
+                resetStream(stream.id, Http2Exception.INTERNAL_ERROR);
+                flush();
+            }
+            return;
+        }
+        complete(stream, headersBlock, contentOutputs);
+    }
+
+    /**
+     * Enregistrer la réponse construite d'un flux,
+     * puis envoyer ce qui peut l'être.
+     *
+     * @param stream
+     * @param headersBlock
+     * @param contentOutputs
+     */
+    private synchronized void complete(@NotNull Http2Stream stream, @NotNull byte[] headersBlock, @NotNull List<Object> contentOutputs) {
+        //Si le flux a été annulé entre-temps.
+        if(closed || streams.get(stream.id) != stream) {
+            HttpResponse.closeOutputs(contentOutputs);
+            return;
+        }
+        stream.headersBlock = headersBlock;
+        for(Object contentOutput : contentOutputs) {
+            if(remaining(contentOutput) > 0) {
+                stream.dataOutputs.add(contentOutput);
+            } else {
+                HttpResponse.closeOutput(contentOutput);
+            }
+        }
+        lastActivityTime = System.currentTimeMillis();
+        flush();
+    }
+
+    /**
+     * Envoyer les entêtes des réponses prêtes, puis
+     * leurs données, une trame par flux à tour de
+     * rôle, dans la limite des fenêtres d'envoi.
+     */
+    private void flush() {
+        if(closed) {
+            return;
+        }
+        List<Object> frames = new ArrayList<Object>();
+        //Entêtes des réponses prêtes.
+        for(Http2Stream stream : streams.values()) {
+            if(stream.headersBlock != null && !stream.headersSent) {
+                putHeadersFrames(frames, stream);
+            }
+        }
+        //Données des réponses : les flux se partagent
+        //la connexion (multiplexage).
+        boolean progress = true;
+        while(progress && sendWindow > 0) {
+            progress = false;
+            for(Http2Stream stream : streams.values()) {
+                if(!stream.headersSent || stream.done || stream.sendWindow <= 0 || sendWindow <= 0) {
+                    continue;
+                }
+                putDataFrame(frames, stream);
+                progress = true;
+            }
+        }
+        //Réponses entièrement envoyées : leurs entrées
+        //sont écrites dans le journal des accès.
+        for(Iterator<Http2Stream> iterator = streams.values().iterator(); iterator.hasNext();) {
+            Http2Stream stream = iterator.next();
+            if(stream.done) {
+                AccessLog.log(stream.accessLogEntry);
+                iterator.remove();
+            }
+        }
+        if(!frames.isEmpty()) {
+            output.accept(frames);
+        }
+    }
+
+    /**
+     * Ajouter les trames des entêtes d'une réponse :
+     * une trame HEADERS, suivie de trames CONTINUATION
+     * si le bloc d'entêtes est trop long.
+     *
+     * @param frames
+     * @param stream
+     */
+    private void putHeadersFrames(@NotNull List<Object> frames, @NotNull Http2Stream stream) {
+        byte[] block = stream.headersBlock;
+        boolean endStream = stream.dataOutputs.isEmpty();
+        int offset = 0;
+        int type = TYPE_HEADERS;
+        do {
+            int length = Math.min(block.length - offset, peerMaxFrameSize);
+            int flags = (offset + length == block.length ? FLAG_END_HEADERS : 0)
+                        | (type == TYPE_HEADERS && endStream ? FLAG_END_STREAM : 0);
+            ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + length);
+            putFrameHeader(frame, length, type, flags, stream.id);
+            frame.put(block, offset, length);
+            frame.flip();
+            frames.add(frame);
+            offset += length;
+            type = TYPE_CONTINUATION;
+        } while(offset < block.length);
+        stream.headersSent = true;
+        stream.headersBlock = null;
+        stream.done = endStream;
+    }
+
+    /**
+     * Ajouter une trame DATA d'une réponse, la plus
+     * grande permise par les fenêtres d'envoi, sans
+     * copie du contenu.
+     *
+     * @param frames
+     * @param stream
+     */
+    private void putDataFrame(@NotNull List<Object> frames, @NotNull Http2Stream stream) {
+        Object contentOutput = stream.dataOutputs.peek();
+        long remaining = remaining(contentOutput);
+        int length = (int) Math.min(Math.min(remaining, peerMaxFrameSize), Math.min(stream.sendWindow, sendWindow));
+        Object data;
+        if(length == remaining) {
+            data = stream.dataOutputs.poll();
+        } else if(contentOutput instanceof FileRegion) {
+            data = ((FileRegion) contentOutput).slice(length);
+        } else {
+            ByteBuffer buffer = (ByteBuffer) contentOutput;
+            ByteBuffer slice = buffer.slice();
+            slice.limit(length);
+            buffer.position(buffer.position() + length);
+            data = slice;
+        }
+        boolean endStream = stream.dataOutputs.isEmpty();
+
+        ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        putFrameHeader(frameHeader, length, TYPE_DATA, endStream ? FLAG_END_STREAM : 0, stream.id);
+        frameHeader.flip();
+        frames.add(frameHeader);
+        frames.add(data);
+        stream.sendWindow -= length;
+        sendWindow -= length;
+        stream.done = endStream;
+    }
+
+    /**
+     * Obtenir le nombre d'octets restant à envoyer
+     * d'un morceau de contenu.
+     *
+     * @param contentOutput
+     * @return
+     */
+    private static long remaining(@NotNull Object contentOutput) {
+        return contentOutput instanceof FileRegion ? ((FileRegion) contentOutput).remaining() : ((ByteBuffer) contentOutput).remaining();
+    }
+
+    /**
+     * Annuler un flux (trame RST_STREAM).
+     *
+     * @param streamId
+     * @param errorCode
+     */
+    private void resetStream(int streamId, int errorCode) {
+        closeStream(streams.remove(streamId));
+        ByteBuffer reset = ByteBuffer.allocate(FRAME_HEADER_SIZE + 4);
+        putFrameHeader(reset, 4, TYPE_RST_STREAM, 0, streamId);
+        reset.putInt(errorCode);
+        reset.flip();
+        send(reset);
+    }
+
+    /**
+     * Libérer les morceaux d'une réponse non
+     * envoyés d'un flux terminé.
+     *
+     * @param stream
+     */
+    private static void closeStream(Http2Stream stream) {
+        if(stream == null) {
+            return;
+        }
+        while(!stream.dataOutputs.isEmpty()) {
+            HttpResponse.closeOutput(stream.dataOutputs.poll());
+        }
+    }
+
+    /**
+     * Rouvrir une fenêtre de réception
+     * (trame WINDOW_UPDATE).
+     *
+     * @param streamId
+     * @param increment
+     */
+    private void sendWindowUpdate(int streamId, int increment) {
+        ByteBuffer windowUpdate = ByteBuffer.allocate(FRAME_HEADER_SIZE + 4);
+        putFrameHeader(windowUpdate, 4, TYPE_WINDOW_UPDATE, 0, streamId);
+        windowUpdate.putInt(increment);
+        windowUpdate.flip();
+        send(windowUpdate);
+    }
+
+    /**
+     * Terminer la connexion (trame GOAWAY) : les
+     * flux en cours sont abandonnés.
+     *
+     * @param errorCode
+     */
+    public synchronized void goAway(int errorCode) {
+        if(closed) {
+            return;
+        }
+        ByteBuffer goAway = ByteBuffer.allocate(FRAME_HEADER_SIZE + 8);
+        putFrameHeader(goAway, 8, TYPE_GOAWAY, 0, 0);
+        goAway.putInt(lastStreamId);
+        goAway.putInt(errorCode);
+        goAway.flip();
+        send(goAway);
+        goingAway = true;
+        close();
+    }
+
+    /**
+     * Envoyer une trame de contrôle.
+     *
+     * @param frame
+     */
+    private void send(@NotNull ByteBuffer frame) {
+        List<Object> frames = new ArrayList<Object>(1);
+        frames.add(frame);
+        output.accept(frames);
+    }
+
+    /**
+     * Ecrire l'entête d'une trame.
+     *
+     * @param buffer
+     * @param length
+     * @param type
+     * @param flags
+     * @param streamId
+     */
+    private static void putFrameHeader(@NotNull ByteBuffer buffer, int length, int type, int flags, int streamId) {
+        buffer.put((byte) (length >>> 16));
+        buffer.put((byte) (length >>> 8));
+        buffer.put((byte) length);
+        buffer.put((byte) type);
+        buffer.put((byte) flags);
+        buffer.putInt(streamId);
+    }
+
+    /**
+     * Savoir si la session est terminée.
+     *
+     * @return
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Savoir si la session n'a aucun flux ouvert
+     * depuis plus longtemps que le délai
+     * d'inactivité.
+     *
+     * @param now
+     * @return
+     */
+    public synchronized boolean isIdle(long now) {
+        return streams.isEmpty()
+               && now - lastActivityTime > HttpConnection.KEEP_ALIVE_TIMEOUT * 1000L;
+    }
+
+    /**
+     * Terminer la session : les morceaux de
+     * réponses non envoyés sont libérés.
+     */
+    public synchronized void close() {
+        closed = true;
+        for(Http2Stream stream : streams.values()) {
+            closeStream(stream);
+        }
+        streams.clear();
+    }
+
+    /**
+     * Flux HTTP/2 : une requête et sa réponse.
+     */
+    private static class Http2Stream {
+        //Identifiant du flux.
+        private final int id;
+        //Fenêtre d'envoi du flux.
+        private long sendWindow;
+        //Requête du flux.
+        private HttpRequest httpRequest;
+        //Si la requête est entièrement reçue.
+        private boolean remoteClosed;
+        //Si la construction de la réponse est lancée.
+        private boolean dispatched;
+        //Bloc d'entêtes de la réponse, tant qu'il
+        //n'est pas envoyé.
+        private byte[] headersBlock;
+        //Si les entêtes de la réponse sont envoyés.
+        private boolean headersSent;
+        //Morceaux du contenu de la réponse restant
+        //à envoyer.
+        private final Deque<Object> dataOutputs;
+        //Si la réponse est entièrement envoyée.
+        private boolean done;
+        //Entrée du journal des accès de la
+        //réponse, ou null.
+        private AccessLog.Entry accessLogEntry;
+
+        private Http2Stream(int id, int sendWindow) {
+            this.id = id;
+            this.sendWindow = sendWindow;
+            this.dataOutputs = new ArrayDeque<Object>();
+        }
+    }
+}
@@ -3,8 +3,19 @@ package core;
 import org.jetbrains.annotations.NotNull;
 import java.io.*;
 import java.net.Socket;
-import java.util.List;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Classe pour la gestion des connexions HTTP.
@@ -15,16 +26,65 @@ import java.util.ArrayList;
 public class HttpConnection {
     //Singleton serveur HTTP.
     private final static HttpServer httpServer = HttpServer.getInstance();
+    //Durée maximale d'inactivité d'une connexion
+    //conservée, en secondes.
+    public final static int KEEP_ALIVE_TIMEOUT = httpServer.getConfigurationPropertyInteger("keepAliveTimeout");
+    //Nombre maximal de requêtes HTTP sur une
+    //même connexion.
+    public final static int KEEP_ALIVE_MAX_REQUESTS = httpServer.getConfigurationPropertyInteger("keepAliveMaxRequests");
+    //Nombre maximal de requêtes en pipeline (reçues
+    //avant l'envoi des réponses précédentes) traitées
+    //ensemble sur une connexion.
+    public final static int PIPELINING_MAX_REQUESTS = httpServer.getConfigurationPropertyInteger("pipeliningMaxRequests");
+    //Si les réponses aux requêtes en pipeline
+    //idempotentes sont construites en parallèle.
+    public final static boolean PIPELINING_PARALLEL = httpServer.getConfigurationPropertyBoolean("pipeliningParallel");
+    //Recherche périodique des connexions HTTP/2
+    //inactives : leur lecture n'a pas de délai.
+    private final static ScheduledExecutorService http2IdleChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "http2-idle-checker");
+        thread.setDaemon(true);
+        return thread;
+    });
     //"Prise" sur le réseau : connexion TCP.
     private Socket socket;
     //Adresse IP du client web.
     private String ipHoteClient;
     //Flux d'entrée de la connexion.
-    private BufferedReader inputStream;
+    private InputStream inputStream;
+    //Tampon de lecture des requêtes HTTP,
+    //réutilisé d'une requête à l'autre (en
+    //mode écriture entre deux lectures).
+    private ByteBuffer inputBuffer;
+    //Analyseur des requêtes HTTP reçues.
+    private HttpRequestParser httpRequestParser;
     //Flux de sortie de la connexion.
     private BufferedOutputStream outputStream;
     //Dernière requête HTTP reçue.
     private HttpRequest lastHttpRequest;
+    //Dernières requêtes HTTP reçues, auxquelles
+    //répondre ensemble (requêtes en pipeline).
+    private List<HttpRequest> pipelinedHttpRequests;
+    //Erreur d'une requête mal formée reçue après
+    //les dernières requêtes, s'il y en a une.
+    private HttpRequestException pipelinedBadRequest;
+    //Nombre de requêtes HTTP reçues sur la connexion.
+    private int countRequests;
+    //Session HTTP/2 de la connexion, si le client
+    //web est passé à HTTP/2.
+    private Http2Session http2Session;
+
+    /**
+     * Etats d'une connexion HTTP.
+     */
+    private enum State {
+        //Attente de la prochaine requête HTTP.
+        WAITING_REQUEST,
+        //Envoi de la réponse à la dernière requête HTTP.
+        RESPONDING,
+        //Arrêt de la connexion.
+        CLOSING
+    }
 
     /**
      * Créer un objet core.HttpConnection
@@ -46,7 +106,28 @@ public class HttpConnection {
         //réponses HTTP.
         loadOutputStream();
         //Au début pas de requête.
+        inputBuffer = ByteBuffer.allocate(HttpRequestParser.INITIAL_BUFFER_SIZE);
+        httpRequestParser = new HttpRequestParser();
         lastHttpRequest = null;
+        pipelinedHttpRequests = new ArrayList<HttpRequest>();
+        pipelinedBadRequest = null;
+        countRequests = 0;
+        http2Session = null;
+        //Délai d'inactivité de la connexion.
+        loadIdleTimeout();
+    }
+
+    /**
+     * Charger le délai d'inactivité de la
+     * connexion TCP : un client web muet
+     * ne bloque pas un thread indéfiniment.
+     */
+    public void loadIdleTimeout() {
+        try {
+            socket.setSoTimeout(KEEP_ALIVE_TIMEOUT * 1000);
+        } catch (IOException exception) {
+            httpServer.logErrorAndExit("Erreur au paramétrage du délai d'une connexion TCP !", exception);
+        }
     }
 
     /**
@@ -56,7 +137,7 @@ public class HttpConnection {
      */
     public void loadInputStream() {
         try {
-            inputStream = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            inputStream = socket.getInputStream();
         } catch (IOException exception) {
            httpServer.logErrorAndExit("Erreur au chargement du flux d'entrée d'une connexion TCP !", exception);
         }
@@ -82,86 +163,375 @@ public class HttpConnection {
      * @param socket
      */
     public static void handle(@NotNull Socket socket) {
-        //Mise en place de la connexion HTTP.
-        HttpConnection httpConnection = new HttpConnection(socket);
-        //Lancement de l'écoute des requêtes HTTP sur
-        //la connexion.
-        httpConnection.handle();
+        Metrics.connectionOpened();
+        try {
+            //Mise en place de la connexion HTTP.
+            HttpConnection httpConnection = new HttpConnection(socket);
+            //Lancement de l'écoute des requêtes HTTP sur
+            //la connexion.
+            httpConnection.handle();
+        } finally {
+            Metrics.connectionClosed();
+        }
     }
 
     /**
      * Ecouter et entretenir une connexion HTTP.
+     *
+     * Les requêtes HTTP d'une connexion conservée
+     * sont traitées en boucle, jusqu'à ce que le
+     * client web parte, reste inactif trop
+     * longtemps, ou atteigne le nombre maximal
+     * de requêtes.
      */
     private void handle() {
-        //Attente et analyse de la dernière requête
-        //HTTP reçue du client web.
-        waitAndParseHttpRequest();
-        //Envoi de la réponse HTTP du serveur, à la
-        //dernière requête HTTP reçue du client web.
-        respondToHttpRequest();
-        //Si le client web veut conserver la connexion.
-        if(clientKeepsConnection()) {
-            //Cas récursif.
-            //On boucle et on attend une nouvelle requête HTTP.
-            handle();
-        //Sinon.
-        } else {
-            //Cas triviaL.
-            //On arrête la connexion TCP.
+        try {
+            State state = State.WAITING_REQUEST;
+            while(state != State.CLOSING) {
+                switch (state) {
+                    case WAITING_REQUEST :
+                        //Attente et analyse de la dernière requête
+                        //HTTP reçue du client web.
+                        state = waitAndParseHttpRequests() ? State.RESPONDING : State.CLOSING;
+                        break;
+
+                    case RESPONDING :
+                        //Envoi de la réponse HTTP du serveur, à la
+                        //dernière requête HTTP reçue du client web.
+                        //Si le client web veut et peut conserver la
+                        //connexion, on attend une nouvelle requête.
+                        //Si le client web passe à HTTP/2, la connexion
+                        //lui est consacrée jusqu'à sa fin.
+                        if(switchesToHttp2()) {
+                            serveHttp2();
+                            state = State.CLOSING;
+                        } else {
+                            state = respondToHttpRequests() && connectionIsKept() ? State.WAITING_REQUEST : State.CLOSING;
+                        }
+                        break;
+                }
+            }
+        } finally {
+            //On arrête la connexion TCP, même si le
+            //traitement d'une requête a échoué.
             stopTcpConnection();
         }
     }
 
     /**
-     * Attendre et analyser la dernière requête nouvellement reçue.
+     * Attendre et analyser les requêtes nouvellement
+     * reçues : la première est attendue, les suivantes
+     * déjà reçues (requêtes en pipeline) sont analysées
+     * dans la foulée.
+     *
+     * @return false si le client web est parti ou inactif.
      */
-    private void waitAndParseHttpRequest() {
-        //Lecture et récupération de la requête.
-        List<String> headers = new ArrayList<String>();
+    private boolean waitAndParseHttpRequests() {
+        pipelinedHttpRequests.clear();
+        pipelinedBadRequest = null;
+        //Lecture et analyse de la première requête, au fil
+        //des octets reçus. Une requête suivante déjà reçue
+        //reste dans le tampon.
         try {
-            //Attente d'une nouvelle requête HTTP.
-            String header = inputStream.readLine();
-            //Si l'attente n'a rien donné.
-            if(header == null) {
-                //On arrête la connexion en cours.
-                stopTcpConnection();
-                Thread.currentThread().interrupt();
-                Thread.currentThread().stop();
+            while((lastHttpRequest = parseBufferedHttpRequest()) == null) {
+                //Attente de la suite de la requête HTTP.
+                inputBuffer = HttpRequestParser.ensureCapacity(inputBuffer);
+                int countRead = inputStream.read(inputBuffer.array(),
+                                                 inputBuffer.arrayOffset() + inputBuffer.position(),
+                                                 inputBuffer.remaining());
+                //Si le client web est parti.
+                if(countRead < 0) {
+                    return false;
+                }
+                Metrics.addBytesReceived(countRead);
+                inputBuffer.position(inputBuffer.position() + countRead);
             }
+        } catch (SocketTimeoutException exception) {
+            //Client web inactif depuis trop longtemps.
+            return false;
+        } catch (IOException exception) {
+            //Connexion interrompue par le client web.
+            return false;
+        } catch (HttpRequestException exception) {
+            //Requête mal formée ou trop longue.
+            respondToBadHttpRequest(exception);
+            return false;
+        }
+        addPipelinedHttpRequest(lastHttpRequest);
 
-            //Récupération de la commande et des entêtes
-            //de la requête HTTP.
-            headers.add(header);
-            //Tant que la ligne finale vide n'est pas atteinte, on lit les entêtes.
-            while(!(header = inputStream.readLine()).isEmpty())  {
-                headers.add(header);
+        //Requêtes suivantes déjà reçues, tant que la
+        //connexion est conservée en HTTP 1.
+        while(pipelinedHttpRequests.size() < PIPELINING_MAX_REQUESTS && connectionIsKept() && !switchesToHttp2()) {
+            HttpRequest httpRequest;
+            try {
+                httpRequest = parseBufferedHttpRequest();
+            } catch (HttpRequestException exception) {
+                //Réponse d'erreur après les réponses précédentes.
+                pipelinedBadRequest = exception;
+                break;
             }
-        } catch (IOException exception) {
-            httpServer.logErrorAndExit("Erreur à la lecture d'une requête HTTP !", exception);
+            if(httpRequest == null) {
+                break;
+            }
+            lastHttpRequest = httpRequest;
+            addPipelinedHttpRequest(httpRequest);
         }
+        return true;
+    }
 
-        //Analyse de la requête HTTP.
-        lastHttpRequest = new HttpRequest(headers);
+    /**
+     * Ajouter une requête reçue aux requêtes
+     * auxquelles répondre.
+     *
+     * @param httpRequest
+     */
+    private void addPipelinedHttpRequest(@NotNull HttpRequest httpRequest) {
+        pipelinedHttpRequests.add(httpRequest);
+        countRequests++;
+    }
 
-        //Log de réception de la requête HTTP.
-        httpServer.logDatedMessage(ipHoteClient + " " +
-                                   lastHttpRequest.get("Method") + " "  +
-                                   lastHttpRequest.get("URI"));
+    /**
+     * Analyser les octets reçus, et obtenir la
+     * requête HTTP s'il y en a une complète.
+     *
+     * @return
+     */
+    private HttpRequest parseBufferedHttpRequest() {
+        inputBuffer.flip();
+        try {
+            return httpRequestParser.parse(inputBuffer);
+        } finally {
+            inputBuffer.compact();
+        }
     }
 
     /**
-     * Envoyer une réponse HTTP à la
-     * dernière requête HTTP reçue.
+     * Envoyer une réponse d'erreur à une requête
+     * HTTP mal formée ou trop longue, avant l'arrêt
+     * de la connexion.
+     *
+     * @param exception
      */
-    private void respondToHttpRequest() {
-        //Construction la réponse HTTP.
-        byte[] responseAsBytes = HttpResponse.render(lastHttpRequest);
-        //Envoi de la réponse HTTP.
+    private void respondToBadHttpRequest(@NotNull HttpRequestException exception) {
         try {
-            outputStream.write(responseAsBytes);
+            outputStream.write(HttpResponse.renderBadRequest(exception));
+            outputStream.flush();
+        } catch (IOException ioException) {
+            //Connexion interrompue par le client web.
+        }
+    }
+
+    /**
+     * Envoyer les réponses HTTP aux dernières
+     * requêtes HTTP reçues, dans l'ordre des
+     * requêtes, en un seul envoi groupé.
+     *
+     * @return false si l'envoi a échoué, ou si une
+     *         requête était mal formée.
+     */
+    private boolean respondToHttpRequests() {
+        //Construction des réponses HTTP.
+        List<HttpResponse> httpResponses = buildHttpResponses();
+
+        //Envoi des réponses HTTP : un document statique
+        //est envoyé directement du fichier à la connexion.
+        WritableByteChannel channel = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(outputStream);
+        List<Object> outputs = new ArrayList<Object>();
+        try {
+            for(HttpResponse httpResponse : httpResponses) {
+                outputs.add(httpResponse.encodeHeaders());
+                if(httpResponse.sendsContent()) {
+                    outputs.addAll(httpResponse.openContentOutputs());
+                }
+            }
+            if(pipelinedBadRequest != null) {
+                outputs.add(ByteBuffer.wrap(HttpResponse.renderBadRequest(pipelinedBadRequest)));
+            }
+            HttpResponse.writeOutputs(channel, outputs);
             outputStream.flush();
         } catch (IOException exception) {
-            httpServer.logErrorAndExit("Erreur à l'envoi d'une réponse HTTP !", exception);
+            //Connexion interrompue par le client web.
+            return false;
+        } finally {
+            HttpResponse.closeOutputs(outputs);
+            //Entrées du journal des accès, une fois
+            //les réponses envoyées (ou abandonnées).
+            for(int i = 0; i < httpResponses.size(); i++) {
+                AccessLog.Entry accessLogEntry = AccessLog.prepare(ipHoteClient, pipelinedHttpRequests.get(i), httpResponses.get(i));
+                if(accessLogEntry != null && !httpResponses.get(i).sendsContent()) {
+                    accessLogEntry.withoutContent();
+                }
+                AccessLog.log(accessLogEntry);
+            }
+        }
+        return pipelinedBadRequest == null;
+    }
+
+    /**
+     * Construire les réponses HTTP aux dernières
+     * requêtes HTTP reçues.
+     *
+     * Les réponses à plusieurs requêtes idempotentes
+     * sont construites en parallèle si c'est permis,
+     * par l'exécuteur des réponses. Une réponse qu'aucun
+     * de ses threads n'a encore prise (ou qu'il a refusée,
+     * saturé) est retirée de sa file, et construite par
+     * la connexion elle-même.
+     *
+     * @return
+     */
+    private List<HttpResponse> buildHttpResponses() {
+        List<HttpResponse> httpResponses = new ArrayList<HttpResponse>(pipelinedHttpRequests.size());
+        int countPreviousRequests = countRequests - pipelinedHttpRequests.size();
+
+        //Si les réponses sont construites une à une.
+        if(!PIPELINING_PARALLEL || pipelinedHttpRequests.size() == 1 || !pipelinedHttpRequests.stream().allMatch(HttpConnection::requestIsIdempotent)) {
+            for(int i = 0; i < pipelinedHttpRequests.size(); i++) {
+                int countRemainingRequests = KEEP_ALIVE_MAX_REQUESTS - (countPreviousRequests + i + 1);
+                httpResponses.add(new HttpResponse(pipelinedHttpRequests.get(i), countRemainingRequests));
+            }
+            return httpResponses;
+        }
+
+        //Sinon, les réponses suivantes sont construites en
+        //parallèle de la première.
+        ResponseExecutor responseExecutor = httpServer.getResponseExecutor();
+        List<FutureTask<HttpResponse>> futureHttpResponses = new ArrayList<FutureTask<HttpResponse>>();
+        for(int i = 1; i < pipelinedHttpRequests.size(); i++) {
+            HttpRequest httpRequest = pipelinedHttpRequests.get(i);
+            int countRemainingRequests = KEEP_ALIVE_MAX_REQUESTS - (countPreviousRequests + i + 1);
+            FutureTask<HttpResponse> futureHttpResponse = new FutureTask<HttpResponse>(() -> new HttpResponse(httpRequest, countRemainingRequests));
+            futureHttpResponses.add(futureHttpResponse);
+            responseExecutor.tryExecute(futureHttpResponse);
+        }
+        httpResponses.add(new HttpResponse(pipelinedHttpRequests.get(0), KEEP_ALIVE_MAX_REQUESTS - (countPreviousRequests + 1)));
+        for(FutureTask<HttpResponse> futureHttpResponse : futureHttpResponses) {
+            //Construction ici si elle n'a pas commencé
+            //(sans effet sinon), sans laisser la tâche
+            //occuper la file de l'exécuteur.
+            responseExecutor.remove(futureHttpResponse);
+            futureHttpResponse.run();
+            try {
+                httpResponses.add(futureHttpResponse.get());
+            } catch (ExecutionException exception) {
+                if(exception.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) exception.getCause();
+                }
+                if(exception.getCause() instanceof Error) {
+                    throw (Error) exception.getCause();
+                }
+                throw new IllegalStateException(exception.getCause());
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Construction des réponses interrompue !", exception);
+            }
+        }
+        return httpResponses;
+    }
+
+    /**
+     * Savoir si une requête HTTP est idempotente
+     * (GET ou HEAD) : sa réponse peut être construite
+     * en même temps que celles d'autres requêtes.
+     *
+     * @param httpRequest
+     * @return
+     */
+    public static boolean requestIsIdempotent(@NotNull HttpRequest httpRequest) {
+        String method = httpRequest.get("Method");
+        return method.equals("GET") || method.equals("HEAD");
+    }
+
+    /**
+     * Savoir si le client web passe à HTTP/2 par
+     * sa première requête : préface HTTP/2, ou
+     * demande de passage (entête Upgrade).
+     *
+     * @return
+     */
+    private boolean switchesToHttp2() {
+        return pipelinedHttpRequests.size() == 1
+               && socket.getChannel() != null
+               && (Http2Session.isPreface(lastHttpRequest) || Http2Session.isUpgrade(lastHttpRequest));
+    }
+
+    /**
+     * Servir le client web en HTTP/2 jusqu'à la
+     * fin de la connexion.
+     *
+     * Les trames sont lues directement sur le canal
+     * de la connexion, pendant que les réponses des
+     * flux sont construites et envoyées par d'autres
+     * threads.
+     */
+    private void serveHttp2() {
+        SocketChannel channel = socket.getChannel();
+        boolean priorKnowledge = Http2Session.isPreface(lastHttpRequest);
+        //Acceptation du passage à HTTP/2.
+        if(!priorKnowledge) {
+            try {
+                outputStream.write(Http2Session.SWITCHING_PROTOCOLS);
+                outputStream.flush();
+            } catch (IOException exception) {
+                //Connexion interrompue par le client web.
+                return;
+            }
+        }
+        //Les réponses des flux sont construites par
+        //l'exécuteur des réponses, pas par celui des
+        //connexions dont ce thread fait partie.
+        http2Session = new Http2Session(ipHoteClient, httpServer.getResponseExecutor(), this::writeHttp2Outputs, priorKnowledge);
+        if(!priorKnowledge) {
+            http2Session.upgrade(lastHttpRequest);
+        }
+
+        //Fermeture de la connexion si elle reste inactive.
+        ScheduledFuture<?> idleCheck = http2IdleChecker.scheduleWithFixedDelay(() -> {
+            if(http2Session.isIdle(System.currentTimeMillis())) {
+                http2Session.goAway(Http2Exception.NO_ERROR);
+                stopTcpConnection();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+        try {
+            while(true) {
+                //Trames complètes reçues.
+                inputBuffer.flip();
+                http2Session.receive(inputBuffer);
+                inputBuffer.compact();
+                if(http2Session.isClosed()) {
+                    break;
+                }
+                //Attente des trames suivantes.
+                inputBuffer = HttpRequestParser.ensureCapacity(inputBuffer);
+                int countRead = channel.read(inputBuffer);
+                if(countRead < 0) {
+                    break;
+                }
+                Metrics.addBytesReceived(countRead);
+            }
+        } catch (IOException exception) {
+            //Connexion interrompue, ou fermée car inactive.
+        } finally {
+            idleCheck.cancel(false);
+            http2Session.close();
+        }
+    }
+
+    /**
+     * Envoyer des trames HTTP/2 sur la connexion
+     * (appelé par la session, dans l'ordre).
+     *
+     * @param outputs
+     */
+    private void writeHttp2Outputs(@NotNull List<Object> outputs) {
+        try {
+            HttpResponse.writeOutputs(socket.getChannel(), outputs);
+        } catch (IOException exception) {
+            //Connexion interrompue par le client web :
+            //la lecture en cours échoue aussi.
+            stopTcpConnection();
+        } finally {
+            HttpResponse.closeOutputs(outputs);
         }
     }
 
@@ -171,11 +541,9 @@ public class HttpConnection {
      */
     private void stopTcpConnection() {
         try {
-            inputStream.close();
-            outputStream.close();
             socket.close();
         } catch (IOException exception) {
-            httpServer.logErrorAndExit("Erreur à l'arrêt de la connexion TCP !", exception);
+            //La connexion est déjà fermée.
         }
     }
 
@@ -186,7 +554,18 @@ public class HttpConnection {
      * @return
      */
     public boolean clientKeepsConnection() {
-        return !lastHttpRequest.contains("Connection")//Si la requête est en HTTP 1.0, cet entête n'est pas connu.
-               || lastHttpRequest.get("Connection").equals("keep-alive");//Si le client web veut conserver la connexion.
+        return lastHttpRequest.clientKeepsConnection();
+    }
+
+    /**
+     * Savoir si la connexion actuelle est
+     * conservée après la dernière requête :
+     * le client web le veut, et le nombre
+     * maximal de requêtes n'est pas atteint.
+     *
+     * @return
+     */
+    public boolean connectionIsKept() {
+        return clientKeepsConnection() && countRequests < KEEP_ALIVE_MAX_REQUESTS;
     }
 }
\ No newline at end of file
@@ -0,0 +1,147 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Classe pour une boucle d'évènements du moteur
+ * non bloquant (NIO) : un thread et son sélecteur
+ * surveillent de nombreuses connexions HTTP.
+ *
+ * Les autres threads ne touchent jamais aux
+ * connexions directement, ils confient des
+ * tâches à la boucle.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class HttpEventLoop implements Runnable {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Intervalle de recherche des connexions
+    //inactives, en millisecondes.
+    private final static long IDLE_CHECK_INTERVAL = 1000L;
+    //Sélecteur des connexions de la boucle.
+    private final Selector selector;
+    //Tâches à exécuter dans le thread de la boucle.
+    private final Queue<Runnable> tasks;
+    //Date de la dernière recherche des connexions
+    //inactives, en millisecondes.
+    private long lastIdleCheckTime;
+
+    /**
+     * Créer un objet core.HttpEventLoop.
+     *
+     * @throws IOException
+     */
+    public HttpEventLoop() throws IOException {
+        selector = Selector.open();
+        tasks = new ConcurrentLinkedQueue<Runnable>();
+        lastIdleCheckTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Confier une nouvelle connexion TCP
+     * à la boucle.
+     *
+     * @param channel
+     */
+    public void register(@NotNull SocketChannel channel) {
+        execute(() -> {
+            NioHttpConnection httpConnection = new NioHttpConnection(this, channel);
+            try {
+                channel.configureBlocking(false);
+                httpConnection.setKey(channel.register(selector, SelectionKey.OP_READ, httpConnection));
+            } catch (IOException exception) {
+                httpConnection.close();
+            }
+        });
+    }
+
+    /**
+     * Exécuter une tâche dans le thread
+     * de la boucle.
+     *
+     * @param task
+     */
+    public void execute(@NotNull Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Faire tourner la boucle d'évènements.
+     */
+    @Override
+    public void run() {
+        while(true) {
+            try {
+                selector.select(IDLE_CHECK_INTERVAL);
+            } catch (IOException exception) {
+                httpServer.logErrorAndExit("Erreur de la boucle d'évènements des connexions HTTP !", exception);
+            }
+
+            //Exécution des tâches confiées à la boucle.
+            Runnable task;
+            while((task = tasks.poll()) != null) {
+                task.run();
+            }
+
+            //Traitement des connexions prêtes.
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while(iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                handleKey(key);
+            }
+
+            //Fermeture des connexions inactives.
+            closeIdleConnections();
+        }
+    }
+
+    /**
+     * Fermer les connexions qui attendent une
+     * requête HTTP depuis trop longtemps.
+     */
+    private void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        if(now - lastIdleCheckTime < IDLE_CHECK_INTERVAL) {
+            return;
+        }
+        lastIdleCheckTime = now;
+        for(SelectionKey key : selector.keys()) {
+            NioHttpConnection httpConnection = (NioHttpConnection) key.attachment();
+            if(httpConnection.isIdle(now)) {
+                httpConnection.close();
+            }
+        }
+    }
+
+    /**
+     * Traiter une connexion prête en
+     * lecture ou en écriture.
+     *
+     * @param key
+     */
+    private void handleKey(@NotNull SelectionKey key) {
+        NioHttpConnection httpConnection = (NioHttpConnection) key.attachment();
+        try {
+            if(key.isValid() && key.isReadable()) {
+                httpConnection.onReadable();
+            } else if(key.isValid() && key.isWritable()) {
+                httpConnection.onWritable();
+            }
+        } catch (IOException | RuntimeException exception) {
+            //Connexion interrompue ou requête
+            //HTTP invalide : on ferme.
+            httpConnection.close();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.util.Arrays;
+
+/**
+ * Classe pour les entêtes d'une requête HTTP,
+ * gardés dans deux tableaux (noms, valeurs)
+ * plutôt que dans une table de hachage : une
+ * requête n'a que quelques entêtes, parcourus
+ * sans allocation.
+ *
+ * Les noms d'entêtes sont insensibles à la casse.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class HttpHeaders {
+    //Noms des entêtes.
+    private String[] names;
+    //Valeurs des entêtes.
+    private String[] values;
+    //Nombre d'entêtes.
+    private int count;
+
+    /**
+     * Créer un objet core.HttpHeaders vide.
+     */
+    public HttpHeaders() {
+        names = new String[16];
+        values = new String[16];
+        count = 0;
+    }
+
+    /**
+     * Ajouter un entête.
+     *
+     * Un entête répété voit ses valeurs
+     * jointes par des virgules.
+     *
+     * @param name
+     * @param value
+     */
+    public void add(@NotNull String name, @NotNull String value) {
+        int index = indexOf(name);
+        if(index >= 0) {
+            values[index] = values[index] + ", " + value;
+            return;
+        }
+        if(count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        names[count] = name;
+        values[count] = value;
+        count++;
+    }
+
+    /**
+     * Obtenir la position d'un entête, ou -1
+     * s'il est absent.
+     *
+     * Les noms d'entêtes courants étant partagés
+     * (voir HttpRequestParser), la comparaison des
+     * références suffit le plus souvent.
+     *
+     * @param name
+     * @return
+     */
+    private int indexOf(@NotNull String name) {
+        for(int i = 0; i < count; i++) {
+            if(names[i] == name) {
+                return i;
+            }
+        }
+        for(int i = 0; i < count; i++) {
+            if(names[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Savoir si un entête est présent.
+     *
+     * @param name
+     * @return
+     */
+    public boolean contains(@NotNull String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * Obtenir la valeur d'un entête, ou null
+     * s'il est absent.
+     *
+     * @param name
+     * @return
+     */
+    public String get(@NotNull String name) {
+        int index = indexOf(name);
+        return index >= 0 ? values[index] : null;
+    }
+
+    /**
+     * Obtenir le nom d'un entête à
+     * une position.
+     *
+     * @param index
+     * @return
+     */
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Obtenir la valeur d'un entête à
+     * une position.
+     *
+     * @param index
+     * @return
+     */
+    public String getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Obtenir le nombre d'entêtes.
+     *
+     * @return
+     */
+    public int size() {
+        return count;
+    }
+}
@@ -3,9 +3,6 @@ package core;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 /**
  * Classe pour l'analyse des requêtes HTTP.
@@ -22,92 +19,168 @@ import java.util.Map;
 public class HttpRequest {
     //Singleton serveur HTTP.
     private final static HttpServer httpServer = HttpServer.getInstance();
-    //Table des données (commande + entêtes) de la requête HTTP.
-    private Map<String, String> datas;
+    //Méthode de la requête HTTP.
+    private String method;
+    //URI demandé (avec le répertoire de
+    //l'hôte s'il est un alias), et tel
+    //que reçu.
+    private String URI;
+    private final String requestedURI;
+    //Hôte demandé s'il est un alias des
+    //documents du serveur, sinon null.
+    private String virtualHost;
+    //Version du protocole HTTP.
+    private String version;
+    //Entêtes de la requête HTTP.
+    private HttpHeaders headers;
+    //Date de réception de la requête, et instant
+    //de réception pour en mesurer la durée.
+    private final long receivedTime;
+    private final long receivedNanoTime;
 
     /**
      * Créer un objet core.HttpRequest
-     * à partir des données d'une requête
-     * HTTP passés en paramètre.
+     * à partir des éléments de la commande
+     * et des entêtes d'une requête HTTP,
+     * découpés par core.HttpRequestParser.
      *
-     * Une donnée de la requête peut être :
-     * - un élément de la commande ;
-     * - un entête.
-     *
-     * @param datas
+     * @param method
+     * @param URI
+     * @param version
+     * @param headers
      */
-    public HttpRequest(@NotNull List<String> datas) {
-        //Analyse de la commande et des entêtes
-        //de la requête HTTP.
-        parse(datas);
+    public HttpRequest(@NotNull String method, @NotNull String URI, @NotNull String version, @NotNull HttpHeaders headers) {
+        this.method = method;
+        this.URI = URI;
+        this.requestedURI = URI;
+        this.version = version;
+        this.headers = headers;
+        this.receivedTime = System.currentTimeMillis();
+        this.receivedNanoTime = System.nanoTime();
+        updateURIIfHostAlias();
+    }
+
+    /**
+     * Mettre à jour l'URI si l'hôte demandé
+     * est un alias des documents du serveur.
+     */
+    private void updateURIIfHostAlias() {
+        //Hôte demandé.
+        String host = getHostName();
+        String rootURI = httpServer.getConfiguration().getURIForHost(host);
+        if(rootURI != null) {
+            URI = "/" + rootURI + URI;
+            virtualHost = host;
+        }
     }
 
     /**
-     * Analyser et convertir les données
-     * de la requête HTTP.
+     * Obtenir le nom de l'hôte demandé,
+     * sans son port éventuel.
      *
-     * Une donnée de la requête peut être :
-     * - un élément de la commande ;
-     * - un entête.
+     * Exemple : "www.verti.com:8080" donne
+     * "www.verti.com".
      *
-     * @param datas
+     * @return
      */
-    private void parse(@NotNull List<String> datas) {
-        this.datas = new HashMap<String, String>();
-        parseCommand(datas.remove(0));
-        parseHeaders(datas);
-        updateURIIfHostAlias();
+    public String getHostName() {
+        if(!contains("Host")) {
+            return "";
+        }
+        String host = get("Host");
+        int indexPort = host.lastIndexOf(':');
+        //Une adresse IPv6 est entre crochets.
+        if(indexPort > host.lastIndexOf(']')) {
+            host = host.substring(0, indexPort);
+        }
+        return host;
     }
 
     /**
-     * Analyser et convertir la commande
-     * de la requête HTTP.
+     * Savoir si le client web veut conserver
+     * la connexion après cette requête.
+     *
+     * En HTTP 1.0, la connexion est fermée
+     * sauf si le client web demande à la
+     * conserver (Connection: keep-alive). A
+     * partir de HTTP 1.1, elle est conservée
+     * sauf s'il demande à la fermer
+     * (Connection: close).
      *
-     * @param command
+     * @return
      */
-    private void parseCommand(@NotNull String command) {
-        String[] commandSplit = command.split(" ");
-        datas.put("Method", commandSplit[0]);
-        datas.put("URI", commandSplit[1]);
-        datas.put("Version", commandSplit[2].replace("HTTP/", ""));
+    public boolean clientKeepsConnection() {
+        String connection = contains("Connection") ? get("Connection") : "";
+        if(version.equals("1.0")) {
+            return connectionHasOption(connection, "keep-alive");
+        }
+        return !connectionHasOption(connection, "close");
     }
 
     /**
-     * Analyser et convertir les entêtes
-     * de la requête HTTP.
+     * Savoir si l'entête Connection contient
+     * une option (liste séparée par des
+     * virgules, sans tenir compte de la casse).
      *
-     * @param headers
+     * @param connection
+     * @param option
+     * @return
      */
-    private void parseHeaders(@NotNull List<String> headers) {
-        for(String header : headers) {
-            parseHeader(header);
+    private static boolean connectionHasOption(@NotNull String connection, @NotNull String option) {
+        for(String connectionOption : connection.split(",")) {
+            if(connectionOption.trim().equalsIgnoreCase(option)) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    /**
+     * Obtenir l'URI tel que reçu, sans le
+     * répertoire de l'hôte s'il est un alias.
+     *
+     * @return
+     */
+    public String getRequestedURI() {
+        return requestedURI;
     }
 
     /**
-     * Analyser et convertir un entête
-     * de la requête HTTP.
+     * Obtenir l'hôte demandé s'il est un
+     * alias des documents du serveur.
      *
-     * @param header
+     * @return l'hôte, ou null s'il n'est pas un alias.
      */
-    private void parseHeader(@NotNull String header) {
-        String[] headerSplit = header.split(":");
-        datas.put(headerSplit[0], headerSplit[1].trim());
+    public String getVirtualHost() {
+        return virtualHost;
     }
 
     /**
-     * Mettre à jour l'URI si l'hôte demandé
-     * est un alias des documents du serveur.
+     * Obtenir la date de réception de la requête.
+     *
+     * @return
      */
-    private void updateURIIfHostAlias() {
-        //Hôte demandé.
-        String host = get("Host");
-        //URI demandé.
-        String URI = get("URI");
-        if(httpServer.hostAskedIsAlias(host)) {
-            String rootURI = httpServer.getURIForHost(host);
-            datas.put("URI", "/" + rootURI + URI);
-        }
+    public long getReceivedTime() {
+        return receivedTime;
+    }
+
+    /**
+     * Obtenir l'instant de réception de la requête
+     * (System.nanoTime), pour en mesurer la durée.
+     *
+     * @return
+     */
+    public long getReceivedNanoTime() {
+        return receivedNanoTime;
+    }
+
+    /**
+     * Obtenir les entêtes de la requête HTTP.
+     *
+     * @return
+     */
+    public HttpHeaders getHeaders() {
+        return headers;
     }
 
     /**
@@ -115,14 +188,22 @@ public class HttpRequest {
      * HTTP est connue.
      *
      * Une donnée de la requête peut être :
-     * - un élément de la commande ;
-     * - un entête.
+     * - un élément de la commande ("Method", "URI",
+     *   "Version") ;
+     * - un entête (nom insensible à la casse).
      *
      * @param nameData
      * @return
      */
     public boolean contains(@NotNull String nameData) {
-        return datas.containsKey(nameData);
+        switch (nameData) {
+            case "Method" :
+            case "URI" :
+            case "Version" :
+                return true;
+            default :
+                return headers.contains(nameData);
+        }
     }
 
     /**
@@ -137,9 +218,18 @@ public class HttpRequest {
      * @return
      */
     public String get(@NotNull String nameData) {
-        if (!contains(nameData)) {
+        switch (nameData) {
+            case "Method" :
+                return method;
+            case "URI" :
+                return URI;
+            case "Version" :
+                return version;
+        }
+        String value = headers.get(nameData);
+        if (value == null) {
             throw new IllegalArgumentException("Donnée de la requête HTTP demandée inconnue : " + nameData + "!");
         }
-        return datas.get(nameData);
+        return value;
     }
 }
\ No newline at end of file
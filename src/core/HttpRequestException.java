@@ -0,0 +1,54 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Classe pour les erreurs de lecture d'une
+ * requête HTTP (requête mal formée ou trop
+ * longue), avec le code d'état de la réponse
+ * d'erreur à envoyer au client web.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class HttpRequestException extends RuntimeException {
+    //Version de la classe sérialisable.
+    private final static long serialVersionUID = 1L;
+    //Code d'état de la réponse d'erreur.
+    private final int codeStatus;
+    //Message d'état de la réponse d'erreur.
+    private final String messageStatus;
+
+    /**
+     * Créer un objet core.HttpRequestException.
+     *
+     * @param codeStatus
+     * @param messageStatus
+     * @param message
+     */
+    public HttpRequestException(int codeStatus, @NotNull String messageStatus, @NotNull String message) {
+        super(message);
+        this.codeStatus = codeStatus;
+        this.messageStatus = messageStatus;
+    }
+
+    /**
+     * Obtenir le code d'état de la réponse
+     * d'erreur.
+     *
+     * @return
+     */
+    public int getCodeStatus() {
+        return codeStatus;
+    }
+
+    /**
+     * Obtenir le message d'état de la
+     * réponse d'erreur.
+     *
+     * @return
+     */
+    public String getMessageStatus() {
+        return messageStatus;
+    }
+}
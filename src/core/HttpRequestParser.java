@@ -0,0 +1,353 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Classe pour l'analyse incrémentale des requêtes
+ * HTTP, directement sur les octets reçus dans un
+ * tampon réutilisé par la connexion.
+ *
+ * Chaque octet n'est parcouru qu'une fois pour
+ * trouver la fin des entêtes, puis une fois pour
+ * les découper, sans expression régulière ni ligne
+ * intermédiaire. Les noms d'entêtes, les méthodes
+ * et les versions courants sont partagés au lieu
+ * d'être recréés à chaque requête.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class HttpRequestParser {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Taille maximale de la commande et des entêtes
+    //d'une requête HTTP, en octets.
+    public final static int MAX_HEADERS_SIZE = httpServer.getConfigurationPropertyInteger("requestMaxHeadersSize");
+    //Taille maximale d'une ligne (commande ou
+    //entête) d'une requête HTTP, en octets.
+    public final static int MAX_LINE_SIZE = httpServer.getConfigurationPropertyInteger("requestMaxLineSize");
+    //Taille initiale du tampon de lecture
+    //d'une connexion.
+    public final static int INITIAL_BUFFER_SIZE = 4096;
+    //Noms d'entêtes courants, partagés.
+    private final static String[] KNOWN_HEADER_NAMES = new String[]{
+            "Host", "Connection", "Keep-Alive", "Accept", "Accept-Encoding", "Accept-Language",
+            "Accept-Charset", "User-Agent", "Referer", "Cookie", "Authorization", "Cache-Control",
+            "Pragma", "Range", "If-Range", "If-None-Match", "If-Modified-Since", "If-Match",
+            "If-Unmodified-Since", "Upgrade", "Upgrade-Insecure-Requests", "HTTP2-Settings",
+            "Content-Length", "Content-Type", "Transfer-Encoding", "TE", "Origin", "DNT",
+            "Sec-Fetch-Site", "Sec-Fetch-Mode", "Sec-Fetch-Dest", "Sec-Fetch-User", "X-Forwarded-For"
+    };
+    //Méthodes courantes, partagées.
+    private final static String[] KNOWN_METHODS = new String[]{
+            "GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "TRACE", "CONNECT", "PATCH", "PRI"
+    };
+    //Versions courantes, partagées.
+    private final static String[] KNOWN_VERSIONS = new String[]{"1.1", "1.0", "2.0"};
+    //Préfixe de la version dans la commande.
+    private final static byte[] VERSION_PREFIX = "HTTP/".getBytes(StandardCharsets.US_ASCII);
+    //Début de la ligne en cours de la requête
+    //incomplète, depuis le début de la requête :
+    //les lignes complètes ne sont pas relues.
+    private int currentLineOffset;
+
+    /**
+     * Créer un objet core.HttpRequestParser.
+     */
+    public HttpRequestParser() {
+        currentLineOffset = 0;
+    }
+
+    /**
+     * Consommer les octets d'un tampon (en mode
+     * lecture), jusqu'à la fin de la prochaine
+     * requête HTTP.
+     *
+     * Retourne la requête si elle est complète (les
+     * octets suivants restent dans le tampon), sinon
+     * null, et les octets de la requête incomplète
+     * restent dans le tampon jusqu'au prochain appel.
+     *
+     * @param buffer tampon d'octets dans le tas.
+     * @return
+     * @throws HttpRequestException si la requête est
+     *                              mal formée ou trop longue.
+     */
+    public HttpRequest parse(@NotNull ByteBuffer buffer) {
+        byte[] bytes = buffer.array();
+        int arrayOffset = buffer.arrayOffset();
+        int start = arrayOffset + buffer.position();
+        int limit = arrayOffset + buffer.limit();
+
+        //Lignes vides avant la commande tolérées.
+        if(currentLineOffset == 0) {
+            while(start < limit && (bytes[start] == '\r' || bytes[start] == '\n')) {
+                start++;
+            }
+            buffer.position(start - arrayOffset);
+        }
+
+        //Recherche de la ligne vide finale, à partir
+        //de la ligne en cours.
+        int lineStart = start + currentLineOffset;
+        for(int i = lineStart; i < limit; i++) {
+            if(bytes[i] != '\n') {
+                continue;
+            }
+            //Fin de ligne (CRLF ou LF seul).
+            int lineEnd = i > lineStart && bytes[i - 1] == '\r' ? i - 1 : i;
+            //Si la ligne vide finale est atteinte.
+            if(lineEnd == lineStart) {
+                if(lineStart - start > MAX_HEADERS_SIZE) {
+                    throw headersTooLarge();
+                }
+                HttpRequest httpRequest = parseHead(bytes, start, lineStart);
+                buffer.position(i + 1 - arrayOffset);
+                currentLineOffset = 0;
+                return httpRequest;
+            }
+            checkLineSize(lineEnd - lineStart, lineStart == start);
+            lineStart = i + 1;
+        }
+
+        //Requête incomplète.
+        checkLineSize(limit - lineStart, lineStart == start);
+        if(limit - start > MAX_HEADERS_SIZE) {
+            throw headersTooLarge();
+        }
+        currentLineOffset = lineStart - start;
+        return null;
+    }
+
+    /**
+     * Vérifier la taille d'une ligne de la
+     * requête HTTP.
+     *
+     * @param lineSize
+     * @param commandLine si c'est la ligne de commande.
+     */
+    private static void checkLineSize(int lineSize, boolean commandLine) {
+        if(lineSize <= MAX_LINE_SIZE) {
+            return;
+        }
+        if(commandLine) {
+            throw new HttpRequestException(414, "URI Too Long", "Commande de la requête HTTP trop longue !");
+        }
+        throw headersTooLarge();
+    }
+
+    /**
+     * Obtenir l'erreur des entêtes trop longs.
+     *
+     * @return
+     */
+    private static HttpRequestException headersTooLarge() {
+        return new HttpRequestException(431, "Request Header Fields Too Large", "Entêtes de la requête HTTP trop longs !");
+    }
+
+    /**
+     * Obtenir l'erreur d'une requête mal formée.
+     *
+     * @param message
+     * @return
+     */
+    private static HttpRequestException badRequest(@NotNull String message) {
+        return new HttpRequestException(400, "Bad Request", message);
+    }
+
+    /**
+     * Découper la commande et les entêtes d'une
+     * requête HTTP complète.
+     *
+     * @param bytes
+     * @param start début de la commande.
+     * @param end début de la ligne vide finale.
+     * @return
+     */
+    private HttpRequest parseHead(@NotNull byte[] bytes, int start, int end) {
+        //Commande : [Method] [URI] HTTP/[Version].
+        int commandEnd = indexOfLineEnd(bytes, start, end);
+        int firstSpace = indexOf(bytes, start, commandEnd, (byte) ' ');
+        int secondSpace = firstSpace < 0 ? -1 : indexOf(bytes, firstSpace + 1, commandEnd, (byte) ' ');
+        if(firstSpace <= start || secondSpace <= firstSpace + 1
+           || !startsWith(bytes, secondSpace + 1, commandEnd, VERSION_PREFIX)) {
+            throw badRequest("Commande de la requête HTTP invalide !");
+        }
+        String method = intern(bytes, start, firstSpace, KNOWN_METHODS);
+        String URI = new String(bytes, firstSpace + 1, secondSpace - firstSpace - 1, StandardCharsets.UTF_8);
+        String version = intern(bytes, secondSpace + 1 + VERSION_PREFIX.length, commandEnd, KNOWN_VERSIONS);
+
+        //Entêtes : [nomEntête]: [valeurEntête].
+        HttpHeaders headers = new HttpHeaders();
+        int lineStart = skipLineEnd(bytes, commandEnd);
+        while(lineStart < end) {
+            int lineEnd = indexOfLineEnd(bytes, lineStart, end);
+            //Les entêtes sur plusieurs lignes sont obsolètes.
+            if(bytes[lineStart] == ' ' || bytes[lineStart] == '\t') {
+                throw badRequest("Entête de la requête HTTP sur plusieurs lignes !");
+            }
+            int colon = indexOf(bytes, lineStart, lineEnd, (byte) ':');
+            if(colon <= lineStart
+               || indexOf(bytes, lineStart, colon, (byte) ' ') >= 0
+               || indexOf(bytes, lineStart, colon, (byte) '\t') >= 0) {
+                throw badRequest("Entête de la requête HTTP invalide !");
+            }
+            String name = intern(bytes, lineStart, colon, KNOWN_HEADER_NAMES);
+            //La valeur peut contenir ':' (dates, port de l'hôte).
+            int valueStart = colon + 1;
+            int valueEnd = lineEnd;
+            while(valueStart < valueEnd && (bytes[valueStart] == ' ' || bytes[valueStart] == '\t')) {
+                valueStart++;
+            }
+            while(valueEnd > valueStart && (bytes[valueEnd - 1] == ' ' || bytes[valueEnd - 1] == '\t')) {
+                valueEnd--;
+            }
+            headers.add(name, new String(bytes, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1));
+            lineStart = skipLineEnd(bytes, lineEnd);
+        }
+
+        return new HttpRequest(method, URI, version, headers);
+    }
+
+    /**
+     * Obtenir la fin (CR ou LF) de la ligne
+     * commençant à une position.
+     *
+     * @param bytes
+     * @param from
+     * @param to
+     * @return
+     */
+    private static int indexOfLineEnd(@NotNull byte[] bytes, int from, int to) {
+        int i = from;
+        while(i < to && bytes[i] != '\n') {
+            i++;
+        }
+        return i > from && bytes[i - 1] == '\r' ? i - 1 : i;
+    }
+
+    /**
+     * Obtenir le début de la ligne suivant
+     * une fin de ligne (CRLF ou LF seul).
+     *
+     * @param bytes
+     * @param lineEnd
+     * @return
+     */
+    private static int skipLineEnd(@NotNull byte[] bytes, int lineEnd) {
+        return bytes[lineEnd] == '\r' ? lineEnd + 2 : lineEnd + 1;
+    }
+
+    /**
+     * Obtenir la position d'un octet entre deux
+     * positions, ou -1 s'il est absent.
+     *
+     * @param bytes
+     * @param from
+     * @param to
+     * @param octet
+     * @return
+     */
+    private static int indexOf(@NotNull byte[] bytes, int from, int to, byte octet) {
+        for(int i = from; i < to; i++) {
+            if(bytes[i] == octet) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Savoir si des octets commencent par
+     * un préfixe.
+     *
+     * @param bytes
+     * @param from
+     * @param to
+     * @param prefix
+     * @return
+     */
+    private static boolean startsWith(@NotNull byte[] bytes, int from, int to, @NotNull byte[] prefix) {
+        if(to - from < prefix.length) {
+            return false;
+        }
+        for(int i = 0; i < prefix.length; i++) {
+            if(bytes[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Obtenir la chaîne partagée égale (sans tenir
+     * compte de la casse) aux octets ASCII entre
+     * deux positions, ou une nouvelle chaîne si
+     * elle n'est pas connue.
+     *
+     * @param bytes
+     * @param from
+     * @param to
+     * @param knownStrings
+     * @return
+     */
+    private static String intern(@NotNull byte[] bytes, int from, int to, @NotNull String[] knownStrings) {
+        int length = to - from;
+        for(String knownString : knownStrings) {
+            if(knownString.length() == length && equalsIgnoreCase(bytes, from, knownString)) {
+                return knownString;
+            }
+        }
+        return new String(bytes, from, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Savoir si des octets ASCII sont égaux à une
+     * chaîne de même longueur, sans tenir compte
+     * de la casse.
+     *
+     * @param bytes
+     * @param from
+     * @param string
+     * @return
+     */
+    private static boolean equalsIgnoreCase(@NotNull byte[] bytes, int from, @NotNull String string) {
+        for(int i = 0; i < string.length(); i++) {
+            int octet = bytes[from + i];
+            int character = string.charAt(i);
+            if(octet != character && (octet | 0x20) != (character | 0x20)) {
+                return false;
+            }
+            //Seules les lettres sont insensibles à la casse.
+            if(octet != character && ((octet | 0x20) < 'a' || (octet | 0x20) > 'z')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Agrandir un tampon de lecture plein (en mode
+     * écriture), pour une requête HTTP plus longue
+     * que lui, dans la limite de la taille maximale
+     * des entêtes.
+     *
+     * @param buffer
+     * @return le tampon, ou un nouveau tampon plus grand.
+     */
+    public static ByteBuffer ensureCapacity(@NotNull ByteBuffer buffer) {
+        if(buffer.hasRemaining()) {
+            return buffer;
+        }
+        int capacity = Math.min(buffer.capacity() * 2, MAX_HEADERS_SIZE + 1);
+        if(capacity <= buffer.capacity()) {
+            throw headersTooLarge();
+        }
+        ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        newBuffer.put(buffer);
+        return newBuffer;
+    }
+}
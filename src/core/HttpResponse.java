@@ -2,14 +2,26 @@ package core;
 
 import org.jetbrains.annotations.NotNull;
 import tool.ArrayTool;
+import tool.ByteRangeTool;
+import tool.CompressionTool;
+import tool.ConditionalRequestTool;
 import tool.DynamicContentTool;
+import tool.HpackTool;
 import tool.ServerSideIncludesTool;
 import tool.TreePageTool;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.util.Arrays;
-import java.util.Base64;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -28,14 +40,86 @@ import java.util.Map;
 public class HttpResponse {
     //Singleton serveur HTTP.
     private final static HttpServer httpServer = HttpServer.getInstance();
+    //Si un contenu dynamique peut être envoyé au fur
+    //et à mesure de sa production, en morceaux.
+    public final static boolean CHUNKED_ENABLE = httpServer.getConfigurationPropertyBoolean("chunkedTransferEncoding");
+    //Fin de ligne HTTP.
+    private final static byte[] CRLF = new byte[]{'\r', '\n'};
+    //Lignes d'état pré-encodées (HTTP 1.1 et HTTP 1.0),
+    //et messages d'état, par code d'état.
+    private final static byte[][] STATUS_LINES_1_1 = new byte[600][];
+    private final static byte[][] STATUS_LINES_1_0 = new byte[600][];
+    private final static String[] STATUS_MESSAGES = new String[600];
+    //Noms des entêtes pré-encodés.
+    private final static byte[] HEADER_CONTENT_TYPE = encodeAscii("Content-Type: ");
+    private final static byte[] HEADER_CONTENT_LENGTH = encodeAscii("Content-Length: ");
+    private final static byte[] HEADER_TRANSFER_ENCODING_CHUNKED = encodeAscii("Transfer-Encoding: chunked\r\n");
+    private final static byte[] HEADER_CONNECTION = encodeAscii("Connection: ");
+    private final static byte[] HEADER_KEEP_ALIVE = encodeAscii("Keep-Alive: ");
+    private final static byte[] HEADER_CONTENT_ENCODING = encodeAscii("Content-Encoding: ");
+    private final static byte[] HEADER_VARY = encodeAscii("Vary: ");
+    private final static byte[] HEADER_ACCEPT_RANGES = encodeAscii("Accept-Ranges: ");
+    private final static byte[] HEADER_CONTENT_RANGE = encodeAscii("Content-Range: ");
+    private final static byte[] HEADER_ETAG = encodeAscii("ETag: ");
+    private final static byte[] HEADER_LAST_MODIFIED = encodeAscii("Last-Modified: ");
+    private final static byte[] HEADER_CACHE_CONTROL = encodeAscii("Cache-Control: ");
+    private final static byte[] HEADER_WWW_AUTHENTICATE = encodeAscii("WWW-Authenticate: ");
+    private final static byte[] CHARSET_UTF_8 = encodeAscii(";charset=UTF-8");
+    static {
+        String[] statuses = new String[]{"200 OK", "206 Partial Content", "304 Not Modified", "400 Bad Request",
+                                         "401 Unauthorized", "403 Forbidden", "404 Not Found", "414 URI Too Long",
+                                         "416 Range Not Satisfiable", "431 Request Header Fields Too Large",
+                                         "500 Internal Server Error", "503 Service Unavailable"};
+        for(String status : statuses) {
+            int codeStatus = Integer.parseInt(status.substring(0, 3));
+            STATUS_MESSAGES[codeStatus] = status.substring(4);
+            STATUS_LINES_1_1[codeStatus] = encodeAscii("HTTP/1.1 " + status + "\r\n");
+            STATUS_LINES_1_0[codeStatus] = encodeAscii("HTTP/1.0 " + status + "\r\n");
+        }
+    }
     //Requête HTTP associée, à laquelle la
     //réponse HTTP répond.
     private HttpRequest httpRequest;
-    //Table des données de la requête HTTP
-    //(élement de la ligne d'état, les
-    //entêtes de réponse, le corps de la
-    //réponse).
-    private Map<String, Object> datas;
+    //Nombre de requêtes HTTP encore acceptées sur
+    //la connexion après celle-ci.
+    private int countRemainingRequests;
+    //Fichier du document statique envoyé, s'il
+    //y en a un (pour sa compression).
+    private File staticDocumentFile;
+    //Route de l'URI demandé (document trouvé
+    //ou absent), s'il ne s'agit pas d'une page
+    //d'arborescence.
+    private RouteCache.Route route;
+    //Traitement de la requête (mesures du serveur).
+    private Metrics.Handler handler = Metrics.Handler.NONE;
+    //Eléments de la ligne d'état.
+    private String version;
+    private int codeStatus;
+    private String messageStatus;
+    //Entêtes de la réponse HTTP, null
+    //s'ils ne sont pas envoyés.
+    private String contentType;
+    private long contentLength;
+    private String connection;
+    private String keepAlive;
+    private String contentEncoding;
+    private String vary;
+    private String acceptRanges;
+    private String contentRange;
+    private String eTag;
+    private String lastModified;
+    private String cacheControl;
+    private String WWWAuthenticate;
+    //Corps de la réponse : chaîne, tableau d'octets,
+    //tampon projeté hors du tas, fichier, ou contenu
+    //produit au fur et à mesure de son envoi
+    //(ChunkedContent, sa taille étant alors -1).
+    private Object content;
+    //Portions du corps envoyées (début et fin inclus),
+    //et entêtes de leurs parties pour un corps
+    //multipart, ou null si tout le corps est envoyé.
+    private List<long[]> contentRanges;
+    private List<byte[]> contentRangesHeaders;
 
     /**
      * Créer un objet core.HttpResponse
@@ -44,22 +128,64 @@ public class HttpResponse {
      * @param httpRequest
      */
     public HttpResponse(@NotNull HttpRequest httpRequest) {
+        this(httpRequest, HttpConnection.KEEP_ALIVE_MAX_REQUESTS);
+    }
+
+    /**
+     * Créer un objet core.HttpResponse
+     * à partir d'une requête HTTP associée,
+     * en précisant le nombre de requêtes
+     * encore acceptées sur la connexion.
+     *
+     * @param httpRequest
+     * @param countRemainingRequests
+     */
+    public HttpResponse(@NotNull HttpRequest httpRequest, int countRemainingRequests) {
         //Sauvegarde de la réponse HTTP associée.
         this.httpRequest = httpRequest;
+        this.countRemainingRequests = countRemainingRequests;
         //Constuction de la réponse HTTP.
         build();
     }
 
+    /**
+     * Créer un objet core.HttpResponse
+     * d'erreur, sans requête HTTP associée
+     * (cas d'une connexion refusée avant
+     * la lecture de sa requête HTTP).
+     *
+     * @param codeStatus
+     * @param messageStatus
+     * @param errorMessage
+     */
+    private HttpResponse(int codeStatus, @NotNull String messageStatus, @NotNull String errorMessage) {
+        String content = getErrorPage(codeStatus, errorMessage);
+
+        //Ajout des données à la réponse HTTP.
+        this.version = "1.1";
+        this.codeStatus = codeStatus;
+        this.messageStatus = messageStatus;
+        this.contentType = "text/html";
+        this.contentLength = content.getBytes().length;
+        this.content = content;
+        this.connection = "close";
+    }
+
     /**
      * Constuire la réponse HTTP.
      */
     public void build() {
-        this.datas = new HashMap<String, Object>();
         //Construction de la version HTTP.
         buildVersion();
         //Construction des données liées au contenu /
         //corps de la réponse.
         buildDatasContent();
+        //Envoi de portions du document si le client
+        //web en demande.
+        buildContentRanges();
+        //Compression du contenu si le client web
+        //l'accepte.
+        buildContentEncoding();
         //Construction de l'entête de connexion.
         buildConnectionHeader();
     }
@@ -74,7 +200,7 @@ public class HttpResponse {
      */
     public void buildVersion() {
         String version = httpRequest.get("Version");
-        set("Version", version);
+        this.version = version;
     }
 
     /**
@@ -92,46 +218,212 @@ public class HttpResponse {
         int codeStatus = 200;
         String messageStatus = "OK";
         String contentType = getContentTypeForURI();
-        //Récupération de l'extension du
-        //document du serveur demandé.
-        String extension = FileManager.getDocumentFileExtension(URI);
+        //Règle de mise en cache du document
+        //par le client web.
+        String cacheControl = route.getCacheControl();
+        if(cacheControl != null) {
+            this.cacheControl = cacheControl;
+        }
         Object content;
-        switch (extension) {
+        //Producteur d'un contenu envoyé au fur
+        //et à mesure, s'il y en a un.
+        ChunkedContent.Producer producer;
+        switch (route.getHandler()) {
             //Si le document demandé est un document html.
-            case ".html" :
+            case SERVER_SIDE_INCLUDES :
+                handler = Metrics.Handler.SERVER_SIDE_INCLUDES;
                 //On charge son contenu, et on prend en
                 //compte les server sides includes qu'il
-                //utilise.
-                content = ServerSideIncludesTool.buildContent(URI);
+                //utilise. Une page avec des #exec est si
+                //possible envoyée au fur et à mesure.
+                producer = contentCanBeChunked() ? ServerSideIncludesTool.buildStreamedContent(URI) : null;
+                content = producer != null ? new ChunkedContent(producer) : ServerSideIncludesTool.buildContent(URI);
                 break;
 
             //Si le document demandé est un programme
             //.php produisant un contenu dynamique.
-            case ".php" :
+            case PHP :
+                handler = Metrics.Handler.PHP;
                 //On charge le contenu dynamique en exécutant
-                //le programme .php.
-                content = DynamicContentTool.buildContentFromPHP(URI);
+                //le programme .php, envoyé si possible au
+                //fur et à mesure de sa production.
+                try {
+                    producer = contentCanBeChunked() ? DynamicContentTool.buildStreamedContentFromPHP(httpRequest, URI)
+                                                     : null;
+                    content = producer != null ? new ChunkedContent(producer)
+                                               : DynamicContentTool.buildContentFromPHP(httpRequest, URI);
+                } catch (IOException exception) {
+                    buildContentForServiceUnavailable(exception.getMessage());
+                    return;
+                }
                 break;
 
             default :
-                //On charge le contenu du document en octets.
-                content = FileManager.getContentDocumentFileAsBytes(URI);
+                handler = Metrics.Handler.STATIC;
+                //Un document statique est servi depuis le
+                //cache en mémoire (dans le tas ou projeté hors
+                //du tas selon sa taille). Un document trop gros
+                //n'est pas chargé : il sera envoyé directement
+                //depuis le fichier au moment de l'envoi.
+                staticDocumentFile = route.getFile();
+                //Validateurs du document, tirés de sa taille et
+                //de sa date de modification (connues par la
+                //route) : la copie du client web est vérifiée
+                //sans lire le document.
+                this.eTag = ConditionalRequestTool.buildStrongETag(route.getLength(), route.getLastModified());
+                this.lastModified = ConditionalRequestTool.formatHttpDate(route.getLastModified());
+                if(clientCopyIsFresh(route.getLastModified())) {
+                    buildContentForNotModified();
+                    return;
+                }
+                try {
+                    content = FileManager.getCachedContentFile(staticDocumentFile, route.getLength(), route.getLastModified());
+                } catch (IOException exception) {
+                    buildContentForVanishedURI();
+                    return;
+                }
+                if(content == null) {
+                    content = staticDocumentFile;
+                }
         }
-        int contentLength;
+        long contentLength;
+        //Si le contenu est un fichier à envoyer.
+        if(content instanceof File) {
+            contentLength = ((File) content).length();
         //Si le contenu a été chargé en octets.
-        if(content instanceof byte[]) {
+        } else if(content instanceof byte[]) {
             contentLength = ((byte[]) content).length;
+        //Si le contenu est projeté hors du tas.
+        } else if(content instanceof ByteBuffer) {
+            contentLength = ((ByteBuffer) content).remaining();
+        //Si le contenu est produit au fur et à mesure.
+        } else if(content instanceof ChunkedContent) {
+            contentLength = -1;
         //Sinon.
         } else {
-            contentLength = ((String) content).getBytes().length;
+            content = ((String) content).getBytes();
+            contentLength = ((byte[]) content).length;
+        }
+
+        //Un contenu dynamique est validé par une somme
+        //de contrôle de ses octets (s'ils sont connus).
+        if(staticDocumentFile == null && contentLength >= 0) {
+            this.eTag = ConditionalRequestTool.buildWeakETag((byte[]) content);
+            if(clientCopyIsFresh(-1)) {
+                buildContentForNotModified();
+                return;
+            }
         }
 
         //Ajout des données à la réponse HTTP.
-        set("Code-Status", codeStatus);
-        set("Message-Status", messageStatus);
-        set("Content-Type", contentType);
-        set("Content-Length", contentLength);
-        set("Content", content);
+        this.codeStatus = codeStatus;
+        this.messageStatus = messageStatus;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.content = content;
+    }
+
+    /**
+     * Construire le corps de la réponse
+     * et les autres données associées,
+     * si le document de la route n'a pas
+     * pu être lu : il a disparu depuis la
+     * résolution de la route, et le
+     * surveillant des documents ne l'a pas
+     * encore signalé.
+     *
+     * La route est retirée du cache, et le
+     * document est introuvable.
+     */
+    public void buildContentForVanishedURI() {
+        RouteCache.remove(route);
+
+        //Les données du document sont oubliées.
+        this.handler = Metrics.Handler.NONE;
+        this.staticDocumentFile = null;
+        this.eTag = null;
+        this.lastModified = null;
+        this.cacheControl = null;
+        buildContentForNotFoundURI();
+    }
+
+    /**
+     * Savoir si le contenu peut être envoyé en
+     * morceaux (Transfer-Encoding: chunked) : en
+     * HTTP 1.1 seulement.
+     *
+     * @return
+     */
+    public boolean contentCanBeChunked() {
+        return CHUNKED_ENABLE && version.equals("1.1");
+    }
+
+    /**
+     * Savoir si le corps de la réponse est envoyé :
+     * une réponse à une requête HEAD, ou non modifiée
+     * (304), n'a que ses entêtes.
+     *
+     * @return
+     */
+    public boolean sendsContent() {
+        return !httpRequest.get("Method").equals("HEAD") && codeStatus != 304;
+    }
+
+    /**
+     * Obtenir le contenu produit au fur et
+     * à mesure de son envoi, s'il y en a un.
+     *
+     * @return
+     */
+    public ChunkedContent getChunkedContent() {
+        return content instanceof ChunkedContent ? (ChunkedContent) content : null;
+    }
+
+    /**
+     * Savoir si la copie du document gardée en
+     * cache par le client web est toujours à jour,
+     * d'après les entêtes If-None-Match (prioritaire)
+     * et If-Modified-Since de la requête.
+     *
+     * @param lastModified date de modification du
+     *                     document, ou -1 si elle
+     *                     n'est pas connue.
+     * @return
+     */
+    public boolean clientCopyIsFresh(long lastModified) {
+        //Si le client web a envoyé un ETag.
+        if(httpRequest.contains("If-None-Match")) {
+            return ConditionalRequestTool.eTagMatches(httpRequest.get("If-None-Match"), eTag);
+        }
+        //Sinon, si le client web a envoyé une date.
+        if(httpRequest.contains("If-Modified-Since") && lastModified >= 0) {
+            return ConditionalRequestTool.notModifiedSince(httpRequest.get("If-Modified-Since"), lastModified);
+        }
+        return false;
+    }
+
+    /**
+     * Construire la réponse HTTP sans corps,
+     * si la copie du document gardée en cache
+     * par le client web est toujours à jour.
+     *
+     * Les validateurs (ETag, Last-Modified) et
+     * la règle de mise en cache sont conservés.
+     */
+    public void buildContentForNotModified() {
+        //Données de la réponse HTTP
+        //liées à son contenu.
+        int codeStatus = 304;
+        String messageStatus = "Not Modified";
+        String contentType = getContentTypeForURI();
+        String content = "";
+
+        //Ajout des données à la réponse HTTP.
+        this.codeStatus = codeStatus;
+        this.messageStatus = messageStatus;
+        this.contentType = contentType;
+        this.contentLength = 0;
+        this.content = content;
     }
 
     /**
@@ -146,14 +438,12 @@ public class HttpResponse {
         String URI = httpRequest.get("URI");
 
         //Configuration du serveur.
-        //Paramètres du système d'arborescence du serveur.
-        String treeDocumentsURI = httpServer.getConfigurationProperty("treeDocumentsURI");
-        boolean treeDocumentsEnable = httpServer.getConfigurationPropertyBoolean("treeDocumentsEnable");
+        Configuration configuration = httpServer.getConfiguration();
 
         //Si l'URI demandé est un URI du système
         //d'arborescence, et si l'accès au système
         //d'arborescence est activé / autorisé.
-        return URI.startsWith(treeDocumentsURI) && treeDocumentsEnable;
+        return configuration.isTreeDocumentsEnable() && URI.startsWith(configuration.getTreeDocumentsURI());
     }
 
     /**
@@ -169,23 +459,93 @@ public class HttpResponse {
 
         //Configuration du serveur.
         //Paramètres du système d'arborescence du serveur.
-        String treeDocumentsURI = httpServer.getConfigurationProperty("treeDocumentsURI");
+        String treeDocumentsURI = httpServer.getConfiguration().getTreeDocumentsURI();
+
+        handler = Metrics.Handler.TREE;
+
+        //Répertoire demandé, et paramètres
+        //de la page (tri, page, format).
+        String documentsDirectory = URI.replaceFirst(treeDocumentsURI, "");
+        String query = "";
+        int indexQuery = documentsDirectory.indexOf('?');
+        if(indexQuery >= 0) {
+            query = documentsDirectory.substring(indexQuery + 1);
+            documentsDirectory = documentsDirectory.substring(0, indexQuery);
+        }
+        Map<String, String> parameters = TreePageTool.parseParameters(query);
 
         //Données de la réponse HTTP
         //liées à son contenu.
         int codeStatus = 200;
         String messageStatus = "OK";
-        String contentType = "text/html";
-        String documentsDirectory = URI.replaceFirst(treeDocumentsURI, "");
-        String content = getTreePage(documentsDirectory);
-        int contentLength = content.getBytes().length;
+        String contentType = TreePageTool.jsonAsked(parameters) ? "application/json" : "text/html";
+        byte[] content = TreePageTool.buildDocumentsTreePage(documentsDirectory, parameters);
+        //Si le répertoire n'existe pas.
+        if(content == null) {
+            buildContentForNotFoundURI();
+            return;
+        }
+        int contentLength = content.length;
 
         //Ajout des données à la réponse HTTP.
-        set("Code-Status", codeStatus);
-        set("Message-Status", messageStatus);
-        set("Content-Type", contentType);
-        set("Content-Length", contentLength);
-        set("Content", content);
+        this.codeStatus = codeStatus;
+        this.messageStatus = messageStatus;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.content = content;
+    }
+
+    /**
+     * Savoir si l'URI demandé est l'URI
+     * de la page des mesures du serveur.
+     *
+     * @return
+     */
+    public boolean metricsURIAsked() {
+        //URI demandé dans la requête HTTP,
+        //sans ses paramètres.
+        String URI = httpRequest.getRequestedURI();
+        int indexQuery = URI.indexOf('?');
+        if(indexQuery >= 0) {
+            URI = URI.substring(0, indexQuery);
+        }
+
+        //Configuration du serveur.
+        Configuration configuration = httpServer.getConfiguration();
+
+        //Si l'URI demandé est celui des mesures, et
+        //si la page des mesures est activée.
+        return configuration.isMetricsEnable() && URI.equals(configuration.getMetricsURI());
+    }
+
+    /**
+     * Construire le corps de la réponse
+     * et les autres données associées,
+     * si l'URI demandé est celui de la
+     * page des mesures du serveur (format
+     * texte de Prometheus).
+     */
+    public void buildContentForMetricsURI() {
+        handler = Metrics.Handler.METRICS;
+
+        //Données de la réponse HTTP
+        //liées à son contenu.
+        int codeStatus = 200;
+        String messageStatus = "OK";
+        String contentType = Metrics.CONTENT_TYPE;
+        byte[] content = Metrics.render().getBytes(StandardCharsets.UTF_8);
+        int contentLength = content.length;
+        //Les mesures ne sont jamais gardées
+        //par les clients web.
+        String cacheControl = "no-store";
+
+        //Ajout des données à la réponse HTTP.
+        this.codeStatus = codeStatus;
+        this.messageStatus = messageStatus;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.content = content;
+        this.cacheControl = cacheControl;
     }
 
     /**
@@ -209,11 +569,36 @@ public class HttpResponse {
         int contentLength = content.getBytes().length;
 
         //Ajout des données à la réponse HTTP.
-        set("Code-Status", codeStatus);
-        set("Message-Status", messageStatus);
-        set("Content-Type", contentType);
-        set("Content-Length", contentLength);
-        set("Content", content);
+        this.codeStatus = codeStatus;
+        this.messageStatus = messageStatus;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.content = content;
+    }
+
+    /**
+     * Construire le corps de la réponse
+     * et les autres données associées,
+     * si le document demandé ne peut pas
+     * être produit pour le moment.
+     *
+     * @param errorMessage
+     */
+    public void buildContentForServiceUnavailable(@NotNull String errorMessage) {
+        //Données de la réponse HTTP
+        //liées à son contenu.
+        int codeStatus = 503;
+        String messageStatus = "Service Unavailable";
+        String contentType = "text/html";
+        String content = getErrorPage(codeStatus, errorMessage);
+        int contentLength = content.getBytes().length;
+
+        //Ajout des données à la réponse HTTP.
+        this.codeStatus = codeStatus;
+        this.messageStatus = messageStatus;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.content = content;
     }
 
     /**
@@ -250,12 +635,12 @@ public class HttpResponse {
         String WWWAuthenticate = "Basic realm=\"Access to the staging site\"";
 
         //Ajout des données à la réponse HTTP.
-        set("Code-Status", codeStatus);
-        set("Message-Status", messageStatus);
-        set("Content-Type", contentType);
-        set("Content-Length", contentLength);
-        set("Content", content);
-        set("WWW-Authenticate",WWWAuthenticate);
+        this.codeStatus = codeStatus;
+        this.messageStatus = messageStatus;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.content = content;
+        this.WWWAuthenticate = WWWAuthenticate;
     }
 
     /**
@@ -265,20 +650,13 @@ public class HttpResponse {
      * est correcte.
      */
     public boolean authenticationDoneCorrect() {
-        //URI demandé dans la requête HTTP.
-        String URI = httpRequest.get("URI");
-
-        //Authentification faite.
-        Base64.Decoder decoder = Base64.getDecoder();
-        String authentication = httpRequest.get("Authorization").split(" ")[1];
-        String authenticationObtained = new String(decoder.decode(authentication));
-
-        //Authentification attendue.
-        String lineSeparator = System.getProperty("line.separator");
-        String[] authenticationExpected = FileManager.getContentAuthenticationFileFor(URI).split(lineSeparator);
+        //Fichier d'authentifications du
+        //répertoire protégé.
+        File authenticationFile = route.getAuthenticationFile();
 
         //Si l'authentification faite est correcte.
-        return Arrays.asList(authenticationExpected).contains(authenticationObtained);
+        return authenticationFile != null
+               && AuthenticationManager.authorizationIsCorrect(authenticationFile, httpRequest.get("Authorization"));
     }
 
     /**
@@ -303,11 +681,11 @@ public class HttpResponse {
         int contentLength = content.getBytes().length;
 
         //Ajout des données à la réponse HTTP.
-        set("Code-Status", codeStatus);
-        set("Message-Status", messageStatus);
-        set("Content-Type", contentType);
-        set("Content-Length", contentLength);
-        set("Content", content);
+        this.codeStatus = codeStatus;
+        this.messageStatus = messageStatus;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.content = content;
     }
 
     /**
@@ -318,19 +696,27 @@ public class HttpResponse {
         //URI demandé dans la requête HTTP.
         String URI = httpRequest.get("URI");
 
+        //Si l'URI demandé est la page des
+        //mesures du serveur.
+        if(metricsURIAsked()) {
+            buildContentForMetricsURI();
         //Si l'URI demandé est une page du
         //système affichant l'arborescence
         //du serveur.
-        if(treeURIAsked()) {
+        } else if(treeURIAsked()) {
             buildContentForTreeURI();
        //Sinon.
         } else {
+            //Route de l'URI : document trouvé ou
+            //absent, résolu une seule fois tant
+            //qu'il ne change pas.
+            route = RouteCache.resolve(httpRequest.getHostName(), URI);
             //Si l'URI correspond bien à un document
             //du serveur.
-            if(FileManager.documentFileExists(URI)) {
+            if(route.exists()) {
                 //Si l'URI demandé correspond à un document
                 //du serveur dans un réperoire protégé.
-                if(FileManager.documentFileIsInProtectedDirectory(URI)) {
+                if(route.getAuthenticationFile() != null) {
                     //Si l'authentification a été faite,
                     //alors on la vérifie.
                     if(authenticationHasBeenDone()) {
@@ -362,14 +748,233 @@ public class HttpResponse {
         }
     }
 
+    /**
+     * Limiter le contenu / corps de la réponse aux
+     * portions du document demandées par le client
+     * web (entête Range), pour la reprise d'un
+     * téléchargement ou la lecture d'une vidéo.
+     *
+     * Une seule portion est envoyée telle quelle,
+     * plusieurs portions sont envoyées dans un corps
+     * multipart/byteranges. Les portions sont lues
+     * directement depuis le fichier ou le cache, sans
+     * copie du document.
+     */
+    public void buildContentRanges() {
+        //Seul un document statique trouvé est concerné.
+        if(staticDocumentFile == null || codeStatus != 200) {
+            return;
+        }
+        this.acceptRanges = ByteRangeTool.UNIT_BYTES;
+        if(!httpRequest.contains("Range")) {
+            return;
+        }
+        //Si la version du document connue par le client
+        //web est dépassée, tout le document est envoyé.
+        if(httpRequest.contains("If-Range")
+           && !ConditionalRequestTool.ifRangeMatches(httpRequest.get("If-Range"), eTag,
+                                                     route.getLastModified())) {
+            return;
+        }
+        long length = contentLength;
+        List<long[]> ranges = ByteRangeTool.parseRanges(httpRequest.get("Range"), length);
+        //Un entête Range invalide est ignoré.
+        if(ranges == null) {
+            return;
+        }
+        //Si aucune portion n'est dans le document.
+        if(ranges.isEmpty()) {
+            buildContentForUnsatisfiableRange(length);
+            return;
+        }
+
+        long contentLength;
+        //Si une seule portion est demandée.
+        if(ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            contentLength = range[1] - range[0] + 1;
+            this.contentRange = ByteRangeTool.buildContentRange(range, length);
+        //Sinon, une partie par portion.
+        } else {
+            //Séparateur des parties (fin de ligne HTTP).
+            String boundary = "RANGES_" + Long.toHexString(System.nanoTime());
+            List<byte[]> partsHeaders = new ArrayList<byte[]>(ranges.size() + 1);
+            contentLength = 0;
+            for(long[] range : ranges) {
+                byte[] partHeaders = ("\r\n--" + boundary + "\r\n" +
+                                      "Content-Type: " + contentType + "\r\n" +
+                                      "Content-Range: " + ByteRangeTool.buildContentRange(range, length) + "\r\n" +
+                                      "\r\n").getBytes();
+                partsHeaders.add(partHeaders);
+                contentLength += partHeaders.length + range[1] - range[0] + 1;
+            }
+            byte[] closingBoundary = ("\r\n--" + boundary + "--\r\n").getBytes();
+            partsHeaders.add(closingBoundary);
+            contentLength += closingBoundary.length;
+            this.contentType = "multipart/byteranges; boundary=" + boundary;
+            this.contentRangesHeaders = partsHeaders;
+        }
+
+        //Mise à jour des données de la réponse HTTP.
+        this.codeStatus = 206;
+        this.messageStatus = "Partial Content";
+        this.contentLength = contentLength;
+        this.contentRanges = ranges;
+    }
+
+    /**
+     * Construire le corps de la réponse
+     * et les autres données associées,
+     * si aucune des portions demandées
+     * n'est dans le document.
+     *
+     * @param length taille du document.
+     */
+    public void buildContentForUnsatisfiableRange(long length) {
+        //URI demandé dans la requête HTTP.
+        String URI = httpRequest.get("URI");
+
+        //Données de la réponse HTTP
+        //liées à son contenu.
+        int codeStatus = 416;
+        String messageStatus = "Range Not Satisfiable";
+        String contentType = "text/html";
+        String errorMessage = "Les portions demandées sont hors du document \"" +  URI + "\" !";
+        String content = getErrorPage(codeStatus, errorMessage);
+        int contentLength = content.getBytes().length;
+
+        //Ajout des données à la réponse HTTP.
+        this.codeStatus = codeStatus;
+        this.messageStatus = messageStatus;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.content = content;
+        this.contentRange = ByteRangeTool.buildUnsatisfiedContentRange(length);
+    }
+
+    /**
+     * Compresser le contenu / corps de la réponse
+     * (gzip ou deflate), si le client web l'accepte
+     * et si le type de contenu s'y prête.
+     *
+     * Pour un document statique, un fichier voisin
+     * .gz déjà compressé est utilisé s'il existe,
+     * sinon la variante compressée est gardée en
+     * cache. Un contenu dynamique est compressé à
+     * chaque réponse.
+     */
+    public void buildContentEncoding() {
+        //Seul un contenu trouvé (ou non modifié, ou en
+        //portions), d'un type compressible, est concerné.
+        boolean notModified = codeStatus == 304;
+        boolean partial = codeStatus == 206;
+        //Le type d'un corps multipart est celui du document.
+        String contentType = partial ? getContentTypeForURI() : this.contentType;
+        if(!CompressionTool.COMPRESSION_ENABLE
+           || !(codeStatus == 200 || notModified || partial)
+           || !CompressionTool.contentTypeIsCompressible(contentType)) {
+            return;
+        }
+        //Le contenu envoyé dépend de l'entête
+        //Accept-Encoding de la requête.
+        this.vary = "Accept-Encoding";
+        //Les portions sont celles du document
+        //non compressé.
+        if(partial) {
+            return;
+        }
+
+        //Choix de l'encodage.
+        if(!httpRequest.contains("Accept-Encoding")) {
+            return;
+        }
+        String encoding = CompressionTool.chooseEncoding(httpRequest.get("Accept-Encoding"));
+        long contentLength = notModified && staticDocumentFile != null ? route.getLength()
+                                                                       : this.contentLength;
+        //Un petit contenu ne gagne rien à être compressé
+        //(la taille d'un contenu produit au fur et à mesure
+        //n'est pas connue).
+        if(encoding == null || (contentLength >= 0 && contentLength < CompressionTool.COMPRESSION_MIN_SIZE)) {
+            return;
+        }
+        //La variante compressée d'un document statique
+        //n'est pas identique octet par octet au document :
+        //son ETag est faible.
+        String strongETag = eTag;
+        if(staticDocumentFile != null) {
+            this.eTag = ConditionalRequestTool.weaken(eTag);
+        }
+        //Une réponse non modifiée n'a pas de corps.
+        if(notModified) {
+            return;
+        }
+
+        Object content;
+        //Si le contenu est un document statique.
+        if(staticDocumentFile != null) {
+            File precompressedFile = route.getPrecompressedFile();
+            //Si un fichier .gz à jour existe à côté du
+            //document (connu par la route).
+            try {
+                if(encoding.equals(CompressionTool.ENCODING_GZIP) && precompressedFile != null) {
+                    content = FileManager.getCachedContentFile(precompressedFile, route.getPrecompressedLength(),
+                                                               route.getPrecompressedLastModified());
+                    if(content == null) {
+                        content = precompressedFile;
+                    }
+                    contentLength = route.getPrecompressedLength();
+                //Sinon, si le document n'est pas trop gros
+                //pour être compressé en mémoire.
+                } else if(contentLength <= CompressionTool.COMPRESSION_MAX_SIZE) {
+                    content = FileManager.getCompressedContentFile(staticDocumentFile, encoding,
+                                                                   route.getLength(), route.getLastModified());
+                    contentLength = ((byte[]) content).length;
+                } else {
+                    return;
+                }
+            } catch (IOException exception) {
+                //Document ou variante .gz disparu depuis la
+                //résolution de la route : la route est retirée,
+                //et le contenu déjà chargé envoyé tel quel.
+                RouteCache.remove(route);
+                this.eTag = strongETag;
+                return;
+            }
+        //Sinon, si le contenu est produit au fur et à
+        //mesure, il est compressé de même.
+        } else if(this.content instanceof ChunkedContent) {
+            content = this.content;
+            ((ChunkedContent) content).setEncoding(encoding);
+        //Sinon, contenu dynamique.
+        } else {
+            content = CompressionTool.compress(renderContent(), encoding);
+            contentLength = ((byte[]) content).length;
+        }
+
+        //Mise à jour des données de la réponse HTTP.
+        this.contentEncoding = encoding;
+        this.contentLength = contentLength;
+        this.content = content;
+    }
+
     /**
      * Construire l'entête connexion (conserver
      * ou arrêter la connexion HTTP avec le client).
+     *
+     * Si la connexion est conservée, l'entête
+     * Keep-Alive indique au client web le délai
+     * d'inactivité et le nombre de requêtes
+     * restantes.
      */
     public void buildConnectionHeader() {
-        if(httpRequest.contains("Connection")) {
-            String connection = httpRequest.get("Connection");
-            set("Connection", connection);
+        //Si le client web veut conserver la connexion,
+        //et s'il peut encore envoyer des requêtes.
+        if(httpRequest.clientKeepsConnection() && countRemainingRequests > 0) {
+            this.connection = "keep-alive";
+            this.keepAlive = "timeout=" + HttpConnection.KEEP_ALIVE_TIMEOUT + ", max=" + countRemainingRequests;
+        //Sinon.
+        } else {
+            this.connection = "close";
         }
     }
 
@@ -380,6 +985,10 @@ public class HttpResponse {
      * @return
      */
     public String getContentTypeForURI() {
+        //Type déjà connu par la route.
+        if(route != null && route.exists()) {
+            return route.getContentType();
+        }
         String URI = httpRequest.get("URI");
         String extension = FileManager.getDocumentFileExtension(URI);
         String contentType = httpServer.getContentType(extension);
@@ -387,50 +996,500 @@ public class HttpResponse {
     }
 
     /**
-     * Produire la réponse HTTP en octets.
+     * Ecrire la ligne d'état et les entêtes de la
+     * réponse HTTP dans un tampon de la réserve,
+     * jusqu'à la ligne vide avant le corps.
+     *
+     * Le tampon retourné (en mode lecture) est à
+     * rendre à la réserve après son envoi.
      *
      * @return
      */
-    public byte[] render() {
-        String responseAsString;
-        byte[] responseAsBytes;
-
-        //Séparateur de lignes du système d'exploitation du serveur
-        //(windows, mac, linux, etc).
-        String lineSeparator = System.getProperty("line.separator");
+    public ByteBuffer encodeHeaders() {
+        ByteBuffer buffer = ByteBufferPool.acquire();
+        try {
+            putHeaders(buffer);
+        } catch (BufferOverflowException exception) {
+            //Entêtes plus longs qu'un tampon de la réserve.
+            ByteBufferPool.release(buffer);
+            buffer = ByteBuffer.allocate(16 * ByteBufferPool.BUFFER_SIZE);
+            putHeaders(buffer);
+        }
+        buffer.flip();
+        return buffer;
+    }
 
-        //Ligne d'état et entêtes de base.
-        responseAsString = "HTTP/" + get("Version") + " " + get("Code-Status") + " " + get("Message-Status") + lineSeparator +
-                           "Content-Type: " + get("Content-Type") + ";charset=UTF-8" + lineSeparator +
-                           "Content-Length: " + get("Content-Length") + lineSeparator;
+    /**
+     * Ecrire la ligne d'état et les entêtes de
+     * la réponse HTTP dans un tampon.
+     *
+     * @param buffer
+     */
+    private void putHeaders(@NotNull ByteBuffer buffer) {
+        //Ligne d'état.
+        putStatusLine(buffer);
+        //Une réponse non modifiée n'a pas de corps.
+        if(codeStatus != 304) {
+            buffer.put(HEADER_CONTENT_TYPE);
+            putAscii(buffer, contentType);
+            //Un type multipart a déjà ses paramètres.
+            if(contentType.indexOf(';') < 0) {
+                buffer.put(CHARSET_UTF_8);
+            }
+            buffer.put(CRLF);
+            //Un contenu de taille inconnue est
+            //envoyé en morceaux.
+            if(contentLength < 0) {
+                buffer.put(HEADER_TRANSFER_ENCODING_CHUNKED);
+            } else {
+                buffer.put(HEADER_CONTENT_LENGTH);
+                putDecimal(buffer, contentLength);
+                buffer.put(CRLF);
+            }
+        }
 
         //Entêtes facultatifs.
         //Cet entête n'existe qu'à partir de HTTP 1.1.
-        if(contains("Connection")) {
-            responseAsString += "Connection: " + get("Connection") + lineSeparator;
-        }
+        putHeader(buffer, HEADER_CONNECTION, connection);
+        putHeader(buffer, HEADER_KEEP_ALIVE, keepAlive);
+        //Si le contenu est compressé.
+        putHeader(buffer, HEADER_CONTENT_ENCODING, contentEncoding);
+        putHeader(buffer, HEADER_VARY, vary);
+        //Si le document peut être envoyé en portions.
+        putHeader(buffer, HEADER_ACCEPT_RANGES, acceptRanges);
+        putHeader(buffer, HEADER_CONTENT_RANGE, contentRange);
+        //Validateurs et règle de mise en cache du document.
+        putHeader(buffer, HEADER_ETAG, eTag);
+        putHeader(buffer, HEADER_LAST_MODIFIED, lastModified);
+        putHeader(buffer, HEADER_CACHE_CONTROL, cacheControl);
         //Si la ressource demandée est dans un répertoire protégé.
-        if(contains("WWW-Authenticate")) {
-            responseAsString += "WWW-Authenticate: " + get("WWW-Authenticate") + lineSeparator;
-        }
+        putHeader(buffer, HEADER_WWW_AUTHENTICATE, WWWAuthenticate);
 
         //Séparation avec le contenu / corps du message :
         //une ligne vide.
-        responseAsString += lineSeparator;
+        buffer.put(CRLF);
+    }
+
+    /**
+     * Coder le code d'état et les entêtes de la
+     * réponse HTTP pour HTTP/2 (HPACK) : noms en
+     * minuscules, sans les entêtes propres à une
+     * connexion HTTP 1 (Connection, Keep-Alive).
+     *
+     * @return
+     */
+    public byte[] encodeHttp2Headers() {
+        HttpHeaders headers = new HttpHeaders();
+        //Une réponse non modifiée n'a pas de corps.
+        if(codeStatus != 304) {
+            //Un type multipart a déjà ses paramètres.
+            headers.add("content-type", contentType.indexOf(';') < 0 ? contentType + ";charset=UTF-8" : contentType);
+            headers.add("content-length", String.valueOf(contentLength));
+        }
+        //Entêtes facultatifs.
+        addHttp2Header(headers, "content-encoding", contentEncoding);
+        addHttp2Header(headers, "vary", vary);
+        addHttp2Header(headers, "accept-ranges", acceptRanges);
+        addHttp2Header(headers, "content-range", contentRange);
+        addHttp2Header(headers, "etag", eTag);
+        addHttp2Header(headers, "last-modified", lastModified);
+        addHttp2Header(headers, "cache-control", cacheControl);
+        addHttp2Header(headers, "www-authenticate", WWWAuthenticate);
+        return HpackTool.encodeResponseHeaders(codeStatus, headers);
+    }
 
-        //Contenu / corps du message.
-        Object content = get("Content");
+    /**
+     * Ajouter un entête facultatif HTTP/2,
+     * s'il a une valeur.
+     *
+     * @param headers
+     * @param name
+     * @param value
+     */
+    private static void addHttp2Header(@NotNull HttpHeaders headers, @NotNull String name, String value) {
+        if(value != null) {
+            headers.add(name, value);
+        }
+    }
+
+    /**
+     * Ecrire la ligne d'état de la réponse HTTP
+     * dans un tampon, pré-encodée si possible.
+     *
+     * @param buffer
+     */
+    private void putStatusLine(@NotNull ByteBuffer buffer) {
+        byte[][] statusLines = version.equals("1.1") ? STATUS_LINES_1_1 : version.equals("1.0") ? STATUS_LINES_1_0 : null;
+        if(statusLines != null && codeStatus >= 0 && codeStatus < statusLines.length
+           && statusLines[codeStatus] != null && messageStatus.equals(STATUS_MESSAGES[codeStatus])) {
+            buffer.put(statusLines[codeStatus]);
+            return;
+        }
+        putAscii(buffer, "HTTP/" + version + " " + codeStatus + " " + messageStatus);
+        buffer.put(CRLF);
+    }
+
+    /**
+     * Ecrire un entête dans un tampon, s'il
+     * a une valeur.
+     *
+     * @param buffer
+     * @param name nom pré-encodé, suivi de ": ".
+     * @param value
+     */
+    private static void putHeader(@NotNull ByteBuffer buffer, @NotNull byte[] name, String value) {
+        if(value == null) {
+            return;
+        }
+        buffer.put(name);
+        putAscii(buffer, value);
+        buffer.put(CRLF);
+    }
+
+    /**
+     * Ecrire une chaîne dans un tampon, un octet
+     * par caractère (les valeurs d'entêtes HTTP
+     * sont en ISO-8859-1), sans chaîne intermédiaire.
+     *
+     * @param buffer
+     * @param string
+     */
+    private static void putAscii(@NotNull ByteBuffer buffer, @NotNull String string) {
+        for(int i = 0; i < string.length(); i++) {
+            char character = string.charAt(i);
+            buffer.put(character < 0x100 ? (byte) character : (byte) '?');
+        }
+    }
+
+    /**
+     * Ecrire un nombre positif en décimal dans
+     * un tampon, sans chaîne intermédiaire.
+     *
+     * @param buffer
+     * @param value
+     */
+    private static void putDecimal(@NotNull ByteBuffer buffer, long value) {
+        long divisor = 1;
+        while(value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while(divisor > 0) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * Produire la ligne d'état et les entêtes
+     * de la réponse HTTP en octets, jusqu'à la
+     * ligne vide avant le corps.
+     *
+     * @return
+     */
+    public byte[] renderHeaders() {
+        ByteBuffer buffer = encodeHeaders();
+        byte[] headersAsBytes = new byte[buffer.remaining()];
+        buffer.get(headersAsBytes);
+        ByteBufferPool.release(buffer);
+        return headersAsBytes;
+    }
+
+    /**
+     * Produire le contenu / corps de la
+     * réponse HTTP en octets.
+     *
+     * Un contenu fichier est alors chargé en
+     * mémoire : à n'utiliser que si l'envoi
+     * direct du fichier est impossible.
+     *
+     * @return
+     */
+    public byte[] renderContent() {
+        Object content = this.content;
+        //Si seules des portions du contenu sont envoyées.
+        if(contentRanges != null) {
+            ByteArrayOutputStream contentAsBytes = new ByteArrayOutputStream();
+            try {
+                List<Object> contentOutputs = openContentOutputs();
+                try {
+                    writeOutputs(Channels.newChannel(contentAsBytes), contentOutputs);
+                } finally {
+                    closeOutputs(contentOutputs);
+                }
+            } catch (IOException exception) {
+                throw new IllegalStateException("Erreur lors de la lecture des portions d'un document !", exception);
+            }
+            return contentAsBytes.toByteArray();
+        //Si le contenu est un fichier.
+        } else if(content instanceof File) {
+            return FileManager.getContentFileAsBytes((File) content);
+        //Si le contenu est projeté hors du tas.
+        } else if(content instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) content).duplicate();
+            byte[] contentAsBytes = new byte[buffer.remaining()];
+            buffer.get(contentAsBytes);
+            return contentAsBytes;
         //Si le contenu a été chargé en octets.
-        if(content instanceof byte[]) {
-            responseAsBytes = responseAsString.getBytes();
-            responseAsBytes = ArrayTool.concatenateBytesArrays(responseAsBytes, ((byte[]) content));
+        } else if(content instanceof byte[]) {
+            return (byte[]) content;
+        //Si le contenu est produit au fur et à mesure :
+        //ses morceaux sont produits d'un coup.
+        } else if(content instanceof ChunkedContent) {
+            ByteArrayOutputStream contentAsBytes = new ByteArrayOutputStream();
+            try {
+                ((ChunkedContent) content).writeTo(Channels.newChannel(contentAsBytes));
+            } catch (IOException exception) {
+                throw new IllegalStateException("Erreur lors de la production d'un contenu !", exception);
+            }
+            return contentAsBytes.toByteArray();
         //Sinon.
         } else {
-            responseAsString += ((String) content);
-            responseAsBytes = responseAsString.getBytes();
+            return ((String) content).getBytes();
         }
+    }
 
-        return responseAsBytes;
+    /**
+     * Produire la réponse HTTP en octets.
+     *
+     * @return
+     */
+    public byte[] render() {
+        return ArrayTool.concatenateBytesArrays(renderHeaders(), renderContent());
+    }
+
+    /**
+     * Ouvrir le contenu / corps de la réponse
+     * HTTP pour son envoi sur un canal, en
+     * morceaux :
+     * - une portion de fichier (FileRegion) pour
+     *   un contenu fichier, envoyé sans passer par
+     *   le tas JAVA ;
+     * - le contenu lui-même (ChunkedContent) s'il
+     *   est produit au fur et à mesure ;
+     * - un tampon d'octets sinon, éventuellement
+     *   projeté hors du tas.
+     *
+     * Si seules des portions du document sont
+     * demandées, il y a un morceau par portion,
+     * précédé des entêtes de sa partie pour un
+     * corps multipart.
+     *
+     * @return
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object> openContentOutputs() throws IOException {
+        List<Object> contentOutputs = new ArrayList<Object>();
+        //Si tout le contenu est envoyé.
+        if(contentRanges == null) {
+            contentOutputs.add(openContentOutput());
+            return contentOutputs;
+        }
+
+        //Sinon, une portion après l'autre.
+        List<long[]> ranges = contentRanges;
+        List<byte[]> partsHeaders = contentRangesHeaders;
+        try {
+            for(int i = 0; i < ranges.size(); i++) {
+                long[] range = ranges.get(i);
+                if(partsHeaders != null) {
+                    contentOutputs.add(ByteBuffer.wrap(partsHeaders.get(i)));
+                }
+                contentOutputs.add(openContentOutput(range[0], range[1] - range[0] + 1));
+            }
+            if(partsHeaders != null) {
+                contentOutputs.add(ByteBuffer.wrap(partsHeaders.get(ranges.size())));
+            }
+        } catch (IOException exception) {
+            //Fermeture des portions déjà ouvertes.
+            closeOutputs(contentOutputs);
+            throw exception;
+        }
+        return contentOutputs;
+    }
+
+    /**
+     * Ouvrir tout le contenu / corps de la
+     * réponse HTTP pour son envoi sur un canal.
+     *
+     * @return
+     * @throws IOException
+     */
+    public Object openContentOutput() throws IOException {
+        Object content = this.content;
+        //Si le contenu est un fichier.
+        if(content instanceof File) {
+            return new FileRegion((File) content);
+        //Si le contenu est projeté hors du tas.
+        } else if(content instanceof ByteBuffer) {
+            return ((ByteBuffer) content).duplicate();
+        //Si le contenu est produit au fur et à mesure.
+        } else if(content instanceof ChunkedContent) {
+            return content;
+        //Sinon.
+        } else {
+            return ByteBuffer.wrap(renderContent());
+        }
+    }
+
+    /**
+     * Ouvrir une portion du contenu / corps de
+     * la réponse HTTP pour son envoi sur un canal,
+     * sans copie du contenu.
+     *
+     * @param position
+     * @param count
+     * @return
+     * @throws IOException
+     */
+    public Object openContentOutput(long position, long count) throws IOException {
+        Object content = this.content;
+        //Si le contenu est un fichier.
+        if(content instanceof File) {
+            return new FileRegion((File) content, position, count);
+        //Si le contenu est projeté hors du tas.
+        } else if(content instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) content).duplicate();
+            buffer.position(buffer.position() + (int) position);
+            buffer.limit(buffer.position() + (int) count);
+            return buffer.slice();
+        //Sinon, contenu chargé en octets.
+        } else {
+            return ByteBuffer.wrap((byte[]) content, (int) position, (int) count).slice();
+        }
+    }
+
+    /**
+     * Envoyer des morceaux de réponse HTTP sur un
+     * canal bloquant : les tampons consécutifs sont
+     * envoyés ensemble (écriture groupée, un seul
+     * appel système), les portions de fichier
+     * directement depuis le fichier, un contenu
+     * produit au fur et à mesure morceau par morceau.
+     *
+     * @param channel
+     * @param outputs
+     * @throws IOException
+     */
+    public static void writeOutputs(@NotNull WritableByteChannel channel, @NotNull List<Object> outputs) throws IOException {
+        int i = 0;
+        while(i < outputs.size()) {
+            //Si c'est une portion de fichier.
+            if(outputs.get(i) instanceof FileRegion) {
+                FileRegion fileRegion = (FileRegion) outputs.get(i);
+                while(!fileRegion.transferTo(channel)) {
+                    //Canal bloquant : l'envoi reprend.
+                }
+                i++;
+                continue;
+            }
+            //Si c'est un contenu produit au fur et à mesure.
+            if(outputs.get(i) instanceof ChunkedContent) {
+                ((ChunkedContent) outputs.get(i)).writeTo(channel);
+                i++;
+                continue;
+            }
+
+            //Sinon, tampons consécutifs.
+            int j = i;
+            while(j < outputs.size() && outputs.get(j) instanceof ByteBuffer) {
+                j++;
+            }
+            ByteBuffer[] buffers = outputs.subList(i, j).toArray(new ByteBuffer[j - i]);
+            if(channel instanceof GatheringByteChannel) {
+                while(hasRemaining(buffers)) {
+                    ((GatheringByteChannel) channel).write(buffers);
+                }
+            } else {
+                for(ByteBuffer buffer : buffers) {
+                    while(buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+            }
+            i = j;
+        }
+    }
+
+    /**
+     * Savoir s'il reste des octets à envoyer
+     * dans des tampons.
+     *
+     * @param buffers
+     * @return
+     */
+    public static boolean hasRemaining(@NotNull ByteBuffer[] buffers) {
+        for(ByteBuffer buffer : buffers) {
+            if(buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Libérer des morceaux de réponse HTTP envoyés
+     * ou abandonnés : fermeture des fichiers, et
+     * retour des tampons à la réserve.
+     *
+     * @param outputs
+     */
+    public static void closeOutputs(@NotNull List<Object> outputs) {
+        for(Object output : outputs) {
+            closeOutput(output);
+        }
+    }
+
+    /**
+     * Libérer un morceau de réponse HTTP envoyé
+     * ou abandonné.
+     *
+     * @param output
+     */
+    public static void closeOutput(Object output) {
+        if(output instanceof FileRegion) {
+            ((FileRegion) output).close();
+        } else if(output instanceof ChunkedContent) {
+            ((ChunkedContent) output).close();
+        } else if(output instanceof ByteBuffer) {
+            ByteBufferPool.release((ByteBuffer) output);
+        }
+    }
+
+    /**
+     * Envoyer la réponse HTTP sur une connexion
+     * bloquante.
+     *
+     * Les entêtes et un contenu en mémoire sont
+     * envoyés en une seule écriture groupée. Un
+     * contenu fichier ou projeté hors du tas est
+     * envoyé directement sur le canal de la
+     * connexion, sans passer par le tas JAVA.
+     *
+     * @param outputStream
+     * @param channel canal de la connexion, s'il existe.
+     * @throws IOException
+     */
+    public void write(@NotNull OutputStream outputStream, WritableByteChannel channel) throws IOException {
+        //Si la connexion n'a pas de canal, on
+        //en crée un sur son flux de sortie.
+        boolean channelOnStream = channel == null;
+        if(channelOnStream) {
+            channel = Channels.newChannel(outputStream);
+        }
+
+        //Ligne d'état et entêtes, puis contenu
+        //s'il est envoyé.
+        List<Object> outputs = sendsContent() ? openContentOutputs() : new ArrayList<Object>();
+        outputs.add(0, encodeHeaders());
+        try {
+            writeOutputs(channel, outputs);
+            if(channelOnStream) {
+                outputStream.flush();
+            }
+        } finally {
+            closeOutputs(outputs);
+        }
     }
 
     /**
@@ -448,48 +1507,87 @@ public class HttpResponse {
     }
 
     /**
-     * Ajouter / modifier une donnée de la réponse HTTP.
+     * Construire la réponse HTTP pour une requête HTTP,
+     * en précisant le nombre de requêtes encore acceptées
+     * sur la connexion, et l'obtenir en octets.
      *
-     * @param nameData
-     * @param data
+     * @param httpRequest
+     * @param countRemainingRequests
+     * @return
      */
-    public void set(@NotNull String nameData, @NotNull Object data) {
-        datas.put(nameData, data);
+    public static byte[] render(@NotNull HttpRequest httpRequest, int countRemainingRequests) {
+        //Construction de la réponse.
+        HttpResponse httpResponse = new HttpResponse(httpRequest, countRemainingRequests);
+        //Production de la réponse en octets.
+        byte[] responseAsBytes = httpResponse.render();
+        return responseAsBytes;
     }
 
+    /**
+     * Obtenir en octets la réponse HTTP 503
+     * envoyée quand le serveur est saturé.
+     *
+     * @return
+     */
+    public static byte[] renderServiceUnavailable() {
+        String errorMessage = "Le serveur est saturé, veuillez réessayer plus tard !";
+        HttpResponse httpResponse = new HttpResponse(503, "Service Unavailable", errorMessage);
+        return httpResponse.render();
+    }
 
     /**
-     * Savoir si une donnée de la réponse
-     * HTTP est connue.
+     * Obtenir en octets la réponse HTTP d'erreur
+     * envoyée à une requête HTTP mal formée ou
+     * trop longue.
      *
-     * Un donnée de la réponse HTTP peut être :
-     * - un élément de la ligne d'état ;
-     * - un entête de retour ;
-     * - le corps de la réponse.
+     * @param exception
+     * @return
+     */
+    public static byte[] renderBadRequest(@NotNull HttpRequestException exception) {
+        HttpResponse httpResponse = new HttpResponse(exception.getCodeStatus(), exception.getMessageStatus(), exception.getMessage());
+        return httpResponse.render();
+    }
+
+    /**
+     * Obtenir le code d'état de la réponse HTTP.
      *
-     * @param nameData
      * @return
      */
-    public boolean contains(@NotNull String nameData) {
-        return datas.containsKey(nameData);
+    public int getCodeStatus() {
+        return codeStatus;
     }
 
     /**
-     * Obtenir une donnée de la réponse HTTP.
+     * Obtenir le traitement de la requête.
      *
-     * Une donnée de la réponse HTTP peut être :
-     * - un élément de la ligne d'état ;
-     * - un entête de retour ;
-     * - le corps de la réponse.
+     * @return
+     */
+    public Metrics.Handler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Obtenir le nombre d'octets du corps de la
+     * réponse, une fois envoyé.
      *
-     * @param nameData
      * @return
      */
-    public Object get(@NotNull String nameData) {
-        if (!contains(nameData)) {
-            throw new IllegalArgumentException("Elément de la réponse HTTP demandé inconnu : " + nameData + "!");
+    public long getCountContentBytes() {
+        //Contenu produit au fur et à mesure.
+        if(content instanceof ChunkedContent) {
+            return ((ChunkedContent) content).getCountBytes();
         }
-        return datas.get(nameData);
+        return codeStatus == 304 ? 0 : Math.max(0, contentLength);
+    }
+
+    /**
+     * Encoder une chaîne ASCII constante en octets.
+     *
+     * @param string
+     * @return
+     */
+    private static byte[] encodeAscii(@NotNull String string) {
+        return string.getBytes(StandardCharsets.US_ASCII);
     }
 
     /**
@@ -505,19 +1603,4 @@ public class HttpResponse {
                           .replace("[PARAM=errorCode=PARAM]", errorCode.toString())
                           .replace("[PARAM=errorMessage=PARAM]", errorMessage);
     }
-
-    /**
-     * Obtenir une page décrivant le contenu
-     * d'un répertoire de documents du sereur :
-     * une page web du système affichant
-     * l'arborescence des documents du
-     * serveur.
-     *
-     * @param pathDocumentsDirectory
-     * @return
-     */
-    private String getTreePage(@NotNull String pathDocumentsDirectory) {
-        return FileManager.getContentDocumentFileAsString(".server/tree/html/index.html")
-                          .replace("[PARAM=treePage=PARAM]", TreePageTool.buildDocumentsTreePage(pathDocumentsDirectory));
-    }
 }
\ No newline at end of file
@@ -3,10 +3,15 @@ package core;
 import org.jetbrains.annotations.NotNull;
 import java.io.*;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Date;
-import java.util.Properties;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
 
 /**
  * Classe pour la gestion du serveur HTTP.
@@ -15,33 +20,45 @@ import java.util.Properties;
  *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
  */
 public class HttpServer {
-    //Nom du fichier de configuration du serveur.
-    private final static String CONFIGURATION_FILENAME = "configuration.properties";
-    //Nom du fichier des types de contenu.
-    private final static String CONTENT_TYPES_FILENAME = "content_types.properties";
-    //Nom du fichier des alias des documents du serveur / hôtes.
-    private final static String HOSTS_FILENAME = "hosts.properties";
     //Serveur TCP, pour écouter les connexions TCP.
     private ServerSocket tcpServer;
+    //Serveur TCP non bloquant (moteur "nio").
+    private ServerSocketChannel nioServer;
+    //Boucles d'évènements du moteur "nio".
+    private HttpEventLoop[] eventLoops;
+    //Exécuteur des connexions TCP acceptées.
+    private ConnectionExecutor connectionExecutor;
+    //Exécuteur des réponses construites en
+    //dehors du thread de leur connexion.
+    private ResponseExecutor responseExecutor;
+    //Connexions au serveur FastCGI des programmes
+    //.php, null s'ils sont exécutés par la commande php.
+    private FastCgiPool fastCgiPool;
     //Singleton serveur HTTP.
     private static HttpServer singletonHttpServer;
-    //Configuration du serveur.
-    private Properties configuration;
-    //Types de contenu.
-    private Properties contentTypes;
-    //Alias des documents du serveur / hôtes.
-    private Properties hosts;
+    //Format de la date des messages.
+    private final static DateTimeFormatter MESSAGE_DATE_FORMAT = DateTimeFormatter.ofLocalizedDateTime(FormatStyle.MEDIUM)
+                                                                                  .withZone(ZoneId.systemDefault());
+    //Date du dernier message, formatée une
+    //seule fois par seconde.
+    private volatile MessageDate lastMessageDate = new MessageDate(-1, "");
+    //Configuration du serveur (paramètres, types de
+    //contenu, alias des hôtes, règles de mise en cache),
+    //remplacée d'un coup à chaque rechargement.
+    private volatile Configuration configuration;
 
     /**
      * Créer un objet core.HttpServer.
      */
     private HttpServer() {
-        //Chargement de la configuration du serveur.
-        loadConfiguration();
-        //Chargement des types de contenu.
-        loadContentTypes();
-        //Chargement des alias des documents du serveur / hôtes.
-        loadHosts();
+        //Chargement de la configuration du serveur, des
+        //types de contenu, des alias des documents du
+        //serveur / hôtes, et des règles de mise en cache.
+        try {
+            configuration = Configuration.load();
+        } catch (IOException | IllegalArgumentException exception) {
+            logErrorAndExit("La configuration du serveur n'a pas pu être chargée : " + exception.getMessage(), exception);
+        }
     }
 
     /**
@@ -55,14 +72,32 @@ public class HttpServer {
     }
 
     /**
-     * Charger la configuration du serveur.
+     * Obtenir la configuration du serveur en
+     * cours : à garder le temps d'une requête,
+     * pour lire une configuration cohérente.
+     *
+     * @return
+     */
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Recharger la configuration du serveur, sans
+     * redémarrage ni coupure des connexions. Une
+     * configuration illisible ou incomplète est
+     * ignorée : l'ancienne reste en cours.
+     *
+     * Les paramètres lus au démarrage (adresse, port,
+     * moteur, tailles des pools et des caches...)
+     * ne changent qu'au redémarrage suivant.
      */
-    private void loadConfiguration() {
-        configuration = new Properties();
+    public synchronized void reloadConfiguration() {
         try {
-            configuration.load(new FileReader(FileManager.getConfigurationFile(CONFIGURATION_FILENAME)));
-        } catch (IOException exception) {
-            logErrorAndExit("Le fichier de configuration '"+ CONFIGURATION_FILENAME + "' n'a pas pu être trouvé !", exception);
+            configuration = Configuration.load();
+            logDatedMessage("Configuration du serveur rechargée.");
+        } catch (IOException | IllegalArgumentException exception) {
+            logDatedMessage("Configuration du serveur non rechargée : " + exception.getMessage());
         }
     }
 
@@ -74,9 +109,6 @@ public class HttpServer {
      * @return
      */
     public String getConfigurationProperty(@NotNull String propertyName) {
-        if(!configuration.containsKey(propertyName)) {
-            throw new IllegalArgumentException("Propriété de configuration du serveur introuvable : " + propertyName + " !");
-        }
         return configuration.getProperty(propertyName);
     }
 
@@ -88,7 +120,7 @@ public class HttpServer {
      * @return
      */
     public int getConfigurationPropertyInteger(@NotNull String propertyName) {
-        return Integer.parseInt(getConfigurationProperty(propertyName));
+        return configuration.getPropertyInteger(propertyName);
     }
 
     /**
@@ -99,19 +131,7 @@ public class HttpServer {
      * @return
      */
     public boolean getConfigurationPropertyBoolean(@NotNull String propertyName) {
-        return Boolean.parseBoolean(getConfigurationProperty(propertyName));
-    }
-
-    /**
-     * Charger les types de contenu.
-     */
-    private void loadContentTypes() {
-        contentTypes = new Properties();
-        try {
-            contentTypes.load(new FileReader(FileManager.getConfigurationFile(CONTENT_TYPES_FILENAME)));
-        } catch (IOException exception) {
-            logErrorAndExit("Le fichier des types de contenu '"+ CONTENT_TYPES_FILENAME + "' n'a pas pu être trouvé !", exception);
-        }
+        return configuration.getPropertyBoolean(propertyName);
     }
 
     /**
@@ -122,49 +142,23 @@ public class HttpServer {
      * @return
      */
     public String getContentType(@NotNull String extensionFile) {
-        if(!contentTypes.containsKey(extensionFile)) {
-            throw new IllegalArgumentException("Extension de fichier non répertoriée : " + extensionFile + " !");
-        }
-        return contentTypes.getProperty(extensionFile);
-    }
-
-    /**
-     * Charger les types de contenu.
-     */
-    private void loadHosts() {
-       hosts = new Properties();
-        try {
-            hosts.load(new FileReader(FileManager.getConfigurationFile(HOSTS_FILENAME)));
-        } catch (IOException exception) {
-            logErrorAndExit("Le fichier des types de contenu '"+ CONTENT_TYPES_FILENAME + "' n'a pas pu être trouvé !", exception);
-        }
+        return configuration.getContentType(extensionFile);
     }
 
     /**
-     * Obtenir l'URI à partir d'un alias de
-     * documents du serveur / hôte.
+     * Obtenir la règle de mise en cache
+     * (valeur de l'entête Cache-Control)
+     * d'un document, ou null s'il n'y en
+     * a pas.
      *
      * @param host
+     * @param extensionFile
      * @return
      */
-    public String getURIForHost(@NotNull String host) {
-        if(!hosts.containsKey(host)) {
-            throw new IllegalArgumentException("Alias de documents du serveur / hôte : " + host + " !");
-        }
-        return hosts.getProperty(host);
+    public String getCacheControl(@NotNull String host, @NotNull String extensionFile) {
+        return configuration.getCacheControl(host, extensionFile);
     }
 
-    /**
-     * Savoir si l'hôte demandé est un alias
-     * de documents du serveur.
-     *
-     * @param host
-     * @return
-     */
-   public boolean hostAskedIsAlias(@NotNull String host) {
-       return hosts.containsKey(host);
-   }
-
     /**
      * Démarrer le serveur TCP.
      */
@@ -176,14 +170,58 @@ public class HttpServer {
 
         //Démarrage du serveur TCP.
         try {
-            tcpServer = new ServerSocket(port, countMaxConnections, InetAddress.getByName(address));
+            //Le serveur est ouvert par un canal, pour que les
+            //connexions TCP acceptées aient aussi un canal,
+            //utilisé pour l'envoi direct des fichiers.
+            tcpServer = ServerSocketChannel.open().socket();
+            tcpServer.bind(new InetSocketAddress(InetAddress.getByName(address), port), countMaxConnections);
+        } catch (IOException exception) {
+            logErrorAndExit("Le serveur des connexions TCP interne n'a pas pu être démarré !", exception);
+        }
+
+        //Log de démarrage du serveur.
+        logServerStarted(address, port, "blocking");
+    }
+
+    /**
+     * Démarrer le serveur TCP non bloquant,
+     * et ses boucles d'évènements.
+     */
+    private void startNioServer() {
+        //Récupération de la configuration du serveur.
+        String address = getConfigurationProperty("address");
+        int port = getConfigurationPropertyInteger("port");
+        int countMaxConnections = getConfigurationPropertyInteger("countMaxConnections");
+        int countEventLoops = getConfigurationPropertyInteger("countEventLoops");
+
+        //Démarrage du serveur TCP et des boucles d'évènements.
+        try {
+            nioServer = ServerSocketChannel.open();
+            nioServer.bind(new InetSocketAddress(InetAddress.getByName(address), port), countMaxConnections);
+            eventLoops = new HttpEventLoop[countEventLoops];
+            for(int i = 0; i < countEventLoops; i++) {
+                eventLoops[i] = new HttpEventLoop();
+                new Thread(eventLoops[i], "http-event-loop-" + (i + 1)).start();
+            }
         } catch (IOException exception) {
             logErrorAndExit("Le serveur des connexions TCP interne n'a pas pu être démarré !", exception);
         }
 
         //Log de démarrage du serveur.
+        logServerStarted(address, port, "nio");
+    }
+
+    /**
+     * Logger le démarrage du serveur.
+     *
+     * @param address
+     * @param port
+     * @param engine
+     */
+    private void logServerStarted(@NotNull String address, int port, @NotNull String engine) {
         logMessage("Faites CTRL + C pour arrêter le serveur.\n");
-        logDatedMessage("Serveur démarré, et écoute à l'adresse " + address + ", sur le port " + port + ".");
+        logDatedMessage("Serveur démarré, et écoute à l'adresse " + address + ", sur le port " + port +
+                        " (moteur : " + engine + ", exécution des connexions : " + connectionExecutor.getMode() + ").");
     }
 
     /**
@@ -199,31 +237,100 @@ public class HttpServer {
                 logErrorAndExit("Erreur à la réception d'une connexion TCP !", exception);
             }
             //Si on a reçu une nouvelle connexion TCP,
-            //on la traite dans un nouveau thread.
-            handleTcpConnectionInNewThread(tcpConnection);
+            //on la confie à l'exécuteur des connexions.
+            handleTcpConnection(tcpConnection);
+        }
+    }
+
+    /**
+     * Démarrer l'handler sur les connexions TCP
+     * du moteur non bloquant : les connexions
+     * sont réparties entre les boucles d'évènements.
+     */
+    private void startHandlerNioConnection() {
+        int indexEventLoop = 0;
+        while(true) {
+            //On écoute les connexions TCP des clients web.
+            SocketChannel tcpConnection = null;
+            try {
+                tcpConnection = nioServer.accept();
+            } catch (IOException exception) {
+                logErrorAndExit("Erreur à la réception d'une connexion TCP !", exception);
+            }
+            //La nouvelle connexion est confiée à la
+            //boucle d'évènements suivante.
+            eventLoops[indexEventLoop].register(tcpConnection);
+            indexEventLoop = (indexEventLoop + 1) % eventLoops.length;
         }
     }
 
     /**
      * Attraper une connexion TCP, puis gérer les trames HTTP,
-     * qui y sont échangées dans un nouveau thread.
+     * qui y sont échangées avec l'exécuteur des connexions.
+     *
+     * @param tcpConnection
+     */
+    private void handleTcpConnection(@NotNull Socket tcpConnection) {
+        //L'exécuteur gère la connexion dans un de ses threads,
+        //ou la refuse avec une réponse 503 s'il est saturé.
+        connectionExecutor.execute(tcpConnection);
+    }
+
+    /**
+     * Obtenir l'exécuteur des connexions TCP.
+     *
+     * @return
+     */
+    public ConnectionExecutor getConnectionExecutor() {
+        return connectionExecutor;
+    }
+
+    /**
+     * Obtenir l'exécuteur des réponses construites
+     * en dehors du thread de leur connexion.
      *
-     * @param
+     * @return
      */
-    private static void handleTcpConnectionInNewThread(@NotNull Socket tcpConnection) {
-        //On lance dans un nouveau thread la gestion des trames échangées sur la nouvelle connexion.
-        Thread threadNewHttpConnection = new Thread(() -> HttpConnection.handle(tcpConnection));
-        threadNewHttpConnection.start();
+    public ResponseExecutor getResponseExecutor() {
+        return responseExecutor;
+    }
+
+    /**
+     * Obtenir les connexions au serveur FastCGI
+     * des programmes .php.
+     *
+     * @return null si les programmes .php sont exécutés par la commande php.
+     */
+    public FastCgiPool getFastCgiPool() {
+        return fastCgiPool;
     }
 
     /**
      * Démarrer le serveur, et l'handler sur les connexions TCP.
      */
     public void start() {
-        //Démarrage du serveur TCP.
-        startTcpServer();
-        //Démarrage de l'écoute du serveur TCP.
-        startHandlerTcpConnection();
+        //Chargement de l'exécuteur des connexions TCP.
+        connectionExecutor = ConnectionExecutor.fromConfiguration();
+        //Chargement de l'exécuteur des réponses.
+        responseExecutor = ResponseExecutor.fromConfiguration();
+        //Chargement des connexions au serveur FastCGI.
+        fastCgiPool = FastCgiPool.fromConfiguration();
+        //Rechargement de la configuration à
+        //chaud, sur changement ou signal.
+        ConfigurationWatcher.start();
+        //Si le moteur non bloquant est demandé.
+        if(getConfigurationProperty("engine").equals("nio")) {
+            //Démarrage du serveur TCP non bloquant.
+            startNioServer();
+            //Démarrage de l'écoute du serveur TCP.
+            startHandlerNioConnection();
+        //Sinon, moteur bloquant.
+        } else {
+            //Démarrage du serveur TCP.
+            startTcpServer();
+            //Démarrage de l'écoute du serveur TCP.
+            startHandlerTcpConnection();
+        }
     }
 
     /**
@@ -237,7 +344,13 @@ public class HttpServer {
      * Logger un message daté.
      */
     public void logDatedMessage(@NotNull String message) {
-        logMessage("[" + new Date().toLocaleString() + "] " + message);
+        long second = System.currentTimeMillis() / 1000;
+        MessageDate messageDate = lastMessageDate;
+        if(messageDate.second != second) {
+            messageDate = new MessageDate(second, MESSAGE_DATE_FORMAT.format(Instant.ofEpochSecond(second)));
+            lastMessageDate = messageDate;
+        }
+        logMessage("[" + messageDate.text + "] " + message);
     }
 
     /**
@@ -248,4 +361,17 @@ public class HttpServer {
         exception.printStackTrace();
         System.exit(1);
     }
-}
\ No newline at end of file
+
+    /**
+     * Date formatée d'une seconde.
+     */
+    private static class MessageDate {
+        private final long second;
+        private final String text;
+
+        private MessageDate(long second, @NotNull String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Classe pour les mesures du serveur, servies
+ * au format texte de Prometheus sur l'URI
+ * metricsURI :
+ * - requêtes, par hôte, traitement et statut ;
+ * - durées des requêtes (histogramme), et octets
+ *   du corps des réponses, par hôte et traitement ;
+ * - octets reçus, connexions ouvertes ;
+ * - statistiques des caches (contenu, routes) et
+ *   entrées perdues du journal des accès.
+ *
+ * Un hôte est un alias des documents du serveur
+ * (hosts.properties), les autres hôtes demandés
+ * sont comptés ensemble ("default") : le nombre
+ * de séries reste borné.
+ *
+ * Les compteurs sont des LongAdder : les connexions
+ * comptent sans se disputer un même compteur, et un
+ * enregistrement n'alloue rien (les séries d'un hôte
+ * sont créées à sa première requête, le compteur
+ * d'un statut à sa première réponse).
+ *
+ * Les classes de durée suivent une échelle
+ * log-linéaire (comme HdrHistogram) : deux classes
+ * par puissance de 2, de 128 µs à 33 s. Les centiles
+ * sont tirés de l'histogramme par le serveur
+ * Prometheus (histogram_quantile).
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class Metrics {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Enregistrement des mesures activé ou non
+    //(selon la configuration au démarrage).
+    public final static boolean ENABLE = httpServer.getConfigurationPropertyBoolean("metricsEnable");
+    //Type de contenu du format texte de Prometheus.
+    public final static String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    //Hôte des requêtes hors alias.
+    private final static String DEFAULT_HOST = "default";
+    //Codes de statut possibles : 100 à 599.
+    private final static int MAX_CODE_STATUS = 600;
+    //Bornes supérieures des classes de durée, en
+    //microsecondes, et en secondes (formatées).
+    private final static long[] DURATION_BOUNDS = buildDurationBounds();
+    private final static String[] DURATION_BOUNDS_LABELS = buildDurationBoundsLabels();
+    //Séries des requêtes, par hôte, puis par
+    //traitement.
+    private final static Map<String, Series[]> seriesByHost = new ConcurrentHashMap<String, Series[]>();
+    //Octets reçus des clients web.
+    private final static LongAdder countBytesReceived = new LongAdder();
+    //Connexions ouvertes depuis le démarrage,
+    //et connexions fermées.
+    private final static LongAdder countConnectionsOpened = new LongAdder();
+    private final static LongAdder countConnectionsClosed = new LongAdder();
+
+    /**
+     * Construire les bornes des classes de durée :
+     * 2^n et 1,5 x 2^n microsecondes.
+     *
+     * @return
+     */
+    private static long[] buildDurationBounds() {
+        long[] bounds = new long[37];
+        int i = 0;
+        for(int n = 7; n < 25; n++) {
+            bounds[i++] = 1L << n;
+            bounds[i++] = 3L << (n - 1);
+        }
+        bounds[i] = 1L << 25;
+        return bounds;
+    }
+
+    /**
+     * Formater les bornes des classes de
+     * durée en secondes.
+     *
+     * @return
+     */
+    private static String[] buildDurationBoundsLabels() {
+        String[] labels = new String[DURATION_BOUNDS.length];
+        for(int i = 0; i < DURATION_BOUNDS.length; i++) {
+            labels[i] = BigDecimal.valueOf(DURATION_BOUNDS[i], 6).stripTrailingZeros().toPlainString();
+        }
+        return labels;
+    }
+
+    /**
+     * Enregistrer une réponse HTTP entièrement
+     * envoyée (ou abandonnée).
+     *
+     * @param virtualHost alias des documents du serveur demandé, ou null.
+     * @param handler
+     * @param codeStatus
+     * @param countBytes octets du corps envoyés.
+     * @param duration durée en microsecondes.
+     */
+    public static void record(String virtualHost, @NotNull Handler handler, int codeStatus, long countBytes, long duration) {
+        if(!ENABLE) {
+            return;
+        }
+        Series series = getSeries(virtualHost == null ? DEFAULT_HOST : virtualHost)[handler.ordinal()];
+        if(codeStatus >= 100 && codeStatus < MAX_CODE_STATUS) {
+            LongAdder countRequests = series.countRequests.get(codeStatus);
+            if(countRequests == null) {
+                series.countRequests.compareAndSet(codeStatus, null, new LongAdder());
+                countRequests = series.countRequests.get(codeStatus);
+            }
+            countRequests.increment();
+        }
+        //Classe de la durée : la première dont la
+        //borne n'est pas dépassée.
+        int index = Arrays.binarySearch(DURATION_BOUNDS, duration);
+        series.countDurations[index >= 0 ? index : -index - 1].increment();
+        series.sumDurations.add(duration);
+        series.countBytes.add(countBytes);
+    }
+
+    /**
+     * Obtenir les séries d'un hôte, créées
+     * à sa première requête.
+     *
+     * @param host
+     * @return
+     */
+    private static Series[] getSeries(@NotNull String host) {
+        Series[] series = seriesByHost.get(host);
+        if(series != null) {
+            return series;
+        }
+        return seriesByHost.computeIfAbsent(host, key -> {
+            Series[] newSeries = new Series[Handler.values().length];
+            for(int i = 0; i < newSeries.length; i++) {
+                newSeries[i] = new Series();
+            }
+            return newSeries;
+        });
+    }
+
+    /**
+     * Compter des octets reçus d'un client web.
+     *
+     * @param countBytes
+     */
+    public static void addBytesReceived(long countBytes) {
+        if(ENABLE && countBytes > 0) {
+            countBytesReceived.add(countBytes);
+        }
+    }
+
+    /**
+     * Compter l'ouverture d'une connexion.
+     */
+    public static void connectionOpened() {
+        if(ENABLE) {
+            countConnectionsOpened.increment();
+        }
+    }
+
+    /**
+     * Compter la fermeture d'une connexion.
+     */
+    public static void connectionClosed() {
+        if(ENABLE) {
+            countConnectionsClosed.increment();
+        }
+    }
+
+    /**
+     * Produire les mesures au format
+     * texte de Prometheus.
+     *
+     * @return
+     */
+    public static String render() {
+        StringBuilder builder = new StringBuilder(16 * 1024);
+        //Séries des hôtes, dans l'ordre des hôtes.
+        Map<String, Series[]> seriesByHost = new TreeMap<String, Series[]>(Metrics.seriesByHost);
+        //Relevé des séries avec au moins une requête.
+        List<String> hosts = new ArrayList<String>();
+        List<Handler> handlers = new ArrayList<Handler>();
+        List<long[]> durations = new ArrayList<long[]>();
+        List<Series> series = new ArrayList<Series>();
+        for(Map.Entry<String, Series[]> entry : seriesByHost.entrySet()) {
+            for(Handler handler : Handler.values()) {
+                Series handlerSeries = entry.getValue()[handler.ordinal()];
+                long[] countDurations = new long[handlerSeries.countDurations.length];
+                long count = 0;
+                for(int i = 0; i < countDurations.length; i++) {
+                    countDurations[i] = handlerSeries.countDurations[i].sum();
+                    count += countDurations[i];
+                }
+                if(count > 0) {
+                    hosts.add(entry.getKey());
+                    handlers.add(handler);
+                    durations.add(countDurations);
+                    series.add(handlerSeries);
+                }
+            }
+        }
+
+        //Requêtes.
+        appendHeader(builder, "http_server_requests_total", "counter",
+                     "Réponses HTTP envoyées, par hôte, traitement et statut.");
+        for(int i = 0; i < series.size(); i++) {
+            for(int codeStatus = 100; codeStatus < MAX_CODE_STATUS; codeStatus++) {
+                LongAdder countRequests = series.get(i).countRequests.get(codeStatus);
+                if(countRequests != null) {
+                    builder.append("http_server_requests_total{host=\"");
+                    appendLabelValue(builder, hosts.get(i));
+                    builder.append("\",handler=\"").append(handlers.get(i).getLabel())
+                           .append("\",status=\"").append(codeStatus).append("\"} ")
+                           .append(countRequests.sum()).append('\n');
+                }
+            }
+        }
+
+        //Durées des requêtes.
+        appendHeader(builder, "http_server_request_duration_seconds", "histogram",
+                     "Durée des requêtes, de la réception à la fin de l'envoi de la réponse.");
+        for(int i = 0; i < series.size(); i++) {
+            long[] countDurations = durations.get(i);
+            long count = 0;
+            for(int j = 0; j < countDurations.length; j++) {
+                count += countDurations[j];
+                builder.append("http_server_request_duration_seconds_bucket{");
+                appendSeriesLabels(builder, hosts.get(i), handlers.get(i));
+                builder.append(",le=\"").append(j < DURATION_BOUNDS_LABELS.length ? DURATION_BOUNDS_LABELS[j] : "+Inf")
+                       .append("\"} ").append(count).append('\n');
+            }
+            builder.append("http_server_request_duration_seconds_sum{");
+            appendSeriesLabels(builder, hosts.get(i), handlers.get(i));
+            builder.append("} ").append(BigDecimal.valueOf(series.get(i).sumDurations.sum(), 6).toPlainString()).append('\n');
+            builder.append("http_server_request_duration_seconds_count{");
+            appendSeriesLabels(builder, hosts.get(i), handlers.get(i));
+            builder.append("} ").append(count).append('\n');
+        }
+
+        //Octets envoyés.
+        appendHeader(builder, "http_server_response_body_bytes_total", "counter",
+                     "Octets du corps des réponses envoyés, par hôte et traitement.");
+        for(int i = 0; i < series.size(); i++) {
+            builder.append("http_server_response_body_bytes_total{");
+            appendSeriesLabels(builder, hosts.get(i), handlers.get(i));
+            builder.append("} ").append(series.get(i).countBytes.sum()).append('\n');
+        }
+
+        //Octets reçus et connexions.
+        appendSample(builder, "http_server_received_bytes_total", "counter",
+                     "Octets reçus des clients web.", countBytesReceived.sum());
+        long countConnectionsClosed = Metrics.countConnectionsClosed.sum();
+        long countConnectionsOpened = Metrics.countConnectionsOpened.sum();
+        appendSample(builder, "http_server_connections_opened_total", "counter",
+                     "Connexions ouvertes depuis le démarrage.", countConnectionsOpened);
+        appendSample(builder, "http_server_connections_open", "gauge",
+                     "Connexions ouvertes.", Math.max(0, countConnectionsOpened - countConnectionsClosed));
+
+        //Caches.
+        ContentCache contentCache = FileManager.getContentCache();
+        appendSample(builder, "http_server_content_cache_hits_total", "counter",
+                     "Accès servis par le cache du contenu des documents.", contentCache.getCountHits());
+        appendSample(builder, "http_server_content_cache_misses_total", "counter",
+                     "Accès non servis par le cache du contenu des documents.", contentCache.getCountMisses());
+        appendSample(builder, "http_server_content_cache_evictions_total", "counter",
+                     "Documents évincés du cache du contenu des documents.", contentCache.getCountEvictions());
+        appendSample(builder, "http_server_content_cache_entries", "gauge",
+                     "Documents dans le cache du contenu des documents.", contentCache.getCountEntries());
+        appendHeader(builder, "http_server_content_cache_size_bytes", "gauge",
+                     "Taille du cache du contenu des documents, par niveau.");
+        builder.append("http_server_content_cache_size_bytes{tier=\"heap\"} ").append(contentCache.getSize()).append('\n');
+        builder.append("http_server_content_cache_size_bytes{tier=\"mapped\"} ").append(contentCache.getMappedSize()).append('\n');
+        appendSample(builder, "http_server_route_cache_hits_total", "counter",
+                     "Routes servies par le cache des routes.", RouteCache.getCountHits());
+        appendSample(builder, "http_server_route_cache_misses_total", "counter",
+                     "Routes résolues hors du cache des routes.", RouteCache.getCountMisses());
+        appendSample(builder, "http_server_route_cache_entries", "gauge",
+                     "Routes dans le cache des routes.", RouteCache.getCountEntries());
+
+        //Journal des accès.
+        appendSample(builder, "http_server_access_log_dropped_total", "counter",
+                     "Entrées du journal des accès perdues (tampon plein).", AccessLog.getCountDropped());
+        return builder.toString();
+    }
+
+    /**
+     * Ajouter les lignes HELP et TYPE
+     * d'une mesure.
+     *
+     * @param builder
+     * @param name
+     * @param type
+     * @param help
+     */
+    private static void appendHeader(@NotNull StringBuilder builder, @NotNull String name, @NotNull String type, @NotNull String help) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Ajouter une mesure sans étiquette.
+     *
+     * @param builder
+     * @param name
+     * @param type
+     * @param help
+     * @param value
+     */
+    private static void appendSample(@NotNull StringBuilder builder, @NotNull String name, @NotNull String type,
+                                     @NotNull String help, long value) {
+        appendHeader(builder, name, type, help);
+        builder.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Ajouter les étiquettes hôte et
+     * traitement d'une série.
+     *
+     * @param builder
+     * @param host
+     * @param handler
+     */
+    private static void appendSeriesLabels(@NotNull StringBuilder builder, @NotNull String host, @NotNull Handler handler) {
+        builder.append("host=\"");
+        appendLabelValue(builder, host);
+        builder.append("\",handler=\"").append(handler.getLabel()).append('"');
+    }
+
+    /**
+     * Ajouter la valeur d'une étiquette : les
+     * guillemets, barres obliques inverses et
+     * retours à la ligne sont échappés.
+     *
+     * @param builder
+     * @param value
+     */
+    private static void appendLabelValue(@NotNull StringBuilder builder, @NotNull String value) {
+        for(int i = 0; i < value.length(); i++) {
+            char character = value.charAt(i);
+            if(character == '"' || character == '\\') {
+                builder.append('\\').append(character);
+            } else if(character == '\n') {
+                builder.append("\\n");
+            } else {
+                builder.append(character);
+            }
+        }
+    }
+
+    /**
+     * Séries des requêtes d'un hôte
+     * et d'un traitement.
+     */
+    private static class Series {
+        //Requêtes, par code de statut.
+        private final AtomicReferenceArray<LongAdder> countRequests;
+        //Requêtes, par classe de durée (la dernière
+        //sans borne), et somme des durées en
+        //microsecondes.
+        private final LongAdder[] countDurations;
+        private final LongAdder sumDurations;
+        //Octets du corps des réponses envoyés.
+        private final LongAdder countBytes;
+
+        private Series() {
+            this.countRequests = new AtomicReferenceArray<LongAdder>(MAX_CODE_STATUS);
+            this.countDurations = new LongAdder[DURATION_BOUNDS.length + 1];
+            for(int i = 0; i < countDurations.length; i++) {
+                countDurations[i] = new LongAdder();
+            }
+            this.sumDurations = new LongAdder();
+            this.countBytes = new LongAdder();
+        }
+    }
+
+    /**
+     * Traitement d'une requête.
+     */
+    public enum Handler {
+        //Document statique.
+        STATIC("static"),
+        //Document html, avec server side includes.
+        SERVER_SIDE_INCLUDES("ssi"),
+        //Programme .php.
+        PHP("php"),
+        //Page d'arborescence.
+        TREE("tree"),
+        //Page des mesures.
+        METRICS("metrics"),
+        //Aucun document (introuvable, erreur).
+        NONE("none");
+
+        //Valeur de l'étiquette handler.
+        private final String label;
+
+        Handler(@NotNull String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+}
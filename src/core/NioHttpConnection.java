@@ -0,0 +1,573 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Classe pour la gestion des connexions HTTP
+ * du moteur non bloquant (NIO).
+ *
+ * Toutes les méthodes sont appelées par le thread
+ * de la boucle d'évènements de la connexion, sauf
+ * le traitement de la requête qui est confié à
+ * l'exécuteur des connexions.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class NioHttpConnection {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Nombre maximal de tampons envoyés en
+    //une seule écriture groupée.
+    private final static int MAX_GATHERED_BUFFERS = 16;
+    //Nombre maximal de réponses attendues sur une
+    //connexion (1 si les réponses ne sont pas
+    //construites en parallèle).
+    private final static int MAX_PENDING_RESPONSES = HttpConnection.PIPELINING_PARALLEL ? HttpConnection.PIPELINING_MAX_REQUESTS : 1;
+    //Boucle d'évènements de la connexion.
+    private final HttpEventLoop eventLoop;
+    //Canal de la connexion TCP.
+    private final SocketChannel channel;
+    //Clé de la connexion dans le sélecteur.
+    private SelectionKey key;
+    //Adresse IP du client web.
+    private final String ipHoteClient;
+    //Tampon de lecture (en mode écriture
+    //entre deux lectures), agrandi pour les
+    //longues requêtes.
+    private ByteBuffer inputBuffer;
+    //Analyseur des requêtes HTTP reçues.
+    private final HttpRequestParser httpRequestParser;
+    //Réponses HTTP attendues, dans l'ordre
+    //des requêtes (pipeline).
+    private final Deque<PendingResponse> pendingResponses;
+    //Requête reçue mise en attente des réponses
+    //précédentes (requête non idempotente).
+    private HttpRequest heldRequest;
+    //Morceaux des réponses HTTP à envoyer : tampons
+    //d'octets (ByteBuffer) ou portions de fichier
+    //(FileRegion).
+    private final Deque<Object> outputBuffers;
+    //Si la connexion doit être fermée après l'envoi
+    //des réponses attendues (plus aucune requête
+    //n'est alors acceptée).
+    private boolean closeAfterWrite;
+    //Nombre de requêtes HTTP reçues sur la connexion.
+    private int countRequests;
+    //Session HTTP/2 de la connexion, si le client
+    //web est passé à HTTP/2.
+    private Http2Session http2Session;
+    //Date de la dernière activité de la connexion,
+    //en millisecondes.
+    private long lastActivityTime;
+
+    /**
+     * Créer un objet core.NioHttpConnection.
+     *
+     * @param eventLoop
+     * @param channel
+     */
+    public NioHttpConnection(@NotNull HttpEventLoop eventLoop, @NotNull SocketChannel channel) {
+        this.eventLoop = eventLoop;
+        this.channel = channel;
+        ipHoteClient = channel.socket().getInetAddress().getHostAddress();
+        inputBuffer = ByteBuffer.allocate(HttpRequestParser.INITIAL_BUFFER_SIZE);
+        httpRequestParser = new HttpRequestParser();
+        pendingResponses = new ArrayDeque<PendingResponse>();
+        heldRequest = null;
+        outputBuffers = new ArrayDeque<Object>();
+        closeAfterWrite = false;
+        countRequests = 0;
+        http2Session = null;
+        lastActivityTime = System.currentTimeMillis();
+        Metrics.connectionOpened();
+    }
+
+    /**
+     * Associer la clé du sélecteur.
+     *
+     * @param key
+     */
+    public void setKey(@NotNull SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Lire les octets disponibles sur la
+     * connexion.
+     *
+     * @throws IOException
+     */
+    public void onReadable() throws IOException {
+        inputBuffer = HttpRequestParser.ensureCapacity(inputBuffer);
+        int countRead = channel.read(inputBuffer);
+        //En HTTP/2, les flux en cours sont abandonnés
+        //si le client web part.
+        if(countRead < 0 && http2Session != null) {
+            close();
+            return;
+        }
+        //Si le client web a fini d'envoyer ses requêtes,
+        //les réponses en cours sont tout de même envoyées.
+        if(countRead < 0) {
+            closeAfterWrite = true;
+            if(pendingResponses.isEmpty() && outputBuffers.isEmpty()) {
+                close();
+            } else {
+                updateInterestOps();
+            }
+            return;
+        }
+        Metrics.addBytesReceived(countRead);
+        lastActivityTime = System.currentTimeMillis();
+        if(http2Session != null) {
+            receiveHttp2();
+        } else {
+            processBufferedRequests();
+        }
+    }
+
+    /**
+     * Analyser les octets reçus, et traiter les
+     * requêtes HTTP complètes qu'ils contiennent
+     * (requêtes en pipeline), dans la limite du
+     * nombre de réponses en attente.
+     */
+    private void processBufferedRequests() {
+        while(!closeAfterWrite && pendingResponses.size() < MAX_PENDING_RESPONSES) {
+            HttpRequest httpRequest = heldRequest;
+            if(httpRequest == null) {
+                inputBuffer.flip();
+                try {
+                    httpRequest = httpRequestParser.parse(inputBuffer);
+                } catch (HttpRequestException exception) {
+                    //Requête mal formée ou trop longue : réponse
+                    //d'erreur après les réponses précédentes, puis
+                    //arrêt de la connexion.
+                    closeAfterWrite = true;
+                    PendingResponse pendingResponse = new PendingResponse(true);
+                    pendingResponses.add(pendingResponse);
+                    complete(pendingResponse, ByteBuffer.wrap(HttpResponse.renderBadRequest(exception)), null, null);
+                    return;
+                } finally {
+                    inputBuffer.compact();
+                }
+                //Si aucune requête complète n'a été reçue.
+                if(httpRequest == null) {
+                    break;
+                }
+                //Passage à HTTP/2 par la première requête.
+                if(countRequests == 0 && pendingResponses.isEmpty()
+                   && (Http2Session.isPreface(httpRequest) || Http2Session.isUpgrade(httpRequest))) {
+                    switchToHttp2(httpRequest);
+                    return;
+                }
+            }
+            //Une requête non idempotente (ou une requête suivant
+            //une requête non idempotente) attend les réponses
+            //précédentes.
+            heldRequest = null;
+            if(!pendingResponses.isEmpty()
+               && (!HttpConnection.requestIsIdempotent(httpRequest) || !pendingResponses.peekLast().idempotent)) {
+                heldRequest = httpRequest;
+                break;
+            }
+            dispatch(httpRequest);
+        }
+        updateInterestOps();
+    }
+
+    /**
+     * Passer la connexion à HTTP/2 : préface
+     * HTTP/2, ou demande de passage (entête
+     * Upgrade) acceptée par une réponse 101.
+     *
+     * @param httpRequest
+     */
+    private void switchToHttp2(@NotNull HttpRequest httpRequest) {
+        boolean priorKnowledge = Http2Session.isPreface(httpRequest);
+        if(!priorKnowledge) {
+            outputBuffers.add(ByteBuffer.wrap(Http2Session.SWITCHING_PROTOCOLS));
+        }
+        //Les trames à envoyer passent par la boucle,
+        //dans l'ordre où la session les confie.
+        http2Session = new Http2Session(ipHoteClient, httpServer.getResponseExecutor(),
+                                        outputs -> eventLoop.execute(() -> writeHttp2Outputs(outputs)),
+                                        priorKnowledge);
+        if(!priorKnowledge) {
+            http2Session.upgrade(httpRequest);
+        }
+        receiveHttp2();
+    }
+
+    /**
+     * Transmettre les octets reçus à la
+     * session HTTP/2.
+     */
+    private void receiveHttp2() {
+        inputBuffer.flip();
+        try {
+            http2Session.receive(inputBuffer);
+        } finally {
+            inputBuffer.compact();
+        }
+        updateInterestOps();
+    }
+
+    /**
+     * Envoyer des trames HTTP/2 confiées
+     * par la session.
+     *
+     * @param outputs
+     */
+    private void writeHttp2Outputs(@NotNull List<Object> outputs) {
+        if(!channel.isOpen()) {
+            HttpResponse.closeOutputs(outputs);
+            return;
+        }
+        outputBuffers.addAll(outputs);
+        try {
+            onWritable();
+        } catch (IOException | RuntimeException exception) {
+            close();
+        }
+    }
+
+    /**
+     * Confier le traitement d'une requête
+     * HTTP complète à l'exécuteur.
+     *
+     * Les réponses sont construites en parallèle,
+     * et envoyées dans l'ordre des requêtes.
+     *
+     * @param httpRequest
+     */
+    private void dispatch(@NotNull HttpRequest httpRequest) {
+        countRequests++;
+        int countRemainingRequests = HttpConnection.KEEP_ALIVE_MAX_REQUESTS - countRequests;
+        boolean keepAlive = httpRequest.clientKeepsConnection() && countRemainingRequests > 0;
+        //Les requêtes suivantes sont ignorées.
+        if(!keepAlive) {
+            closeAfterWrite = true;
+        }
+
+        //Place de la réponse dans l'ordre des réponses.
+        PendingResponse pendingResponse = new PendingResponse(HttpConnection.requestIsIdempotent(httpRequest));
+        pendingResponses.add(pendingResponse);
+
+        //Construction de la réponse dans un thread de
+        //l'exécuteur, puis envoi par la boucle.
+        boolean accepted = httpServer.getConnectionExecutor().tryExecute(() -> {
+            try {
+                HttpResponse httpResponse = new HttpResponse(httpRequest, countRemainingRequests);
+                ByteBuffer headersOutput = httpResponse.encodeHeaders();
+                //Un document statique (ou ses portions) est envoyé
+                //directement du fichier ou du cache à la connexion.
+                //Une réponse à une requête HEAD, ou non modifiée,
+                //n'a pas de corps.
+                boolean sendsContent = httpResponse.sendsContent();
+                List<Object> contentOutputs = sendsContent ? httpResponse.openContentOutputs() : new ArrayList<Object>();
+                AccessLog.Entry accessLogEntry = AccessLog.prepare(ipHoteClient, httpRequest, httpResponse);
+                if(accessLogEntry != null && !sendsContent) {
+                    accessLogEntry.withoutContent();
+                }
+                eventLoop.execute(() -> complete(pendingResponse, headersOutput, contentOutputs, accessLogEntry));
+                //Un contenu envoyé au fur et à mesure est produit
+                //dans ce thread, chaque morceau étant signalé
+                //à la boucle.
+                ChunkedContent chunkedContent = httpResponse.getChunkedContent();
+                if(chunkedContent != null && sendsContent) {
+                    chunkedContent.produce(() -> eventLoop.execute(this::onChunkProduced));
+                }
+            } catch (IOException exception) {
+                eventLoop.execute(this::close);
+            } catch (RuntimeException exception) {
+                eventLoop.execute(this::close);
+                throw exception;
+            }
+        });
+        //Si l'exécuteur est saturé.
+        if(!accepted) {
+            closeAfterWrite = true;
+            complete(pendingResponse, ByteBuffer.wrap(HttpResponse.renderServiceUnavailable()), null, null);
+        }
+    }
+
+    /**
+     * Enregistrer une réponse HTTP construite, puis
+     * envoyer les réponses prêtes dans l'ordre des
+     * requêtes.
+     *
+     * @param pendingResponse
+     * @param headersOutput
+     * @param contentOutputs morceaux du contenu à envoyer après les entêtes, s'il existe.
+     * @param accessLogEntry entrée du journal des accès, écrite après l'envoi, ou null.
+     */
+    private void complete(@NotNull PendingResponse pendingResponse, @NotNull ByteBuffer headersOutput, List<Object> contentOutputs,
+                          AccessLog.Entry accessLogEntry) {
+        if(!channel.isOpen()) {
+            closeOutput(headersOutput);
+            if(contentOutputs != null) {
+                HttpResponse.closeOutputs(contentOutputs);
+            }
+            return;
+        }
+        pendingResponse.headersOutput = headersOutput;
+        pendingResponse.contentOutputs = contentOutputs;
+        pendingResponse.accessLogEntry = accessLogEntry;
+
+        //Les réponses prêtes en tête de file passent
+        //dans la file d'envoi.
+        while(!pendingResponses.isEmpty() && pendingResponses.peek().headersOutput != null) {
+            PendingResponse readyResponse = pendingResponses.poll();
+            outputBuffers.add(readyResponse.headersOutput);
+            if(readyResponse.contentOutputs != null) {
+                outputBuffers.addAll(readyResponse.contentOutputs);
+            }
+            //L'entrée du journal suit la réponse : elle
+            //est écrite quand tout ce qui la précède
+            //est envoyé.
+            if(readyResponse.accessLogEntry != null) {
+                outputBuffers.add(readyResponse.accessLogEntry);
+            }
+        }
+        try {
+            onWritable();
+        } catch (IOException | RuntimeException exception) {
+            close();
+        }
+    }
+
+    /**
+     * Envoyer ce qui peut l'être des
+     * réponses HTTP prêtes.
+     *
+     * @throws IOException
+     */
+    public void onWritable() throws IOException {
+        while(!outputBuffers.isEmpty()) {
+            Object output = outputBuffers.peek();
+            boolean sent;
+            //Si c'est l'entrée du journal d'une réponse
+            //entièrement envoyée.
+            if(output instanceof AccessLog.Entry) {
+                AccessLog.log((AccessLog.Entry) outputBuffers.poll());
+                continue;
+            }
+            //Si c'est un contenu produit au fur et à mesure,
+            //ses morceaux déjà produits passent en tête.
+            if(output instanceof ChunkedContent) {
+                ChunkedContent chunkedContent = (ChunkedContent) output;
+                ByteBuffer chunk = chunkedContent.pollChunk();
+                if(chunk != null) {
+                    outputBuffers.addFirst(chunk);
+                    continue;
+                }
+                if(chunkedContent.isFailed()) {
+                    close();
+                    return;
+                }
+                if(!chunkedContent.isEnded()) {
+                    //On attend le prochain morceau.
+                    updateInterestOps();
+                    return;
+                }
+                closeOutput(outputBuffers.poll());
+                continue;
+            }
+            if(output instanceof FileRegion) {
+                sent = ((FileRegion) output).transferTo(channel);
+                if(sent) {
+                    closeOutput(outputBuffers.poll());
+                }
+            } else {
+                //Les tampons en tête de file sont envoyés
+                //ensemble (écriture groupée), même s'ils
+                //sont de plusieurs réponses.
+                ByteBuffer[] buffers = peekBuffers();
+                channel.write(buffers);
+                for(ByteBuffer buffer : buffers) {
+                    if(buffer.hasRemaining()) {
+                        break;
+                    }
+                    closeOutput(outputBuffers.poll());
+                }
+                sent = !HttpResponse.hasRemaining(buffers);
+            }
+            //Si le tampon d'envoi du système est plein,
+            //on attend que la connexion soit disponible.
+            if(!sent) {
+                updateInterestOps();
+                return;
+            }
+        }
+
+        //Trames HTTP/2 entièrement envoyées.
+        if(http2Session != null) {
+            if(http2Session.isClosed()) {
+                close();
+            } else {
+                lastActivityTime = System.currentTimeMillis();
+                updateInterestOps();
+            }
+            return;
+        }
+        //Réponses prêtes entièrement envoyées.
+        if(closeAfterWrite && pendingResponses.isEmpty()) {
+            close();
+        } else {
+            lastActivityTime = System.currentTimeMillis();
+            //Des requêtes suivantes ont peut-être
+            //déjà été reçues.
+            processBufferedRequests();
+        }
+    }
+
+    /**
+     * Envoyer le morceau d'un contenu produit
+     * au fur et à mesure, dès sa production.
+     */
+    private void onChunkProduced() {
+        if(!channel.isOpen()) {
+            return;
+        }
+        try {
+            onWritable();
+        } catch (IOException | RuntimeException exception) {
+            close();
+        }
+    }
+
+    /**
+     * Mettre à jour les évènements attendus sur
+     * la connexion : envoi si une réponse est en
+     * cours d'envoi, lecture s'il est encore
+     * possible d'accepter des requêtes.
+     */
+    private void updateInterestOps() {
+        if(!key.isValid()) {
+            return;
+        }
+        int interestOps = 0;
+        //Un contenu dont le prochain morceau n'est pas
+        //encore produit n'attend pas la connexion.
+        Object output = outputBuffers.peek();
+        if(output != null && !(output instanceof ChunkedContent && !((ChunkedContent) output).hasChunk())) {
+            interestOps |= SelectionKey.OP_WRITE;
+        }
+        if(http2Session != null ? !http2Session.isClosed()
+                                : !closeAfterWrite && heldRequest == null && pendingResponses.size() < MAX_PENDING_RESPONSES) {
+            interestOps |= SelectionKey.OP_READ;
+        }
+        key.interestOps(interestOps);
+    }
+
+    /**
+     * Obtenir les tampons consécutifs en tête
+     * de la file d'envoi.
+     *
+     * @return
+     */
+    private ByteBuffer[] peekBuffers() {
+        int countBuffers = 0;
+        for(Object output : outputBuffers) {
+            if(!(output instanceof ByteBuffer) || countBuffers == MAX_GATHERED_BUFFERS) {
+                break;
+            }
+            countBuffers++;
+        }
+        ByteBuffer[] buffers = new ByteBuffer[countBuffers];
+        int i = 0;
+        for(Object output : outputBuffers) {
+            if(i == countBuffers) {
+                break;
+            }
+            buffers[i++] = (ByteBuffer) output;
+        }
+        return buffers;
+    }
+
+    /**
+     * Savoir si la connexion attend une requête
+     * HTTP depuis plus longtemps que le délai
+     * d'inactivité.
+     *
+     * @param now
+     * @return
+     */
+    public boolean isIdle(long now) {
+        if(http2Session != null) {
+            return key.isValid() && outputBuffers.isEmpty() && http2Session.isIdle(now);
+        }
+        return key.isValid()
+               && pendingResponses.isEmpty()
+               && outputBuffers.isEmpty()
+               && now - lastActivityTime > HttpConnection.KEEP_ALIVE_TIMEOUT * 1000L;
+    }
+
+    /**
+     * Terminer l'échange : arrêter la
+     * connexion TCP.
+     */
+    public void close() {
+        if(key != null) {
+            key.cancel();
+        }
+        //Fermeture des fichiers en cours d'envoi.
+        while(!outputBuffers.isEmpty()) {
+            closeOutput(outputBuffers.poll());
+        }
+        pendingResponses.clear();
+        if(http2Session != null) {
+            http2Session.close();
+        }
+        //Une connexion n'est comptée fermée
+        //qu'une fois.
+        if(channel.isOpen()) {
+            Metrics.connectionClosed();
+        }
+        try {
+            channel.close();
+        } catch (IOException exception) {
+            //La connexion est déjà fermée.
+        }
+    }
+
+    /**
+     * Libérer un morceau de réponse envoyé
+     * ou abandonné.
+     *
+     * @param output
+     */
+    private void closeOutput(Object output) {
+        HttpResponse.closeOutput(output);
+    }
+
+    /**
+     * Réponse HTTP attendue, à sa place dans
+     * l'ordre des requêtes.
+     */
+    private static class PendingResponse {
+        //Si la requête associée est idempotente.
+        private final boolean idempotent;
+        //Entêtes de la réponse, null tant
+        //qu'elle n'est pas construite.
+        private ByteBuffer headersOutput;
+        //Morceaux du contenu de la réponse.
+        private List<Object> contentOutputs;
+        //Entrée du journal des accès, ou null.
+        private AccessLog.Entry accessLogEntry;
+
+        private PendingResponse(boolean idempotent) {
+            this.idempotent = idempotent;
+        }
+    }
+}
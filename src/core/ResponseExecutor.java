@@ -0,0 +1,114 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Classe pour la construction des réponses HTTP
+ * en dehors du thread de leur connexion : flux
+ * HTTP/2, et requêtes en pipeline construites en
+ * parallèle.
+ *
+ * Ses threads sont distincts de ceux des connexions :
+ * une connexion qui attend ses réponses n'occupe jamais
+ * un thread dont elles ont besoin. Leur nombre
+ * ("responsePoolSize") et la file d'attente
+ * ("responseQueueSize") sont bornés, les tâches
+ * en trop sont refusées.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class ResponseExecutor implements Executor {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Exécuteur des réponses.
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Créer un objet core.ResponseExecutor.
+     *
+     * @param poolSize
+     * @param queueSize
+     */
+    public ResponseExecutor(int poolSize, int queueSize) {
+        executor = new ThreadPoolExecutor(poolSize, poolSize,
+                                          60L, TimeUnit.SECONDS,
+                                          new ArrayBlockingQueue<Runnable>(queueSize),
+                                          new ResponseThreadFactory(),
+                                          new ThreadPoolExecutor.AbortPolicy());
+        //Les threads inutilisés s'arrêtent.
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Créer l'exécuteur des réponses à
+     * partir de la configuration du serveur.
+     *
+     * @return
+     */
+    public static ResponseExecutor fromConfiguration() {
+        int poolSize = httpServer.getConfigurationPropertyInteger("responsePoolSize");
+        int queueSize = httpServer.getConfigurationPropertyInteger("responseQueueSize");
+        return new ResponseExecutor(poolSize, queueSize);
+    }
+
+    /**
+     * Construire une réponse avec l'exécuteur.
+     *
+     * @param task
+     * @throws RejectedExecutionException si l'exécuteur est saturé.
+     */
+    @Override
+    public void execute(@NotNull Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Construire une réponse avec l'exécuteur,
+     * s'il n'est pas saturé.
+     *
+     * @param task
+     * @return
+     */
+    public boolean tryExecute(@NotNull Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Retirer de la file d'attente une tâche
+     * qu'aucun thread n'a encore prise.
+     *
+     * @param task
+     */
+    public void remove(@NotNull Runnable task) {
+        executor.remove(task);
+    }
+
+    /**
+     * Fabrique des threads nommés
+     * des réponses HTTP.
+     */
+    private static class ResponseThreadFactory implements ThreadFactory {
+        //Numéro du prochain thread.
+        private final AtomicInteger countThreads = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(@NotNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "http-response-" + countThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
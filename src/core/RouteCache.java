@@ -0,0 +1,336 @@
+package core;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Classe pour le cache des routes : pour chaque
+ * hôte et URI demandés, le document du serveur
+ * trouvé (existence, taille, date de modification,
+ * type de contenu, traitement, protection, variante
+ * .gz), ou son absence.
+ *
+ * Une route est résolue par une seule lecture des
+ * attributs du document, puis gardée jusqu'au
+ * prochain changement du document (ou de sa variante
+ * .gz, ou d'un répertoire parent) signalé par le
+ * surveillant des documents. Un changement de fichier
+ * d'authentifications retire toutes les routes. Une
+ * route résolue avec une configuration rechargée
+ * depuis (types de contenu, règles de mise en cache)
+ * est résolue à nouveau. Sans surveillance, les routes
+ * sont résolues à chaque requête.
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class RouteCache {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Nombre maximal de routes gardées.
+    private final static int MAX_SIZE = httpServer.getConfigurationPropertyInteger("routeCacheMaxSize");
+    //Surveillant des documents.
+    private final static DocumentWatcher documentWatcher = DocumentWatcher.getInstance();
+    //Routes, par hôte et URI.
+    private final static Map<String, Route> routes = new ConcurrentHashMap<String, Route>();
+    //Statistiques du cache.
+    private final static LongAdder countHits = new LongAdder();
+    private final static LongAdder countMisses = new LongAdder();
+
+    static {
+        documentWatcher.addListener(RouteCache::invalidate);
+    }
+
+    /**
+     * Obtenir la route d'un URI demandé
+     * à un hôte, résolue si elle n'est
+     * pas en cache.
+     *
+     * @param hostName
+     * @param URI URI demandé, avec le répertoire de l'hôte s'il est un alias.
+     * @return
+     */
+    public static Route resolve(@NotNull String hostName, @NotNull String URI) {
+        Configuration configuration = httpServer.getConfiguration();
+        if(!documentWatcher.isWatching()) {
+            return new Route(configuration, hostName, URI);
+        }
+        String key = hostName + " " + URI;
+        Route route = routes.get(key);
+        if(route != null && route.configuration == configuration) {
+            countHits.increment();
+            return route;
+        }
+        countMisses.increment();
+
+        long countChangesBefore = documentWatcher.getCountChanges();
+        route = new Route(configuration, hostName, URI);
+        //Le cache plein est vidé, plutôt que de
+        //suivre l'ordre d'utilisation des routes.
+        if(routes.size() >= MAX_SIZE) {
+            routes.clear();
+        }
+        routes.put(key, route);
+        //Un changement signalé pendant la résolution
+        //a pu être manqué : la route n'est pas gardée.
+        if(documentWatcher.changedSince(countChangesBefore)) {
+            routes.remove(key, route);
+        }
+        return route;
+    }
+
+    /**
+     * Retirer une route dont le document n'a
+     * pas pu être lu : il a disparu (ou changé)
+     * avant que le surveillant des documents ne
+     * le signale.
+     *
+     * @param route
+     */
+    public static void remove(@NotNull Route route) {
+        routes.values().remove(route);
+    }
+
+    /**
+     * Retirer les routes qui dépendent d'un
+     * fichier ou d'un répertoire signalé
+     * comme changé.
+     *
+     * @param file
+     */
+    private static void invalidate(@NotNull File file) {
+        //La protection de toute une arborescence
+        //a pu changer.
+        if(file.getName().equals(AuthenticationManager.AUTHENTICATION_FILENAME)) {
+            routes.clear();
+            return;
+        }
+        String path = DocumentWatcher.getWatchedPath(file);
+        String prefix = path + File.separator;
+        String precompressedPath = path.endsWith(".gz") ? path.substring(0, path.length() - 3) : null;
+        routes.values().removeIf(route -> route.path.equals(path)
+                                          || route.path.startsWith(prefix)
+                                          || route.path.equals(precompressedPath));
+    }
+
+    /**
+     * Obtenir le nombre de routes servies
+     * par le cache.
+     *
+     * @return
+     */
+    public static long getCountHits() {
+        return countHits.sum();
+    }
+
+    /**
+     * Obtenir le nombre de routes résolues
+     * hors du cache (absentes, ou périmées).
+     *
+     * @return
+     */
+    public static long getCountMisses() {
+        return countMisses.sum();
+    }
+
+    /**
+     * Obtenir le nombre de routes
+     * en cache.
+     *
+     * @return
+     */
+    public static int getCountEntries() {
+        return routes.size();
+    }
+
+    /**
+     * Route d'un URI : document du serveur
+     * trouvé ou absent.
+     */
+    public static class Route {
+        //Configuration avec laquelle la route est résolue.
+        private final Configuration configuration;
+        //Document du serveur, et son chemin surveillé.
+        private final File file;
+        private final String path;
+        //Si le document existe (fichier).
+        private final boolean exists;
+        //Taille et date de modification du document.
+        private final long length;
+        private final long lastModified;
+        //Extension du document.
+        private final String extension;
+        //Type de contenu, null si l'extension
+        //n'est pas répertoriée.
+        private final String contentType;
+        //Règle de mise en cache par le client
+        //web, ou null.
+        private final String cacheControl;
+        //Traitement du document.
+        private final Handler handler;
+        //Fichier d'authentifications protégeant
+        //le document, ou null.
+        private final File authenticationFile;
+        //Variante .gz à jour du document, ou null,
+        //sa taille et sa date de modification.
+        private final File precompressedFile;
+        private final long precompressedLength;
+        private final long precompressedLastModified;
+
+        /**
+         * Résoudre la route d'un URI.
+         *
+         * @param configuration
+         * @param hostName
+         * @param URI
+         */
+        private Route(@NotNull Configuration configuration, @NotNull String hostName, @NotNull String URI) {
+            this.configuration = configuration;
+            this.file = FileManager.getDocumentFile(URI);
+            this.path = DocumentWatcher.getWatchedPath(file);
+            BasicFileAttributes attributes = readAttributes(file);
+            this.exists = attributes != null && attributes.isRegularFile();
+            this.length = exists ? attributes.size() : 0;
+            this.lastModified = exists ? attributes.lastModifiedTime().toMillis() : 0;
+            if(!exists) {
+                this.extension = null;
+                this.contentType = null;
+                this.cacheControl = null;
+                this.handler = null;
+                this.authenticationFile = null;
+                this.precompressedFile = null;
+                this.precompressedLength = 0;
+                this.precompressedLastModified = 0;
+                return;
+            }
+
+            this.extension = FileManager.getDocumentFileExtension(URI);
+            String contentType;
+            try {
+                contentType = configuration.getContentType(extension);
+            } catch (IllegalArgumentException exception) {
+                contentType = null;
+            }
+            this.contentType = contentType;
+            this.cacheControl = configuration.getCacheControl(hostName, extension);
+            switch (extension) {
+                case ".html" :
+                    this.handler = Handler.SERVER_SIDE_INCLUDES;
+                    break;
+                case ".php" :
+                    this.handler = Handler.PHP;
+                    break;
+                default :
+                    this.handler = Handler.STATIC;
+            }
+            this.authenticationFile = AuthenticationManager.getAuthenticationFileFor(URI);
+
+            //Variante .gz d'un document statique, gardée
+            //si elle n'est pas plus ancienne que lui.
+            File precompressedFile = null;
+            long precompressedLength = 0;
+            long precompressedLastModified = 0;
+            if(handler == Handler.STATIC) {
+                File candidate = new File(file.getPath() + ".gz");
+                BasicFileAttributes candidateAttributes = readAttributes(candidate);
+                if(candidateAttributes != null && candidateAttributes.isRegularFile()
+                   && candidateAttributes.lastModifiedTime().toMillis() >= lastModified) {
+                    precompressedFile = candidate;
+                    precompressedLength = candidateAttributes.size();
+                    precompressedLastModified = candidateAttributes.lastModifiedTime().toMillis();
+                }
+            }
+            this.precompressedFile = precompressedFile;
+            this.precompressedLength = precompressedLength;
+            this.precompressedLastModified = precompressedLastModified;
+        }
+
+        /**
+         * Lire les attributs d'un fichier,
+         * en une seule fois.
+         *
+         * @param file
+         * @return les attributs, ou null si le fichier n'existe pas.
+         */
+        private static BasicFileAttributes readAttributes(@NotNull File file) {
+            try {
+                return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            } catch (IOException | InvalidPathException exception) {
+                return null;
+            }
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public boolean exists() {
+            return exists;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * Obtenir le type de contenu du document.
+         *
+         * @return
+         * @throws IllegalArgumentException si l'extension n'est pas répertoriée.
+         */
+        public String getContentType() {
+            return contentType != null ? contentType : configuration.getContentType(extension);
+        }
+
+        public String getCacheControl() {
+            return cacheControl;
+        }
+
+        public Handler getHandler() {
+            return handler;
+        }
+
+        public File getAuthenticationFile() {
+            return authenticationFile;
+        }
+
+        public File getPrecompressedFile() {
+            return precompressedFile;
+        }
+
+        public long getPrecompressedLength() {
+            return precompressedLength;
+        }
+
+        public long getPrecompressedLastModified() {
+            return precompressedLastModified;
+        }
+    }
+
+    /**
+     * Traitement d'un document.
+     */
+    public enum Handler {
+        //Document html, avec server side includes.
+        SERVER_SIDE_INCLUDES,
+        //Programme .php.
+        PHP,
+        //Document statique.
+        STATIC
+    }
+}
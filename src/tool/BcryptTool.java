@@ -0,0 +1,322 @@
+package tool;
+
+import org.jetbrains.annotations.NotNull;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Classe proposant des outils, pour la vérification
+ * des mots de passe hachés avec bcrypt ($2a$, $2b$,
+ * $2y$), comme ceux produits par "htpasswd -B".
+ *
+ * Format d'un hachage :
+ * $2b$[coût]$[sel (22 caractères)][hachage (31 caractères)]
+ *
+ * Les tables initiales de Blowfish sont les décimales
+ * hexadécimales de pi : elles sont calculées une seule
+ * fois, au premier hachage, plutôt que recopiées.
+ *
+ * Voir : https://www.usenix.org/legacy/events/usenix99/provos/provos.pdf
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class BcryptTool {
+    //Alphabet de la base 64 de bcrypt.
+    private final static String ALPHABET = "./ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    //Texte chiffré pour produire le hachage.
+    private final static byte[] MAGIC_TEXT = "OrpheanBeholderScryDoubt".getBytes(StandardCharsets.US_ASCII);
+    //Nombre de mots des tables de Blowfish.
+    private final static int COUNT_P_WORDS = 18;
+    private final static int COUNT_S_WORDS = 1024;
+    //Coûts acceptés (2^coût tours).
+    private final static int MIN_COST = 4;
+    private final static int MAX_COST = 31;
+
+    /**
+     * Savoir si un mot de passe enregistré
+     * est un hachage bcrypt.
+     *
+     * @param secret
+     * @return
+     */
+    public static boolean isHash(@NotNull String secret) {
+        return secret.length() == 60
+               && (secret.startsWith("$2a$") || secret.startsWith("$2b$") || secret.startsWith("$2y$"));
+    }
+
+    /**
+     * Vérifier un mot de passe avec
+     * son hachage bcrypt.
+     *
+     * @param password
+     * @param hash
+     * @return
+     */
+    public static boolean verify(@NotNull String password, @NotNull String hash) {
+        String computedHash = hash(password, hash);
+        return computedHash != null
+               && MessageDigest.isEqual(computedHash.getBytes(StandardCharsets.US_ASCII),
+                                        hash.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Hacher un mot de passe avec le coût et
+     * le sel d'un hachage bcrypt.
+     *
+     * @param password
+     * @param settings début du hachage : $2b$[coût]$[sel].
+     * @return le hachage, ou null si le coût ou le sel sont invalides.
+     */
+    public static String hash(@NotNull String password, @NotNull String settings) {
+        if(settings.length() < 29 || settings.charAt(3) != '$' || settings.charAt(6) != '$') {
+            return null;
+        }
+        int cost;
+        try {
+            cost = Integer.parseInt(settings.substring(4, 6));
+        } catch (NumberFormatException exception) {
+            return null;
+        }
+        byte[] salt = decodeBase64(settings.substring(7, 29), 16);
+        if(cost < MIN_COST || cost > MAX_COST || salt == null) {
+            return null;
+        }
+
+        //Clé : le mot de passe, terminé par un
+        //octet nul (72 octets utilisés au plus).
+        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+        byte[] key = new byte[Math.min(passwordBytes.length + 1, 72)];
+        System.arraycopy(passwordBytes, 0, key, 0, Math.min(passwordBytes.length, key.length));
+
+        //Préparation coûteuse des tables (2^coût tours).
+        int[] p = PiTables.P.clone();
+        int[] s = PiTables.S.clone();
+        expandKey(p, s, salt, key);
+        long rounds = 1L << cost;
+        for(long i = 0; i < rounds; i++) {
+            expandKey(p, s, null, key);
+            expandKey(p, s, null, salt);
+        }
+
+        //Chiffrement du texte, 64 fois.
+        int[] text = new int[MAGIC_TEXT.length / 4];
+        int[] offset = new int[]{0};
+        for(int i = 0; i < text.length; i++) {
+            text[i] = streamToWord(MAGIC_TEXT, offset);
+        }
+        for(int i = 0; i < 64; i++) {
+            for(int j = 0; j < text.length; j += 2) {
+                encipher(p, s, text, j);
+            }
+        }
+        byte[] hash = new byte[text.length * 4];
+        for(int i = 0; i < text.length; i++) {
+            hash[4 * i] = (byte) (text[i] >>> 24);
+            hash[4 * i + 1] = (byte) (text[i] >>> 16);
+            hash[4 * i + 2] = (byte) (text[i] >>> 8);
+            hash[4 * i + 3] = (byte) text[i];
+        }
+
+        //Le dernier octet n'est pas gardé.
+        return settings.substring(0, 29) + encodeBase64(hash, 23);
+    }
+
+    /**
+     * Mélanger une clé (et un sel, s'il y en a
+     * un) dans les tables de Blowfish.
+     *
+     * @param p
+     * @param s
+     * @param salt
+     * @param key
+     */
+    private static void expandKey(@NotNull int[] p, @NotNull int[] s, byte[] salt, @NotNull byte[] key) {
+        int[] keyOffset = new int[]{0};
+        for(int i = 0; i < p.length; i++) {
+            p[i] ^= streamToWord(key, keyOffset);
+        }
+        int[] block = new int[]{0, 0};
+        int[] saltOffset = new int[]{0};
+        for(int i = 0; i < p.length; i += 2) {
+            if(salt != null) {
+                block[0] ^= streamToWord(salt, saltOffset);
+                block[1] ^= streamToWord(salt, saltOffset);
+            }
+            encipher(p, s, block, 0);
+            p[i] = block[0];
+            p[i + 1] = block[1];
+        }
+        for(int i = 0; i < s.length; i += 2) {
+            if(salt != null) {
+                block[0] ^= streamToWord(salt, saltOffset);
+                block[1] ^= streamToWord(salt, saltOffset);
+            }
+            encipher(p, s, block, 0);
+            s[i] = block[0];
+            s[i + 1] = block[1];
+        }
+    }
+
+    /**
+     * Chiffrer un bloc de deux mots
+     * avec Blowfish (16 tours).
+     *
+     * @param p
+     * @param s
+     * @param block
+     * @param offset
+     */
+    private static void encipher(@NotNull int[] p, @NotNull int[] s, @NotNull int[] block, int offset) {
+        int left = block[offset] ^ p[0];
+        int right = block[offset + 1];
+        for(int i = 1; i <= 16; i += 2) {
+            right ^= feistel(s, left) ^ p[i];
+            left ^= feistel(s, right) ^ p[i + 1];
+        }
+        block[offset] = right ^ p[17];
+        block[offset + 1] = left;
+    }
+
+    /**
+     * Fonction de Feistel de Blowfish.
+     *
+     * @param s
+     * @param word
+     * @return
+     */
+    private static int feistel(@NotNull int[] s, int word) {
+        return ((s[word >>> 24] + s[0x100 | ((word >>> 16) & 0xff)]) ^ s[0x200 | ((word >>> 8) & 0xff)])
+               + s[0x300 | (word & 0xff)];
+    }
+
+    /**
+     * Lire un mot de 4 octets, en reprenant
+     * au début des octets à leur fin.
+     *
+     * @param bytes
+     * @param offset position de lecture, avancée.
+     * @return
+     */
+    private static int streamToWord(@NotNull byte[] bytes, @NotNull int[] offset) {
+        int word = 0;
+        for(int i = 0; i < 4; i++) {
+            word = (word << 8) | (bytes[offset[0]] & 0xff);
+            offset[0] = (offset[0] + 1) % bytes.length;
+        }
+        return word;
+    }
+
+    /**
+     * Encoder des octets dans la
+     * base 64 de bcrypt.
+     *
+     * @param bytes
+     * @param length
+     * @return
+     */
+    private static String encodeBase64(@NotNull byte[] bytes, int length) {
+        StringBuilder encoded = new StringBuilder((length * 4 + 2) / 3);
+        for(int i = 0; i < length; i += 3) {
+            int c1 = bytes[i] & 0xff;
+            encoded.append(ALPHABET.charAt(c1 >> 2));
+            c1 = (c1 & 0x03) << 4;
+            if(i + 1 >= length) {
+                encoded.append(ALPHABET.charAt(c1));
+                break;
+            }
+            int c2 = bytes[i + 1] & 0xff;
+            encoded.append(ALPHABET.charAt(c1 | (c2 >> 4)));
+            c1 = (c2 & 0x0f) << 2;
+            if(i + 2 >= length) {
+                encoded.append(ALPHABET.charAt(c1));
+                break;
+            }
+            c2 = bytes[i + 2] & 0xff;
+            encoded.append(ALPHABET.charAt(c1 | (c2 >> 6)));
+            encoded.append(ALPHABET.charAt(c2 & 0x3f));
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Décoder des octets de la
+     * base 64 de bcrypt.
+     *
+     * @param text
+     * @param length nombre d'octets attendus.
+     * @return les octets, ou null si le texte est invalide.
+     */
+    private static byte[] decodeBase64(@NotNull String text, int length) {
+        byte[] bytes = new byte[length];
+        int countBytes = 0;
+        int bits = 0;
+        int countBits = 0;
+        for(int i = 0; i < text.length() && countBytes < length; i++) {
+            int value = ALPHABET.indexOf(text.charAt(i));
+            if(value < 0) {
+                return null;
+            }
+            bits = (bits << 6) | value;
+            countBits += 6;
+            if(countBits >= 8) {
+                countBits -= 8;
+                bytes[countBytes++] = (byte) (bits >> countBits);
+            }
+        }
+        return countBytes == length ? bytes : null;
+    }
+
+    /**
+     * Tables initiales de Blowfish, chargées
+     * au premier hachage : les décimales
+     * hexadécimales de pi, à la suite.
+     */
+    private static class PiTables {
+        private final static int[] P = new int[COUNT_P_WORDS];
+        private final static int[] S = new int[COUNT_S_WORDS];
+
+        static {
+            int countWords = COUNT_P_WORDS + COUNT_S_WORDS;
+            int countBits = countWords * 32;
+            //Bits de garde, absorbant les erreurs
+            //d'arrondi des séries.
+            int precision = countBits + 64;
+            //pi = 16 arctan(1/5) - 4 arctan(1/239) (Machin).
+            BigInteger pi = arctanInverse(5, precision).shiftLeft(4)
+                            .subtract(arctanInverse(239, precision).shiftLeft(2));
+            //Partie décimale de pi, sur countBits bits.
+            BigInteger fraction = pi.subtract(BigInteger.valueOf(3).shiftLeft(precision)).shiftRight(64);
+            BigInteger mask = BigInteger.valueOf(0xffffffffL);
+            for(int i = 0; i < countWords; i++) {
+                int word = fraction.shiftRight(countBits - 32 * (i + 1)).and(mask).intValue();
+                if(i < COUNT_P_WORDS) {
+                    P[i] = word;
+                } else {
+                    S[i - COUNT_P_WORDS] = word;
+                }
+            }
+        }
+
+        /**
+         * Calculer arctan(1/x), multiplié par
+         * 2^precision.
+         *
+         * @param x
+         * @param precision
+         * @return
+         */
+        private static BigInteger arctanInverse(int x, int precision) {
+            BigInteger xSquare = BigInteger.valueOf((long) x * x);
+            BigInteger power = BigInteger.ONE.shiftLeft(precision).divide(BigInteger.valueOf(x));
+            BigInteger sum = power;
+            for(int k = 1; power.signum() != 0; k++) {
+                power = power.divide(xSquare);
+                BigInteger term = power.divide(BigInteger.valueOf(2L * k + 1));
+                sum = k % 2 == 0 ? sum.add(term) : sum.subtract(term);
+            }
+            return sum;
+        }
+    }
+}
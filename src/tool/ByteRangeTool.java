@@ -0,0 +1,119 @@
+package tool;
+
+import org.jetbrains.annotations.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Classe proposant des outils, pour les
+ * requêtes de portions de documents (entête
+ * Range en octets, réponses 206).
+ *
+ * Voir : https://developer.mozilla.org/fr/docs/Web/HTTP/Range_requests
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class ByteRangeTool {
+    //Unité des portions gérée.
+    public final static String UNIT_BYTES = "bytes";
+    //Nombre maximal de portions dans une requête,
+    //au-delà l'entête Range est ignoré.
+    private final static int MAX_RANGES = 32;
+
+    /**
+     * Analyser un entête Range pour un document
+     * d'une taille donnée.
+     *
+     * Retourne la liste des portions demandées
+     * (début et fin inclus, dans l'ordre de la
+     * requête), une liste vide si aucune portion
+     * n'est satisfaisable, ou null si l'entête est
+     * invalide et doit être ignoré.
+     *
+     * Exemple : "bytes=0-99, 200-, -50".
+     *
+     * @param range
+     * @param length
+     * @return
+     */
+    public static List<long[]> parseRanges(@NotNull String range, long length) {
+        range = range.trim();
+        if(!range.startsWith(UNIT_BYTES + "=")) {
+            return null;
+        }
+        String[] rangesSplit = range.substring(UNIT_BYTES.length() + 1).split(",");
+        if(rangesSplit.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<long[]>(rangesSplit.length);
+        for(String rangeSpecification : rangesSplit) {
+            rangeSpecification = rangeSpecification.trim();
+            int indexDash = rangeSpecification.indexOf('-');
+            if(indexDash < 0) {
+                return null;
+            }
+            String first = rangeSpecification.substring(0, indexDash).trim();
+            String last = rangeSpecification.substring(indexDash + 1).trim();
+            long start;
+            long end;
+            try {
+                //Si ce sont les n derniers octets ("-n").
+                if(first.isEmpty()) {
+                    long suffixLength = Long.parseLong(last);
+                    if(suffixLength <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, length - suffixLength);
+                    end = length - 1;
+                //Sinon, à partir d'un octet ("a-" ou "a-b").
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                    if(!last.isEmpty() && Long.parseLong(last) < start) {
+                        return null;
+                    }
+                }
+            } catch (NumberFormatException exception) {
+                return null;
+            }
+            if(start < 0) {
+                return null;
+            }
+            //Une portion au-delà de la fin du
+            //document n'est pas satisfaisable.
+            if(start < length) {
+                ranges.add(new long[]{start, end});
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Construire la valeur de l'entête Content-Range
+     * d'une portion d'un document.
+     *
+     * Exemple : "bytes 0-99/1234".
+     *
+     * @param range
+     * @param length
+     * @return
+     */
+    public static String buildContentRange(@NotNull long[] range, long length) {
+        return UNIT_BYTES + " " + range[0] + "-" + range[1] + "/" + length;
+    }
+
+    /**
+     * Construire la valeur de l'entête Content-Range
+     * d'une réponse 416 (aucune portion satisfaisable) :
+     * la portion est remplacée par une étoile, suivie
+     * de la taille du document.
+     *
+     * @param length
+     * @return
+     */
+    public static String buildUnsatisfiedContentRange(long length) {
+        return UNIT_BYTES + " */" + length;
+    }
+}
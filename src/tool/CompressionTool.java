@@ -0,0 +1,123 @@
+package tool;
+
+import core.HttpServer;
+import org.jetbrains.annotations.NotNull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Classe proposant des outils, pour la
+ * compression des contenus envoyés aux
+ * clients web (gzip et deflate).
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class CompressionTool {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Encodages de contenu gérés.
+    public final static String ENCODING_GZIP = "gzip";
+    public final static String ENCODING_DEFLATE = "deflate";
+    //Si la compression est activée.
+    public final static boolean COMPRESSION_ENABLE = httpServer.getConfigurationPropertyBoolean("compressionEnable");
+    //Taille minimale d'un contenu compressé, en octets.
+    public final static int COMPRESSION_MIN_SIZE = httpServer.getConfigurationPropertyInteger("compressionMinSize");
+    //Taille maximale d'un document statique
+    //compressé à la volée, en octets.
+    public final static int COMPRESSION_MAX_SIZE = httpServer.getConfigurationPropertyInteger("compressionMaxSize");
+    //Débuts des types de contenu compressibles.
+    private final static String[] COMPRESSION_CONTENT_TYPES = httpServer.getConfigurationProperty("compressionContentTypes").split(",");
+
+    /**
+     * Choisir l'encodage de contenu à utiliser
+     * d'après l'entête Accept-Encoding d'une
+     * requête, gzip étant préféré à deflate.
+     *
+     * Retourne null si le client web n'accepte
+     * aucun des deux encodages.
+     *
+     * Exemple : "gzip, deflate;q=0.5, br".
+     *
+     * @param acceptEncoding
+     * @return
+     */
+    public static String chooseEncoding(@NotNull String acceptEncoding) {
+        boolean gzipAccepted = false;
+        boolean deflateAccepted = false;
+        for(String element : acceptEncoding.split(",")) {
+            String[] elementSplit = element.split(";");
+            String encoding = elementSplit[0].trim().toLowerCase();
+            //Un poids nul signifie un refus.
+            boolean accepted = true;
+            for(int i = 1; i < elementSplit.length; i++) {
+                String parameter = elementSplit[i].trim();
+                if(parameter.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException exception) {
+                        accepted = false;
+                    }
+                }
+            }
+            if(encoding.equals(ENCODING_GZIP) || encoding.equals("*")) {
+                gzipAccepted = accepted;
+            } else if(encoding.equals(ENCODING_DEFLATE)) {
+                deflateAccepted = accepted;
+            }
+        }
+
+        if(gzipAccepted) {
+            return ENCODING_GZIP;
+        } else if(deflateAccepted) {
+            return ENCODING_DEFLATE;
+        }
+        return null;
+    }
+
+    /**
+     * Savoir si un type de contenu gagne
+     * à être compressé (texte, scripts,
+     * images vectorielles, etc).
+     *
+     * @param contentType
+     * @return
+     */
+    public static boolean contentTypeIsCompressible(@NotNull String contentType) {
+        for(String compressibleContentType : COMPRESSION_CONTENT_TYPES) {
+            if(contentType.startsWith(compressibleContentType.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compresser un contenu avec un
+     * encodage (gzip ou deflate).
+     *
+     * @param content
+     * @param encoding
+     * @return
+     */
+    public static byte[] compress(@NotNull byte[] content, @NotNull String encoding) {
+        ByteArrayOutputStream compressedContent = new ByteArrayOutputStream(content.length / 3 + 64);
+        try {
+            OutputStream compressor;
+            if(encoding.equals(ENCODING_GZIP)) {
+                compressor = new GZIPOutputStream(compressedContent);
+            } else {
+                compressor = new DeflaterOutputStream(compressedContent);
+            }
+            compressor.write(content);
+            compressor.close();
+        } catch (IOException exception) {
+            //Impossible en mémoire.
+            throw new IllegalStateException("Erreur lors de la compression d'un contenu !", exception);
+        }
+        return compressedContent.toByteArray();
+    }
+}
@@ -0,0 +1,173 @@
+package tool;
+
+import org.jetbrains.annotations.NotNull;
+import java.io.File;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Classe proposant des outils, pour les
+ * requêtes conditionnelles : validateurs
+ * ETag et Last-Modified, entêtes
+ * If-None-Match et If-Modified-Since.
+ *
+ * Voir : https://developer.mozilla.org/fr/docs/Web/HTTP/Conditional_requests
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class ConditionalRequestTool {
+    //Format des dates HTTP envoyées (en GMT).
+    private final static DateTimeFormatter HTTP_DATE_FORMATTER = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+    //Format des dates HTTP reçues (RFC 1123).
+    private final static DateTimeFormatter HTTP_DATE_PARSER = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+    /**
+     * Construire l'ETag fort d'une version d'un
+     * fichier, à partir de sa taille et de sa
+     * date de modification : il change avec
+     * chaque nouvelle version du fichier, sans
+     * avoir à lire son contenu.
+     *
+     * @param file
+     * @return
+     */
+    public static String buildStrongETag(@NotNull File file) {
+        return buildStrongETag(file.length(), file.lastModified());
+    }
+
+    /**
+     * Construire l'ETag fort d'un document statique,
+     * à partir de sa taille et de sa date de
+     * modification déjà connues.
+     *
+     * @param length
+     * @param lastModified
+     * @return
+     */
+    public static String buildStrongETag(long length, long lastModified) {
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    /**
+     * Construire l'ETag faible d'un contenu
+     * dynamique, à partir d'une somme de
+     * contrôle de ses octets.
+     *
+     * @param content
+     * @return
+     */
+    public static String buildWeakETag(@NotNull byte[] content) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(content, 0, content.length);
+        return "W/\"" + Long.toHexString(content.length) + "-" + Long.toHexString(crc32.getValue()) + "\"";
+    }
+
+    /**
+     * Affaiblir un ETag fort (cas d'une variante
+     * compressée du même contenu).
+     *
+     * @param eTag
+     * @return
+     */
+    public static String weaken(@NotNull String eTag) {
+        return eTag.startsWith("W/") ? eTag : "W/" + eTag;
+    }
+
+    /**
+     * Savoir si un ETag figure dans la valeur
+     * d'un entête If-None-Match, avec la
+     * comparaison faible (le préfixe W/ est
+     * ignoré).
+     *
+     * Exemple : "\"a1-b2\", W/\"c3-d4\"" ou "*".
+     *
+     * @param ifNoneMatch
+     * @param eTag
+     * @return
+     */
+    public static boolean eTagMatches(@NotNull String ifNoneMatch, @NotNull String eTag) {
+        String opaqueETag = stripWeakness(eTag);
+        for(String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if(candidate.equals("*") || stripWeakness(candidate).equals(opaqueETag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Savoir si la version d'un document indiquée
+     * dans un entête If-Range (ETag ou date) est
+     * la version actuelle du document.
+     *
+     * Un ETag est comparé de façon forte : un ETag
+     * faible ne valide jamais une portion.
+     *
+     * @param ifRange
+     * @param eTag
+     * @param lastModified
+     * @return
+     */
+    public static boolean ifRangeMatches(@NotNull String ifRange, @NotNull String eTag, long lastModified) {
+        ifRange = ifRange.trim();
+        //Si c'est un ETag.
+        if(ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return !eTag.startsWith("W/") && ifRange.equals(eTag);
+        }
+        //Sinon, c'est une date.
+        try {
+            return ZonedDateTime.parse(ifRange, HTTP_DATE_PARSER).toEpochSecond() == lastModified / 1000;
+        } catch (DateTimeParseException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Retirer le préfixe faible d'un ETag.
+     *
+     * @param eTag
+     * @return
+     */
+    private static String stripWeakness(@NotNull String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+
+    /**
+     * Savoir si un document n'a pas été modifié
+     * depuis la date d'un entête If-Modified-Since
+     * (à la seconde près).
+     *
+     * Une date illisible est ignorée.
+     *
+     * @param ifModifiedSince
+     * @param lastModified
+     * @return
+     */
+    public static boolean notModifiedSince(@NotNull String ifModifiedSince, long lastModified) {
+        try {
+            long ifModifiedSinceSeconds = ZonedDateTime.parse(ifModifiedSince.trim(), HTTP_DATE_PARSER).toEpochSecond();
+            return lastModified / 1000 <= ifModifiedSinceSeconds;
+        } catch (DateTimeParseException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Formater une date en date HTTP.
+     *
+     * Exemple : "Tue, 03 Jun 2008 11:05:30 GMT".
+     *
+     * @param time
+     * @return
+     */
+    public static String formatHttpDate(long time) {
+        return HTTP_DATE_FORMATTER.format(Instant.ofEpochMilli(time).atZone(ZoneOffset.UTC));
+    }
+}
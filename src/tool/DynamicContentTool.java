@@ -1,34 +1,169 @@
 package tool;
 
+import core.ChunkedContent;
+import core.FastCgiConnection;
+import core.FastCgiPool;
 import core.FileManager;
+import core.HttpHeaders;
+import core.HttpRequest;
+import core.HttpServer;
 import org.jetbrains.annotations.NotNull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Classe proposant des outils, pour implémenter
  * les contenus dynamiques obtenus par l'éxecution
  * de programmes, tel que les programme .php.
  *
+ * Un programme .php est envoyé au serveur FastCGI
+ * configuré ("phpFastCgiAddress"), dont les processus
+ * PHP restent démarrés, ou sinon exécuté par une
+ * nouvelle commande php.
+ *
  * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
  *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
  */
 public class DynamicContentTool {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Durée maximale, en millisecondes, d'un programme
+    //.php exécuté par la commande php, tuée au-delà.
+    private final static long PHP_TIMEOUT = httpServer.getConfigurationPropertyInteger("phpTimeout");
+
     /**
      * Contruire un contenu dynamique
      * à partir d'un programme .php.
      *
+     * @param httpRequest
      * @param documentFilename
      * @return
+     * @throws IOException si le serveur FastCGI est saturé ou échoue.
      */
-    public static String buildContentFromPHP(@NotNull String documentFilename) {
+    public static byte[] buildContentFromPHP(@NotNull HttpRequest httpRequest, @NotNull String documentFilename) throws IOException {
         //Récupération du chemin
         //absolu vers le fichier.
         String documentAbsolutePath = FileManager.getDocumentFile(documentFilename).getAbsolutePath();
 
+        //Si un serveur FastCGI est configuré.
+        FastCgiPool fastCgiPool = httpServer.getFastCgiPool();
+        if(fastCgiPool != null) {
+            //Envoi de la requête, et récupération du
+            //corps produit, ou sinon de la sortie d'erreur.
+            Map<String, String> params = buildCgiParams(httpRequest, documentAbsolutePath);
+            ByteArrayOutputStream content = new ByteArrayOutputStream(8192);
+            FastCgiConnection.FastCgiResponse response = fastCgiPool.execute(params, new byte[0], content);
+            return response.hasBody() ? content.toByteArray() : response.getStderr();
+        }
+
         //Exécution de la commande, et
         //récupération du résultat.
         String[] command = new String[]{"php", documentAbsolutePath};
-        String content = ProcessTool.executeAndBindOutput(command);
+        String content = ProcessTool.executeAndBindOutput(command, PHP_TIMEOUT);
+
+        return content.getBytes();
+    }
+
+    /**
+     * Construire le producteur d'un contenu dynamique
+     * à partir d'un programme .php, envoyé au fur et
+     * à mesure de sa réception du serveur FastCGI,
+     * ou de l'exécution de la commande php.
+     *
+     * @param httpRequest
+     * @param documentFilename
+     * @return
+     */
+    public static ChunkedContent.Producer buildStreamedContentFromPHP(@NotNull HttpRequest httpRequest,
+                                                                      @NotNull String documentFilename) {
+        //Récupération du chemin
+        //absolu vers le fichier.
+        String documentAbsolutePath = FileManager.getDocumentFile(documentFilename).getAbsolutePath();
+
+        //Si un serveur FastCGI est configuré.
+        FastCgiPool fastCgiPool = httpServer.getFastCgiPool();
+        if(fastCgiPool != null) {
+            Map<String, String> params = buildCgiParams(httpRequest, documentAbsolutePath);
+            return outputStream -> {
+                //Envoi de la requête, et recopie du corps
+                //dès sa réception, ou sinon de la sortie
+                //d'erreur.
+                FastCgiConnection.FastCgiResponse response = fastCgiPool.execute(params, new byte[0], outputStream);
+                if(!response.hasBody()) {
+                    outputStream.write(response.getStderr());
+                }
+            };
+        }
+
+        return outputStream -> {
+            //Exécution de la commande, et recopie
+            //de sa sortie dès qu'elle est produite,
+            //ou sinon de la sortie d'erreur.
+            String[] command = new String[]{"php", documentAbsolutePath};
+            try (InputStream inputStream = ProcessTool.executeStreaming(command, PHP_TIMEOUT)) {
+                byte[] buffer = new byte[ChunkedContent.CHUNK_SIZE];
+                int count;
+                while((count = inputStream.read(buffer)) >= 0) {
+                    outputStream.write(buffer, 0, count);
+                    outputStream.flush();
+                }
+            }
+        };
+    }
+
+    /**
+     * Construire les variables CGI d'une
+     * requête HTTP pour un programme .php.
+     *
+     * Les URI transmis sont ceux demandés par le
+     * client, avant la réécriture d'un alias d'hôte.
+     *
+     * Voir : https://www.rfc-editor.org/rfc/rfc3875
+     *
+     * @param httpRequest
+     * @param documentAbsolutePath
+     * @return
+     */
+    private static Map<String, String> buildCgiParams(@NotNull HttpRequest httpRequest,
+                                                      @NotNull String documentAbsolutePath) {
+        //URI demandé, et ses paramètres
+        //(vides s'il n'en a pas).
+        String requestedURI = httpRequest.getRequestedURI();
+        String scriptName = requestedURI;
+        String query = "";
+        int indexQuery = requestedURI.indexOf('?');
+        if(indexQuery >= 0) {
+            query = requestedURI.substring(indexQuery + 1);
+            scriptName = requestedURI.substring(0, indexQuery);
+        }
 
-        return content;
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("GATEWAY_INTERFACE", "CGI/1.1");
+        params.put("SERVER_PROTOCOL", "HTTP/" + httpRequest.get("Version"));
+        params.put("SERVER_NAME", httpRequest.getHostName());
+        params.put("SERVER_PORT", httpServer.getConfigurationProperty("port"));
+        params.put("REQUEST_METHOD", httpRequest.get("Method"));
+        params.put("REQUEST_URI", requestedURI);
+        params.put("SCRIPT_NAME", scriptName);
+        params.put("SCRIPT_FILENAME", documentAbsolutePath);
+        params.put("DOCUMENT_ROOT", FileManager.getDocumentDirectory().getAbsolutePath());
+        params.put("QUERY_STRING", query);
+        //Exigé par php-cgi compilé avec
+        //"force-cgi-redirect".
+        params.put("REDIRECT_STATUS", "200");
+        //Entêtes de la requête : HTTP_[NOM].
+        HttpHeaders headers = httpRequest.getHeaders();
+        for(int i = 0; i < headers.size(); i++) {
+            String name = "HTTP_" + headers.getName(i).toUpperCase().replace('-', '_');
+            //Le corps des requêtes n'est pas transmis.
+            if(name.equals("HTTP_CONTENT_LENGTH") || name.equals("HTTP_CONTENT_TYPE")) {
+                continue;
+            }
+            params.merge(name, headers.getValue(i), (value1, value2) -> value1 + ", " + value2);
+        }
+        return params;
     }
-}
\ No newline at end of file
+}
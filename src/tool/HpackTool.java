@@ -0,0 +1,198 @@
+package tool;
+
+import core.HttpHeaders;
+import org.jetbrains.annotations.NotNull;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Classe proposant des outils, pour la
+ * compression des entêtes HTTP/2 (HPACK) :
+ * table statique, et codage des entiers, des
+ * chaînes et des entêtes d'une réponse.
+ *
+ * Les entêtes des réponses sont codés sans la
+ * table dynamique (entêtes littéraux non indexés) :
+ * le codage ne dépend pas des réglages du client
+ * web, et reste valide sur toute la connexion.
+ *
+ * Voir : https://httpwg.org/specs/rfc7541.html
+ *
+ * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
+ *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
+ */
+public class HpackTool {
+    //Table statique : entêtes (nom, valeur) aux
+    //positions 1 à 61.
+    public final static String[][] STATIC_TABLE = new String[][]{
+            null,
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+    //Position dans la table statique de chaque nom
+    //d'entête (première occurrence).
+    private final static Map<String, Integer> STATIC_NAMES = new HashMap<String, Integer>();
+    //Position dans la table statique des codes
+    //d'état présents.
+    private final static Map<String, Integer> STATIC_STATUS = new HashMap<String, Integer>();
+
+    static {
+        for(int i = STATIC_TABLE.length - 1; i > 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i);
+            if(STATIC_TABLE[i][0].equals(":status")) {
+                STATIC_STATUS.put(STATIC_TABLE[i][1], i);
+            }
+        }
+    }
+
+    /**
+     * Coder les entêtes d'une réponse, précédés de
+     * son code d'état.
+     *
+     * Les noms d'entêtes doivent être en minuscules.
+     *
+     * @param codeStatus
+     * @param headers
+     * @return
+     */
+    public static byte[] encodeResponseHeaders(int codeStatus, @NotNull HttpHeaders headers) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(256);
+        //Code d'état : indexé s'il est dans la table
+        //statique, sinon littéral au nom indexé.
+        String status = String.valueOf(codeStatus);
+        Integer index = STATIC_STATUS.get(status);
+        if(index != null) {
+            encodeInteger(outputStream, 0x80, 7, index);
+        } else {
+            encodeLiteral(outputStream, ":status", status);
+        }
+        for(int i = 0; i < headers.size(); i++) {
+            encodeLiteral(outputStream, headers.getName(i), headers.getValue(i));
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Coder un entête littéral non indexé, avec
+     * son nom indexé s'il est dans la table statique.
+     *
+     * @param outputStream
+     * @param name
+     * @param value
+     */
+    private static void encodeLiteral(@NotNull ByteArrayOutputStream outputStream, @NotNull String name, @NotNull String value) {
+        Integer index = STATIC_NAMES.get(name);
+        if(index != null) {
+            encodeInteger(outputStream, 0x00, 4, index);
+        } else {
+            outputStream.write(0x00);
+            encodeString(outputStream, name);
+        }
+        encodeString(outputStream, value);
+    }
+
+    /**
+     * Coder un entier sur un préfixe de bits du
+     * premier octet, les autres bits de cet octet
+     * étant donnés.
+     *
+     * @param outputStream
+     * @param firstByte
+     * @param prefixBits
+     * @param value
+     */
+    public static void encodeInteger(@NotNull ByteArrayOutputStream outputStream, int firstByte, int prefixBits, int value) {
+        int maxPrefix = (1 << prefixBits) - 1;
+        if(value < maxPrefix) {
+            outputStream.write(firstByte | value);
+            return;
+        }
+        outputStream.write(firstByte | maxPrefix);
+        value -= maxPrefix;
+        while(value >= 0x80) {
+            outputStream.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        outputStream.write(value);
+    }
+
+    /**
+     * Coder une chaîne, avec le codage de Huffman
+     * s'il la raccourcit.
+     *
+     * @param outputStream
+     * @param string
+     */
+    public static void encodeString(@NotNull ByteArrayOutputStream outputStream, @NotNull String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.ISO_8859_1);
+        int huffmanLength = HuffmanTool.encodedLength(bytes);
+        if(huffmanLength < bytes.length) {
+            encodeInteger(outputStream, 0x80, 7, huffmanLength);
+            HuffmanTool.encode(bytes, outputStream);
+        } else {
+            encodeInteger(outputStream, 0x00, 7, bytes.length);
+            outputStream.write(bytes, 0, bytes.length);
+        }
+    }
+}
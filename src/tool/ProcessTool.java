@@ -5,15 +5,47 @@ import org.jetbrains.annotations.NotNull;
 import java.io.*;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Classe ppur exécuter une commande
  * externe à java.
  *
+ * Les sorties STDOUT et STDERR d'une commande sont
+ * lues en même temps que son exécution, par des
+ * threads dédiés : une commande qui écrit plus que
+ * le tampon d'un tube ne reste pas bloquée. Chaque
+ * sortie est limitée en taille, la commande étant
+ * tuée au-delà, comme au-delà de sa durée maximale.
+ *
  * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
  *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
  */
 public class ProcessTool {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Taille maximale, en octets, de chaque sortie
+    //d'une commande.
+    public final static int MAX_OUTPUT_SIZE = httpServer.getConfigurationPropertyInteger("processMaxOutputSize");
+    //Durée d'attente, en millisecondes, de la fin de la
+    //lecture des sorties après la fin de la commande (un
+    //sous-processus peut les garder ouvertes).
+    private final static long OUTPUT_GRACE_TIMEOUT = 1000;
+    //Lecteurs des sorties des commandes.
+    private final static ExecutorService outputReaders = Executors.newCachedThreadPool(new ProcessThreadFactory("process-output-"));
+    //Arrêt des commandes dont la sortie est lue
+    //au fur et à mesure, après leur durée maximale.
+    private final static ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(new ProcessThreadFactory("process-watchdog-"));
+
     /**
      * Exécuter une commande du terminal
      * de l'OS du serveur, en précisant
@@ -25,24 +57,49 @@ public class ProcessTool {
      * @return
      */
     public static String executeTerminalCommand(@NotNull String directoryAbsolutePath, @NotNull String command) {
+        return executeTerminalCommand(directoryAbsolutePath, command, 0);
+    }
+
+    /**
+     * Exécuter une commande du terminal
+     * de l'OS du serveur, en précisant
+     * le répertoire de l'exécution, la
+     * commande, et sa durée maximale.
+     *
+     * @param directoryAbsolutePath
+     * @param command
+     * @param timeout durée maximale en millisecondes, 0 pour ne pas la limiter.
+     * @return
+     */
+    public static String executeTerminalCommand(@NotNull String directoryAbsolutePath, @NotNull String command, long timeout) {
         //Ajout de l'appel au terminal
         //associé à l'OS, pour la commande.
-        String[] completeCommand;
-        String os = System.getProperty("os.name").toLowerCase();
-        if(os.contains("windows")) {
-            completeCommand = new String[]{"cmd", "/c", "cd " + directoryAbsolutePath + " && " + command};
-        } else {
-            completeCommand = new String[]{"/bin/bash", "-c",  "cd " + directoryAbsolutePath + " && " + command};;
-        }
+        String[] completeCommand = buildTerminalCommand(directoryAbsolutePath, command);
 
         //Exécution de la commande, et récupération
         //du contenu de la sortie "remplie" (STDERR ou STDOUT)
         //de la commande.
-        String content = executeAndBindOutput(completeCommand);
+        String content = executeAndBindOutput(completeCommand, timeout);
 
         return content;
     }
 
+    /**
+     * Construire l'appel au terminal associé
+     * à l'OS du serveur, pour une commande.
+     *
+     * @param directoryAbsolutePath
+     * @param command
+     * @return
+     */
+    public static String[] buildTerminalCommand(@NotNull String directoryAbsolutePath, @NotNull String command) {
+        String os = System.getProperty("os.name").toLowerCase();
+        if(os.contains("windows")) {
+            return new String[]{"cmd", "/c", "cd " + directoryAbsolutePath + " && " + command};
+        }
+        return new String[]{"/bin/bash", "-c",  "cd " + directoryAbsolutePath + " && " + command};
+    }
+
     /**
      * Exécuter une commande et récupérer
      * le contenu du flux sortie
@@ -60,15 +117,28 @@ public class ProcessTool {
      * @return
      */
     public static String executeAndBindOutput(@NotNull String[] command) {
+        return executeAndBindOutput(command, 0);
+    }
+
+    /**
+     * Exécuter une commande, avec une durée
+     * maximale, et récupérer le contenu du flux
+     * sortie "rempli" uniquement (STDERR ou STDOUT).
+     *
+     * @param command
+     * @param timeout durée maximale en millisecondes, 0 pour ne pas la limiter.
+     * @return
+     */
+    public static String executeAndBindOutput(@NotNull String[] command, long timeout) {
         //Excéution de la commande, et récupération
         //des sorties de la commande.
-        Map<String, String> outputs = executeBasic(command);
+        Map<String, String> outputs = executeBasic(command, timeout);
         String stdout = outputs.get("STDOUT");
         String stderr = outputs.get("STDERR");
 
         String content;
         //Si pas de sortie standard.
-        if(stdout.isEmpty()) {
+        if(stdout.trim().isEmpty()) {
             //On choisit la sortie d'erreur
             //pour le contenu.
             content = stderr;
@@ -88,52 +158,311 @@ public class ProcessTool {
      * @param command
      */
     public static Map<String, String> executeBasic(@NotNull String[] command) {
+        return executeBasic(command, 0);
+    }
+
+    /**
+     * Exécuter une commande externe en java,
+     * le processus étant tué s'il dépasse sa
+     * durée maximale.
+     *
+     * @param command
+     * @param timeout durée maximale en millisecondes, 0 pour ne pas la limiter.
+     */
+    public static Map<String, String> executeBasic(@NotNull String[] command, long timeout) {
         Map<String, String> outputs = new HashMap<String, String>();
 
         try {
-            //Exécution de la commande.
-            Runtime runtime = Runtime.getRuntime();
-            Process process = runtime.exec(command);
+            //Exécution de la commande, sans entrée.
+            Process process = Runtime.getRuntime().exec(command);
+            process.getOutputStream().close();
+
+            //Lecture des flux de sortie de la commande
+            //pendant son exécution.
+            OutputCapture stdout = new OutputCapture(process, command);//Sortie standard.
+            OutputCapture stderr = new OutputCapture(process, command);//Sortie d'erreur.
+            Future<?> stdoutReader = outputReaders.submit(() -> stdout.drain(process.getInputStream()));
+            Future<?> stderrReader = outputReaders.submit(() -> stderr.drain(process.getErrorStream()));
 
-            //Attente de la fin du processus.
-            process.waitFor();
+            //Attente de la fin du processus, tué
+            //s'il dépasse sa durée maximale.
+            if(timeout <= 0) {
+                process.waitFor();
+            } else if(!process.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                httpServer.logDatedMessage("Commande externe arrêtée après " + timeout + " ms : \"" +
+                                           String.join(" ", command) + "\".");
+            }
 
-            //Récupération des flux de sortie
-            //de la commande.
-            String contentOutputStream = readInputStream(process.getInputStream());//Sortie standard.
-            String contentErrorStream = readInputStream(process.getErrorStream());//Sortie d'erreur.
+            //Attente de la fin de la lecture : sinon, les
+            //sorties sont celles déjà lues.
+            awaitReader(stdoutReader);
+            awaitReader(stderrReader);
 
             //Sauvegarde des flux de sortie.
-            outputs.put("STDOUT", contentOutputStream);
-            outputs.put("STDERR", contentErrorStream);
+            outputs.put("STDOUT", stdout.toString());
+            outputs.put("STDERR", stderr.toString());
         } catch (Exception exception) {
-            HttpServer.getInstance().logErrorAndExit("Erreur lors de l'exécution d'une commande externe : \"" +
-                                                              command  + "\" !", exception);
+            httpServer.logErrorAndExit("Erreur lors de l'exécution d'une commande externe : \"" +
+                                       String.join(" ", command)  + "\" !", exception);
         }
 
         return outputs;
     }
 
     /**
-     * Obtenir le contenu d'un flux.
+     * Exécuter une commande externe en java, et
+     * obtenir sa sortie standard à lire au fur et
+     * à mesure de son exécution.
      *
-     * @param inputStream
+     * La sortie d'erreur est lue en parallèle : si
+     * la sortie standard est vide (la commande a
+     * échoué), c'est la sortie d'erreur qui est lue
+     * à sa suite, comme avec executeAndBindOutput. La
+     * commande est tuée si elle dépasse sa durée
+     * maximale ou si sa sortie dépasse la taille
+     * maximale (la lecture se termine alors), ou
+     * si le flux est fermé avant la fin.
+     *
+     * @param command
+     * @param timeout durée maximale en millisecondes, 0 pour ne pas la limiter.
      * @return
+     * @throws IOException si la commande ne peut pas être lancée.
      */
-    private static String readInputStream(@NotNull InputStream inputStream) {
-        String content = "";
+    public static InputStream executeStreaming(@NotNull String[] command, long timeout) throws IOException {
+        //Exécution de la commande, sans entrée.
+        Process process = Runtime.getRuntime().exec(command);
+        process.getOutputStream().close();
+        //Lecture de la sortie d'erreur en parallèle,
+        //pour ne pas bloquer la commande.
+        OutputCapture stderr = new OutputCapture(process, command);
+        Future<?> stderrReader = outputReaders.submit(() -> stderr.drain(process.getErrorStream()));
+        //Arrêt programmé de la commande.
+        ScheduledFuture<?> kill = null;
+        if(timeout > 0) {
+            kill = watchdog.schedule(() -> {
+                if(process.isAlive()) {
+                    process.destroyForcibly();
+                    httpServer.logDatedMessage("Commande externe arrêtée après " + timeout + " ms : \"" +
+                                               String.join(" ", command) + "\".");
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+        return new ProcessInputStream(process, command, kill, stderr, stderrReader);
+    }
 
+    /**
+     * Attendre la fin de la lecture d'une sortie,
+     * au plus un court délai.
+     *
+     * @param reader
+     * @throws InterruptedException
+     */
+    private static void awaitReader(@NotNull Future<?> reader) throws InterruptedException {
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-            String line;
-            //On accumule chaque ligne au contenu.
-            while((line = reader.readLine()) != null) {
-                content += line;
+            reader.get(OUTPUT_GRACE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException exception) {
+            //La sortie reste ouverte : son
+            //contenu déjà lu est gardé.
+        }
+    }
+
+    /**
+     * Signaler qu'une sortie de commande a
+     * dépassé la taille maximale.
+     *
+     * @param process
+     * @param command
+     */
+    private static void killForOutputSize(@NotNull Process process, @NotNull String[] command) {
+        process.destroyForcibly();
+        httpServer.logDatedMessage("Commande externe arrêtée après " + MAX_OUTPUT_SIZE + " octets de sortie : \"" +
+                                   String.join(" ", command) + "\".");
+    }
+
+    /**
+     * Sortie d'une commande lue en entier,
+     * dans la limite de la taille maximale.
+     */
+    private static class OutputCapture {
+        //Processus de la commande, et commande.
+        private final Process process;
+        private final String[] command;
+        //Contenu lu.
+        private final ByteArrayOutputStream content;
+
+        private OutputCapture(@NotNull Process process, @NotNull String[] command) {
+            this.process = process;
+            this.command = command;
+            this.content = new ByteArrayOutputStream(1024);
+        }
+
+        /**
+         * Lire une sortie jusqu'à sa fin, les
+         * octets au-delà de la taille maximale
+         * étant ignorés.
+         *
+         * @param inputStream
+         */
+        private void drain(@NotNull InputStream inputStream) {
+            byte[] buffer = new byte[8192];
+            boolean truncated = false;
+            try {
+                int count;
+                while((count = inputStream.read(buffer)) >= 0) {
+                    if(truncated) {
+                        continue;
+                    }
+                    int room = MAX_OUTPUT_SIZE - content.size();
+                    content.write(buffer, 0, Math.min(count, room));
+                    if(count > room) {
+                        truncated = true;
+                        killForOutputSize(process, command);
+                    }
+                }
+            } catch (IOException exception) {
+                //Sortie fermée : fin de la lecture.
             }
-        } catch (IOException exception) {
-            HttpServer.getInstance().logErrorAndExit("Erreur lors de l'exécution d'une commande externe !", exception);
         }
 
-        return content;
+        /**
+         * Obtenir les octets lus.
+         *
+         * @return
+         */
+        private byte[] toByteArray() {
+            return content.toByteArray();
+        }
+
+        /**
+         * Obtenir le contenu lu.
+         *
+         * @return
+         */
+        @Override
+        public String toString() {
+            return content.toString();
+        }
+    }
+
+    /**
+     * Sortie standard d'une commande, lue au fur
+     * et à mesure de son exécution, suivie de sa
+     * sortie d'erreur si elle est vide.
+     */
+    private static class ProcessInputStream extends FilterInputStream {
+        //Processus de la commande, et commande.
+        private final Process process;
+        private final String[] command;
+        //Arrêt programmé de la commande, ou null.
+        private final ScheduledFuture<?> kill;
+        //Sortie d'erreur, et sa lecture.
+        private final OutputCapture stderr;
+        private final Future<?> stderrReader;
+        //Nombre d'octets lus.
+        private long countBytes;
+        //Sortie standard vide (blancs uniquement) ou non.
+        private boolean blank;
+        //Sortie d'erreur lue à la suite d'une
+        //sortie standard vide, ou null.
+        private InputStream stderrContent;
+        //Fin de la sortie atteinte ou non.
+        private boolean ended;
+
+        private ProcessInputStream(@NotNull Process process, @NotNull String[] command, ScheduledFuture<?> kill,
+                                   @NotNull OutputCapture stderr, @NotNull Future<?> stderrReader) {
+            super(process.getInputStream());
+            this.process = process;
+            this.command = command;
+            this.kill = kill;
+            this.stderr = stderr;
+            this.stderrReader = stderrReader;
+            this.blank = true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NotNull byte[] b, int off, int len) throws IOException {
+            //Sortie d'erreur, après une
+            //sortie standard vide.
+            if(stderrContent != null) {
+                return stderrContent.read(b, off, len);
+            }
+            if(ended) {
+                return -1;
+            }
+            int count = super.read(b, off, (int) Math.min(len, MAX_OUTPUT_SIZE - countBytes + 1));
+            if(count < 0) {
+                ended = true;
+                //Sortie standard vide : c'est la
+                //sortie d'erreur qui est lue.
+                if(blank) {
+                    try {
+                        awaitReader(stderrReader);
+                    } catch (InterruptedException exception) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                    stderrContent = new ByteArrayInputStream(stderr.toByteArray());
+                    return stderrContent.read(b, off, len);
+                }
+                return -1;
+            }
+            for(int i = off; blank && i < off + count; i++) {
+                blank = (b[i] & 0xFF) <= ' ';
+            }
+            countBytes += count;
+            //Sortie trop grande : elle est coupée.
+            if(countBytes > MAX_OUTPUT_SIZE) {
+                ended = true;
+                killForOutputSize(process, command);
+                count -= (int) (countBytes - MAX_OUTPUT_SIZE);
+                return count > 0 ? count : -1;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                //Sortie abandonnée avant sa fin : la
+                //commande est tuée.
+                if(!ended && process.isAlive()) {
+                    process.destroyForcibly();
+                }
+                if(kill != null && !process.isAlive()) {
+                    kill.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fabrique des threads nommés
+     * des commandes externes.
+     */
+    private static class ProcessThreadFactory implements ThreadFactory {
+        //Préfixe du nom des threads.
+        private final String prefix;
+        //Numéro du prochain thread.
+        private final AtomicInteger countThreads = new AtomicInteger(0);
+
+        private ProcessThreadFactory(@NotNull String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(@NotNull Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + countThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,28 +1,119 @@
 package tool;
 
+import core.ChunkedContent;
+import core.DocumentWatcher;
 import core.FileManager;
+import core.HttpServer;
 import org.jetbrains.annotations.NotNull;
 import java.io.File;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Classe proposant des outils, pour implémenter
  * les server side includes #include et #exec.
  *
+ * Un document html est compilé une seule fois en
+ * un modèle : morceaux de texte, les #include étant
+ * remplacés par le contenu inclus, et commandes
+ * #exec. Le modèle est gardé en cache tant que le
+ * document et les documents inclus ne changent pas,
+ * et son rendu met bout à bout ses morceaux.
+ *
+ * Un graphe des dépendances (document inclus vers
+ * pages qui l'incluent) permet, à chaque changement
+ * signalé par le surveillant des documents, de retirer
+ * du cache exactement les modèles concernés. Sans
+ * surveillance, les documents sont vérifiés à chaque
+ * rendu.
+ *
+ * Les commandes #exec d'une page sont exécutées en
+ * parallèle, avec une durée maximale. Leur résultat
+ * est gardé en cache un temps donné, puis encore
+ * servi, périmé, le temps d'être recalculé en
+ * arrière-plan (stale-while-revalidate).
+ *
  * Voir : https://fr.wikipedia.org/wiki/Server_Side_Includes
  *
  * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
  *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
  */
 public class ServerSideIncludesTool {
-    //Expression régulières des server sides includes.
-    public final static String REGEX_INCLUDE_START = "<!--.*#include *file *= *\"";
-    public final static String REGEX_INCLUDE_END = "\".*-->";
-    public final static String REGEX_INCLUDE = "<!--.*#include *file *= *\".*\".*-->";
-    public final static String REGEX_EXEC_START = "<!--.*#exec *cmd *= *\"";
-    public final static String REGEX_EXEC_END = "\".*-->";
-    public final static String REGEX_EXEC = "<!--.*#exec *cmd *= *\".*\".*-->";
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Délimiteurs et mots clés des server sides includes.
+    private final static String COMMENT_START = "<!--";
+    private final static String COMMENT_END = "-->";
+    private final static String DIRECTIVE_INCLUDE = "#include";
+    private final static String PARAMETER_FILE = "file";
+    private final static String DIRECTIVE_EXEC = "#exec";
+    private final static String PARAMETER_CMD = "cmd";
+    //Profondeur maximale des #include imbriqués
+    //(protection contre les inclusions circulaires).
+    private final static int MAX_INCLUDE_DEPTH = 16;
+    //Modèles compilés des documents html, par
+    //nom de document.
+    private final static Map<String, Template> templates = new ConcurrentHashMap<String, Template>();
+    //Graphe des dépendances : noms des documents dont
+    //le modèle dépend de chaque fichier (chemin absolu).
+    private final static Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+    //Singleton surveillant des documents.
+    private final static DocumentWatcher documentWatcher = DocumentWatcher.getInstance();
+    //Durée, en millisecondes, pendant laquelle le résultat
+    //d'une commande #exec est servi depuis le cache (0 pour
+    //exécuter la commande à chaque rendu).
+    private final static long EXEC_CACHE_TTL = httpServer.getConfigurationPropertyInteger("ssiExecCacheTtl");
+    //Durée, en millisecondes, après la précédente, pendant
+    //laquelle le résultat périmé est encore servi, la
+    //commande étant exécutée à nouveau en arrière-plan.
+    private final static long EXEC_STALE_WHILE_REVALIDATE = httpServer.getConfigurationPropertyInteger("ssiExecStaleWhileRevalidate");
+    //Durée maximale, en millisecondes, d'une commande
+    //#exec, tuée au-delà.
+    private final static long EXEC_TIMEOUT = httpServer.getConfigurationPropertyInteger("ssiExecTimeout");
+    //Résultats des commandes #exec, par répertoire
+    //d'exécution et commande.
+    private final static Map<String, ExecResult> execResults = new ConcurrentHashMap<String, ExecResult>();
+    //Exécuteur des commandes #exec : au plus
+    //"ssiExecPoolSize" threads, et "ssiExecQueueSize"
+    //commandes en attente.
+    private final static ThreadPoolExecutor execExecutor = buildExecExecutor();
+
+    static {
+        documentWatcher.addListener(ServerSideIncludesTool::invalidate);
+    }
+
+    /**
+     * Construire l'exécuteur des commandes #exec,
+     * dont les threads inutilisés s'arrêtent.
+     *
+     * @return
+     */
+    private static ThreadPoolExecutor buildExecExecutor() {
+        int poolSize = httpServer.getConfigurationPropertyInteger("ssiExecPoolSize");
+        int queueSize = httpServer.getConfigurationPropertyInteger("ssiExecQueueSize");
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize,
+                                                             60L, TimeUnit.SECONDS,
+                                                             new ArrayBlockingQueue<Runnable>(queueSize),
+                                                             new ExecThreadFactory(),
+                                                             new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
     /**
      * Constuire le contenu d'un document html
@@ -34,111 +125,246 @@ public class ServerSideIncludesTool {
      * @return
      */
     public static String buildContent(@NotNull String documentFilename) {
-        //Chargement du contenu du document.
-        String documentContent = FileManager.getContentDocumentFileAsString(documentFilename);
-        //Récupération du chemin relatif
-        //du répertoire parent du document.
-        String parentDirectoryPath = FileManager.getParentDirectoryPath(documentFilename);
-        //Prise en compte des server sides
-        //includes de type #include.
-        documentContent = buildIncludes(parentDirectoryPath, documentContent);
-        //Prise en compte des server sides
-        //includes de type #exec.
-        documentContent = buildExecs(parentDirectoryPath, documentContent);
-        return documentContent;
+        return getTemplate(documentFilename).render();
     }
 
     /**
-     * Gérer les server sides includes de type
-     * #include d'un document du serveur.
+     * Construire le producteur du contenu d'un
+     * document html, envoyé au fur et à mesure :
+     * le texte précédant une commande #exec part
+     * sans attendre son résultat.
      *
-     * @param parentDirectoryPath
-     * @param documentContent
-     * @return
+     * @param documentFilename
+     * @return le producteur, ou null si le document n'a pas de commande #exec.
      */
-    private static String buildIncludes(@NotNull String parentDirectoryPath, @NotNull String documentContent) {
-        //Recherche des server sides includes
-        //de type #include.
-        Pattern pattern = Pattern.compile(REGEX_INCLUDE);
-        Matcher matcher = pattern.matcher(documentContent);
-
-        //Tant que des server sides includes
-        //#include sont trouvés.
-        while (matcher.find()) {
-            String htmlComment = matcher.group(0);
-            //Récupération du chmein relatif
-            //du document à inclure.
-            String documentIncludedFilename = htmlComment.replaceFirst(REGEX_INCLUDE_START, "")
-                                                         .replaceFirst(REGEX_INCLUDE_END, "");
-            documentIncludedFilename = parentDirectoryPath + File.separator + documentIncludedFilename;
-
-            //Chargement du contenu du document
-            //à inclure.
-            String documentIncludedContent = buildInclude(documentIncludedFilename);
+    public static ChunkedContent.Producer buildStreamedContent(@NotNull String documentFilename) {
+        Template template = getTemplate(documentFilename);
+        return template.hasCommands() ? template::writeTo : null;
+    }
 
-            //Remplacement par le contenu obtenu.
-            documentContent = documentContent.replace(htmlComment, documentIncludedContent);
+    /**
+     * Obtenir le modèle d'un document html.
+     *
+     * @param documentFilename
+     * @return
+     */
+    private static Template getTemplate(@NotNull String documentFilename) {
+        //Modèle du document, compilé à nouveau s'il a été
+        //retiré du cache, ou, sans surveillance, si le
+        //document ou un document inclus a changé.
+        Template template = templates.get(documentFilename);
+        if(template == null || (!documentWatcher.isWatching() && !template.isUpToDate())) {
+            long countChangesBefore = documentWatcher.getCountChanges();
+            template = compile(documentFilename);
+            putTemplate(documentFilename, template);
+            //Un changement signalé pendant la compilation
+            //a pu être lu à moitié : le modèle n'est pas
+            //gardé.
+            if(documentWatcher.changedSince(countChangesBefore)) {
+                removeTemplate(documentFilename, template);
+            }
+        }
+        return template;
+    }
 
-            //Recherche des server sides includes
-            //de type #include restantes.
-            matcher = pattern.matcher(documentContent);
+    /**
+     * Garder en cache le modèle d'un document, et
+     * mettre à jour le graphe des dépendances.
+     *
+     * @param documentFilename
+     * @param template
+     */
+    private static synchronized void putTemplate(@NotNull String documentFilename, @NotNull Template template) {
+        Template oldTemplate = templates.put(documentFilename, template);
+        if(oldTemplate != null) {
+            unlinkDependencies(documentFilename, oldTemplate);
+        }
+        for(String dependencyPath : template.dependenciesPaths) {
+            dependents.computeIfAbsent(dependencyPath, path -> new HashSet<String>()).add(documentFilename);
         }
+    }
 
-        return documentContent;
+    /**
+     * Retirer du cache le modèle d'un document, s'il
+     * est toujours celui donné.
+     *
+     * @param documentFilename
+     * @param template
+     */
+    private static synchronized void removeTemplate(@NotNull String documentFilename, @NotNull Template template) {
+        if(templates.remove(documentFilename, template)) {
+            unlinkDependencies(documentFilename, template);
+        }
     }
 
     /**
-     * Gérer un server sides
-     * includes de type #include.
+     * Retirer du graphe des dépendances
+     * celles d'un modèle.
      *
-     * @param documentIncludedFilename
-     * @return
+     * @param documentFilename
+     * @param template
      */
-    private static String buildInclude(@NotNull String documentIncludedFilename) {
-        return FileManager.getContentDocumentFileAsString(documentIncludedFilename);
+    private static void unlinkDependencies(@NotNull String documentFilename, @NotNull Template template) {
+        for(String dependencyPath : template.dependenciesPaths) {
+            Set<String> documentsFilenames = dependents.get(dependencyPath);
+            if(documentsFilenames != null && documentsFilenames.remove(documentFilename) && documentsFilenames.isEmpty()) {
+                dependents.remove(dependencyPath);
+            }
+        }
     }
 
+    /**
+     * Retirer du cache les modèles qui dépendent
+     * d'un fichier changé, ou d'un fichier d'un
+     * répertoire changé.
+     *
+     * @param file
+     */
+    private static synchronized void invalidate(@NotNull File file) {
+        String path = DocumentWatcher.getWatchedPath(file);
+        String directoryPrefix = path + File.separator;
+        //Recherche des documents concernés.
+        Set<String> documentsFilenames = new HashSet<String>();
+        for(Map.Entry<String, Set<String>> dependency : dependents.entrySet()) {
+            if(dependency.getKey().equals(path) || dependency.getKey().startsWith(directoryPrefix)) {
+                documentsFilenames.addAll(dependency.getValue());
+            }
+        }
+        //Retrait de leurs modèles.
+        for(String documentFilename : documentsFilenames) {
+            Template template = templates.get(documentFilename);
+            if(template != null) {
+                removeTemplate(documentFilename, template);
+            }
+        }
+    }
 
     /**
-     * Gérer les server sides includes de
-     * type #exed d'un document du serveur.
+     * Compiler le modèle d'un document html.
      *
-     * @param parentDirectoryPath
-     * @param documentContent
+     * @param documentFilename
      * @return
      */
-    private static String buildExecs(@NotNull String parentDirectoryPath, @NotNull String documentContent) {
+    private static Template compile(@NotNull String documentFilename) {
+        //Récupération du chemin relatif
+        //du répertoire parent du document.
+        String parentDirectoryPath = FileManager.getParentDirectoryPath(documentFilename);
         //Récupération du chemin absolu du répertoire
-        //parent du document du serveur.
+        //parent, où sont exécutées les commandes.
         String parentDirectoryAbsolutePath = FileManager.getDocumentFile(parentDirectoryPath).getAbsolutePath();
 
-        //Recherche des server sides includes
-        //de type #exec.
-        Pattern pattern = Pattern.compile(REGEX_EXEC);
-        Matcher matcher = pattern.matcher(documentContent);
+        Template template = new Template(parentDirectoryAbsolutePath);
+        StringBuilder literal = new StringBuilder();
+        compileDocument(template, literal, parentDirectoryPath, documentFilename, 0);
+        template.addLiteral(literal);
+        return template;
+    }
 
-        //Tant que des des server sides includes
-        //#exec sont trouvés.
-        while (matcher.find()) {
-            //Récupération de la commande.
-            String htmlComment = matcher.group(0);
-            String command = htmlComment.replaceFirst(REGEX_EXEC_START, "")
-                                        .replaceFirst(REGEX_EXEC_END, "");
+    /**
+     * Compiler un document (la page ou un document
+     * inclus) dans un modèle.
+     *
+     * Les chemins des documents inclus sont relatifs
+     * au répertoire parent de la page, même depuis un
+     * document inclus.
+     *
+     * @param template
+     * @param literal texte en cours, pas encore ajouté au modèle.
+     * @param parentDirectoryPath
+     * @param documentFilename
+     * @param depth
+     */
+    private static void compileDocument(@NotNull Template template, @NotNull StringBuilder literal, @NotNull String parentDirectoryPath,
+                                        @NotNull String documentFilename, int depth) {
+        //Chargement du contenu du document.
+        String documentContent = FileManager.getContentDocumentFileAsString(documentFilename);
+        template.addDependency(FileManager.getDocumentFile(documentFilename));
 
-            //Exécution de la commande, et
-            //récupération du résultat.
-            String content = buildExec(parentDirectoryAbsolutePath, command);
+        //Recherche des server sides includes, en
+        //un seul parcours du document.
+        int position = 0;
+        int commentStart;
+        while((commentStart = documentContent.indexOf(COMMENT_START, position)) >= 0) {
+            int commentEnd = documentContent.indexOf(COMMENT_END, commentStart + COMMENT_START.length());
+            if(commentEnd < 0) {
+                break;
+            }
+            String comment = documentContent.substring(commentStart + COMMENT_START.length(), commentEnd);
+            String documentIncludedFilename = parseDirective(comment, DIRECTIVE_INCLUDE, PARAMETER_FILE);
+            String command = documentIncludedFilename == null ? parseDirective(comment, DIRECTIVE_EXEC, PARAMETER_CMD) : null;
+            //Si ce n'est pas un server side include, ou si
+            //les inclusions sont trop imbriquées, le
+            //commentaire est gardé tel quel.
+            if((documentIncludedFilename == null && command == null)
+               || (documentIncludedFilename != null && depth >= MAX_INCLUDE_DEPTH)) {
+                literal.append(documentContent, position, commentEnd + COMMENT_END.length());
+                position = commentEnd + COMMENT_END.length();
+                continue;
+            }
 
-            //Remplacement par le résultat de
-            //la commande.
-            documentContent = documentContent.replace(htmlComment, content);
+            literal.append(documentContent, position, commentStart);
+            //Server side include de type #include : le
+            //contenu du document inclus prend sa place.
+            if(documentIncludedFilename != null) {
+                compileDocument(template, literal, parentDirectoryPath,
+                                parentDirectoryPath + File.separator + documentIncludedFilename, depth + 1);
+            //Server side include de type #exec : la commande
+            //est exécutée à chaque rendu.
+            } else {
+                template.addLiteral(literal);
+                template.addCommand(command);
+            }
+            position = commentEnd + COMMENT_END.length();
+        }
+        literal.append(documentContent, position, documentContent.length());
+    }
 
-            //Recherche des server sides includes
-            //de type #exec restantes.
-            matcher = pattern.matcher(documentContent);
+    /**
+     * Analyser le contenu d'un commentaire html
+     * pour une directive donnée :
+     * [directive] [paramètre]="[valeur]".
+     *
+     * @param comment
+     * @param directive
+     * @param parameter
+     * @return la valeur du paramètre, ou null si le commentaire n'est pas cette directive.
+     */
+    private static String parseDirective(@NotNull String comment, @NotNull String directive, @NotNull String parameter) {
+        int position = comment.indexOf(directive);
+        if(position < 0) {
+            return null;
+        }
+        position = skipSpaces(comment, position + directive.length());
+        if(!comment.startsWith(parameter, position)) {
+            return null;
+        }
+        position = skipSpaces(comment, position + parameter.length());
+        if(position >= comment.length() || comment.charAt(position) != '=') {
+            return null;
+        }
+        position = skipSpaces(comment, position + 1);
+        if(position >= comment.length() || comment.charAt(position) != '"') {
+            return null;
         }
+        int valueEnd = comment.lastIndexOf('"');
+        if(valueEnd <= position) {
+            return null;
+        }
+        return comment.substring(position + 1, valueEnd);
+    }
 
-        return documentContent;
+    /**
+     * Passer les espaces d'une chaîne.
+     *
+     * @param string
+     * @param position
+     * @return
+     */
+    private static int skipSpaces(@NotNull String string, int position) {
+        while(position < string.length() && string.charAt(position) == ' ') {
+            position++;
+        }
+        return position;
     }
 
      /**
@@ -150,6 +376,334 @@ public class ServerSideIncludesTool {
      * @return
      */
     private static String buildExec(@NotNull String directoryAbsolutePath, @NotNull String command) {
-        return ProcessTool.executeTerminalCommand(directoryAbsolutePath, command);
+        return ProcessTool.executeTerminalCommand(directoryAbsolutePath, command, EXEC_TIMEOUT);
+    }
+
+    /**
+     * Obtenir le résultat d'une commande #exec :
+     * depuis le cache s'il est encore valide, ou
+     * périmé pendant qu'il est recalculé, sinon
+     * en exécutant la commande en arrière-plan.
+     *
+     * @param directoryAbsolutePath
+     * @param command
+     * @return
+     */
+    private static CompletableFuture<String> lookupExec(@NotNull String directoryAbsolutePath, @NotNull String command) {
+        //Sans cache, la commande est exécutée à chaque rendu.
+        if(EXEC_CACHE_TTL <= 0) {
+            CompletableFuture<String> content = new CompletableFuture<String>();
+            launchExec(() -> {
+                try {
+                    content.complete(buildExec(directoryAbsolutePath, command));
+                } catch (RuntimeException exception) {
+                    content.completeExceptionally(exception);
+                }
+            }, true);
+            return content;
+        }
+
+        String key = directoryAbsolutePath + '\0' + command;
+        ExecResult execResult = execResults.get(key);
+        while(true) {
+            //Première exécution de la commande.
+            if(execResult == null) {
+                ExecResult newExecResult = new ExecResult(null);
+                execResult = execResults.putIfAbsent(key, newExecResult);
+                if(execResult == null) {
+                    launchExec(key, newExecResult, directoryAbsolutePath, command, true);
+                    return newExecResult.content;
+                }
+                continue;
+            }
+            //Commande en cours d'exécution : les rendus
+            //l'attendent, ou servent le résultat périmé.
+            if(!execResult.content.isDone()) {
+                return execResult.staleContent != null ? CompletableFuture.completedFuture(execResult.staleContent)
+                                                       : execResult.content;
+            }
+            //Résultat encore valide.
+            long age = System.currentTimeMillis() - execResult.time;
+            if(age < EXEC_CACHE_TTL) {
+                return execResult.content;
+            }
+            //Résultat périmé : la commande est exécutée à
+            //nouveau, par un seul rendu, pendant que les
+            //autres servent le résultat périmé s'il n'est
+            //pas trop vieux.
+            String content = execResult.content.join();
+            boolean stale = age < EXEC_CACHE_TTL + EXEC_STALE_WHILE_REVALIDATE;
+            ExecResult newExecResult = new ExecResult(stale ? content : null);
+            if(execResults.replace(key, execResult, newExecResult)) {
+                //Exécuteur saturé : le résultat périmé reste
+                //en cache, et la commande sera exécutée à
+                //nouveau par un prochain rendu.
+                if(!launchExec(key, newExecResult, directoryAbsolutePath, command, !stale)) {
+                    execResults.replace(key, newExecResult, execResult);
+                }
+                return stale ? CompletableFuture.completedFuture(content) : newExecResult.content;
+            }
+            execResult = execResults.get(key);
+        }
+    }
+
+    /**
+     * Exécuter une commande #exec en arrière-plan,
+     * son résultat étant gardé en cache.
+     *
+     * @param key
+     * @param execResult
+     * @param directoryAbsolutePath
+     * @param command
+     * @param awaited si un rendu attend le résultat.
+     * @return false si la commande n'est pas exécutée (exécuteur saturé).
+     */
+    private static boolean launchExec(@NotNull String key, @NotNull ExecResult execResult,
+                                      @NotNull String directoryAbsolutePath, @NotNull String command, boolean awaited) {
+        return launchExec(() -> {
+            try {
+                String content = buildExec(directoryAbsolutePath, command);
+                execResult.time = System.currentTimeMillis();
+                execResult.content.complete(content);
+            } catch (RuntimeException exception) {
+                //Un échec n'est pas gardé en cache.
+                execResults.remove(key, execResult);
+                execResult.content.completeExceptionally(exception);
+            }
+        }, awaited);
+    }
+
+    /**
+     * Confier l'exécution d'une commande #exec à
+     * l'exécuteur. Si sa file est pleine, une commande
+     * attendue par un rendu est exécutée par le thread
+     * du rendu, une autre (mise à jour en arrière-plan
+     * d'un résultat périmé) est abandonnée.
+     *
+     * @param task
+     * @param awaited si un rendu attend le résultat.
+     * @return false si la commande est abandonnée.
+     */
+    private static boolean launchExec(@NotNull Runnable task, boolean awaited) {
+        try {
+            execExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException exception) {
+            if(!awaited) {
+                return false;
+            }
+            task.run();
+            return true;
+        }
+    }
+
+    /**
+     * Modèle compilé d'un document html : morceaux
+     * de texte et commandes #exec en alternance,
+     * et documents dont il dépend.
+     */
+    private static class Template {
+        //Chemin absolu du répertoire où sont
+        //exécutées les commandes.
+        private final String directoryAbsolutePath;
+        //Morceaux du modèle : texte (String), ou
+        //commande #exec (Command).
+        private final List<Object> parts;
+        //Documents lus pour compiler le modèle, leur
+        //date de modification et taille à ce moment,
+        //et leur chemin absolu.
+        private final List<File> dependencies;
+        private final List<long[]> dependenciesStates;
+        private final Set<String> dependenciesPaths;
+        //Taille du texte du modèle.
+        private int literalsLength;
+
+        private Template(@NotNull String directoryAbsolutePath) {
+            this.directoryAbsolutePath = directoryAbsolutePath;
+            this.parts = new ArrayList<Object>();
+            this.dependencies = new ArrayList<File>();
+            this.dependenciesStates = new ArrayList<long[]>();
+            this.dependenciesPaths = new HashSet<String>();
+            this.literalsLength = 0;
+        }
+
+        /**
+         * Ajouter le texte en cours au modèle,
+         * et le vider.
+         *
+         * @param literal
+         */
+        private void addLiteral(@NotNull StringBuilder literal) {
+            if(literal.length() > 0) {
+                parts.add(literal.toString());
+                literalsLength += literal.length();
+                literal.setLength(0);
+            }
+        }
+
+        /**
+         * Ajouter une commande #exec au modèle.
+         *
+         * @param command
+         */
+        private void addCommand(@NotNull String command) {
+            parts.add(new Command(command));
+        }
+
+        /**
+         * Ajouter un document dont dépend le modèle.
+         *
+         * @param file
+         */
+        private void addDependency(@NotNull File file) {
+            dependencies.add(file);
+            dependenciesStates.add(new long[]{file.lastModified(), file.length()});
+            dependenciesPaths.add(DocumentWatcher.getWatchedPath(file));
+        }
+
+        /**
+         * Savoir si les documents dont dépend le
+         * modèle n'ont pas changé.
+         *
+         * @return
+         */
+        private boolean isUpToDate() {
+            for(int i = 0; i < dependencies.size(); i++) {
+                File file = dependencies.get(i);
+                long[] state = dependenciesStates.get(i);
+                if(file.lastModified() != state[0] || file.length() != state[1]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Savoir si le modèle a des commandes #exec.
+         *
+         * @return
+         */
+        private boolean hasCommands() {
+            for(Object part : parts) {
+                if(part instanceof Command) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Lancer en parallèle toutes les commandes
+         * #exec du modèle.
+         *
+         * @return
+         */
+        private List<CompletableFuture<String>> launchExecs() {
+            List<CompletableFuture<String>> execs = new ArrayList<CompletableFuture<String>>();
+            for(Object part : parts) {
+                if(part instanceof Command) {
+                    execs.add(lookupExec(directoryAbsolutePath, ((Command) part).command));
+                }
+            }
+            return execs;
+        }
+
+        /**
+         * Ecrire le contenu du document dans un flux,
+         * morceau par morceau : le flux est vidé avant
+         * d'attendre le résultat de chaque commande.
+         *
+         * @param outputStream
+         * @throws IOException
+         */
+        private void writeTo(@NotNull OutputStream outputStream) throws IOException {
+            List<CompletableFuture<String>> execs = launchExecs();
+            int countExecs = 0;
+            for(Object part : parts) {
+                if(part instanceof String) {
+                    outputStream.write(((String) part).getBytes());
+                } else {
+                    outputStream.flush();
+                    try {
+                        outputStream.write(execs.get(countExecs++).join().getBytes());
+                    } catch (CompletionException exception) {
+                        throw new IOException("Commande #exec en échec !", exception.getCause());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Produire le contenu du document en mettant
+         * bout à bout les morceaux du modèle.
+         *
+         * @return
+         */
+        private String render() {
+            //Sans commande, le modèle est un seul texte.
+            if(parts.size() == 1 && parts.get(0) instanceof String) {
+                return (String) parts.get(0);
+            }
+            //Lancement de toutes les commandes en
+            //parallèle, avant d'attendre leurs résultats.
+            List<CompletableFuture<String>> execs = launchExecs();
+            StringBuilder content = new StringBuilder(literalsLength + 256);
+            int countExecs = 0;
+            for(Object part : parts) {
+                if(part instanceof String) {
+                    content.append((String) part);
+                } else {
+                    content.append(execs.get(countExecs++).join());
+                }
+            }
+            return content.toString();
+        }
+    }
+
+    /**
+     * Commande #exec d'un modèle.
+     */
+    private static class Command {
+        //Commande à exécuter.
+        private final String command;
+
+        private Command(@NotNull String command) {
+            this.command = command;
+        }
+    }
+
+    /**
+     * Résultat, en cours ou obtenu, d'une
+     * commande #exec.
+     */
+    private static class ExecResult {
+        //Contenu produit par la commande.
+        private final CompletableFuture<String> content;
+        //Contenu périmé servi pendant l'exécution,
+        //ou null.
+        private final String staleContent;
+        //Date de fin de l'exécution.
+        private volatile long time;
+
+        private ExecResult(String staleContent) {
+            this.content = new CompletableFuture<String>();
+            this.staleContent = staleContent;
+        }
+    }
+
+    /**
+     * Fabrique des threads nommés
+     * des commandes #exec.
+     */
+    private static class ExecThreadFactory implements ThreadFactory {
+        //Numéro du prochain thread.
+        private final AtomicInteger countThreads = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(@NotNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "ssi-exec-" + countThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
-}
\ No newline at end of file
+}
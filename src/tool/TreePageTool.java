@@ -1,66 +1,309 @@
 package tool;
 
+import core.Configuration;
+import core.DocumentIndex;
 import core.FileManager;
 import core.HttpServer;
 import org.jetbrains.annotations.NotNull;
-import java.io.File;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Classe pour la construction des pages web
  * d'arborescence du site.
  *
+ * Les pages sont construites à partir de l'index
+ * des documents (core.DocumentIndex), sans lire les
+ * répertoires, et gardées en octets avec la liste de
+ * leur répertoire tant qu'elle ne change pas.
+ *
+ * Paramètres d'une page (après le "?" de l'URI) :
+ * - sort=name|size|date : ordre des entrées (les
+ *   répertoires d'abord) ;
+ * - order=asc|desc : sens de l'ordre ;
+ * - page=[numéro] : page des entrées, pour les
+ *   grands répertoires ;
+ * - format=json : liste des entrées en JSON.
+ *
  * @author CHEVRIER Jean-Christophe, HADJ MESSAOUD Yousra, LOUGADI Marième,
  *         étudiants en MASTER 1 MIAGE, à l'université de Lorraine.
  */
 public class TreePageTool {
+    //Singleton serveur HTTP.
+    private final static HttpServer httpServer = HttpServer.getInstance();
+    //Modèle des pages d'arborescence.
+    private final static String TREE_PAGE_TEMPLATE = ".server/tree/html/index.html";
+    //Nombre maximal d'entrées par page.
+    private final static int PAGE_SIZE = Math.max(1, httpServer.getConfigurationPropertyInteger("treeDocumentsPageSize"));
+    //Ordres des entrées, par nom de tri.
+    private final static Map<String, Comparator<DocumentIndex.Entry>> SORTS = new HashMap<String, Comparator<DocumentIndex.Entry>>();
+
+    static {
+        SORTS.put("name", Comparator.comparing(DocumentIndex.Entry::getName));
+        SORTS.put("size", Comparator.comparingLong(DocumentIndex.Entry::getLength)
+                                    .thenComparing(DocumentIndex.Entry::getName));
+        SORTS.put("date", Comparator.comparingLong(DocumentIndex.Entry::getLastModified)
+                                    .thenComparing(DocumentIndex.Entry::getName));
+    }
+
+    /**
+     * Lire les paramètres d'une page
+     * d'arborescence : nom=valeur&nom=valeur.
+     *
+     * @param query
+     * @return
+     */
+    public static Map<String, String> parseParameters(@NotNull String query) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        for(String parameter : query.split("&")) {
+            int indexEqual = parameter.indexOf('=');
+            if(indexEqual > 0) {
+                parameters.put(parameter.substring(0, indexEqual), parameter.substring(indexEqual + 1));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Savoir si la liste des entrées est
+     * demandée en JSON.
+     *
+     * @param parameters
+     * @return
+     */
+    public static boolean jsonAsked(@NotNull Map<String, String> parameters) {
+        return "json".equals(parameters.get("format"));
+    }
+
     /**
      * Construire une page listant les sous-
      * répertoires et les sous-fichiers d'un
-     * répertoire de documents du serveur.
+     * répertoire de documents du serveur, ou
+     * sa liste JSON.
      *
      * @param pathDocumentsDirectory
+     * @param parameters
+     * @return la page, ou null si le répertoire n'existe pas.
+     */
+    public static byte[] buildDocumentsTreePage(@NotNull String pathDocumentsDirectory, @NotNull Map<String, String> parameters) {
+        DocumentIndex.Listing listing = DocumentIndex.getInstance().getListing(FileManager.getDocumentFile(pathDocumentsDirectory));
+        if(listing == null) {
+            return null;
+        }
+
+        //Paramètres de la page, ramenés
+        //à des valeurs connues.
+        String sort = SORTS.containsKey(parameters.get("sort")) ? parameters.get("sort") : "name";
+        boolean descending = "desc".equals(parameters.get("order"));
+        int countPages = Math.max(1, (listing.getEntries().size() + PAGE_SIZE - 1) / PAGE_SIZE);
+        int page = 1;
+        try {
+            page = Math.min(Math.max(1, Integer.parseInt(parameters.getOrDefault("page", "1"))), countPages);
+        } catch (NumberFormatException exception) {
+            //Première page.
+        }
+        boolean json = jsonAsked(parameters);
+
+        //Page déjà construite pour cette liste, pour
+        //le même modèle (le cache des documents rend
+        //le même tableau tant qu'il ne change pas), et
+        //pour la même configuration (URI des liens).
+        String key = (json ? "json" : "html") + " " + sort + " " + descending + " " + page;
+        byte[] template = json ? null : FileManager.getContentDocumentFileAsBytes(TREE_PAGE_TEMPLATE);
+        Configuration configuration = httpServer.getConfiguration();
+        Object rendering = listing.getRendering(key);
+        if(rendering instanceof RenderedPage && ((RenderedPage) rendering).template == template
+           && ((RenderedPage) rendering).configuration == configuration) {
+            return ((RenderedPage) rendering).content;
+        }
+
+        //Entrées de la page.
+        List<DocumentIndex.Entry> entries = new ArrayList<DocumentIndex.Entry>(listing.getEntries());
+        Comparator<DocumentIndex.Entry> comparator = SORTS.get(sort);
+        if(descending) {
+            comparator = comparator.reversed();
+        }
+        entries.sort(Comparator.comparing((DocumentIndex.Entry entry) -> !entry.isDirectory()).thenComparing(comparator));
+        List<DocumentIndex.Entry> pageEntries = entries.subList((page - 1) * PAGE_SIZE,
+                                                                Math.min(page * PAGE_SIZE, entries.size()));
+
+        String content;
+        if(json) {
+            content = buildDocumentsTreeListing(pathDocumentsDirectory, pageEntries, entries.size(), page, countPages);
+        } else {
+            content = new String(template, StandardCharsets.UTF_8)
+                      .replace("[PARAM=treePage=PARAM]",
+                               buildDocumentsTreeSection(configuration.getTreeDocumentsURI(), pathDocumentsDirectory,
+                                                         pageEntries, sort, descending, page, countPages));
+        }
+        byte[] contentAsBytes = content.getBytes(StandardCharsets.UTF_8);
+        listing.putRendering(key, new RenderedPage(template, configuration, contentAsBytes));
+        return contentAsBytes;
+    }
+
+    /**
+     * Construire la section html listant les
+     * entrées d'une page d'un répertoire.
+     *
+     * @param treeDocumentsURI
+     * @param pathDocumentsDirectory
+     * @param entries
+     * @param sort
+     * @param descending
+     * @param page
+     * @param countPages
      * @return
      */
-    public static String buildDocumentsTreePage(@NotNull String pathDocumentsDirectory) {
-        File documentsDirectory = FileManager.getDocumentFile(pathDocumentsDirectory);
-
-        String treeDocumentsURI = HttpServer.getInstance().getConfigurationProperty("treeDocumentsURI");
-
-        String treePage = "<section class=\"documents-directory-inner-content\"> " +
-                                "<header class=\"documents-directory\">" +
-                                        (pathDocumentsDirectory.isEmpty() ? "/" : pathDocumentsDirectory)  +
-                                "</header>" +
-                                "<div class=\"documents-sub-directory-container\">";
-
-        if (!pathDocumentsDirectory.isEmpty()) {
-            String pathPreviousDocumentsDirectory = pathDocumentsDirectory
-                                                    .replace("/" + Arrays.stream(pathDocumentsDirectory.split("/"))
-                                                             .reduce((accumulator, element) -> element).get(),
-                                                             "");
-            treePage += "<a class=\"documents-sub-directory\" " +
-                        "href=\"" + treeDocumentsURI + pathPreviousDocumentsDirectory + "\">" +
-                            ".." +
-                        "</a>";
+    private static String buildDocumentsTreeSection(@NotNull String treeDocumentsURI, @NotNull String pathDocumentsDirectory,
+                                                    @NotNull List<DocumentIndex.Entry> entries,
+                                                    @NotNull String sort, boolean descending, int page, int countPages) {
+        String directoryURI = treeDocumentsURI + escapeHtml(pathDocumentsDirectory);
+
+        StringBuilder treePage = new StringBuilder(256 + entries.size() * 128);
+        treePage.append("<section class=\"documents-directory-inner-content\"> ")
+                .append("<header class=\"documents-directory\">")
+                .append(pathDocumentsDirectory.isEmpty() ? "/" : escapeHtml(pathDocumentsDirectory))
+                .append("</header>");
+
+        //Liens de tri : un second clic
+        //inverse l'ordre.
+        treePage.append("<nav class=\"documents-sort\">");
+        for(String[] sortLink : new String[][]{{"name", "nom"}, {"size", "taille"}, {"date", "date"}}) {
+            boolean current = sortLink[0].equals(sort);
+            String order = current && !descending ? "desc" : "asc";
+            treePage.append("<a href=\"").append(directoryURI)
+                    .append("?sort=").append(sortLink[0]).append("&amp;order=").append(order).append("\"")
+                    .append(current ? " class=\"documents-sort-current\"" : "").append(">")
+                    .append(sortLink[1])
+                    .append("</a>");
+        }
+        treePage.append("</nav>");
+
+        treePage.append("<div class=\"documents-sub-directory-container\">");
+        if(!pathDocumentsDirectory.isEmpty()) {
+            String pathPreviousDocumentsDirectory = pathDocumentsDirectory.substring(0, Math.max(0, pathDocumentsDirectory.lastIndexOf('/')));
+            treePage.append("<a class=\"documents-sub-directory\" ")
+                    .append("href=\"").append(treeDocumentsURI).append(escapeHtml(pathPreviousDocumentsDirectory)).append("\">")
+                    .append("..")
+                    .append("</a>");
+        }
+        for(DocumentIndex.Entry entry : entries) {
+            String pathDocumentsSubDirectory = escapeHtml(entry.getName());
+            if(!entry.isDirectory()) {
+                treePage.append("<span class=\"documents-sub-directory\">")
+                        .append(pathDocumentsSubDirectory)
+                        .append("</span>");
+            } else {
+                treePage.append("<a class=\"documents-sub-directory\" ")
+                        .append("href=\"").append(directoryURI).append("/").append(pathDocumentsSubDirectory).append("\">")
+                        .append(pathDocumentsSubDirectory)
+                        .append("</a>");
+            }
+        }
+        treePage.append("</div>");
+
+        //Pages précédente et suivante,
+        //dans le même ordre.
+        if(countPages > 1) {
+            String pageURI = directoryURI + "?sort=" + sort + "&amp;order=" + (descending ? "desc" : "asc") + "&amp;page=";
+            treePage.append("<nav class=\"documents-pages\">");
+            if(page > 1) {
+                treePage.append("<a href=\"").append(pageURI).append(page - 1).append("\">&lt;</a>");
+            }
+            treePage.append("<span>").append(page).append(" / ").append(countPages).append("</span>");
+            if(page < countPages) {
+                treePage.append("<a href=\"").append(pageURI).append(page + 1).append("\">&gt;</a>");
+            }
+            treePage.append("</nav>");
+        }
+
+        treePage.append("</section>");
+        return treePage.toString();
+    }
+
+    /**
+     * Construire la liste JSON des entrées
+     * d'une page d'un répertoire.
+     *
+     * @param pathDocumentsDirectory
+     * @param entries
+     * @param countEntries
+     * @param page
+     * @param countPages
+     * @return
+     */
+    private static String buildDocumentsTreeListing(@NotNull String pathDocumentsDirectory, @NotNull List<DocumentIndex.Entry> entries,
+                                                    int countEntries, int page, int countPages) {
+        StringBuilder listing = new StringBuilder(128 + entries.size() * 96);
+        listing.append("{\"directory\":\"").append(escapeJson(pathDocumentsDirectory.isEmpty() ? "/" : pathDocumentsDirectory)).append("\"")
+               .append(",\"countEntries\":").append(countEntries)
+               .append(",\"page\":").append(page)
+               .append(",\"countPages\":").append(countPages)
+               .append(",\"entries\":[");
+        for(int i = 0; i < entries.size(); i++) {
+            DocumentIndex.Entry entry = entries.get(i);
+            listing.append(i == 0 ? "" : ",")
+                   .append("{\"name\":\"").append(escapeJson(entry.getName())).append("\"")
+                   .append(",\"type\":\"").append(entry.isDirectory() ? "directory" : "file").append("\"")
+                   .append(",\"size\":").append(entry.getLength())
+                   .append(",\"lastModified\":").append(entry.getLastModified())
+                   .append("}");
         }
+        listing.append("]}");
+        return listing.toString();
+    }
+
+    /**
+     * Échapper un texte pour le html.
+     *
+     * @param text
+     * @return
+     */
+    private static String escapeHtml(@NotNull String text) {
+        return text.replace("&", "&amp;")
+                   .replace("<", "&lt;")
+                   .replace(">", "&gt;")
+                   .replace("\"", "&quot;");
+    }
 
-        for (File documentsSubDirectory : documentsDirectory.listFiles()) {
-            String pathDocumentsSubDirectory = documentsSubDirectory.getName();
-            if(documentsSubDirectory.isFile()) {
-                treePage += "<span class=\"documents-sub-directory\">" +
-                                pathDocumentsSubDirectory +
-                            "</span>";
+    /**
+     * Échapper un texte pour une chaîne JSON.
+     *
+     * @param text
+     * @return
+     */
+    private static String escapeJson(@NotNull String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 8);
+        for(char character : text.toCharArray()) {
+            if(character == '"' || character == '\\') {
+                escaped.append('\\').append(character);
+            } else if(character < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) character));
             } else {
-                treePage += "<a class=\"documents-sub-directory\" " +
-                            "href=\"" + treeDocumentsURI  + pathDocumentsDirectory + "/" + pathDocumentsSubDirectory + "\">" +
-                                pathDocumentsSubDirectory +
-                            "</a>";
+                escaped.append(character);
             }
         }
+        return escaped.toString();
+    }
 
-        treePage +=     "</div>" +
-                    "</section>";
+    /**
+     * Page construite, avec le modèle
+     * utilisé (null pour le JSON) et
+     * la configuration utilisée.
+     */
+    private static class RenderedPage {
+        private final byte[] template;
+        private final Configuration configuration;
+        private final byte[] content;
 
-        return treePage;
+        private RenderedPage(byte[] template, @NotNull Configuration configuration, @NotNull byte[] content) {
+            this.template = template;
+            this.configuration = configuration;
+            this.content = content;
+        }
     }
-}
\ No newline at end of file
+}